@@ -0,0 +1,182 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.measures.MetricFinder;
+import org.sonar.api.resources.File;
+import org.sonar.api.resources.Resource;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.utils.internal.DefaultTempFolder;
+import org.sonar.batch.index.Caches;
+import org.sonar.batch.issue.IssueCache;
+import org.sonar.batch.scan.measure.MeasureCache;
+
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the backends of batch caches on measures and issues of a project
+ * of {@link #files} files.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class BatchCacheBenchmark {
+
+  private static final int MEASURES_PER_FILE = 20;
+  private static final int ISSUES_PER_FILE = 10;
+
+  @Param({Caches.PERSISTIT_BACKEND, Caches.MEMORY_BACKEND})
+  public String backend;
+
+  @Param({"100", "1000"})
+  public int files;
+
+  private java.io.File tempDir;
+  private Caches caches;
+  private MeasureCache measureCache;
+  private IssueCache issueCache;
+  private List<Resource> resources;
+  private List<Metric> metrics;
+
+  @Setup(Level.Iteration)
+  public void setup() throws Exception {
+    tempDir = Files.createTempDirectory("batch-cache").toFile();
+    caches = new Caches(new DefaultTempFolder(tempDir), new Settings().setProperty(Caches.PROPERTY_BACKEND, backend));
+    caches.start();
+    measureCache = new MeasureCache(caches, new CoreMetricFinder());
+    issueCache = new IssueCache(caches);
+
+    resources = Lists.newArrayList();
+    for (int i = 0; i < files; i++) {
+      resources.add(File.create("src/main/java/org/sonar/Foo" + i + ".java").setEffectiveKey("project:src/main/java/org/sonar/Foo" + i + ".java"));
+    }
+    metrics = CoreMetrics.getMetrics().subList(0, MEASURES_PER_FILE);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    caches.stop();
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  @Benchmark
+  public int measures() {
+    for (Resource resource : resources) {
+      for (Metric metric : metrics) {
+        measureCache.put(resource, new Measure(metric.getKey(), 42.0));
+      }
+    }
+    int count = 0;
+    for (Resource resource : resources) {
+      for (Measure measure : measureCache.byResource(resource)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int issues() {
+    for (Resource resource : resources) {
+      for (int i = 0; i < ISSUES_PER_FILE; i++) {
+        issueCache.put(new DefaultIssue()
+          .setKey(resource.getEffectiveKey() + i)
+          .setComponentKey(resource.getEffectiveKey())
+          .setRuleKey(RuleKey.of("squid", "S" + i))
+          .setLine(i + 1)
+          .setMessage("Message of issue " + i)
+          .setChecksum("c0b3f3b9d5c8e5b8a6f0b1e2d3c4b5a6"));
+      }
+    }
+    int count = 0;
+    for (DefaultIssue issue : issueCache.all()) {
+      count++;
+    }
+    return count;
+  }
+
+  private static class CoreMetricFinder implements MetricFinder {
+    @Override
+    public Metric findById(int id) {
+      return null;
+    }
+
+    @Override
+    public Metric findByKey(String key) {
+      for (Metric metric : CoreMetrics.getMetrics()) {
+        if (metric.getKey().equals(key)) {
+          return metric;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Collection<Metric> findAll(List<String> metricKeys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<Metric> findAll() {
+      return CoreMetrics.getMetrics();
+    }
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BatchCacheBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.batch.issue.tracking.IssueTracking;
+import org.sonar.batch.issue.tracking.ServerIssue;
+import org.sonar.batch.issue.tracking.ServerIssueFromDb;
+import org.sonar.batch.issue.tracking.ServerLineHashesLoader;
+import org.sonar.batch.issue.tracking.SourceHashHolder;
+import org.sonar.core.issue.db.IssueDto;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracking of the issues of a big file in which a block of lines has been inserted at the beginning and one line out of
+ * ten has been modified. Most of the issues are then matched by the line hashes, the other ones by the closest lines.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.Throughput)
+public class IssueTrackingBenchmark {
+
+  private static final int INSERTED_LINES = 10;
+  private static final RuleKey[] RULES = {RuleKey.of("squid", "S001"), RuleKey.of("squid", "S002")};
+
+  /**
+   * Number of lines, each of them having one issue per rule
+   */
+  @Param({"500", "5000", "10000"})
+  public int lines;
+
+  File dir;
+  SourceHashHolder sourceHashHolder;
+  List<ServerIssue> previousIssues;
+  List<DefaultIssue> newIssues;
+  IssueTracking tracking = new IssueTracking();
+
+  @Setup
+  public void setup() throws Exception {
+    dir = Files.createTempDirectory("issue-tracking-benchmark").toFile();
+    StringBuilder reference = new StringBuilder();
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < INSERTED_LINES; i++) {
+      source.append("inserted").append(i).append('\n');
+    }
+    for (int i = 0; i < lines; i++) {
+      // duplicated lines, in order to have hashes which are not unique
+      String line = "line" + (i % 100);
+      reference.append(line).append('\n');
+      source.append(i % 10 == 0 ? "modified" + i : line).append('\n');
+    }
+    File file = new File(dir, "Foo.java");
+    FileUtils.write(file, source, Charsets.UTF_8);
+    DefaultInputFile inputFile = new DefaultInputFile("foo", "Foo.java").setModuleBaseDir(dir.toPath()).setCharset(Charsets.UTF_8)
+      .setStatus(InputFile.Status.CHANGED).setLines(lines + INSERTED_LINES + 1);
+    final String[] referenceHashes = hashes(reference.toString());
+    sourceHashHolder = new SourceHashHolder(inputFile, new ServerLineHashesLoader() {
+      @Override
+      public String[] getLineHashes(String fileKey) {
+        return referenceHashes;
+      }
+    });
+
+    previousIssues = new ArrayList<>();
+    newIssues = new ArrayList<>();
+    long id = 0;
+    for (int line = 1; line <= lines; line++) {
+      for (RuleKey rule : RULES) {
+        IssueDto dto = new IssueDto().setId(id).setKee("old" + id).setLine(line).setMessage("Message " + line).setChecksum(referenceHashes[line - 1])
+          .setRuleKey(rule.repository(), rule.rule()).setStatus(Issue.STATUS_OPEN);
+        previousIssues.add(new ServerIssueFromDb(dto));
+        newIssues.add(new DefaultIssue().setKey("new" + id).setRuleKey(rule).setLine(line + INSERTED_LINES)
+          .setMessage("New message " + line).setStatus(Issue.STATUS_OPEN));
+        id++;
+      }
+    }
+  }
+
+  private static String[] hashes(String source) {
+    String[] lines = source.split("\n");
+    String[] hashes = new String[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      hashes[i] = DigestUtils.md5Hex(lines[i]);
+    }
+    return hashes;
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @Benchmark
+  public void track(Blackhole blackhole) {
+    blackhole.consume(tracking.track(sourceHashHolder, previousIssues, newIssues));
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(IssueTrackingBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
@@ -21,6 +21,7 @@ package org.sonar.plugins.core.sensors;
 
 import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependsUpon;
+import org.sonar.api.batch.ParallelDecorator;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.MeasureUtils;
 import org.sonar.api.measures.Metric;
@@ -28,6 +29,7 @@ import org.sonar.batch.sensor.coverage.CoverageConstants;
 
 import java.util.Collection;
 
+@ParallelDecorator
 public final class BranchCoverageDecorator extends AbstractCoverageDecorator {
 
   @DependsUpon
@@ -22,6 +22,7 @@ package org.sonar.plugins.core.sensors;
 import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependedUpon;
+import org.sonar.api.batch.ParallelDecorator;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.MeasureUtils;
@@ -35,6 +36,7 @@ import java.util.Collection;
 /**
  * @since 2.2
  */
+@ParallelDecorator
 public final class DirectoriesDecorator implements Decorator {
 
   @Override
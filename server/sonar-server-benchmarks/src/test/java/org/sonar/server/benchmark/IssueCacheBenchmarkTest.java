@@ -0,0 +1,139 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.benchmark;
+
+import com.google.common.collect.Iterables;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.issue.internal.FieldDiffs;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.internal.Uuids;
+import org.sonar.server.computation.issue.IssueCache;
+import org.sonar.server.util.CloseableIterator;
+import org.sonar.server.util.cache.DiskCache;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Iterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares {@link IssueCache}, which relies on a dedicated codec, with Java serialization
+ */
+public class IssueCacheBenchmarkTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger("benchmarkIssueCache");
+
+  static final int ISSUES = 200_000;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Rule
+  public Benchmark benchmark = new Benchmark();
+
+  @Test
+  public void benchmark() throws Exception {
+    File serializationFile = temp.newFile();
+    long serializationSize = benchmark("Java serialization", new DiskCache<DefaultIssue>(serializationFile, System2.INSTANCE), serializationFile);
+
+    File codecFile = temp.newFile();
+    long codecSize = benchmark("codec", new IssueCache(codecFile, System2.INSTANCE), codecFile);
+
+    assertThat(codecSize).isLessThan(serializationSize);
+  }
+
+  private long benchmark(String label, DiskCache<DefaultIssue> cache, File file) {
+    LOGGER.info("Append {} issues ({})", ISSUES, label);
+    IssueGenerator generator = new IssueGenerator();
+    long start = System.currentTimeMillis();
+    DiskCache<DefaultIssue>.DiskAppender appender = cache.newAppender();
+    for (int i = 0; i < ISSUES; i++) {
+      appender.append(generator.next());
+    }
+    appender.close();
+    long period = System.currentTimeMillis() - start;
+    long size = FileUtils.sizeOf(file);
+    LOGGER.info(String.format("%d issues appended in %d ms (%d issues/second) | file size=%s | %s",
+      ISSUES, period, 1000L * ISSUES / period, FileUtils.byteCountToDisplaySize(size), label));
+
+    LOGGER.info("Traverse {} issues ({})", ISSUES, label);
+    start = System.currentTimeMillis();
+    int count = 0;
+    try (CloseableIterator<DefaultIssue> issues = cache.traverse()) {
+      while (issues.hasNext()) {
+        assertThat(issues.next().key()).isNotNull();
+        count++;
+      }
+    }
+    period = System.currentTimeMillis() - start;
+    LOGGER.info(String.format("%d issues traversed in %d ms (%d issues/second) | %s", count, period, 1000L * count / period, label));
+    assertThat(count).isEqualTo(ISSUES);
+    return size;
+  }
+
+  private static class IssueGenerator {
+    private final Iterator<String> severities = Iterables.cycle(Severity.ALL).iterator();
+    private final Iterator<String> statuses = Iterables.cycle(Issue.STATUSES).iterator();
+    private final Date now = new Date();
+    private int count = 0;
+
+    DefaultIssue next() {
+      count++;
+      DefaultIssue issue = new DefaultIssue()
+        .setKey(Uuids.create())
+        .setComponentUuid("FILE" + count / 100)
+        .setComponentKey("org.codehaus.sonar:sonar-server:src/main/java/Foo" + count / 100 + ".java")
+        .setModuleUuid("MODULE")
+        .setModuleUuidPath(".PROJECT.MODULE.")
+        .setProjectUuid("PROJECT")
+        .setProjectKey("org.codehaus.sonar:sonar")
+        .setRuleKey(RuleKey.of("squid", "rule" + count % 1000))
+        .setLanguage("java")
+        .setSeverity(severities.next())
+        .setMessage(count + " this is the message. Not too short.")
+        .setLine(1 + count % 1000)
+        .setEffortToFix(3.14)
+        .setDebt(Duration.create(10L))
+        .setStatus(statuses.next())
+        .setAssignee("guy" + count % 200)
+        .setAuthorLogin("guy" + count % 200)
+        .setChecksum("49d7230271f2bd24c759e54bcd66547d")
+        .setCreationDate(now)
+        .setUpdateDate(now)
+        .setNew(count % 10 == 0)
+        .setChanged(true);
+      if (count % 10 == 0) {
+        issue.setCurrentChange(new FieldDiffs().setCreationDate(now).setDiff("severity", Severity.MINOR, Severity.MAJOR));
+      }
+      return issue;
+    }
+  }
+}
@@ -76,6 +76,9 @@ public class IssueIndexBenchmarkTest {
 
     // execute some queries
     benchmarkQueries();
+
+    // filter on authorized projects
+    benchmarkAuthorizationFilter();
   }
 
   private void indexAuthorizations() {
@@ -134,6 +137,33 @@ public class IssueIndexBenchmarkTest {
     // TODO assertions
   }
 
+  private void benchmarkAuthorizationFilter() {
+    for (int nbGroups : new int[] {1, 50, 500}) {
+      String[] groups = new String[nbGroups];
+      groups[0] = "sonar-users";
+      for (int i = 1; i < nbGroups; i++) {
+        groups[i] = "group" + i;
+      }
+      MockUserSession.set().setUserGroups(groups);
+      benchmarkQuery(String.format("all issues, user in %d groups", nbGroups), IssueQuery.builder().build());
+    }
+
+    // projects without issues, so that results are the same as above
+    for (int nbProjects : new int[] {1000, 10000}) {
+      String group = "browsers-of-" + nbProjects;
+      List<IssueAuthorizationDao.Dto> authorizations = Lists.newArrayList();
+      for (int i = 0; i < PROJECTS; i++) {
+        authorizations.add(new IssueAuthorizationDao.Dto("PROJECT" + i, System.currentTimeMillis()).addGroup("sonar-users").addUser("admin").addGroup(group));
+      }
+      for (int i = PROJECTS; i < nbProjects; i++) {
+        authorizations.add(new IssueAuthorizationDao.Dto("EMPTY_PROJECT" + i, System.currentTimeMillis()).addGroup(group));
+      }
+      tester.get(IssueAuthorizationIndexer.class).index(authorizations);
+      MockUserSession.set().setUserGroups(group);
+      benchmarkQuery(String.format("all issues, user browsing %d projects", nbProjects), IssueQuery.builder().build());
+    }
+  }
+
   private void benchmarkQuery(String label, IssueQuery query) {
     IssueIndex index = tester.get(IssueIndex.class);
     for (int i = 0; i < 10; i++) {
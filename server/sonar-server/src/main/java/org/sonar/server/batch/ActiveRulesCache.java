@@ -0,0 +1,67 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.batch;
+
+import org.sonar.api.ServerComponent;
+
+import javax.annotation.CheckForNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Active rules sent to batch, per quality profile. Loading them requires to scroll the rule index and the active rule
+ * index, whereas profiles rarely change.
+ * <p/>
+ * An entry is used only while the state of the indices it was loaded from is the same (see
+ * {@link ProjectRepositoryLoader}). As this state is read from the indices, and not from db, an entry is never
+ * associated to changes that are committed in db but not indexed yet.
+ */
+public class ActiveRulesCache implements ServerComponent {
+
+  private final ConcurrentMap<String, Entry> entriesByProfileKey = new ConcurrentHashMap<>();
+
+  @CheckForNull
+  ActiveRulesPayload get(String profileKey, String indexState) {
+    Entry entry = entriesByProfileKey.get(profileKey);
+    if (entry != null && entry.indexState.equals(indexState)) {
+      return entry.payload;
+    }
+    return null;
+  }
+
+  void put(String profileKey, String indexState, ActiveRulesPayload payload) {
+    entriesByProfileKey.put(profileKey, new Entry(indexState, payload));
+  }
+
+  public void clear() {
+    entriesByProfileKey.clear();
+  }
+
+  private static class Entry {
+    private final String indexState;
+    private final ActiveRulesPayload payload;
+
+    Entry(String indexState, ActiveRulesPayload payload) {
+      this.indexState = indexState;
+      this.payload = payload;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.batch;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.sonar.batch.protocol.input.ActiveRule;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Active rules of a quality profile, as sent to batch. Their version is a hash of the serialized rules,
+ * so that batch can tell which version it already has.
+ */
+public class ActiveRulesPayload {
+
+  private final List<ActiveRule> activeRules;
+  private final byte[] bytes;
+  private final String version;
+
+  ActiveRulesPayload(List<ActiveRule> activeRules) {
+    this.activeRules = activeRules;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ProjectRepositoryStreamWriter writer = new ProjectRepositoryStreamWriter(output);
+    for (ActiveRule activeRule : activeRules) {
+      writer.addActiveRule(activeRule);
+    }
+    this.bytes = output.toByteArray();
+    this.version = DigestUtils.md5Hex(bytes);
+  }
+
+  public List<ActiveRule> activeRules() {
+    return activeRules;
+  }
+
+  /**
+   * Active rules serialized as delimited {@link org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem}
+   */
+  public byte[] bytes() {
+    return bytes;
+  }
+
+  public String version() {
+    return version;
+  }
+}
@@ -62,6 +62,7 @@ public class IssuesAction implements RequestHandler {
       .setDescription("Return open issues")
       .setSince("5.1")
       .setInternal(true)
+      .setResponseStreamed(true)
       .setHandler(this);
 
     action
@@ -20,6 +20,7 @@
 
 package org.sonar.server.batch;
 
+import com.google.common.base.Splitter;
 import org.apache.commons.io.IOUtils;
 import org.sonar.api.server.ws.Request;
 import org.sonar.api.server.ws.RequestHandler;
@@ -33,6 +34,10 @@ public class ProjectRepositoryAction implements RequestHandler {
   private static final String PARAM_KEY = "key";
   private static final String PARAM_PROFILE = "profile";
   private static final String PARAM_PREVIEW = "preview";
+  private static final String PARAM_FORMAT = "format";
+  private static final String FORMAT_JSON = "json";
+  private static final String FORMAT_PROTOBUF = "protobuf";
+  private static final String PARAM_ACTIVE_RULES_VERSIONS = "activeRulesVersions";
 
   private final ProjectRepositoryLoader projectReferentialsLoader;
 
@@ -45,6 +50,7 @@ public class ProjectRepositoryAction implements RequestHandler {
       .setDescription("Return project repository")
       .setSince("4.5")
       .setInternal(true)
+      .setResponseStreamed(true)
       .setHandler(this);
 
     action
@@ -63,16 +69,41 @@ public class ProjectRepositoryAction implements RequestHandler {
       .setDescription("Preview mode or not")
       .setDefaultValue(false)
       .setBooleanPossibleValues();
+
+    action
+      .createParam(PARAM_FORMAT)
+      .setDescription("Format of the response. With protobuf, the project repository is streamed as a sequence of delimited ProjectRepositoryItem messages " +
+        "(see batch_input.proto). The last item has the field end_of_stream.")
+      .setDefaultValue(FORMAT_JSON)
+      .setPossibleValues(FORMAT_JSON, FORMAT_PROTOBUF);
+
+    action
+      .createParam(PARAM_ACTIVE_RULES_VERSIONS)
+      .setDescription("Comma-separated list of the versions of active rules already known by batch, by quality profile key. " +
+        "The active rules of these profiles are not sent again if they didn't change. Only used with protobuf format")
+      .setExampleValue("java-sonar-way-12345=4a8c5bba5c5bd9cf3f2d4b3ad5a8c3e0");
   }
 
   @Override
   public void handle(Request request, Response response) throws Exception {
-    ProjectRepositories ref = projectReferentialsLoader.load(ProjectRepositoryQuery.create()
+    ProjectRepositoryQuery query = ProjectRepositoryQuery.create()
       .setModuleKey(request.mandatoryParam(PARAM_KEY))
       .setProfileName(request.param(PARAM_PROFILE))
-      .setPreview(request.mandatoryParamAsBoolean(PARAM_PREVIEW)));
-    response.stream().setMediaType(MimeTypes.JSON);
-    IOUtils.write(ref.toJson(), response.stream().output());
+      .setPreview(request.mandatoryParamAsBoolean(PARAM_PREVIEW));
+    if (FORMAT_PROTOBUF.equals(request.mandatoryParam(PARAM_FORMAT))) {
+      String activeRulesVersions = request.param(PARAM_ACTIVE_RULES_VERSIONS);
+      if (activeRulesVersions != null) {
+        query.setActiveRulesVersions(Splitter.on(',').omitEmptyStrings().withKeyValueSeparator("=").split(activeRulesVersions));
+      }
+      response.stream().setMediaType(MimeTypes.PROTOBUF);
+      ProjectRepositoryStreamWriter writer = new ProjectRepositoryStreamWriter(response.stream().output());
+      projectReferentialsLoader.load(query, writer);
+      writer.end();
+    } else {
+      ProjectRepositories ref = projectReferentialsLoader.load(query);
+      response.stream().setMediaType(MimeTypes.JSON);
+      IOUtils.write(ref.toJson(), response.stream().output());
+    }
   }
 
 }
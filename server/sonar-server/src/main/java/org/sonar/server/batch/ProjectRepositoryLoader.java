@@ -24,6 +24,7 @@ import com.google.common.base.Function;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
 import org.sonar.api.ServerComponent;
 import org.sonar.api.resources.Language;
 import org.sonar.api.resources.Languages;
@@ -47,9 +48,12 @@ import org.sonar.server.qualityprofile.ActiveRule;
 import org.sonar.server.qualityprofile.QProfileFactory;
 import org.sonar.server.qualityprofile.QProfileLoader;
 import org.sonar.server.rule.Rule;
+import org.sonar.server.qualityprofile.index.ActiveRuleIndex;
 import org.sonar.server.rule.RuleService;
+import org.sonar.server.rule.index.RuleIndex;
 import org.sonar.server.rule.index.RuleNormalizer;
 import org.sonar.server.rule.index.RuleQuery;
+import org.sonar.server.search.IndexClient;
 import org.sonar.server.search.QueryContext;
 import org.sonar.server.search.Result;
 import org.sonar.server.user.UserSession;
@@ -70,23 +74,70 @@ public class ProjectRepositoryLoader implements ServerComponent {
   private final QProfileLoader qProfileLoader;
   private final RuleService ruleService;
   private final Languages languages;
+  private final IndexClient index;
+  private final ActiveRulesCache activeRulesCache;
 
   public ProjectRepositoryLoader(DbClient dbClient, QProfileFactory qProfileFactory, QProfileLoader qProfileLoader, RuleService ruleService,
-    Languages languages) {
+    Languages languages, IndexClient index, ActiveRulesCache activeRulesCache) {
     this.dbClient = dbClient;
     this.qProfileFactory = qProfileFactory;
     this.qProfileLoader = qProfileLoader;
     this.ruleService = ruleService;
     this.languages = languages;
+    this.index = index;
+    this.activeRulesCache = activeRulesCache;
   }
 
   public ProjectRepositories load(ProjectRepositoryQuery query) {
+    final ProjectRepositories ref = new ProjectRepositories();
+    load(query, new Handler() {
+      @Override
+      public void addSettings(String moduleKey, Map<String, String> settings) {
+        ref.addSettings(moduleKey, settings);
+      }
+
+      @Override
+      public void addQProfile(org.sonar.batch.protocol.input.QProfile qProfile) {
+        ref.addQProfile(qProfile);
+      }
+
+      @Override
+      public void addActiveRules(String profileKey, ActiveRulesPayload activeRules, boolean unchanged) {
+        // versions known by batch are not used, all the active rules are returned
+        for (org.sonar.batch.protocol.input.ActiveRule activeRule : activeRules.activeRules()) {
+          ref.addActiveRule(activeRule);
+        }
+      }
+
+      @Override
+      public void addActiveRule(org.sonar.batch.protocol.input.ActiveRule activeRule) {
+        ref.addActiveRule(activeRule);
+      }
+
+      @Override
+      public void addFileData(String moduleKey, String path, FileData fileData) {
+        ref.addFileData(moduleKey, path, fileData);
+      }
+
+      @Override
+      public void setLastAnalysisDate(@Nullable Date lastAnalysisDate) {
+        ref.setLastAnalysisDate(lastAnalysisDate);
+      }
+    });
+    return ref;
+  }
+
+  /**
+   * Same as {@link #load(ProjectRepositoryQuery)}, but the data are given to the handler as soon as they are loaded,
+   * so that they can be streamed without keeping the whole project repository in memory.
+   * Permissions are checked before any call to the handler.
+   */
+  public void load(ProjectRepositoryQuery query, Handler ref) {
     boolean hasScanPerm = UserSession.get().hasGlobalPermission(GlobalPermissions.SCAN_EXECUTION);
     checkPermission(query.isPreview());
 
     DbSession session = dbClient.openSession(false);
     try {
-      ProjectRepositories ref = new ProjectRepositories();
       String projectKey = query.getModuleKey();
       ComponentDto module = dbClient.componentDao().getNullableByKey(session, query.getModuleKey());
       // Current project/module can be null when analysing a new project
@@ -119,10 +170,9 @@ public class ProjectRepositoryLoader implements ServerComponent {
         ref.setLastAnalysisDate(null);
       }
 
-      addProfiles(ref, projectKey, query.getProfileName(), session);
-      addActiveRules(ref);
+      List<org.sonar.batch.protocol.input.QProfile> qProfiles = addProfiles(ref, projectKey, query.getProfileName(), session);
+      addActiveRules(ref, qProfiles, query);
       addManualRules(ref);
-      return ref;
     } finally {
       MyBatis.closeQuietly(session);
     }
@@ -159,7 +209,7 @@ public class ProjectRepositoryLoader implements ServerComponent {
     }
   }
 
-  private void addSettingsToChildrenModules(ProjectRepositories ref, String moduleKey, Map<String, String> parentProperties, TreeModuleSettings treeModuleSettings,
+  private void addSettingsToChildrenModules(Handler ref, String moduleKey, Map<String, String> parentProperties, TreeModuleSettings treeModuleSettings,
     boolean hasScanPerm, DbSession session) {
     Map<String, String> currentParentProperties = newHashMap();
     currentParentProperties.putAll(parentProperties);
@@ -172,7 +222,7 @@ public class ProjectRepositoryLoader implements ServerComponent {
     }
   }
 
-  private void addSettings(ProjectRepositories ref, String module, Map<String, String> properties) {
+  private void addSettings(Handler ref, String module, Map<String, String> properties) {
     if (!properties.isEmpty()) {
       ref.addSettings(module, properties);
     }
@@ -194,16 +244,20 @@ public class ProjectRepositoryLoader implements ServerComponent {
     return !key.contains(".secured") || hasScanPerm;
   }
 
-  private void addProfiles(ProjectRepositories ref, @Nullable String projectKey, @Nullable String profileName, DbSession session) {
+  private List<org.sonar.batch.protocol.input.QProfile> addProfiles(Handler ref, @Nullable String projectKey, @Nullable String profileName, DbSession session) {
+    List<org.sonar.batch.protocol.input.QProfile> qProfiles = newArrayList();
     for (Language language : languages.all()) {
       String languageKey = language.getKey();
       QualityProfileDto qualityProfileDto = getProfile(languageKey, projectKey, profileName, session);
-      ref.addQProfile(new org.sonar.batch.protocol.input.QProfile(
+      org.sonar.batch.protocol.input.QProfile qProfile = new org.sonar.batch.protocol.input.QProfile(
         qualityProfileDto.getKey(),
         qualityProfileDto.getName(),
         qualityProfileDto.getLanguage(),
-        UtcDateUtils.parseDateTime(qualityProfileDto.getRulesUpdatedAt())));
+        UtcDateUtils.parseDateTime(qualityProfileDto.getRulesUpdatedAt()));
+      ref.addQProfile(qProfile);
+      qProfiles.add(qProfile);
     }
+    return qProfiles;
   }
 
   /**
@@ -226,37 +280,64 @@ public class ProjectRepositoryLoader implements ServerComponent {
     }
   }
 
-  private void addActiveRules(ProjectRepositories ref) {
-    for (org.sonar.batch.protocol.input.QProfile qProfile : ref.qProfiles()) {
-      // Load all rules of the profile language (only needed fields are loaded)
-      Map<RuleKey, Rule> languageRules = ruleByRuleKey(ruleService.search(new RuleQuery().setLanguages(newArrayList(qProfile.language())),
-        new QueryContext().setLimit(100).setFieldsToReturn(newArrayList(
-          RuleNormalizer.RuleField.KEY.field(), RuleNormalizer.RuleField.NAME.field(), RuleNormalizer.RuleField.INTERNAL_KEY.field(), RuleNormalizer.RuleField.TEMPLATE_KEY.field()
-          )).setScroll(true))
-        .scroll());
-      for (Iterator<ActiveRule> activeRuleIterator = qProfileLoader.findActiveRulesByProfile(qProfile.key()); activeRuleIterator.hasNext();) {
-        ActiveRule activeRule = activeRuleIterator.next();
-        Rule rule = languageRules.get(activeRule.key().ruleKey());
-        if (rule == null) {
-          // It should never happen, but we need some log in case it happens
-          LOG.warn("Rule could not be found on active rule '{}'", activeRule.key());
-        } else {
-          RuleKey templateKey = rule.templateKey();
-          org.sonar.batch.protocol.input.ActiveRule inputActiveRule = new org.sonar.batch.protocol.input.ActiveRule(
-            activeRule.key().ruleKey().repository(),
-            activeRule.key().ruleKey().rule(),
-            templateKey != null ? templateKey.rule() : null,
-            rule.name(),
-            activeRule.severity(),
-            rule.internalKey(),
-            qProfile.language());
-          for (Map.Entry<String, String> entry : activeRule.params().entrySet()) {
-            inputActiveRule.addParam(entry.getKey(), entry.getValue());
-          }
-          ref.addActiveRule(inputActiveRule);
+  private void addActiveRules(Handler ref, List<org.sonar.batch.protocol.input.QProfile> qProfiles, ProjectRepositoryQuery query) {
+    for (org.sonar.batch.protocol.input.QProfile qProfile : qProfiles) {
+      // read before loading active rules, so that changes indexed in between are loaded again by next requests
+      String indexState = indexState(qProfile);
+      ActiveRulesPayload activeRules = activeRulesCache.get(qProfile.key(), indexState);
+      if (activeRules == null) {
+        activeRules = new ActiveRulesPayload(loadActiveRules(qProfile));
+        activeRulesCache.put(qProfile.key(), indexState, activeRules);
+      }
+      ref.addActiveRules(qProfile.key(), activeRules, activeRules.version().equals(query.getActiveRulesVersion(qProfile.key())));
+    }
+  }
+
+  /**
+   * State of the indexed active rules of the profile and of the indexed rules of its language. It changes as soon as
+   * one of them is indexed, deleted or updated.
+   */
+  private String indexState(org.sonar.batch.protocol.input.QProfile qProfile) {
+    Stats activeRules = index.get(ActiveRuleIndex.class).getUpdateDateStatsByProfileKey(qProfile.key());
+    Stats rules = index.get(RuleIndex.class).getUpdateDateStatsByLanguage(qProfile.language());
+    return toString(activeRules) + "|" + toString(rules);
+  }
+
+  private static String toString(Stats updateDates) {
+    return updateDates.getCount() + ":" + (long) updateDates.getSum() + ":" + (long) updateDates.getMax();
+  }
+
+  private List<org.sonar.batch.protocol.input.ActiveRule> loadActiveRules(org.sonar.batch.protocol.input.QProfile qProfile) {
+    List<org.sonar.batch.protocol.input.ActiveRule> result = newArrayList();
+    // Load all rules of the profile language (only needed fields are loaded)
+    Map<RuleKey, Rule> languageRules = ruleByRuleKey(ruleService.search(new RuleQuery().setLanguages(newArrayList(qProfile.language())),
+      new QueryContext().setLimit(100).setFieldsToReturn(newArrayList(
+        RuleNormalizer.RuleField.KEY.field(), RuleNormalizer.RuleField.NAME.field(), RuleNormalizer.RuleField.INTERNAL_KEY.field(), RuleNormalizer.RuleField.TEMPLATE_KEY.field()
+        )).setScroll(true))
+      .scroll());
+    for (Iterator<ActiveRule> activeRuleIterator = qProfileLoader.findActiveRulesByProfile(qProfile.key()); activeRuleIterator.hasNext();) {
+      ActiveRule activeRule = activeRuleIterator.next();
+      Rule rule = languageRules.get(activeRule.key().ruleKey());
+      if (rule == null) {
+        // It should never happen, but we need some log in case it happens
+        LOG.warn("Rule could not be found on active rule '{}'", activeRule.key());
+      } else {
+        RuleKey templateKey = rule.templateKey();
+        org.sonar.batch.protocol.input.ActiveRule inputActiveRule = new org.sonar.batch.protocol.input.ActiveRule(
+          activeRule.key().ruleKey().repository(),
+          activeRule.key().ruleKey().rule(),
+          templateKey != null ? templateKey.rule() : null,
+          rule.name(),
+          activeRule.severity(),
+          rule.internalKey(),
+          qProfile.language());
+        for (Map.Entry<String, String> entry : activeRule.params().entrySet()) {
+          inputActiveRule.addParam(entry.getKey(), entry.getValue());
         }
+        result.add(inputActiveRule);
       }
     }
+    return result;
   }
 
   private Map<RuleKey, Rule> ruleByRuleKey(Iterator<Rule> rules) {
@@ -268,7 +349,7 @@ public class ProjectRepositoryLoader implements ServerComponent {
     });
   }
 
-  private void addManualRules(ProjectRepositories ref) {
+  private void addManualRules(Handler ref) {
     Result<Rule> ruleSearchResult = ruleService.search(new RuleQuery().setRepositories(newArrayList(RuleKey.MANUAL_REPOSITORY_KEY)), new QueryContext().setScroll(true)
       .setFieldsToReturn(newArrayList(RuleNormalizer.RuleField.KEY.field(), RuleNormalizer.RuleField.NAME.field())));
     Iterator<Rule> rules = ruleSearchResult.scroll();
@@ -282,7 +363,7 @@ public class ProjectRepositoryLoader implements ServerComponent {
     }
   }
 
-  private void addFileData(DbSession session, ProjectRepositories ref, List<ComponentDto> moduleChildren, String moduleKey) {
+  private void addFileData(DbSession session, Handler ref, List<ComponentDto> moduleChildren, String moduleKey) {
     Map<String, String> moduleKeysByUuid = newHashMap();
     for (ComponentDto module : moduleChildren) {
       moduleKeysByUuid.put(module.uuid(), module.key());
@@ -326,6 +407,31 @@ public class ProjectRepositoryLoader implements ServerComponent {
     return moduleIdsByKey;
   }
 
+  /**
+   * Receives the data of the project repository
+   */
+  public interface Handler {
+
+    void addSettings(String moduleKey, Map<String, String> settings);
+
+    void addQProfile(org.sonar.batch.protocol.input.QProfile qProfile);
+
+    /**
+     * Active rules of a quality profile
+     * @param unchanged true if batch already has the same version of these active rules
+     */
+    void addActiveRules(String profileKey, ActiveRulesPayload activeRules, boolean unchanged);
+
+    /**
+     * Manual rules, which don't depend on quality profiles
+     */
+    void addActiveRule(org.sonar.batch.protocol.input.ActiveRule activeRule);
+
+    void addFileData(String moduleKey, String path, FileData fileData);
+
+    void setLastAnalysisDate(@Nullable Date lastAnalysisDate);
+  }
+
   private static class TreeModuleSettings {
 
     private Map<String, Long> moduleIdsByKey;
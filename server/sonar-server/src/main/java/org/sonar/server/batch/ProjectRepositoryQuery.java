@@ -23,11 +23,15 @@ package org.sonar.server.batch;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class ProjectRepositoryQuery {
 
   private String projectOrModuleKey;
   private String profileName;
   private boolean preview;
+  private Map<String, String> activeRulesVersionsByProfileKey = Collections.emptyMap();
 
   private ProjectRepositoryQuery() {
     // No direct call
@@ -61,6 +65,19 @@ public class ProjectRepositoryQuery {
     return this;
   }
 
+  /**
+   * Version of the active rules of a quality profile, that batch already has
+   */
+  @CheckForNull
+  public String getActiveRulesVersion(String profileKey) {
+    return activeRulesVersionsByProfileKey.get(profileKey);
+  }
+
+  public ProjectRepositoryQuery setActiveRulesVersions(Map<String, String> activeRulesVersionsByProfileKey) {
+    this.activeRulesVersionsByProfileKey = activeRulesVersionsByProfileKey;
+    return this;
+  }
+
   public static ProjectRepositoryQuery create() {
     return new ProjectRepositoryQuery();
   }
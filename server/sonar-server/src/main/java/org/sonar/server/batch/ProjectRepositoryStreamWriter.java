@@ -0,0 +1,174 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.batch;
+
+import org.sonar.batch.protocol.input.ActiveRule;
+import org.sonar.batch.protocol.input.BatchInput;
+import org.sonar.batch.protocol.input.FileData;
+import org.sonar.batch.protocol.input.QProfile;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Writes the project repository as a stream of delimited {@link BatchInput.ProjectRepositoryItem}.
+ * The stream must be terminated by {@link #end()}.
+ */
+class ProjectRepositoryStreamWriter implements ProjectRepositoryLoader.Handler {
+
+  private final OutputStream output;
+  private final BatchInput.ProjectRepositoryItem.Builder itemBuilder = BatchInput.ProjectRepositoryItem.newBuilder();
+  private final BatchInput.Property.Builder propertyBuilder = BatchInput.Property.newBuilder();
+
+  ProjectRepositoryStreamWriter(OutputStream output) {
+    this.output = output;
+  }
+
+  @Override
+  public void addSettings(String moduleKey, Map<String, String> settings) {
+    BatchInput.ModuleSettings.Builder builder = itemBuilder.getModuleSettingsBuilder().setModuleKey(moduleKey);
+    for (Map.Entry<String, String> setting : settings.entrySet()) {
+      builder.addProperty(property(setting.getKey(), setting.getValue()));
+    }
+    write();
+  }
+
+  @Override
+  public void addQProfile(QProfile qProfile) {
+    BatchInput.QProfile.Builder builder = itemBuilder.getQprofileBuilder()
+      .setKey(qProfile.key())
+      .setName(qProfile.name())
+      .setLanguage(qProfile.language());
+    Date rulesUpdatedAt = qProfile.rulesUpdatedAt();
+    if (rulesUpdatedAt != null) {
+      builder.setRulesUpdatedAt(rulesUpdatedAt.getTime());
+    }
+    write();
+  }
+
+  @Override
+  public void addActiveRules(String profileKey, ActiveRulesPayload activeRules, boolean unchanged) {
+    itemBuilder.getActiveRulesVersionBuilder()
+      .setProfileKey(profileKey)
+      .setVersion(activeRules.version())
+      .setUnchanged(unchanged);
+    if (!unchanged) {
+      itemBuilder.getActiveRulesVersionBuilder().setActiveRuleCount(activeRules.activeRules().size());
+    }
+    write();
+    if (!unchanged) {
+      try {
+        output.write(activeRules.bytes());
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to serialize project repository", e);
+      }
+    }
+  }
+
+  @Override
+  public void addActiveRule(ActiveRule activeRule) {
+    BatchInput.ActiveRule.Builder builder = itemBuilder.getActiveRuleBuilder()
+      .setRepositoryKey(activeRule.repositoryKey())
+      .setRuleKey(activeRule.ruleKey())
+      .setName(activeRule.name());
+    String templateRuleKey = activeRule.templateRuleKey();
+    if (templateRuleKey != null) {
+      builder.setTemplateRuleKey(templateRuleKey);
+    }
+    String severity = activeRule.severity();
+    if (severity != null) {
+      builder.setSeverity(severity);
+    }
+    String internalKey = activeRule.internalKey();
+    if (internalKey != null) {
+      builder.setInternalKey(internalKey);
+    }
+    String language = activeRule.language();
+    if (language != null) {
+      builder.setLanguage(language);
+    }
+    for (Map.Entry<String, String> param : activeRule.params().entrySet()) {
+      builder.addParam(property(param.getKey(), param.getValue()));
+    }
+    write();
+  }
+
+  @Override
+  public void addFileData(String moduleKey, String path, FileData fileData) {
+    BatchInput.FileData.Builder builder = itemBuilder.getFileDataBuilder()
+      .setModuleKey(moduleKey)
+      .setPath(path)
+      .setNeedBlame(fileData.needBlame());
+    String hash = fileData.hash();
+    if (hash != null) {
+      builder.setHash(hash);
+    }
+    String scmLastCommitDatetimesByLine = fileData.scmLastCommitDatetimesByLine();
+    if (scmLastCommitDatetimesByLine != null) {
+      builder.setScmLastCommitDatetimesByLine(scmLastCommitDatetimesByLine);
+    }
+    String scmRevisionsByLine = fileData.scmRevisionsByLine();
+    if (scmRevisionsByLine != null) {
+      builder.setScmRevisionsByLine(scmRevisionsByLine);
+    }
+    String scmAuthorsByLine = fileData.scmAuthorsByLine();
+    if (scmAuthorsByLine != null) {
+      builder.setScmAuthorsByLine(scmAuthorsByLine);
+    }
+    write();
+  }
+
+  @Override
+  public void setLastAnalysisDate(@Nullable Date lastAnalysisDate) {
+    if (lastAnalysisDate != null) {
+      itemBuilder.setLastAnalysisDate(lastAnalysisDate.getTime());
+      write();
+    }
+  }
+
+  /**
+   * Writes the last item, so that batch can detect a truncated stream
+   */
+  void end() {
+    itemBuilder.setEndOfStream(true);
+    write();
+  }
+
+  private BatchInput.Property.Builder property(String key, @Nullable String value) {
+    propertyBuilder.clear().setKey(key);
+    if (value != null) {
+      propertyBuilder.setValue(value);
+    }
+    return propertyBuilder;
+  }
+
+  private void write() {
+    try {
+      itemBuilder.build().writeDelimitedTo(output);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to serialize project repository", e);
+    }
+    itemBuilder.clear();
+  }
+}
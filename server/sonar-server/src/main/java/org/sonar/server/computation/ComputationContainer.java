@@ -38,8 +38,8 @@ import java.util.List;
 public class ComputationContainer {
 
   public void execute(ReportQueue.Item item) {
-    ComponentContainer container = Platform.getInstance().getContainer();
-    ComponentContainer child = container.createChild();
+    // each worker has its own container, which is not registered as the single child of the platform container
+    ComponentContainer child = Platform.getInstance().getContainer().createDetachedChild();
     child.addSingletons(componentClasses());
     child.addSingletons(ComputationSteps.orderedStepClasses());
     child.startComponents();
@@ -47,9 +47,6 @@ public class ComputationContainer {
       child.getComponentByType(ComputationService.class).process(item);
     } finally {
       child.stopComponents();
-      // TODO not possible to have multiple children -> will be
-      // a problem when we will have multiple concurrent computation workers
-      container.removeChild();
     }
   }
 
@@ -34,6 +34,7 @@ public class ComputationContext {
   // cache of metadata as it's frequently accessed
   private final BatchReport.Metadata reportMetadata;
   private Settings projectSettings;
+  private final ComputationStats stats = new ComputationStats();
 
   public ComputationContext(BatchReportReader reportReader, ComponentDto project) {
     this.reportReader = reportReader;
@@ -53,6 +54,10 @@ public class ComputationContext {
     return reportReader;
   }
 
+  public ComputationStats getStats() {
+    return stats;
+  }
+
   public Settings getProjectSettings() {
     return projectSettings;
   }
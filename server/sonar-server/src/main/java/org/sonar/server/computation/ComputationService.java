@@ -21,51 +21,61 @@
 package org.sonar.server.computation;
 
 import com.google.common.base.Throwables;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.io.IOUtils;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
 import org.sonar.api.ServerComponent;
+import org.sonar.api.config.Settings;
 import org.sonar.api.utils.System2;
-import org.sonar.api.utils.TempFolder;
-import org.sonar.api.utils.ZipUtils;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.api.utils.log.Profiler;
 import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.core.component.ComponentDto;
 import org.sonar.core.computation.db.AnalysisReportDto;
+import org.sonar.core.config.SettingsUtils;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.activity.Activity;
 import org.sonar.server.activity.ActivityService;
-import org.sonar.server.computation.step.ComputationStep;
 import org.sonar.server.computation.step.ComputationSteps;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.properties.ProjectSettingsFactory;
 
-import java.io.File;
-import java.io.IOException;
+import javax.annotation.Nullable;
+
+import java.util.Map;
 
 import static org.sonar.api.utils.DateUtils.formatDateTimeNullSafe;
 import static org.sonar.api.utils.DateUtils.longToDate;
 
+@Properties({
+  @Property(
+    key = ComputationService.PROPERTY_STEP_THREADS,
+    defaultValue = "1",
+    name = "Number of independent steps executed concurrently when integrating an analysis report",
+    project = false,
+    global = false)
+})
 public class ComputationService implements ServerComponent {
 
+  public static final String PROPERTY_STEP_THREADS = "sonar.computation.stepThreads";
+  static final int DEFAULT_STEP_THREADS = 1;
+
   private static final Logger LOG = Loggers.get(ComputationService.class);
 
   private final DbClient dbClient;
-  private final ComputationSteps steps;
+  private final ComputationStepExecutor stepExecutor;
   private final ActivityService activityService;
   private final ProjectSettingsFactory projectSettingsFactory;
-  private final TempFolder tempFolder;
   private final System2 system;
 
-  public ComputationService(DbClient dbClient, ComputationSteps steps, ActivityService activityService, 
-                            ProjectSettingsFactory projectSettingsFactory, TempFolder tempFolder, System2 system) {
+  public ComputationService(DbClient dbClient, ComputationSteps steps, ActivityService activityService,
+                            ProjectSettingsFactory projectSettingsFactory, System2 system, Settings settings) {
     this.dbClient = dbClient;
-    this.steps = steps;
+    this.stepExecutor = new ComputationStepExecutor(steps, SettingsUtils.getPositiveInt(settings, PROPERTY_STEP_THREADS, DEFAULT_STEP_THREADS), system);
     this.activityService = activityService;
     this.projectSettingsFactory = projectSettingsFactory;
-    this.tempFolder = tempFolder;
     this.system = system;
   }
 
@@ -74,46 +84,27 @@ public class ComputationService implements ServerComponent {
       "Analysis of project %s (report %d)", item.dto.getProjectKey(), item.dto.getId()));
 
     ComponentDto project = loadProject(item);
+    BatchReportReader reader = null;
+    ComputationContext context = null;
     try {
-      File reportDir = extractReportInDir(item);
-      BatchReportReader reader = new BatchReportReader(reportDir);
-      ComputationContext context = new ComputationContext(reader, project);
+      // report is read directly from the zip file, without being extracted
+      reader = BatchReportReader.fromZip(item.zipFile);
+      context = new ComputationContext(reader, project);
       context.setProjectSettings(projectSettingsFactory.newProjectSettings(project.getId()));
-      for (ComputationStep step : steps.orderedSteps()) {
-        if (ArrayUtils.contains(step.supportedProjectQualifiers(), context.getProject().qualifier())) {
-          Profiler stepProfiler = Profiler.createIfDebug(LOG).startDebug(step.getDescription());
-          step.execute(context);
-          stepProfiler.stopDebug();
-        }
-      }
+      stepExecutor.execute(context);
       item.dto.succeed();
 
     } catch (Throwable e) {
       item.dto.fail();
       throw Throwables.propagate(e);
     } finally {
+      IOUtils.closeQuietly(reader);
       item.dto.setFinishedAt(system.now());
-      saveActivity(item.dto, project);
+      saveActivity(item, project, context);
       profiler.stopInfo();
     }
   }
 
-  private File extractReportInDir(ReportQueue.Item item) {
-    File dir = tempFolder.newDir();
-    try {
-      Profiler profiler = Profiler.createIfDebug(LOG).start();
-      ZipUtils.unzip(item.zipFile, dir);
-      if (profiler.isDebugEnabled()) {
-        String message = String.format("Report extracted | size=%s | project=%s",
-          FileUtils.byteCountToDisplaySize(FileUtils.sizeOf(dir)), item.dto.getProjectKey());
-        profiler.stopDebug(message);
-      }
-      return dir;
-    } catch (IOException e) {
-      throw new IllegalStateException(String.format("Fail to unzip %s into %s", item.zipFile, dir), e);
-    }
-  }
-
   private ComponentDto loadProject(ReportQueue.Item queueItem) {
     DbSession session = dbClient.openSession(false);
     try {
@@ -123,7 +114,8 @@ public class ComputationService implements ServerComponent {
     }
   }
 
-  private void saveActivity(AnalysisReportDto report, ComponentDto project) {
+  private void saveActivity(ReportQueue.Item item, ComponentDto project, @Nullable ComputationContext context) {
+    AnalysisReportDto report = item.dto;
     Activity activity = new Activity();
     activity.setType(Activity.Type.ANALYSIS_REPORT);
     activity.setAction("LOG_ANALYSIS_REPORT");
@@ -135,7 +127,13 @@ public class ComputationService implements ServerComponent {
       .setData("status", String.valueOf(report.getStatus()))
       .setData("submittedAt", formatDateTimeNullSafe(longToDate(report.getCreatedAt())))
       .setData("startedAt", formatDateTimeNullSafe(longToDate(report.getStartedAt())))
-      .setData("finishedAt", formatDateTimeNullSafe(longToDate(report.getFinishedAt())));
+      .setData("finishedAt", formatDateTimeNullSafe(longToDate(report.getFinishedAt())))
+      .setData("reportSize", item.zipFile.length());
+    if (context != null) {
+      for (Map.Entry<String, Long> stat : context.getStats().toActivityData().entrySet()) {
+        activity.setData(stat.getKey(), stat.getValue());
+      }
+    }
     activityService.save(activity);
   }
 }
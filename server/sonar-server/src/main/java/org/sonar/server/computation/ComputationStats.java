@@ -0,0 +1,100 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation;
+
+import com.google.common.collect.Maps;
+import org.sonar.server.computation.step.ComputationStep;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duration and number of processed items of the steps executed on an analysis report. They are
+ * persisted with the activity of the report, see {@link #toActivityData()}.
+ * <p/>
+ * Steps can be executed concurrently, so this class is thread-safe.
+ */
+public class ComputationStats {
+
+  // dots are not used, as keys are field names of the nested documents of Elasticsearch
+  public static final String STEP_PREFIX = "step_";
+  public static final String DURATION_SUFFIX = "_duration";
+  public static final String ITEMS_SUFFIX = "_items";
+
+  private final ConcurrentMap<String, AtomicLong> durations = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, AtomicLong> items = Maps.newConcurrentMap();
+
+  /**
+   * Increments the number of items (issues, rows, documents, ...) processed by the step
+   */
+  public void addItems(ComputationStep step, long count) {
+    counter(items, step).addAndGet(count);
+  }
+
+  public void setDuration(ComputationStep step, long durationMs) {
+    counter(durations, step).set(durationMs);
+  }
+
+  public long getDuration(ComputationStep step) {
+    AtomicLong duration = durations.get(stepKey(step));
+    return duration == null ? 0L : duration.get();
+  }
+
+  public long getItems(ComputationStep step) {
+    AtomicLong count = items.get(stepKey(step));
+    return count == null ? 0L : count.get();
+  }
+
+  /**
+   * Flat key-value representation, for example "step_PersistIssuesStep_duration" and "step_PersistIssuesStep_items"
+   */
+  public Map<String, Long> toActivityData() {
+    Map<String, Long> data = Maps.newLinkedHashMap();
+    for (Map.Entry<String, AtomicLong> duration : durations.entrySet()) {
+      data.put(STEP_PREFIX + duration.getKey() + DURATION_SUFFIX, duration.getValue().get());
+    }
+    for (Map.Entry<String, AtomicLong> count : items.entrySet()) {
+      data.put(STEP_PREFIX + count.getKey() + ITEMS_SUFFIX, count.getValue().get());
+    }
+    return data;
+  }
+
+  public static String stepKey(Class<? extends ComputationStep> stepClass) {
+    return stepClass.getSimpleName();
+  }
+
+  private static String stepKey(ComputationStep step) {
+    return stepKey(step.getClass());
+  }
+
+  private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, ComputationStep step) {
+    String key = stepKey(step);
+    AtomicLong counter = counters.get(key);
+    if (counter == null) {
+      AtomicLong newCounter = new AtomicLong(0L);
+      counter = counters.putIfAbsent(key, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    return counter;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang.ArrayUtils;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ComputationSteps;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Executes the steps supporting the qualifier of the project. When more than one thread is allowed,
+ * a step is started as soon as all its dependencies (see {@link ComputationSteps#dependencies(ComputationStep)})
+ * are completed, so independent steps are executed concurrently. Otherwise steps are executed sequentially
+ * in the order of {@link ComputationSteps#orderedSteps()}.
+ * <p/>
+ * If a step fails, no more steps are started and the first error is thrown when running steps are completed.
+ * <p/>
+ * Duration of each step is recorded in {@link ComputationContext#getStats()}.
+ */
+class ComputationStepExecutor {
+
+  private static final Logger LOG = Loggers.get(ComputationStepExecutor.class);
+
+  private final ComputationSteps steps;
+  private final int threads;
+  private final System2 system;
+
+  ComputationStepExecutor(ComputationSteps steps, int threads, System2 system) {
+    this.steps = steps;
+    this.threads = threads;
+    this.system = system;
+  }
+
+  void execute(ComputationContext context) {
+    List<ComputationStep> selectedSteps = Lists.newArrayList();
+    for (ComputationStep step : steps.orderedSteps()) {
+      if (ArrayUtils.contains(step.supportedProjectQualifiers(), context.getProject().qualifier())) {
+        selectedSteps.add(step);
+      }
+    }
+    if (threads <= 1 || selectedSteps.size() <= 1) {
+      for (ComputationStep step : selectedSteps) {
+        execute(step, context);
+      }
+    } else {
+      executeConcurrently(selectedSteps, context);
+    }
+  }
+
+  private void executeConcurrently(List<ComputationStep> selectedSteps, ComputationContext context) {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, selectedSteps.size()),
+      new ThreadFactoryBuilder().setNameFormat(Thread.currentThread().getName() + "-step-%d").build());
+    CompletionService<ComputationStep> completionService = new ExecutorCompletionService<>(executor);
+    Set<ComputationStep> pendingSteps = Sets.newLinkedHashSet(selectedSteps);
+    Set<ComputationStep> completedSteps = Sets.newHashSet();
+    int runningSteps = 0;
+    Throwable failure = null;
+    try {
+      runningSteps += submitReadySteps(pendingSteps, selectedSteps, completedSteps, completionService, context);
+      while (runningSteps > 0) {
+        Future<ComputationStep> future = completionService.take();
+        runningSteps--;
+        try {
+          completedSteps.add(future.get());
+        } catch (ExecutionException e) {
+          failure = failure == null ? e.getCause() : failure;
+        }
+        if (failure == null) {
+          runningSteps += submitReadySteps(pendingSteps, selectedSteps, completedSteps, completionService, context);
+        }
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = e;
+    } finally {
+      executor.shutdownNow();
+    }
+    if (failure != null) {
+      throw Throwables.propagate(failure);
+    }
+    checkState(pendingSteps.isEmpty(), "Steps can't be executed because of unresolved dependencies: %s", pendingSteps);
+  }
+
+  private int submitReadySteps(Set<ComputationStep> pendingSteps, List<ComputationStep> selectedSteps, Set<ComputationStep> completedSteps,
+    CompletionService<ComputationStep> completionService, final ComputationContext context) {
+    int submitted = 0;
+    Iterator<ComputationStep> it = pendingSteps.iterator();
+    while (it.hasNext()) {
+      final ComputationStep step = it.next();
+      if (isReady(step, selectedSteps, completedSteps)) {
+        it.remove();
+        completionService.submit(new Callable<ComputationStep>() {
+          @Override
+          public ComputationStep call() {
+            execute(step, context);
+            return step;
+          }
+        });
+        submitted++;
+      }
+    }
+    return submitted;
+  }
+
+  private boolean isReady(ComputationStep step, List<ComputationStep> selectedSteps, Set<ComputationStep> completedSteps) {
+    for (ComputationStep dependency : steps.dependencies(step)) {
+      // dependencies that do not support the qualifier of project are ignored
+      if (selectedSteps.contains(dependency) && !completedSteps.contains(dependency)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void execute(ComputationStep step, ComputationContext context) {
+    Profiler stepProfiler = Profiler.createIfDebug(LOG).startDebug(step.getDescription());
+    long start = system.now();
+    try {
+      step.execute(context);
+    } finally {
+      context.getStats().setDuration(step, system.now() - start);
+      stepProfiler.stopDebug();
+    }
+  }
+}
@@ -47,22 +47,34 @@ public class ComputationThread implements Runnable {
 
   @Override
   public void run() {
+    processNextReport();
+  }
+
+  /**
+   * Pops a report from the queue and integrates it.
+   *
+   * @return true if a report has been popped, whatever the result of its integration, false if queue is empty
+   * or can't be read.
+   */
+  boolean processNextReport() {
     ReportQueue.Item item = null;
     try {
       item = queue.pop();
     } catch (Exception e) {
       LOG.error("Failed to pop the queue of analysis reports", e);
     }
-    if (item != null) {
-      try {
-        container.execute(item);
-      } catch (Throwable e) {
-        LOG.error(String.format(
-          "Failed to process analysis report %d of project %s", item.dto.getId(), item.dto.getProjectKey()), e);
-      } finally {
-        removeSilentlyFromQueue(item);
-      }
+    if (item == null) {
+      return false;
+    }
+    try {
+      container.execute(item);
+    } catch (Throwable e) {
+      LOG.error(String.format(
+        "Failed to process analysis report %d of project %s", item.dto.getId(), item.dto.getProjectKey()), e);
+    } finally {
+      removeSilentlyFromQueue(item);
     }
+    return true;
   }
 
   private void removeSilentlyFromQueue(ReportQueue.Item item) {
@@ -23,39 +23,63 @@ package org.sonar.server.computation;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.picocontainer.Startable;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
 import org.sonar.api.ServerComponent;
+import org.sonar.api.config.Settings;
 import org.sonar.api.platform.Server;
 import org.sonar.api.platform.ServerStartHandler;
+import org.sonar.core.config.SettingsUtils;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages a pool of workers that integrate the analysis reports of the queue. Workers
+ * are woken up when a report is submitted and, as a fallback, at a fixed rate. An awake worker
+ * drains the queue before going back to sleep. Reports of the same project are never integrated
+ * concurrently, see {@link ReportQueue#pop()}.
+ */
+@Properties({
+  @Property(
+    key = ComputationThreadLauncher.PROPERTY_WORKERS,
+    defaultValue = "1",
+    name = "Number of analysis reports integrated concurrently",
+    project = false,
+    global = false)
+})
 public class ComputationThreadLauncher implements Startable, ServerComponent, ServerStartHandler {
 
   public static final String THREAD_NAME_PREFIX = "computation-";
+  public static final String PROPERTY_WORKERS = "sonar.computation.workers";
+  static final int DEFAULT_WORKERS = 1;
 
   private final ReportQueue queue;
+  private final int workers;
   private final ScheduledExecutorService executorService;
 
   private final long delayBetweenTasks;
   private final long delayForFirstStart;
   private final TimeUnit timeUnit;
 
-  public ComputationThreadLauncher(ReportQueue queue) {
-    this.queue = queue;
-    this.executorService = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
+  private final AtomicInteger activeWorkers = new AtomicInteger(0);
+  private final AtomicLong wakeUps = new AtomicLong(0L);
+  private volatile boolean stopping = false;
 
-    this.delayBetweenTasks = 10;
-    this.delayForFirstStart = 0;
-    this.timeUnit = TimeUnit.SECONDS;
+  public ComputationThreadLauncher(ReportQueue queue, Settings settings) {
+    this(queue, settings, 0, 10, TimeUnit.SECONDS);
   }
 
   @VisibleForTesting
-  ComputationThreadLauncher(ReportQueue queue, long delayForFirstStart, long delayBetweenTasks, TimeUnit timeUnit) {
+  ComputationThreadLauncher(ReportQueue queue, Settings settings, long delayForFirstStart, long delayBetweenTasks, TimeUnit timeUnit) {
     this.queue = queue;
-    this.executorService = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
+    this.workers = SettingsUtils.getPositiveInt(settings, PROPERTY_WORKERS, DEFAULT_WORKERS);
+    // one more thread for the periodic wake-up
+    this.executorService = Executors.newScheduledThreadPool(workers + 1, newThreadFactory());
 
     this.delayBetweenTasks = delayBetweenTasks;
     this.delayForFirstStart = delayForFirstStart;
@@ -69,16 +93,70 @@ public class ComputationThreadLauncher implements Startable, ServerComponent, Se
 
   @Override
   public void stop() {
+    stopping = true;
     executorService.shutdown();
   }
 
   public void startAnalysisTaskNow() {
-    executorService.execute(new ComputationThread(queue));
+    wakeUpWorkers();
   }
 
   @Override
   public void onServerStart(Server server) {
-    executorService.scheduleAtFixedRate(new ComputationThread(queue), delayForFirstStart, delayBetweenTasks, timeUnit);
+    executorService.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        wakeUpWorkers();
+      }
+    }, delayForFirstStart, delayBetweenTasks, timeUnit);
+  }
+
+  @VisibleForTesting
+  int getWorkers() {
+    return workers;
+  }
+
+  private void wakeUpWorkers() {
+    // must be incremented before counting the active workers, see Worker#run()
+    wakeUps.incrementAndGet();
+    while (!stopping && tryToActivateWorker()) {
+      executorService.execute(new Worker());
+    }
+  }
+
+  private boolean tryToActivateWorker() {
+    int active = activeWorkers.get();
+    while (active < workers) {
+      if (activeWorkers.compareAndSet(active, active + 1)) {
+        return true;
+      }
+      active = activeWorkers.get();
+    }
+    return false;
+  }
+
+  private class Worker implements Runnable {
+    private final ComputationThread thread = new ComputationThread(queue);
+
+    @Override
+    public void run() {
+      boolean active = true;
+      while (active) {
+        long wakeUpsBeforeDrain = wakeUps.get();
+        drainQueue();
+        activeWorkers.decrementAndGet();
+        // a report may have been submitted after the last pop, while all the workers
+        // were still considered as active. In this case nobody would have been woken up.
+        active = !stopping && wakeUps.get() != wakeUpsBeforeDrain && tryToActivateWorker();
+      }
+    }
+
+    private void drainQueue() {
+      boolean popped = true;
+      while (!stopping && popped) {
+        popped = thread.processNextReport();
+      }
+    }
   }
 
   private ThreadFactory newThreadFactory() {
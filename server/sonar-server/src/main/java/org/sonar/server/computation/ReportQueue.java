@@ -103,8 +103,13 @@ public class ReportQueue implements ServerComponent {
     }
   }
 
+  /**
+   * Books the oldest pending report whose project has no other report in progress. Booking is
+   * synchronized so that concurrent computation workers never integrate two reports of
+   * the same project at the same time.
+   */
   @CheckForNull
-  public Item pop() {
+  public synchronized Item pop() {
     DbSession session = dbClient.openSession(false);
     try {
       AnalysisReportDto dto = dbClient.analysisReportDao().pop(session);
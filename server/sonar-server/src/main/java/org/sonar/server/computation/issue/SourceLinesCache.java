@@ -20,14 +20,18 @@
 package org.sonar.server.computation.issue;
 
 import com.google.common.base.Function;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.source.db.FileSourceDb;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -114,24 +118,58 @@ public class SourceLinesCache {
   }
 
   /**
-   * Parse lines from db and collect SCM information
+   * Parse lines from db and collect SCM information. Only the SCM fields are deserialized,
+   * the other fields of lines (source, highlighting, symbols, coverage, ...) are skipped
+   * without being decoded.
    */
   class FileDataParser implements Function<InputStream, Void> {
     @Override
     public Void apply(InputStream input) {
-      FileSourceDb.Data data = FileSourceDto.decodeData(input);
-      for (FileSourceDb.Line line : data.getLinesList()) {
-        String author = null;
-        if (line.hasScmAuthor()) {
-          author = line.getScmAuthor();
+      LZ4BlockInputStream lz4Input = null;
+      try {
+        lz4Input = new LZ4BlockInputStream(input);
+        CodedInputStream protobufInput = CodedInputStream.newInstance(lz4Input);
+        // uncompressed data of big files can exceed the default limit of 64Mb
+        protobufInput.setSizeLimit(Integer.MAX_VALUE);
+        int tag;
+        while ((tag = protobufInput.readTag()) != 0) {
+          if (WireFormat.getTagFieldNumber(tag) == FileSourceDb.Data.LINES_FIELD_NUMBER) {
+            int previousLimit = protobufInput.pushLimit(protobufInput.readRawVarint32());
+            parseLine(protobufInput);
+            protobufInput.popLimit(previousLimit);
+          } else {
+            protobufInput.skipField(tag);
+          }
         }
-        authors.add(author);
-        if (line.hasScmDate() && line.getScmDate() > lastCommitDate && author != null) {
-          lastCommitDate = line.getScmDate();
-          lastCommitAuthor = author;
+        return null;
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to decompress and deserialize source data of file " + currentFileUuid, e);
+      } finally {
+        IOUtils.closeQuietly(lz4Input);
+      }
+    }
+
+    private void parseLine(CodedInputStream input) throws IOException {
+      String author = null;
+      Long date = null;
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case FileSourceDb.Line.SCM_AUTHOR_FIELD_NUMBER:
+            author = input.readString();
+            break;
+          case FileSourceDb.Line.SCM_DATE_FIELD_NUMBER:
+            date = input.readInt64();
+            break;
+          default:
+            input.skipField(tag);
         }
       }
-      return null;
+      authors.add(author);
+      if (date != null && date > lastCommitDate && author != null) {
+        lastCommitDate = date;
+        lastCommitAuthor = author;
+      }
     }
   }
 }
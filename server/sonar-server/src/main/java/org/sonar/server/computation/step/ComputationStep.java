@@ -23,7 +23,9 @@ package org.sonar.server.computation.step;
 import org.sonar.server.computation.ComputationContext;
 
 /**
- * Implementations must be declared into {@link org.sonar.server.computation.step.ComputationSteps#orderedStepClasses()}
+ * Implementations must be declared into {@link org.sonar.server.computation.step.ComputationSteps#orderedStepClasses()}.
+ * Steps can be executed concurrently, so the steps they depend on must be declared into
+ * {@link org.sonar.server.computation.step.ComputationSteps#stepDependencies()}.
  */
 public interface ComputationStep {
 
@@ -20,14 +20,19 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import org.sonar.server.computation.ComputationContainer;
 
 import java.util.Arrays;
 import java.util.List;
 
+import static com.google.common.base.Preconditions.checkState;
+
 /**
- * Ordered list of steps to be executed
+ * Ordered list of steps to be executed, and dependencies between steps. Steps that do not
+ * depend on each other can be executed concurrently.
  */
 public class ComputationSteps {
 
@@ -63,16 +68,48 @@ public class ComputationSteps {
       SendIssueNotificationsStep.class);
   }
 
+  /**
+   * Steps that must be completed before starting a step. A step can depend only on the steps
+   * declared before it in {@link #orderedStepClasses()}, so executing steps in this order is always valid.
+   */
+  public static ListMultimap<Class<? extends ComputationStep>, Class<? extends ComputationStep>> stepDependencies() {
+    return ImmutableListMultimap.<Class<? extends ComputationStep>, Class<? extends ComputationStep>>builder()
+      .put(PersistIssuesStep.class, ParseReportStep.class)
+
+      // snapshot is switched when all the data of analysis is persisted
+      .putAll(SwitchSnapshotStep.class, PersistIssuesStep.class, PersistComponentLinksStep.class, PersistEventsStep.class)
+      .put(IndexComponentsStep.class, SwitchSnapshotStep.class)
+      .put(PurgeDatastoresStep.class, IndexComponentsStep.class)
+
+      // ES indexing is done after all db changes
+      .putAll(IndexIssuesStep.class, ApplyPermissionsStep.class, PersistIssuesStep.class, PurgeDatastoresStep.class)
+      .put(IndexSourceLinesStep.class, PurgeDatastoresStep.class)
+      .put(IndexViewsStep.class, PurgeDatastoresStep.class)
+      .put(PurgeRemovedViewsStep.class, IndexViewsStep.class)
+
+      .putAll(SendIssueNotificationsStep.class, IndexIssuesStep.class, IndexSourceLinesStep.class)
+      .build();
+  }
+
   private final List<ComputationStep> orderedSteps;
+  private final ListMultimap<ComputationStep, ComputationStep> dependencies;
 
   public ComputationSteps(ComputationStep... s) {
     this.orderedSteps = order(s);
+    this.dependencies = dependencies(orderedSteps);
   }
 
   public List<ComputationStep> orderedSteps() {
     return orderedSteps;
   }
 
+  /**
+   * Steps that must be completed before executing the given step, in execution order
+   */
+  public List<ComputationStep> dependencies(ComputationStep step) {
+    return dependencies.get(step);
+  }
+
   private static List<ComputationStep> order(ComputationStep[] steps) {
     List<ComputationStep> result = Lists.newArrayList();
     for (Class<? extends ComputationStep> clazz : orderedStepClasses()) {
@@ -81,6 +118,21 @@ public class ComputationSteps {
     return result;
   }
 
+  private static ListMultimap<ComputationStep, ComputationStep> dependencies(List<ComputationStep> orderedSteps) {
+    List<Class<? extends ComputationStep>> orderedClasses = orderedStepClasses();
+    ListMultimap<Class<? extends ComputationStep>, Class<? extends ComputationStep>> classDependencies = stepDependencies();
+    ImmutableListMultimap.Builder<ComputationStep, ComputationStep> builder = ImmutableListMultimap.builder();
+    for (int index = 0; index < orderedClasses.size(); index++) {
+      Class<? extends ComputationStep> clazz = orderedClasses.get(index);
+      for (Class<? extends ComputationStep> dependency : classDependencies.get(clazz)) {
+        int dependencyIndex = orderedClasses.indexOf(dependency);
+        checkState(dependencyIndex >= 0 && dependencyIndex < index, "Step %s must be declared after its dependency %s", clazz, dependency);
+        builder.put(orderedSteps.get(index), orderedSteps.get(dependencyIndex));
+      }
+    }
+    return builder.build();
+  }
+
   private static ComputationStep find(ComputationStep[] steps, Class<? extends ComputationStep> clazz) {
     for (ComputationStep step : steps) {
       if (clazz.isInstance(step)) {
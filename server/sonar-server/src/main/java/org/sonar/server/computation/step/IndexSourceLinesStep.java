@@ -25,6 +25,7 @@ import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.computation.ComputationContext;
 import org.sonar.server.db.DbClient;
+import org.sonar.server.source.DecoratedSourceCache;
 import org.sonar.server.source.index.SourceLineIndexer;
 
 public class IndexSourceLinesStep implements ComputationStep {
@@ -32,11 +33,13 @@ public class IndexSourceLinesStep implements ComputationStep {
   private final DbClient dbClient;
   private final System2 system2;
   private final SourceLineIndexer indexer;
+  private final DecoratedSourceCache decoratedSourceCache;
 
-  public IndexSourceLinesStep(DbClient dbClient, System2 system2, SourceLineIndexer indexer) {
+  public IndexSourceLinesStep(DbClient dbClient, System2 system2, SourceLineIndexer indexer, DecoratedSourceCache decoratedSourceCache) {
     this.dbClient = dbClient;
     this.system2 = system2;
     this.indexer = indexer;
+    this.decoratedSourceCache = decoratedSourceCache;
   }
 
   @Override
@@ -48,6 +51,7 @@ public class IndexSourceLinesStep implements ComputationStep {
   public void execute(ComputationContext context) {
     updateSourceUpdateDate(context.getProject().uuid());
     indexer.index();
+    decoratedSourceCache.invalidateProject(context.getProject().uuid());
   }
 
   // Temporary solution to only index in E/S updated sources from current project
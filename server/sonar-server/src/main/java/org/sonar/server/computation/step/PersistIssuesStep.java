@@ -19,6 +19,12 @@
  */
 package org.sonar.server.computation.step;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.apache.ibatis.executor.BatchResult;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.config.Settings;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.IssueComment;
 import org.sonar.api.issue.internal.DefaultIssue;
@@ -26,7 +32,11 @@ import org.sonar.api.issue.internal.DefaultIssueComment;
 import org.sonar.api.issue.internal.FieldDiffs;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.config.SettingsUtils;
 import org.sonar.core.issue.db.*;
+import org.sonar.core.persistence.BatchSession;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.computation.ComputationContext;
@@ -35,21 +45,46 @@ import org.sonar.server.computation.issue.RuleCache;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.util.CloseableIterator;
 
+import java.util.List;
+
+/**
+ * Issues are persisted by groups of {@link #PROPERTY_BATCH_SIZE} issues. Within a group, statements
+ * are executed by type (inserts of issues, updates of issues, inserts of changes), so that each type reuses
+ * the same JDBC batch, then the group is committed.
+ */
+@Properties({
+  @Property(
+    key = PersistIssuesStep.PROPERTY_BATCH_SIZE,
+    defaultValue = "" + PersistIssuesStep.DEFAULT_BATCH_SIZE,
+    name = "Number of issues committed at once when integrating an analysis report",
+    project = false,
+    global = false)
+})
 public class PersistIssuesStep implements ComputationStep {
 
+  public static final String PROPERTY_BATCH_SIZE = "sonar.computation.issues.batchSize";
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private static final Logger LOG = Loggers.get(PersistIssuesStep.class);
+
+  // lower than the auto-commit threshold of BatchSession, so that update counts are not lost
+  private static final int CONDITIONAL_UPDATES_PER_FLUSH = BatchSession.MAX_BATCH_SIZE - 1;
+
   private final DbClient dbClient;
   private final System2 system2;
   private final UpdateConflictResolver conflictResolver;
   private final RuleCache ruleCache;
   private final IssueCache issueCache;
+  private final int batchSize;
 
   public PersistIssuesStep(DbClient dbClient, System2 system2, UpdateConflictResolver conflictResolver,
-    RuleCache ruleCache, IssueCache issueCache) {
+    RuleCache ruleCache, IssueCache issueCache, Settings settings) {
     this.dbClient = dbClient;
     this.system2 = system2;
     this.conflictResolver = conflictResolver;
     this.ruleCache = ruleCache;
     this.issueCache = issueCache;
+    this.batchSize = SettingsUtils.getPositiveInt(settings, PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
   }
 
   @Override
@@ -59,63 +94,169 @@ public class PersistIssuesStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
+    long start = system2.now();
+    Stats stats = new Stats();
+    boolean batchUpdateCounts = dbClient.database().getDialect().supportsBatchUpdateCounts();
     DbSession session = dbClient.openSession(true);
-    IssueMapper mapper = session.getMapper(IssueMapper.class);
-    IssueChangeMapper changeMapper = session.getMapper(IssueChangeMapper.class);
+    // only used when the update counts of batched statements are not reliable
+    DbSession conditionalSession = batchUpdateCounts ? session : dbClient.openSession(false);
 
     CloseableIterator<DefaultIssue> issues = issueCache.traverse();
     try {
+      List<DefaultIssue> group = Lists.newArrayListWithCapacity(batchSize);
       while (issues.hasNext()) {
         DefaultIssue issue = issues.next();
-        boolean saved = false;
-        if (issue.isNew()) {
-          Integer ruleId = ruleCache.get(issue.ruleKey()).getId();
-          mapper.insert(IssueDto.toDtoForComputationInsert(issue, ruleId, system2.now()));
-          saved = true;
-        } else if (issue.isChanged()) {
-          IssueDto dto = IssueDto.toDtoForUpdate(issue, system2.now());
-          if (Issue.STATUS_CLOSED.equals(issue.status()) || issue.selectedAt() == null) {
-            // Issue is closed by scan or changed by end-user
-            mapper.update(dto);
-          } else {
-            int updateCount = mapper.updateIfBeforeSelectedDate(dto);
-            if (updateCount == 0) {
-              // End-user and scan changed the issue at the same time.
-              // See https://jira.codehaus.org/browse/SONAR-4309
-              conflictResolver.resolve(issue, mapper);
-            }
+        if (issue.isNew() || issue.isChanged()) {
+          group.add(issue);
+          if (group.size() >= batchSize) {
+            persist(group, session, conditionalSession, stats);
+            group.clear();
           }
-          saved = true;
-        }
-        if (saved) {
-          insertChanges(changeMapper, issue);
         }
       }
-      session.flushStatements();
-      session.commit();
+      persist(group, session, conditionalSession, stats);
     } finally {
       MyBatis.closeQuietly(session);
+      if (conditionalSession != session) {
+        MyBatis.closeQuietly(conditionalSession);
+      }
       issues.close();
     }
+    stats.log(system2.now() - start);
+    context.getStats().addItems(this, stats.rows());
   }
 
-  private void insertChanges(IssueChangeMapper mapper, DefaultIssue issue) {
+  private void persist(List<DefaultIssue> group, DbSession session, DbSession conditionalSession, Stats stats) {
+    if (group.isEmpty()) {
+      return;
+    }
+    IssueMapper mapper = session.getMapper(IssueMapper.class);
+    List<DefaultIssue> conditionalUpdates = Lists.newArrayList();
+    long now = system2.now();
+
+    for (DefaultIssue issue : group) {
+      if (issue.isNew()) {
+        Integer ruleId = ruleCache.get(issue.ruleKey()).getId();
+        mapper.insert(IssueDto.toDtoForComputationInsert(issue, ruleId, now));
+        stats.inserts++;
+      }
+    }
+    for (DefaultIssue issue : group) {
+      if (!issue.isNew()) {
+        if (Issue.STATUS_CLOSED.equals(issue.status()) || issue.selectedAt() == null) {
+          // Issue is closed by scan or changed by end-user
+          mapper.update(IssueDto.toDtoForUpdate(issue, now));
+          stats.updates++;
+        } else {
+          conditionalUpdates.add(issue);
+        }
+      }
+    }
+    if (conditionalSession == session) {
+      updateBatchedIfBeforeSelectedDate(conditionalUpdates, session, now, stats);
+    } else {
+      updateIfBeforeSelectedDate(conditionalUpdates, conditionalSession, now, stats);
+    }
+
+    IssueChangeMapper changeMapper = session.getMapper(IssueChangeMapper.class);
+    for (DefaultIssue issue : group) {
+      stats.changes += insertChanges(changeMapper, issue);
+    }
+    session.commit();
+    if (conditionalSession != session) {
+      conditionalSession.commit();
+    }
+  }
+
+  private void updateBatchedIfBeforeSelectedDate(List<DefaultIssue> issues, DbSession session, long now, Stats stats) {
+    if (issues.isEmpty()) {
+      return;
+    }
+    IssueMapper mapper = session.getMapper(IssueMapper.class);
+    List<DefaultIssue> conflicts = Lists.newArrayList();
+    // update counts are returned only once the statements are flushed
+    session.flushStatements();
+    for (List<DefaultIssue> partition : Lists.partition(issues, CONDITIONAL_UPDATES_PER_FLUSH)) {
+      for (DefaultIssue issue : partition) {
+        mapper.updateIfBeforeSelectedDate(IssueDto.toDtoForUpdate(issue, now));
+      }
+      int index = 0;
+      for (BatchResult result : session.flushStatements()) {
+        for (int updateCount : result.getUpdateCounts()) {
+          if (updateCount == 0) {
+            conflicts.add(partition.get(index));
+          }
+          index++;
+        }
+      }
+      stats.updates += partition.size();
+    }
+    // conflicts are resolved once all the update counts are known, as resolution executes other statements
+    for (DefaultIssue conflict : conflicts) {
+      resolveConflict(conflict, mapper);
+    }
+  }
+
+  private void updateIfBeforeSelectedDate(List<DefaultIssue> issues, DbSession session, long now, Stats stats) {
+    IssueMapper mapper = session.getMapper(IssueMapper.class);
+    for (DefaultIssue issue : issues) {
+      int updateCount = mapper.updateIfBeforeSelectedDate(IssueDto.toDtoForUpdate(issue, now));
+      if (updateCount == 0) {
+        resolveConflict(issue, mapper);
+      }
+      stats.updates++;
+    }
+  }
+
+  private void resolveConflict(DefaultIssue issue, IssueMapper mapper) {
+    // End-user and scan changed the issue at the same time.
+    // See https://jira.codehaus.org/browse/SONAR-4309
+    conflictResolver.resolve(issue, mapper);
+  }
+
+  private static int insertChanges(IssueChangeMapper mapper, DefaultIssue issue) {
+    int count = 0;
     for (IssueComment comment : issue.comments()) {
       DefaultIssueComment c = (DefaultIssueComment) comment;
       if (c.isNew()) {
         IssueChangeDto changeDto = IssueChangeDto.of(c);
         mapper.insert(changeDto);
+        count++;
       }
     }
     FieldDiffs diffs = issue.currentChange();
     if (!issue.isNew() && diffs != null) {
       IssueChangeDto changeDto = IssueChangeDto.of(issue.key(), diffs);
       mapper.insert(changeDto);
+      count++;
     }
+    return count;
+  }
+
+  @VisibleForTesting
+  int getBatchSize() {
+    return batchSize;
   }
 
   @Override
   public String getDescription() {
     return "Persist issues";
   }
+
+  private static class Stats {
+    private long inserts = 0L;
+    private long updates = 0L;
+    private long changes = 0L;
+
+    long rows() {
+      return inserts + updates + changes;
+    }
+
+    void log(long durationMs) {
+      long rows = rows();
+      long rowsPerSecond = durationMs > 0 ? (rows * 1000L / durationMs) : rows;
+      LOG.debug(String.format("%d issues inserted, %d issues updated, %d issue changes inserted in %d ms (%d rows/s)",
+        inserts, updates, changes, durationMs, rowsPerSecond));
+    }
+  }
 }
@@ -30,6 +30,9 @@ import org.sonar.server.activity.Activity;
 import org.sonar.server.activity.index.ActivityDoc;
 import org.sonar.server.activity.index.ActivityIndex;
 import org.sonar.server.activity.index.ActivityQuery;
+import org.sonar.server.computation.ComputationStats;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ComputationSteps;
 import org.sonar.server.es.SearchOptions;
 import org.sonar.server.es.SearchResult;
 import org.sonar.server.issue.ws.IssuesWs;
@@ -83,10 +86,32 @@ public class HistoryWsAction implements ComputationWsAction, RequestHandler {
     for (ActivityDoc doc : result.getDocs()) {
       json.beginObject();
       for (Map.Entry<String, String> detail : doc.getDetails().entrySet()) {
-        json.prop(detail.getKey(), detail.getValue());
+        if (!detail.getKey().startsWith(ComputationStats.STEP_PREFIX)) {
+          json.prop(detail.getKey(), detail.getValue());
+        }
       }
+      writeSteps(doc.getDetails(), json);
       json.endObject();
     }
     json.endArray();
   }
+
+  private static void writeSteps(Map<String, String> details, JsonWriter json) {
+    json.name("steps").beginArray();
+    for (Class<? extends ComputationStep> stepClass : ComputationSteps.orderedStepClasses()) {
+      String stepKey = ComputationStats.stepKey(stepClass);
+      String duration = details.get(ComputationStats.STEP_PREFIX + stepKey + ComputationStats.DURATION_SUFFIX);
+      if (duration != null) {
+        json.beginObject();
+        json.prop("step", stepKey);
+        json.prop("duration", Long.parseLong(duration));
+        String items = details.get(ComputationStats.STEP_PREFIX + stepKey + ComputationStats.ITEMS_SUFFIX);
+        if (items != null) {
+          json.prop("items", Long.parseLong(items));
+        }
+        json.endObject();
+      }
+    }
+    json.endArray();
+  }
 }
@@ -0,0 +1,143 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.ws;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.primitives.Longs;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.RequestHandler;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.core.permission.GlobalPermissions;
+import org.sonar.server.activity.Activity;
+import org.sonar.server.activity.index.ActivityDoc;
+import org.sonar.server.activity.index.ActivityIndex;
+import org.sonar.server.activity.index.ActivityQuery;
+import org.sonar.server.computation.ComputationStats;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ComputationSteps;
+import org.sonar.server.es.SearchOptions;
+import org.sonar.server.es.SearchResult;
+import org.sonar.server.user.UserSession;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distribution of the durations of steps over the last integrated analysis reports, for capacity planning
+ */
+public class StatsWsAction implements ComputationWsAction, RequestHandler {
+
+  public static final String PARAM_REPORTS = "reports";
+
+  private final ActivityIndex activityIndex;
+
+  public StatsWsAction(ActivityIndex activityIndex) {
+    this.activityIndex = activityIndex;
+  }
+
+  @Override
+  public void define(WebService.NewController controller) {
+    WebService.NewAction action = controller
+      .createAction("stats")
+      .setDescription("Distribution of the durations of computation steps over the last integrated analysis reports. Durations are in milliseconds.")
+      .setSince("5.2")
+      .setInternal(true)
+      .setHandler(this);
+
+    action.createParam(PARAM_REPORTS)
+      .setDescription("Number of last reports to take into account. Maximum value is " + SearchOptions.MAX_LIMIT)
+      .setDefaultValue("100")
+      .setExampleValue("20");
+  }
+
+  @Override
+  public void handle(Request request, Response response) {
+    UserSession.get().checkGlobalPermission(GlobalPermissions.SYSTEM_ADMIN);
+
+    ActivityQuery query = new ActivityQuery();
+    query.setTypes(Arrays.asList(Activity.Type.ANALYSIS_REPORT.name()));
+    SearchOptions options = new SearchOptions().setLimit(request.mandatoryParamAsInt(PARAM_REPORTS));
+    SearchResult<ActivityDoc> results = activityIndex.search(query, options);
+
+    ListMultimap<String, Long> durationsByStep = ArrayListMultimap.create();
+    Map<String, Long> itemsByStep = new HashMap<>();
+    for (ActivityDoc doc : results.getDocs()) {
+      Map<String, String> details = doc.getDetails();
+      for (Class<? extends ComputationStep> stepClass : ComputationSteps.orderedStepClasses()) {
+        String stepKey = ComputationStats.stepKey(stepClass);
+        String duration = details.get(ComputationStats.STEP_PREFIX + stepKey + ComputationStats.DURATION_SUFFIX);
+        if (duration != null) {
+          durationsByStep.put(stepKey, Long.parseLong(duration));
+        }
+        String items = details.get(ComputationStats.STEP_PREFIX + stepKey + ComputationStats.ITEMS_SUFFIX);
+        if (items != null) {
+          Long previous = itemsByStep.get(stepKey);
+          itemsByStep.put(stepKey, (previous == null ? 0L : previous) + Long.parseLong(items));
+        }
+      }
+    }
+
+    JsonWriter json = response.newJsonWriter().beginObject();
+    json.prop("reports", results.getDocs().size());
+    json.name("steps").beginArray();
+    for (Class<? extends ComputationStep> stepClass : ComputationSteps.orderedStepClasses()) {
+      String stepKey = ComputationStats.stepKey(stepClass);
+      List<Long> durations = durationsByStep.get(stepKey);
+      if (!durations.isEmpty()) {
+        writeStep(json, stepKey, durations, itemsByStep.get(stepKey));
+      }
+    }
+    json.endArray();
+    json.endObject().close();
+  }
+
+  private static void writeStep(JsonWriter json, String stepKey, List<Long> durations, Long items) {
+    long[] sorted = Longs.toArray(durations);
+    Arrays.sort(sorted);
+    long total = 0L;
+    for (long duration : sorted) {
+      total += duration;
+    }
+    json.beginObject()
+      .prop("step", stepKey)
+      .prop("count", sorted.length)
+      .prop("min", sorted[0])
+      .prop("mean", total / sorted.length)
+      .prop("p50", percentile(sorted, 50))
+      .prop("p90", percentile(sorted, 90))
+      .prop("p99", percentile(sorted, 99))
+      .prop("max", sorted[sorted.length - 1])
+      .prop("items", items)
+      .endObject();
+  }
+
+  /**
+   * Nearest-rank percentile of sorted values
+   */
+  static long percentile(long[] sorted, int percent) {
+    int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+}
@@ -20,8 +20,12 @@
 package org.sonar.server.es;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
@@ -29,21 +33,34 @@ import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.transport.TransportException;
 import org.picocontainer.Startable;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.server.util.ProgressLogger;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -51,32 +68,65 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * Helper to bulk requests in an efficient way :
  * <ul>
- *   <li>bulk request is sent on the wire when its size is higher than 5Mb</li>
+ *   <li>requests are grouped by routing key, so that a bulk request targets as few shards as possible.
+ *   All the requests on a document must have the same routing, so that their order is kept.</li>
+ *   <li>bulk request is sent on the wire when its size is higher than a threshold. The threshold
+ *   is adapted to the latency of responses and to the rejections of requests by Elasticsearch.</li>
+ *   <li>requests rejected by Elasticsearch or failed because of transport errors are sent again with an exponential
+ *   backoff, outside the Elasticsearch transport threads. Other failures, for example bad requests, are not retried.</li>
+ *   <li>a request on a document waits for the previous requests on the same document to be acknowledged,
+ *   so that a retried request can not override a more recent one.</li>
  *   <li>on large table indexing, replicas and automatic refresh can be temporarily disabled</li>
  *   <li>index refresh is optional (enabled by default)</li>
  * </ul>
+ * Number of indexed documents, rejections and retries are recorded in {@link EsClient#getBulkIndexerStats()}.
  */
 public class BulkIndexer implements Startable {
 
   private static final Logger LOGGER = Loggers.get(BulkIndexer.class);
-  private static final long FLUSH_BYTE_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB).bytes();
+  static final long DEFAULT_FLUSH_BYTE_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB).bytes();
+  static final long MIN_FLUSH_BYTE_SIZE = new ByteSizeValue(256, ByteSizeUnit.KB).bytes();
+  static final long MAX_FLUSH_BYTE_SIZE = new ByteSizeValue(8, ByteSizeUnit.MB).bytes();
+  // bulk size is increased as long as responses are faster than this latency
+  static final long TARGET_LATENCY_MS = 1000L;
+  // all the partitions are flushed when the buffered requests are bigger than this factor of bulk size
+  private static final int MAX_BUFFERED_FACTOR = 4;
+  static final int MAX_RETRIES = 3;
+  static final long INITIAL_BACKOFF_MS = 500L;
   private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
   private static final String ALREADY_STARTED_MESSAGE = "Bulk indexing is already started";
+  private static final String DEFAULT_ROUTING = "";
 
   private final EsClient client;
   private final String indexName;
+  private final BulkIndexerStats.IndexStats stats;
   private boolean large = false;
   private boolean disableRefresh = false;
-  private BulkRequestBuilder bulkRequest = null;
+  private boolean started = false;
+  private long startedAt = 0L;
   private Map<String, Object> largeInitialSettings = null;
+
+  // pending requests, grouped by routing key
+  private final SortedMap<String, BulkRequestBuilder> partitions = Maps.newTreeMap();
+  private long bufferedBytes = 0L;
+  private final AtomicLong flushByteSize = new AtomicLong(DEFAULT_FLUSH_BYTE_SIZE);
+
   private final AtomicLong counter = new AtomicLong(0L);
   private final int concurrentRequests;
   private final Semaphore semaphore;
   private final ProgressLogger progress;
+  private ScheduledExecutorService retryExecutor = null;
+
+  // number of bulk requests being executed or waiting to be retried
+  private final Object inProgressLock = new Object();
+  private int inProgress = 0;
+  // documents of the requests being executed or waiting to be retried, guarded by inProgressLock
+  private final Multiset<String> documentsInProgress = HashMultiset.create();
 
   public BulkIndexer(EsClient client, String indexName) {
     this.client = client;
     this.indexName = indexName;
+    this.stats = client.getBulkIndexerStats().forIndex(indexName);
     this.progress = new ProgressLogger(String.format("Progress[BulkIndexer[%s]]", indexName), counter, LOGGER)
       .setPluralLabel("requests");
 
@@ -89,7 +139,7 @@ public class BulkIndexer implements Startable {
    * automatic refresh are disabled during bulk indexing and lucene segments are optimized at the end.
    */
   public BulkIndexer setLarge(boolean b) {
-    Preconditions.checkState(bulkRequest == null, ALREADY_STARTED_MESSAGE);
+    Preconditions.checkState(!started, ALREADY_STARTED_MESSAGE);
     this.large = b;
     return this;
   }
@@ -103,11 +153,9 @@ public class BulkIndexer implements Startable {
     return this;
   }
 
-
-
   @Override
   public void start() {
-    Preconditions.checkState(bulkRequest == null, ALREADY_STARTED_MESSAGE);
+    Preconditions.checkState(!started, ALREADY_STARTED_MESSAGE);
     if (large) {
       largeInitialSettings = Maps.newHashMap();
       Map<String, Object> bulkSettings = Maps.newHashMap();
@@ -127,15 +175,38 @@ public class BulkIndexer implements Startable {
 
       updateSettings(bulkSettings);
     }
-    bulkRequest = client.prepareBulk().setRefresh(false);
+    retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+      .setNameFormat(String.format("BulkIndexer[%s]-retry-%%d", indexName)).setDaemon(true).build());
+    started = true;
+    startedAt = System.currentTimeMillis();
     counter.set(0L);
     progress.start();
   }
 
   public void add(ActionRequest request) {
-    bulkRequest.request().add(request);
-    if (bulkRequest.request().estimatedSizeInBytes() >= FLUSH_BYTE_SIZE) {
-      executeBulk();
+    String documentKey = documentKey(request);
+    if (documentKey != null) {
+      // a retry of a previous request must not override this one
+      awaitRequestsInProgress(documentKey);
+    }
+    String routing = routing(request);
+    BulkRequestBuilder partition = partitions.get(routing);
+    if (partition == null) {
+      partition = client.prepareBulk().setRefresh(false);
+      partitions.put(routing, partition);
+    }
+    long sizeBefore = partition.request().estimatedSizeInBytes();
+    partition.request().add(request);
+    long size = partition.request().estimatedSizeInBytes();
+    bufferedBytes += size - sizeBefore;
+
+    long flushSize = flushByteSize.get();
+    if (size >= flushSize) {
+      partitions.remove(routing);
+      bufferedBytes -= size;
+      executeBulk(partition, 0);
+    } else if (bufferedBytes >= MAX_BUFFERED_FACTOR * flushSize) {
+      flushPartitions();
     }
   }
 
@@ -145,15 +216,29 @@ public class BulkIndexer implements Startable {
       .setSearchType(SearchType.SCAN)
       // load only doc ids, not _source fields
       .setFetchSource(false);
+    String routing = searchRequest.request().routing();
 
     // this search is synchronous. An optimization would be to be non-blocking,
     // but it requires to tracking pending requests in close().
     // Same semaphore can't be reused because of potential deadlock (requires to acquire
     // two locks)
     SearchResponse searchResponse = searchRequest.get();
-    searchResponse = client.prepareSearchScroll(searchResponse.getScrollId()).get();
-    for (SearchHit hit : searchResponse.getHits()) {
-      add(client.prepareDelete(hit.index(), hit.type(), hit.getId()).request());
+    while (true) {
+      searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+        .setScroll(TimeValue.timeValueMinutes(5))
+        .get();
+      SearchHit[] hits = searchResponse.getHits().getHits();
+      if (hits.length == 0) {
+        break;
+      }
+      for (SearchHit hit : hits) {
+        DeleteRequestBuilder deletion = client.prepareDelete(hit.index(), hit.type(), hit.getId());
+        if (routing != null) {
+          // documents are routed by the same key as the search
+          deletion.setRouting(routing);
+        }
+        add(deletion.request());
+      }
     }
   }
 
@@ -170,17 +255,11 @@ public class BulkIndexer implements Startable {
 
   @Override
   public void stop() {
-    if (bulkRequest.numberOfActions() > 0) {
-      executeBulk();
-    }
-    try {
-      if (semaphore.tryAcquire(concurrentRequests, 10, TimeUnit.MINUTES)) {
-        semaphore.release(concurrentRequests);
-      }
-    } catch (InterruptedException e) {
-      throw new IllegalStateException("Elasticsearch bulk requests still being executed after 10 minutes", e);
-    }
+    flushPartitions();
+    awaitRequestsInProgress();
+    retryExecutor.shutdown();
     progress.stop();
+    stats.addIndexingTime(System.currentTimeMillis() - startedAt);
 
     if (!disableRefresh) {
       client.prepareRefresh(indexName).get();
@@ -193,7 +272,14 @@ public class BulkIndexer implements Startable {
 
       updateSettings(largeInitialSettings);
     }
-    bulkRequest = null;
+    started = false;
+  }
+
+  /**
+   * Current threshold of bulk size, in bytes
+   */
+  long getFlushByteSize() {
+    return flushByteSize.get();
   }
 
   private void updateSettings(Map<String, Object> settings) {
@@ -202,54 +288,274 @@ public class BulkIndexer implements Startable {
     req.get();
   }
 
-  private void executeBulk() {
-    final BulkRequestBuilder req = this.bulkRequest;
-    this.bulkRequest = client.prepareBulk().setRefresh(false);
+  /**
+   * Sends all the pending requests. Small partitions are merged in the same bulk request.
+   */
+  private void flushPartitions() {
+    BulkRequestBuilder merged = null;
+    long flushSize = flushByteSize.get();
+    for (BulkRequestBuilder partition : partitions.values()) {
+      if (merged != null && merged.request().estimatedSizeInBytes() + partition.request().estimatedSizeInBytes() > flushSize) {
+        executeBulk(merged, 0);
+        merged = null;
+      }
+      if (merged == null) {
+        merged = partition;
+      } else {
+        for (ActionRequest request : partition.request().requests()) {
+          merged.request().add(request);
+        }
+      }
+    }
+    if (merged != null) {
+      executeBulk(merged, 0);
+    }
+    partitions.clear();
+    bufferedBytes = 0L;
+  }
+
+  private void executeBulk(final BulkRequestBuilder req, final int attempt) {
     semaphore.acquireUninterruptibly();
+    startRequest();
+    if (attempt == 0) {
+      startDocuments(req.request().requests());
+    }
+    final long startedAtMs = System.currentTimeMillis();
     req.execute(new ActionListener<BulkResponse>() {
       @Override
       public void onResponse(BulkResponse response) {
         semaphore.release();
-        counter.addAndGet(response.getItems().length);
-
-        List<ActionRequest> retries = Lists.newArrayList();
-        for (BulkItemResponse item : response.getItems()) {
-          if (item.isFailed()) {
-            ActionRequest retry = req.request().requests().get(item.getItemId());
-            retries.add(retry);
-          }
+        try {
+          handleResponse(req, response, attempt, System.currentTimeMillis() - startedAtMs);
+        } finally {
+          endRequest();
         }
+      }
 
-        if (!retries.isEmpty()) {
-          LOGGER.warn(String.format("%d index requests failed. Trying again.", retries.size()));
-          BulkRequestBuilder retryBulk = client.prepareBulk();
-          for (ActionRequest retry : retries) {
-            retryBulk.request().add(retry);
+      @Override
+      public void onFailure(Throwable e) {
+        semaphore.release();
+        try {
+          List<ActionRequest> requests = req.request().requests();
+          boolean rejected = ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS;
+          if (rejected) {
+            stats.addRejections(requests.size());
+            adaptFlushByteSize(0L, true);
           }
-          BulkResponse retryBulkResponse = retryBulk.get();
-          if (retryBulkResponse.hasFailures()) {
-            LOGGER.error("New attempt to index documents failed");
-            for (int index = 0; index < retryBulkResponse.getItems().length; index++) {
-              BulkItemResponse item = retryBulkResponse.getItems()[index];
-              if (item.isFailed()) {
-                StringBuilder sb = new StringBuilder();
-                String msg = sb.append("\n[").append(index)
-                  .append("]: index [").append(item.getIndex()).append("], type [").append(item.getType()).append("], id [").append(item.getId())
-                  .append("], message [").append(item.getFailureMessage()).append("]").toString();
-                LOGGER.error(msg);
-              }
-            }
+          if (attempt < MAX_RETRIES && (rejected || isTransportError(e))) {
+            LOGGER.warn(String.format("Fail to execute bulk request of %d documents. Trying again.", requests.size()), e);
+            retry(requests, attempt + 1);
           } else {
-            LOGGER.info("New index attempt succeeded");
+            stats.addFailures(requests.size());
+            endDocuments(requests);
+            LOGGER.error("Fail to execute bulk index request: " + req, e);
           }
+        } finally {
+          endRequest();
         }
       }
+    });
+  }
+
+  private void handleResponse(BulkRequestBuilder req, BulkResponse response, int attempt, long latencyMs) {
+    List<ActionRequest> retries = Lists.newArrayList();
+    List<ActionRequest> done = Lists.newArrayList();
+    int rejections = 0;
+    int failures = 0;
+    for (BulkItemResponse item : response.getItems()) {
+      ActionRequest request = req.request().requests().get(item.getItemId());
+      if (!item.isFailed()) {
+        done.add(request);
+      } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS && attempt < MAX_RETRIES) {
+        rejections++;
+        retries.add(request);
+      } else {
+        // bad requests, missing documents or too many rejections
+        if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+          rejections++;
+        }
+        failures++;
+        logFailure(item);
+        done.add(request);
+      }
+    }
+    int failed = response.hasFailures() ? (int) countFailures(response) : 0;
+    counter.addAndGet(response.getItems().length - failed);
+    stats.addDocs(response.getItems().length - failed);
+    stats.addRejections(rejections);
+    stats.addFailures(failures);
+    endDocuments(done);
+    adaptFlushByteSize(latencyMs, rejections > 0);
+
+    if (!retries.isEmpty()) {
+      LOGGER.warn(String.format("%d index requests failed. Trying again.", retries.size()));
+      retry(retries, attempt + 1);
+    } else if (attempt > 0 && failures == 0) {
+      LOGGER.info("New index attempt succeeded");
+    }
+  }
+
+  private static boolean isTransportError(Throwable e) {
+    return ExceptionsHelper.unwrap(e, TransportException.class) != null || ExceptionsHelper.unwrap(e, NoNodeAvailableException.class) != null;
+  }
+
+  private static long countFailures(BulkResponse response) {
+    long failures = 0L;
+    for (BulkItemResponse item : response.getItems()) {
+      if (item.isFailed()) {
+        failures++;
+      }
+    }
+    return failures;
+  }
 
+  private static void logFailure(BulkItemResponse item) {
+    LOGGER.error(new StringBuilder().append("Fail to index document [").append(item.getItemId())
+      .append("]: index [").append(item.getIndex()).append("], type [").append(item.getType()).append("], id [").append(item.getId())
+      .append("], message [").append(item.getFailureMessage()).append("]").toString());
+  }
+
+  /**
+   * Requests are sent again by a dedicated thread, so that Elasticsearch transport threads
+   * are not blocked by the backoff delay nor by the semaphore.
+   */
+  private void retry(final List<ActionRequest> requests, final int attempt) {
+    stats.addRetries(requests.size());
+    startRequest();
+    long delayMs = INITIAL_BACKOFF_MS << (attempt - 1);
+    retryExecutor.schedule(new Runnable() {
       @Override
-      public void onFailure(Throwable e) {
-        semaphore.release();
-        LOGGER.error("Fail to execute bulk index request: " + req, e);
+      public void run() {
+        try {
+          BulkRequestBuilder retryBulk = client.prepareBulk().setRefresh(false);
+          for (ActionRequest request : requests) {
+            retryBulk.request().add(request);
+          }
+          executeBulk(retryBulk, attempt);
+        } finally {
+          endRequest();
+        }
       }
-    });
+    }, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Additive increase of bulk size while responses are fast, multiplicative decrease
+   * when requests are rejected or slow.
+   */
+  private void adaptFlushByteSize(long latencyMs, boolean rejected) {
+    long current = flushByteSize.get();
+    long next = current;
+    if (rejected) {
+      next = Math.max(MIN_FLUSH_BYTE_SIZE, current / 2);
+    } else if (latencyMs < TARGET_LATENCY_MS) {
+      next = Math.min(MAX_FLUSH_BYTE_SIZE, current + MIN_FLUSH_BYTE_SIZE);
+    } else if (latencyMs > 2 * TARGET_LATENCY_MS) {
+      next = Math.max(MIN_FLUSH_BYTE_SIZE, current * 3 / 4);
+    }
+    // concurrent updates are ignored, the next response adapts the size again
+    flushByteSize.compareAndSet(current, next);
+  }
+
+  private void startRequest() {
+    synchronized (inProgressLock) {
+      inProgress++;
+    }
+  }
+
+  private void endRequest() {
+    synchronized (inProgressLock) {
+      inProgress--;
+      if (inProgress == 0) {
+        inProgressLock.notifyAll();
+      }
+    }
+  }
+
+  private void startDocuments(List<ActionRequest> requests) {
+    synchronized (inProgressLock) {
+      for (ActionRequest request : requests) {
+        String documentKey = documentKey(request);
+        if (documentKey != null) {
+          documentsInProgress.add(documentKey);
+        }
+      }
+    }
+  }
+
+  private void endDocuments(List<ActionRequest> requests) {
+    synchronized (inProgressLock) {
+      for (ActionRequest request : requests) {
+        String documentKey = documentKey(request);
+        if (documentKey != null) {
+          documentsInProgress.remove(documentKey);
+        }
+      }
+      inProgressLock.notifyAll();
+    }
+  }
+
+  private void awaitRequestsInProgress() {
+    awaitRequestsInProgress(null);
+  }
+
+  /**
+   * Waits for all the requests in progress, or only for the ones on the given document
+   */
+  private void awaitRequestsInProgress(@Nullable String documentKey) {
+    long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10);
+    synchronized (inProgressLock) {
+      try {
+        while (documentKey == null ? (inProgress > 0) : documentsInProgress.contains(documentKey)) {
+          long remainingMs = deadline - System.currentTimeMillis();
+          if (remainingMs <= 0L) {
+            throw new IllegalStateException("Elasticsearch bulk requests still being executed after 10 minutes");
+          }
+          inProgressLock.wait(remainingMs);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for Elasticsearch bulk requests", e);
+      }
+    }
+  }
+
+  /**
+   * @return null if the request does not target a given document, for example an indexing with a generated id
+   */
+  @CheckForNull
+  private static String documentKey(ActionRequest request) {
+    String index = null;
+    String type = null;
+    String id = null;
+    if (request instanceof IndexRequest) {
+      IndexRequest indexRequest = (IndexRequest) request;
+      index = indexRequest.index();
+      type = indexRequest.type();
+      id = indexRequest.id();
+    } else if (request instanceof UpdateRequest) {
+      UpdateRequest updateRequest = (UpdateRequest) request;
+      index = updateRequest.index();
+      type = updateRequest.type();
+      id = updateRequest.id();
+    } else if (request instanceof DeleteRequest) {
+      DeleteRequest deleteRequest = (DeleteRequest) request;
+      index = deleteRequest.index();
+      type = deleteRequest.type();
+      id = deleteRequest.id();
+    }
+    return id == null ? null : (index + "/" + type + "/" + id);
+  }
+
+  private static String routing(ActionRequest request) {
+    String routing = null;
+    if (request instanceof IndexRequest) {
+      routing = ((IndexRequest) request).routing();
+    } else if (request instanceof UpdateRequest) {
+      routing = ((UpdateRequest) request).routing();
+    } else if (request instanceof DeleteRequest) {
+      routing = ((DeleteRequest) request).routing();
+    }
+    return routing == null ? DEFAULT_ROUTING : routing;
   }
 }
@@ -0,0 +1,131 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the documents sent by {@link BulkIndexer}, per index, since server startup.
+ * This class is thread-safe.
+ */
+public class BulkIndexerStats {
+
+  private final ConcurrentMap<String, IndexStats> statsByIndex = Maps.newConcurrentMap();
+
+  public IndexStats forIndex(String indexName) {
+    IndexStats stats = statsByIndex.get(indexName);
+    if (stats == null) {
+      IndexStats newStats = new IndexStats();
+      stats = statsByIndex.putIfAbsent(indexName, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Stats of the indices that have been fed at least once, sorted by index name
+   */
+  public SortedMap<String, IndexStats> all() {
+    return ImmutableSortedMap.copyOf(statsByIndex);
+  }
+
+  public static class IndexStats {
+    private final AtomicLong docs = new AtomicLong(0L);
+    private final AtomicLong rejections = new AtomicLong(0L);
+    private final AtomicLong retries = new AtomicLong(0L);
+    private final AtomicLong failures = new AtomicLong(0L);
+    private final AtomicLong indexingTimeMs = new AtomicLong(0L);
+
+    void addDocs(long count) {
+      docs.addAndGet(count);
+    }
+
+    void addRejections(long count) {
+      rejections.addAndGet(count);
+    }
+
+    void addRetries(long count) {
+      retries.addAndGet(count);
+    }
+
+    void addFailures(long count) {
+      failures.addAndGet(count);
+    }
+
+    void addIndexingTime(long durationMs) {
+      indexingTimeMs.addAndGet(durationMs);
+    }
+
+    /**
+     * Number of documents successfully indexed or deleted
+     */
+    public long getDocs() {
+      return docs.get();
+    }
+
+    /**
+     * Number of documents rejected by Elasticsearch because its queues are full
+     */
+    public long getRejections() {
+      return rejections.get();
+    }
+
+    /**
+     * Number of documents sent again after a failure
+     */
+    public long getRetries() {
+      return retries.get();
+    }
+
+    /**
+     * Number of documents not indexed, even after retries
+     */
+    public long getFailures() {
+      return failures.get();
+    }
+
+    /**
+     * Average throughput, computed over the time spent between {@link BulkIndexer#start()}
+     * and {@link BulkIndexer#stop()}
+     */
+    public long getDocsPerSecond() {
+      long durationMs = indexingTimeMs.get();
+      return durationMs == 0L ? 0L : (docs.get() * 1000L / durationMs);
+    }
+
+    public Map<String, Long> toMap() {
+      Map<String, Long> map = Maps.newLinkedHashMap();
+      map.put("Docs", getDocs());
+      map.put("Docs/sec", getDocsPerSecond());
+      map.put("Rejections", getRejections());
+      map.put("Retries", getRetries());
+      map.put("Failures", getFailures());
+      return map;
+    }
+  }
+}
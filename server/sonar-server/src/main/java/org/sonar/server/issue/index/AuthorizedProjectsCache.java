@@ -0,0 +1,135 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.issue.index;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.OrFilterBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.sonar.api.ServerComponent;
+import org.sonar.api.utils.System2;
+import org.sonar.server.es.EsClient;
+import org.sonar.server.util.cache.CacheStats;
+import org.sonar.server.util.cache.SharedMemoryCache;
+
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Uuids of the projects that can be browsed by a user, as indexed in type issues/authorization. They are loaded
+ * once per login and set of groups, so that issue searches are filtered on project uuids instead of
+ * joining the authorization documents. Cache is cleared by {@link IssueAuthorizationIndexer}.
+ */
+public class AuthorizedProjectsCache implements ServerComponent {
+
+  /**
+   * Maximum number of project uuids kept in memory
+   */
+  @VisibleForTesting
+  static final long MAX_PROJECTS = 500000L;
+
+  private static final int SCROLL_SIZE = 1000;
+  private static final int SCROLL_TIME_IN_MINUTES = 1;
+
+  private final EsClient client;
+  private final SharedMemoryCache<List<Object>, Set<String>> cache;
+
+  private final SharedMemoryCache.Loader<List<Object>, Set<String>> loader = new SharedMemoryCache.Loader<List<Object>, Set<String>>() {
+    @Override
+    public Set<String> load(List<Object> key) {
+      return AuthorizedProjectsCache.this.load((String) key.get(0), (Set<String>) key.get(1));
+    }
+  };
+
+  public AuthorizedProjectsCache(EsClient client, System2 system) {
+    this.client = client;
+    this.cache = new SharedMemoryCache<>(new SharedMemoryCache.Weigher<Set<String>>() {
+      @Override
+      public long weigh(Set<String> projectUuids) {
+        return Math.max(1L, projectUuids.size());
+      }
+    }, MAX_PROJECTS, 0L, system);
+  }
+
+  public Set<String> get(@Nullable String userLogin, Set<String> userGroups) {
+    return cache.get(Arrays.<Object>asList(userLogin, ImmutableSortedSet.copyOf(userGroups)), loader);
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Number of users and sets of groups currently cached
+   */
+  public int entries() {
+    return cache.size();
+  }
+
+  private Set<String> load(@Nullable String userLogin, Set<String> userGroups) {
+    if (userLogin == null && userGroups.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    OrFilterBuilder groupsAndUser = FilterBuilders.orFilter();
+    if (userLogin != null) {
+      groupsAndUser.add(FilterBuilders.termFilter(IssueIndexDefinition.FIELD_AUTHORIZATION_USERS, userLogin));
+    }
+    if (!userGroups.isEmpty()) {
+      groupsAndUser.add(FilterBuilders.termsFilter(IssueIndexDefinition.FIELD_AUTHORIZATION_GROUPS, userGroups));
+    }
+    SearchResponse response = client.prepareSearch(IssueIndexDefinition.INDEX)
+      .setTypes(IssueIndexDefinition.TYPE_AUTHORIZATION)
+      .setSearchType(SearchType.SCAN)
+      .setScroll(TimeValue.timeValueMinutes(SCROLL_TIME_IN_MINUTES))
+      .setSize(SCROLL_SIZE)
+      .setFetchSource(false)
+      .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), groupsAndUser))
+      .get();
+
+    ImmutableSet.Builder<String> projectUuids = ImmutableSet.builder();
+    while (true) {
+      response = client.prepareSearchScroll(response.getScrollId())
+        .setScroll(TimeValue.timeValueMinutes(SCROLL_TIME_IN_MINUTES))
+        .get();
+      SearchHit[] hits = response.getHits().getHits();
+      if (hits.length == 0) {
+        break;
+      }
+      for (SearchHit hit : hits) {
+        // id of document is the project uuid
+        projectUuids.add(hit.getId());
+      }
+    }
+    return projectUuids.build();
+  }
+}
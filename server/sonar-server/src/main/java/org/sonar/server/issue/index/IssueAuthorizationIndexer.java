@@ -29,6 +29,7 @@ import org.sonar.server.db.DbClient;
 import org.sonar.server.es.BaseIndexer;
 import org.sonar.server.es.BulkIndexer;
 import org.sonar.server.es.EsClient;
+import org.sonar.server.user.UserPermissionCache;
 
 import java.sql.Connection;
 import java.util.Collection;
@@ -40,15 +41,21 @@ import java.util.Map;
  * <ul>
  *   <li>index the projects with recent permission changes</li>
  *   <li>delete project orphans from index</li>
+ *   <li>clear the permissions cached in memory</li>
  * </ul>
  */
 public class IssueAuthorizationIndexer extends BaseIndexer {
 
   private final DbClient dbClient;
+  private final AuthorizedProjectsCache authorizedProjectsCache;
+  private final UserPermissionCache userPermissionCache;
 
-  public IssueAuthorizationIndexer(DbClient dbClient, EsClient esClient) {
+  public IssueAuthorizationIndexer(DbClient dbClient, EsClient esClient, AuthorizedProjectsCache authorizedProjectsCache,
+    UserPermissionCache userPermissionCache) {
     super(esClient, 0L, IssueIndexDefinition.INDEX, IssueIndexDefinition.TYPE_AUTHORIZATION, IssueIndexDefinition.FIELD_ISSUE_TECHNICAL_UPDATED_AT);
     this.dbClient = dbClient;
+    this.authorizedProjectsCache = authorizedProjectsCache;
+    this.userPermissionCache = userPermissionCache;
   }
 
   @Override
@@ -84,6 +91,9 @@ public class IssueAuthorizationIndexer extends BaseIndexer {
       maxDate = Math.max(maxDate, authorization.getUpdatedAt());
     }
     bulk.stop();
+    if (!authorizations.isEmpty()) {
+      clearCaches();
+    }
     return maxDate;
   }
 
@@ -92,6 +102,16 @@ public class IssueAuthorizationIndexer extends BaseIndexer {
       .prepareDelete(IssueIndexDefinition.INDEX, IssueIndexDefinition.TYPE_AUTHORIZATION, uuid)
       .setRefresh(refresh)
       .get();
+    clearCaches();
+  }
+
+  /**
+   * Permissions are cached in memory in order to not load them on each request. Caches
+   * must be cleared as soon as permissions of projects are changed.
+   */
+  private void clearCaches() {
+    authorizedProjectsCache.clear();
+    userPermissionCache.clear();
   }
 
   private ActionRequest newUpdateRequest(IssueAuthorizationDao.Dto dto) {
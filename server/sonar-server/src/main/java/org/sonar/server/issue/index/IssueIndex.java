@@ -19,6 +19,7 @@
  */
 package org.sonar.server.issue.index;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.*;
@@ -102,6 +103,13 @@ public class IssueIndex extends BaseIndex {
   private static final String IS_ASSIGNED_FILTER = "__isAssigned";
 
   private static final int DEFAULT_FACET_SIZE = 15;
+
+  /**
+   * Above this number of authorized projects, issues are filtered by joining the authorization documents
+   * rather than by listing the project uuids in the request.
+   */
+  @VisibleForTesting
+  static final int MAX_PROJECTS_IN_AUTHORIZATION_FILTER = 1000;
   private static final Duration TWENTY_DAYS = Duration.standardDays(20L);
   private static final Duration TWENTY_WEEKS = Duration.standardDays(20L * 7L);
   private static final Duration TWENTY_MONTHS = Duration.standardDays(20L * 30L);
@@ -119,11 +127,13 @@ public class IssueIndex extends BaseIndex {
 
   private final Sorting sorting;
   private final System2 system;
+  private final AuthorizedProjectsCache authorizedProjectsCache;
 
-  public IssueIndex(EsClient client, System2 system) {
+  public IssueIndex(EsClient client, System2 system, AuthorizedProjectsCache authorizedProjectsCache) {
     super(client);
 
     this.system = system;
+    this.authorizedProjectsCache = authorizedProjectsCache;
     this.sorting = new Sorting();
     this.sorting.add(IssueQuery.SORT_BY_ASSIGNEE, IssueIndexDefinition.FIELD_ISSUE_ASSIGNEE);
     this.sorting.add(IssueQuery.SORT_BY_STATUS, IssueIndexDefinition.FIELD_ISSUE_STATUS);
@@ -304,25 +314,33 @@ public class IssueIndex extends BaseIndex {
 
   private FilterBuilder createAuthorizationFilter(boolean checkAuthorization, @Nullable String userLogin, Set<String> userGroups) {
     if (checkAuthorization) {
-      OrFilterBuilder groupsAndUser = FilterBuilders.orFilter();
-      if (userLogin != null) {
-        groupsAndUser.add(FilterBuilders.termFilter(IssueIndexDefinition.FIELD_AUTHORIZATION_USERS, userLogin));
+      Set<String> projectUuids = authorizedProjectsCache.get(userLogin, userGroups);
+      if (projectUuids.size() > MAX_PROJECTS_IN_AUTHORIZATION_FILTER) {
+        return createAuthorizationParentFilter(userLogin, userGroups);
       }
-      for (String group : userGroups) {
-        groupsAndUser.add(FilterBuilders.termFilter(IssueIndexDefinition.FIELD_AUTHORIZATION_GROUPS, group));
-      }
-      return FilterBuilders.hasParentFilter(IssueIndexDefinition.TYPE_AUTHORIZATION,
-        QueryBuilders.filteredQuery(
-          QueryBuilders.matchAllQuery(),
-          FilterBuilders.boolFilter()
-            .must(groupsAndUser)
-            .cache(true))
-        );
+      return FilterBuilders.termsFilter(IssueIndexDefinition.FIELD_ISSUE_PROJECT_UUID, projectUuids);
     } else {
       return FilterBuilders.matchAllFilter();
     }
   }
 
+  private static FilterBuilder createAuthorizationParentFilter(@Nullable String userLogin, Set<String> userGroups) {
+    OrFilterBuilder groupsAndUser = FilterBuilders.orFilter();
+    if (userLogin != null) {
+      groupsAndUser.add(FilterBuilders.termFilter(IssueIndexDefinition.FIELD_AUTHORIZATION_USERS, userLogin));
+    }
+    for (String group : userGroups) {
+      groupsAndUser.add(FilterBuilders.termFilter(IssueIndexDefinition.FIELD_AUTHORIZATION_GROUPS, group));
+    }
+    return FilterBuilders.hasParentFilter(IssueIndexDefinition.TYPE_AUTHORIZATION,
+      QueryBuilders.filteredQuery(
+        QueryBuilders.matchAllQuery(),
+        FilterBuilders.boolFilter()
+          .must(groupsAndUser)
+          .cache(true))
+      );
+  }
+
   private void addDatesFilter(Map<String, FilterBuilder> filters, IssueQuery query) {
     Date createdAfter = query.createdAfter();
     Date createdBefore = query.createdBefore();
@@ -114,6 +114,7 @@ public class SearchAction implements BaseIssuesWsAction {
     WebService.NewAction action = controller
       .createAction(SEARCH_ACTION)
       .setHandler(this)
+      .setResponseStreamed(true)
       .setDescription(
         "Get a list of issues. If the number of issues is greater than 10,000, only the first 10,000 ones are returned by the web service. Requires Browse permission on project(s)")
       .setSince("3.6")
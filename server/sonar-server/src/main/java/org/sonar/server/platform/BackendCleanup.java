@@ -27,6 +27,7 @@ import org.sonar.core.persistence.DatabaseVersion;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.es.EsClient;
+import org.sonar.server.issue.index.AuthorizedProjectsCache;
 import org.sonar.server.issue.index.IssueIndexDefinition;
 import org.sonar.server.search.IndexDefinition;
 import org.sonar.server.source.index.SourceLineIndexDefinition;
@@ -47,10 +48,12 @@ public class BackendCleanup implements ServerComponent {
   };
   private final EsClient esClient;
   private final MyBatis myBatis;
+  private final AuthorizedProjectsCache authorizedProjectsCache;
 
-  public BackendCleanup(EsClient esClient, MyBatis myBatis) {
+  public BackendCleanup(EsClient esClient, MyBatis myBatis, AuthorizedProjectsCache authorizedProjectsCache) {
     this.esClient = esClient;
     this.myBatis = myBatis;
+    this.authorizedProjectsCache = authorizedProjectsCache;
   }
 
   public void clearAll() {
@@ -94,6 +97,7 @@ public class BackendCleanup implements ServerComponent {
       esClient.prepareFlush(esClient.prepareState().get()
         .getState().getMetaData().concreteAllIndices())
         .get();
+      authorizedProjectsCache.clear();
     } catch (Exception e) {
       throw new IllegalStateException("Unable to clear indexes", e);
     }
@@ -165,6 +169,7 @@ public class BackendCleanup implements ServerComponent {
       .getState().getMetaData().concreteIndices(new String[] {indexName}))
       .setQuery(QueryBuilders.matchAllQuery())
       .get();
+    authorizedProjectsCache.clear();
   }
 
   /**
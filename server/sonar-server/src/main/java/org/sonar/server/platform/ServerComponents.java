@@ -122,6 +122,7 @@ import org.sonar.server.issue.filter.IssueFilterService;
 import org.sonar.server.issue.filter.IssueFilterWriter;
 import org.sonar.server.issue.filter.IssueFilterWs;
 import org.sonar.server.issue.filter.RegisterIssueFilters;
+import org.sonar.server.issue.index.AuthorizedProjectsCache;
 import org.sonar.server.issue.index.IssueAuthorizationIndexer;
 import org.sonar.server.issue.index.IssueIndex;
 import org.sonar.server.issue.index.IssueIndexDefinition;
@@ -168,6 +169,7 @@ import org.sonar.server.search.IndexClient;
 import org.sonar.server.search.IndexQueue;
 import org.sonar.server.search.IndexSynchronizer;
 import org.sonar.server.search.SearchClient;
+import org.sonar.server.source.DecoratedSourceCache;
 import org.sonar.server.source.HtmlSourceDecorator;
 import org.sonar.server.source.SourceService;
 import org.sonar.server.source.index.SourceLineIndex;
@@ -268,7 +270,11 @@ class ServerComponents {
       RuleDao.class,
       ActiveRuleDao.class,
 
+      // permissions
+      UserPermissionCache.class,
+
       // issues
+      AuthorizedProjectsCache.class,
       IssueIndex.class,
       IssueDao.class,
 
@@ -357,6 +363,7 @@ class ServerComponents {
 
     // batch
     pico.addSingleton(BatchIndex.class);
+    pico.addSingleton(ActiveRulesCache.class);
     pico.addSingleton(GlobalRepositoryAction.class);
     pico.addSingleton(ProjectRepositoryAction.class);
     pico.addSingleton(ProjectRepositoryLoader.class);
@@ -592,6 +599,7 @@ class ServerComponents {
 
     // source
     pico.addSingleton(HtmlSourceDecorator.class);
+    pico.addSingleton(DecoratedSourceCache.class);
     pico.addSingleton(SourceService.class);
     pico.addSingleton(SourcesWs.class);
     pico.addSingleton(ShowAction.class);
@@ -660,7 +668,8 @@ class ServerComponents {
       EsMonitor.class,
       PluginsMonitor.class,
       JvmPropertiesMonitor.class,
-      DatabaseMonitor.class
+      DatabaseMonitor.class,
+      CacheMonitor.class
       ));
 
     // Compute engine
@@ -670,6 +679,7 @@ class ServerComponents {
     pico.addSingleton(IsQueueEmptyWebService.class);
     pico.addSingleton(QueueWsAction.class);
     pico.addSingleton(HistoryWsAction.class);
+    pico.addSingleton(StatsWsAction.class);
     pico.addSingleton(DefaultPeriodCleaner.class);
     pico.addSingleton(DefaultPurgeTask.class);
     pico.addSingleton(ProjectCleaner.class);
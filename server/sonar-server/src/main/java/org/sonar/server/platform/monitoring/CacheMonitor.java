@@ -0,0 +1,105 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.platform.monitoring;
+
+import org.sonar.server.issue.index.AuthorizedProjectsCache;
+import org.sonar.server.source.DecoratedSourceCache;
+import org.sonar.server.user.UserPermissionCache;
+import org.sonar.server.util.cache.CacheStats;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Efficiency of the in-memory caches shared by web requests
+ */
+public class CacheMonitor extends BaseMonitorMBean implements CacheMonitorMBean {
+
+  private final UserPermissionCache userPermissionCache;
+  private final DecoratedSourceCache decoratedSourceCache;
+  private final AuthorizedProjectsCache authorizedProjectsCache;
+
+  public CacheMonitor(UserPermissionCache userPermissionCache, DecoratedSourceCache decoratedSourceCache, AuthorizedProjectsCache authorizedProjectsCache) {
+    this.userPermissionCache = userPermissionCache;
+    this.decoratedSourceCache = decoratedSourceCache;
+    this.authorizedProjectsCache = authorizedProjectsCache;
+  }
+
+  @Override
+  public String name() {
+    return "Caches";
+  }
+
+  @Override
+  public double getPermissionsHitRatio() {
+    return userPermissionCache.permissionStats().getHitRatio();
+  }
+
+  @Override
+  public long getPermissionsAverageLoadTimeMs() {
+    return userPermissionCache.permissionStats().getAverageLoadTimeMs();
+  }
+
+  @Override
+  public double getProjectsOfComponentsHitRatio() {
+    return userPermissionCache.projectStats().getHitRatio();
+  }
+
+  @Override
+  public long getProjectsOfComponentsAverageLoadTimeMs() {
+    return userPermissionCache.projectStats().getAverageLoadTimeMs();
+  }
+
+  @Override
+  public double getDecoratedSourcesHitRatio() {
+    return decoratedSourceCache.stats().getHitRatio();
+  }
+
+  @Override
+  public long getDecoratedSourcesAverageDecorationTimeMs() {
+    return decoratedSourceCache.stats().getAverageLoadTimeMs();
+  }
+
+  @Override
+  public double getIssueAuthorizedProjectsHitRatio() {
+    return authorizedProjectsCache.stats().getHitRatio();
+  }
+
+  @Override
+  public long getIssueAuthorizedProjectsAverageLoadTimeMs() {
+    return authorizedProjectsCache.stats().getAverageLoadTimeMs();
+  }
+
+  @Override
+  public LinkedHashMap<String, Object> attributes() {
+    LinkedHashMap<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("Permissions", cacheAttributes(userPermissionCache.permissionEntries(), userPermissionCache.permissionStats()));
+    attributes.put("Projects of Components", cacheAttributes(userPermissionCache.projectEntries(), userPermissionCache.projectStats()));
+    attributes.put("Decorated Sources", cacheAttributes(decoratedSourceCache.entries(), decoratedSourceCache.stats()));
+    attributes.put("Issue Authorized Projects", cacheAttributes(authorizedProjectsCache.entries(), authorizedProjectsCache.stats()));
+    return attributes;
+  }
+
+  private static LinkedHashMap<String, Object> cacheAttributes(int entries, CacheStats stats) {
+    LinkedHashMap<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("Entries", entries);
+    attributes.putAll(stats.toMap());
+    return attributes;
+  }
+}
@@ -26,6 +26,7 @@ import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
 import org.elasticsearch.action.admin.cluster.stats.ClusterStatsResponse;
 import org.elasticsearch.action.admin.indices.stats.IndexStats;
 import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.sonar.server.es.BulkIndexerStats;
 import org.sonar.server.es.EsClient;
 
 import java.util.LinkedHashMap;
@@ -84,6 +85,10 @@ public class EsMonitor extends BaseMonitorMBean implements EsMonitorMBean {
       attributes.put("Docs", indexStats.getValue().getPrimaries().getDocs().getCount());
       attributes.put("Shards", indexStats.getValue().getShards().length);
       attributes.put("Store Size", byteCountToDisplaySize(indexStats.getValue().getPrimaries().getStore().getSizeInBytes()));
+      BulkIndexerStats.IndexStats bulkStats = esClient.getBulkIndexerStats().all().get(indexStats.getKey());
+      if (bulkStats != null) {
+        attributes.put("Bulk Indexing", new LinkedHashMap<String, Object>(bulkStats.toMap()));
+      }
     }
     return indices;
   }
@@ -31,6 +31,7 @@ import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.api.rule.RuleStatus;
 import org.sonar.core.qualityprofile.db.ActiveRuleDto;
@@ -154,6 +155,21 @@ public class ActiveRuleIndex extends BaseIndex<ActiveRule, ActiveRuleDto, Active
           FilterBuilders.termFilter(RuleNormalizer.RuleField.STATUS.field(), "REMOVED"))));
   }
 
+  /**
+   * Statistics on the update dates of the indexed active rules of a quality profile, including the ones of removed
+   * rules. They change as soon as an active rule of the profile is indexed or deleted.
+   */
+  public Stats getUpdateDateStatsByProfileKey(String key) {
+    String aggregationKey = "_updatedAt";
+    SearchRequestBuilder request = getClient().prepareSearch(this.getIndexName())
+      .setTypes(this.getIndexType())
+      .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+        FilterBuilders.termFilter(ActiveRuleNormalizer.ActiveRuleField.PROFILE_KEY.field(), key)))
+      .addAggregation(AggregationBuilders.stats(aggregationKey).field(ActiveRuleNormalizer.ActiveRuleField.UPDATED_AT.field()))
+      .setSize(0);
+    return request.get().getAggregations().get(aggregationKey);
+  }
+
   public Multimap<String, FacetValue> getStatsByProfileKey(String key) {
     return getStatsByProfileKeys(ImmutableList.of(key)).get(key);
   }
@@ -39,6 +39,7 @@ import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.bucket.global.GlobalBuilder;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsBuilder;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -531,6 +532,21 @@ public class RuleIndex extends BaseIndex<Rule, RuleDto, RuleKey> {
     return tags;
   }
 
+  /**
+   * Statistics on the update dates of the indexed rules of a language, including removed rules. They change
+   * as soon as a rule of the language is indexed.
+   */
+  public Stats getUpdateDateStatsByLanguage(String language) {
+    String key = "_updatedAt";
+    SearchRequestBuilder request = getClient().prepareSearch(this.getIndexName())
+      .setTypes(this.getIndexType())
+      .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+        FilterBuilders.termFilter(RuleNormalizer.RuleField.LANGUAGE.field(), language)))
+      .addAggregation(AggregationBuilders.stats(key).field(RuleNormalizer.RuleField.UPDATED_AT.field()))
+      .setSize(0);
+    return request.get().getAggregations().get(key);
+  }
+
   /**
    * @deprecated please use getByKey(RuleKey key)
    */
@@ -19,6 +19,8 @@
  */
 package org.sonar.server.search;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
@@ -28,24 +30,45 @@ import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.picocontainer.Startable;
 import org.sonar.api.ServerComponent;
 import org.sonar.api.platform.ComponentContainer;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.cluster.WorkQueue;
+import org.sonar.server.search.action.DeleteKey;
 import org.sonar.server.search.action.IndexAction;
+import org.sonar.server.search.action.InsertDto;
+import org.sonar.server.search.action.RefreshIndex;
+import org.sonar.server.search.action.UpsertDto;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>> {
+/**
+ * Indexes the actions enqueued by {@link org.sonar.core.persistence.DbSession#commit()}.
+ * <p/>
+ * Actions that require a refresh (the default, see {@link IndexAction#needsRefresh()}) are indexed synchronously, so
+ * that the caller can read its own writes. Other actions, for example the ones enqueued by the synchronization
+ * of indices with db, are buffered in memory and indexed in background. As indexing is serialized, pending actions
+ * are always indexed before the ones enqueued later. When the buffer is full, the caller indexes
+ * synchronously. Actions that fail to be indexed in background are put back at the head of the buffer and retried
+ * a bounded number of times.
+ */
+public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>>, Startable {
 
   private final SearchClient searchClient;
   private final ComponentContainer container;
@@ -54,21 +77,188 @@ public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>> {
 
   private static final Integer CONCURRENT_NORMALIZATION_FACTOR = 1;
 
+  @VisibleForTesting
+  static final int MAX_PENDING_ACTIONS = 10000;
+
+  @VisibleForTesting
+  static final int MAX_BACKGROUND_ATTEMPTS = 3;
+
+  @VisibleForTesting
+  long retryDelayMs = 1000L;
+
+  /**
+   * Actions waiting to be indexed in background, guarded by itself
+   */
+  private final Deque<IndexAction<?>> pendingActions = new ArrayDeque<>();
+
+  /**
+   * Held while indexing, so that actions are indexed in the order they are enqueued
+   */
+  private final Lock indexingLock = new ReentrantLock();
+
+  private ExecutorService normalizationExecutor;
+  private ExecutorService backgroundExecutor;
+  private volatile boolean started = false;
+
   public IndexQueue(SearchClient searchClient, ComponentContainer container) {
     this.searchClient = searchClient;
     this.container = container;
   }
 
+  @Override
+  public void start() {
+    normalizationExecutor = Executors.newFixedThreadPool(CONCURRENT_NORMALIZATION_FACTOR,
+      new ThreadFactoryBuilder().setNameFormat("index-normalizer-%d").setDaemon(true).build());
+    backgroundExecutor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("index-queue").setDaemon(true).build());
+    started = true;
+    backgroundExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        indexPendingActions();
+      }
+    });
+  }
+
+  @Override
+  public void stop() {
+    if (started) {
+      started = false;
+      synchronized (pendingActions) {
+        pendingActions.notifyAll();
+      }
+      shutdown(backgroundExecutor);
+      // actions left by the background thread
+      indexSynchronously(new ArrayList<IndexAction<?>>());
+      shutdown(normalizationExecutor);
+    }
+  }
+
   @Override
   public void enqueue(List<IndexAction<?>> actions) {
     if (actions.isEmpty()) {
       return;
     }
+    if (started && !requiresRefresh(actions) && enqueuePending(actions)) {
+      return;
+    }
+    indexSynchronously(actions);
+  }
+
+  private static boolean requiresRefresh(List<IndexAction<?>> actions) {
+    for (IndexAction<?> action : actions) {
+      if (action.needsRefresh()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return false if buffer is full
+   */
+  private boolean enqueuePending(List<IndexAction<?>> actions) {
+    synchronized (pendingActions) {
+      if (pendingActions.size() + actions.size() > MAX_PENDING_ACTIONS) {
+        return false;
+      }
+      pendingActions.addAll(actions);
+      pendingActions.notifyAll();
+      return true;
+    }
+  }
+
+  /**
+   * Puts back actions at the head of the buffer, so that they are still indexed before the ones enqueued later
+   */
+  private void requeuePendingActions(List<IndexAction<?>> actions) {
+    synchronized (pendingActions) {
+      for (ListIterator<IndexAction<?>> it = actions.listIterator(actions.size()); it.hasPrevious();) {
+        pendingActions.addFirst(it.previous());
+      }
+    }
+  }
+
+  private List<IndexAction<?>> pollPendingActions() {
+    synchronized (pendingActions) {
+      List<IndexAction<?>> actions = new ArrayList<>(pendingActions);
+      pendingActions.clear();
+      return actions;
+    }
+  }
+
+  private void indexSynchronously(List<IndexAction<?>> actions) {
+    indexingLock.lock();
+    try {
+      List<IndexAction<?>> allActions = pollPendingActions();
+      allActions.addAll(actions);
+      index(allActions);
+    } finally {
+      indexingLock.unlock();
+    }
+  }
+
+  private void indexPendingActions() {
+    int failures = 0;
+    while (started) {
+      try {
+        synchronized (pendingActions) {
+          while (started && pendingActions.isEmpty()) {
+            pendingActions.wait();
+          }
+        }
+        if (indexPendingActionsOnce(failures + 1)) {
+          failures = 0;
+        } else {
+          failures++;
+          synchronized (pendingActions) {
+            // woken up by stop(), which indexes the requeued actions synchronously
+            pendingActions.wait(retryDelayMs * failures);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return false if actions failed and have been requeued
+   */
+  private boolean indexPendingActionsOnce(int attempt) {
+    indexingLock.lock();
+    try {
+      List<IndexAction<?>> actions = pollPendingActions();
+      try {
+        index(actions);
+        return true;
+      } catch (Exception e) {
+        if (attempt < MAX_BACKGROUND_ATTEMPTS) {
+          LOGGER.warn(String.format("Fail to index in background, %d actions will be retried (attempt %d of %d)",
+            actions.size(), attempt, MAX_BACKGROUND_ATTEMPTS), e);
+          requeuePendingActions(actions);
+          return false;
+        }
+        // actions are lost, indices have to be synchronized again with db
+        LOGGER.error(String.format("Fail to index in background after %d attempts, %d actions are dropped",
+          MAX_BACKGROUND_ATTEMPTS, actions.size()), e);
+        return true;
+      }
+    } finally {
+      indexingLock.unlock();
+    }
+  }
+
+  private void index(List<IndexAction<?>> allActions) {
+    if (allActions.isEmpty()) {
+      return;
+    }
     boolean refreshRequired = false;
 
     Map<String, Index> indexes = getIndexMap();
     Set<String> indices = new HashSet<String>();
-    for (IndexAction action : actions) {
+    for (IndexAction action : allActions) {
       Index index = indexes.get(action.getIndexType());
       action.setIndex(index);
       if (action.needsRefresh()) {
@@ -79,7 +269,7 @@ public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>> {
 
     BulkRequestBuilder bulkRequestBuilder = searchClient.prepareBulk();
 
-    processActionsIntoQueries(bulkRequestBuilder, actions);
+    processActionsIntoQueries(bulkRequestBuilder, coalesce(allActions));
 
     if (bulkRequestBuilder.numberOfActions() > 0) {
       // execute the request
@@ -95,6 +285,34 @@ public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>> {
     }
   }
 
+  /**
+   * Drop the upserts of documents that are upserted again or deleted later, unless a nested item
+   * of the document is changed in between.
+   */
+  @VisibleForTesting
+  static List<IndexAction<?>> coalesce(List<IndexAction<?>> actions) {
+    Set<String> documentsChangedLater = new HashSet<>();
+    Deque<IndexAction<?>> result = new ArrayDeque<>();
+    for (ListIterator<IndexAction<?>> it = actions.listIterator(actions.size()); it.hasPrevious();) {
+      IndexAction<?> action = it.previous();
+      if (action instanceof UpsertDto || action instanceof InsertDto) {
+        if (!documentsChangedLater.add(documentKey(action))) {
+          continue;
+        }
+      } else if (action instanceof DeleteKey) {
+        documentsChangedLater.add(documentKey(action));
+      } else if (!(action instanceof RefreshIndex)) {
+        documentsChangedLater.remove(documentKey(action));
+      }
+      result.addFirst(action);
+    }
+    return new ArrayList<>(result);
+  }
+
+  private static String documentKey(IndexAction<?> action) {
+    return action.getIndexType() + "/" + action.getKey();
+  }
+
   private void refreshRequiredIndex(Set<String> indices) {
     if (!indices.isEmpty()) {
       RefreshRequestBuilder refreshRequest = searchClient.prepareRefresh(indices.toArray(new String[indices.size()]))
@@ -109,9 +327,14 @@ public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>> {
   }
 
   private void processActionsIntoQueries(BulkRequestBuilder bulkRequestBuilder, List<IndexAction<?>> actions) {
+    ExecutorService executorService = normalizationExecutor;
+    boolean temporaryExecutor = executorService == null || executorService.isShutdown();
+    if (temporaryExecutor) {
+      // not started yet, or already stopped
+      executorService = Executors.newFixedThreadPool(CONCURRENT_NORMALIZATION_FACTOR);
+    }
     try {
       boolean hasInlineRefreshRequest = false;
-      ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENT_NORMALIZATION_FACTOR);
       // invokeAll() blocks until ALL tasks submitted to executor complete
       List<Future<List<? extends ActionRequest>>> requests = (List) executorService.invokeAll(actions, 20, TimeUnit.MINUTES);
       for (Future<List<? extends ActionRequest>> updates : requests) {
@@ -130,10 +353,25 @@ public class IndexQueue implements ServerComponent, WorkQueue<IndexAction<?>> {
           }
         }
       }
-      executorService.shutdown();
       bulkRequestBuilder.setRefresh(hasInlineRefreshRequest);
     } catch (Exception e) {
       throw new IllegalStateException("Could not execute normalization for stack", e);
+    } finally {
+      if (temporaryExecutor) {
+        executorService.shutdown();
+      }
+    }
+  }
+
+  private static void shutdown(ExecutorService executor) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
     }
   }
 
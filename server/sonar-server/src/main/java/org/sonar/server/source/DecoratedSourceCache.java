@@ -0,0 +1,137 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.source;
+
+import com.google.common.base.Predicate;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.sonar.api.ServerComponent;
+import org.sonar.api.utils.System2;
+import org.sonar.server.source.index.SourceLineDoc;
+import org.sonar.server.util.cache.CacheStats;
+import org.sonar.server.util.cache.SharedMemoryCache;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HTML of the source lines decorated by {@link HtmlSourceDecorator}, shared by all the requests
+ * of the source viewer. Decorating a line requires to parse its highlighting and symbols, which
+ * is done again and again for popular files between two analyses.
+ * <p/>
+ * Entries are identified by project, file, range of lines and hash of the data of these lines,
+ * so a range of lines modified by a new analysis is never served from cache. Entries of a project
+ * are removed when its source lines are indexed again, see {@link org.sonar.server.computation.step.IndexSourceLinesStep}.
+ * Least recently used entries are evicted when the total size of cached HTML exceeds {@link #MAX_CHARACTERS}.
+ */
+public class DecoratedSourceCache implements ServerComponent {
+
+  /**
+   * Around 20Mb in memory
+   */
+  static final long MAX_CHARACTERS = 10000000L;
+
+  private final HtmlSourceDecorator htmlSourceDecorator;
+  private final SharedMemoryCache<List<Object>, List<String>> cache;
+
+  public DecoratedSourceCache(HtmlSourceDecorator htmlSourceDecorator, System2 system) {
+    this.htmlSourceDecorator = htmlSourceDecorator;
+    this.cache = new SharedMemoryCache<>(new SharedMemoryCache.Weigher<List<String>>() {
+      @Override
+      public long weigh(List<String> htmlLines) {
+        long size = htmlLines.size();
+        for (String htmlLine : htmlLines) {
+          size += htmlLine == null ? 0 : htmlLine.length();
+        }
+        return size;
+      }
+    }, MAX_CHARACTERS, 0L, system);
+  }
+
+  /**
+   * Decorated HTML of the given consecutive lines of a file, in the same order
+   */
+  public List<String> getDecoratedSourceAsHtml(String projectUuid, String fileUuid, final List<SourceLineDoc> lines) {
+    if (lines.isEmpty()) {
+      return Collections.emptyList();
+    }
+    String linesHash = hash(lines);
+    if (linesHash == null) {
+      // lines indexed by a previous version, without data hash
+      return decorate(lines);
+    }
+    List<Object> key = Arrays.<Object>asList(projectUuid, fileUuid, lines.get(0).line(), lines.get(lines.size() - 1).line(), linesHash);
+    return cache.get(key, new SharedMemoryCache.Loader<List<Object>, List<String>>() {
+      @Override
+      public List<String> load(List<Object> key) {
+        return decorate(lines);
+      }
+    });
+  }
+
+  public void invalidateProject(final String projectUuid) {
+    cache.invalidateAll(new Predicate<List<Object>>() {
+      @Override
+      public boolean apply(@Nullable List<Object> key) {
+        return key != null && projectUuid.equals(key.get(0));
+      }
+    });
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Number of ranges of lines currently cached
+   */
+  public int entries() {
+    return cache.size();
+  }
+
+  private List<String> decorate(List<SourceLineDoc> lines) {
+    List<String> htmlLines = new ArrayList<>(lines.size());
+    for (SourceLineDoc line : lines) {
+      htmlLines.add(htmlSourceDecorator.getDecoratedSourceAsHtml(line.source(), line.highlighting(), line.symbols()));
+    }
+    return Collections.unmodifiableList(htmlLines);
+  }
+
+  @CheckForNull
+  private static String hash(List<SourceLineDoc> lines) {
+    StringBuilder dataHashes = new StringBuilder(lines.size() * 33);
+    for (SourceLineDoc line : lines) {
+      String dataHash = line.dataHash();
+      if (dataHash == null) {
+        return null;
+      }
+      dataHashes.append(dataHash).append(',');
+    }
+    return DigestUtils.md5Hex(dataHashes.toString());
+  }
+}
@@ -19,6 +19,7 @@
  */
 package org.sonar.server.source.index;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.sonar.api.utils.text.JsonWriter;
@@ -48,6 +49,7 @@ public class SourceFileResultSetIterator extends ResultSetIterator<SourceFileRes
     private final String fileUuid, projectUuid;
     private final long updatedAt;
     private final List<UpdateRequest> lineUpdateRequests = new ArrayList<>();
+    private final List<String> lineDataHashes = new ArrayList<>();
 
     public Row(String projectUuid, String fileUuid, long updatedAt) {
       this.projectUuid = projectUuid;
@@ -70,6 +72,13 @@ public class SourceFileResultSetIterator extends ResultSetIterator<SourceFileRes
     public List<UpdateRequest> getLineUpdateRequests() {
       return lineUpdateRequests;
     }
+
+    /**
+     * Hashes of the indexed data of lines, in the same order as {@link #getLineUpdateRequests()}
+     */
+    public List<String> getLineDataHashes() {
+      return lineDataHashes;
+    }
   }
 
   private static final String[] FIELDS = {
@@ -115,6 +124,8 @@ public class SourceFileResultSetIterator extends ResultSetIterator<SourceFileRes
     Row result = new Row(projectUuid, fileUuid, updatedAt.getTime());
     for (FileSourceDb.Line line : data.getLinesList()) {
       ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      // the update date is not part of the hash, so that unchanged lines are not indexed again
+      String dataHash = DigestUtils.md5Hex(line.toByteArray());
 
       // all the fields must be present, even if value is null
       JsonWriter writer = JsonWriter.of(new OutputStreamWriter(bytes)).setSerializeNulls(true);
@@ -190,6 +201,7 @@ public class SourceFileResultSetIterator extends ResultSetIterator<SourceFileRes
       }
       writer.name(SourceLineIndexDefinition.FIELD_DUPLICATIONS).valueObject(line.getDuplicationList());
       writer.prop(SourceLineIndexDefinition.FIELD_SOURCE, line.hasSource() ? line.getSource() : null);
+      writer.prop(SourceLineIndexDefinition.FIELD_DATA_HASH, dataHash);
       writer.endObject().close();
 
       // This is an optimization to reduce memory consumption and multiple conversions from Map to JSON.
@@ -203,6 +215,7 @@ public class SourceFileResultSetIterator extends ResultSetIterator<SourceFileRes
         .doc(jsonDoc)
         .upsert(jsonDoc);
       result.lineUpdateRequests.add(updateRequest);
+      result.lineDataHashes.add(dataHash);
     }
     return result;
   }
@@ -117,6 +117,21 @@ public class SourceLineDoc extends BaseDoc {
     return this;
   }
 
+  /**
+   * Hash of all the data of the line, except the update date. It changes as soon as the line
+   * is modified, for example by a new highlighting or new coverage data.
+   * Null if the line has been indexed by a version that did not compute the hash.
+   */
+  @CheckForNull
+  public String dataHash() {
+    return (String) fields.get(SourceLineIndexDefinition.FIELD_DATA_HASH);
+  }
+
+  public SourceLineDoc setDataHash(@Nullable String dataHash) {
+    setField(SourceLineIndexDefinition.FIELD_DATA_HASH, dataHash);
+    return this;
+  }
+
   public Date updateDate() {
     return getFieldAsDate(SourceLineIndexDefinition.FIELD_UPDATED_AT);
   }
@@ -50,6 +50,7 @@ public class SourceLineIndexDefinition implements IndexDefinition {
   public static final String FIELD_SYMBOLS = "symbols";
   public static final String FIELD_DUPLICATIONS = "duplications";
   public static final String FIELD_UPDATED_AT = "updatedAt";
+  public static final String FIELD_DATA_HASH = "dataHash";
 
   private final Settings settings;
 
@@ -95,6 +96,7 @@ public class SourceLineIndexDefinition implements IndexDefinition {
     mapping.stringFieldBuilder(FIELD_SYMBOLS).disableSearch().build();
     mapping.createShortField(FIELD_DUPLICATIONS);
     mapping.createDateTimeField(FIELD_UPDATED_AT);
+    mapping.stringFieldBuilder(FIELD_DATA_HASH).disableSearch().build();
   }
 
   public static String docKey(String fileUuid, int line) {
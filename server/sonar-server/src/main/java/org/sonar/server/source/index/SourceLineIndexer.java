@@ -19,10 +19,15 @@
  */
 package org.sonar.server.source.index;
 
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.es.BaseIndexer;
@@ -30,9 +35,18 @@ import org.sonar.server.es.BulkIndexer;
 import org.sonar.server.es.EsClient;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_DATA_HASH;
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_FILE_UUID;
+import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_LINE;
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_PROJECT_UUID;
 
 /**
@@ -41,6 +55,10 @@ import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_PROJ
  */
 public class SourceLineIndexer extends BaseIndexer {
 
+  private static final int MAX_FILES_PER_BATCH = 100;
+  private static final int MAX_LINES_PER_BATCH = 20000;
+  private static final int SCROLL_TIME_IN_MINUTES = 3;
+
   private final DbClient dbClient;
 
   public SourceLineIndexer(DbClient dbClient, EsClient esClient) {
@@ -57,7 +75,8 @@ public class SourceLineIndexer extends BaseIndexer {
     Connection dbConnection = dbSession.getConnection();
     try {
       SourceFileResultSetIterator rowIt = SourceFileResultSetIterator.create(dbClient, dbConnection, lastUpdatedAt);
-      long maxUpdatedAt = doIndex(bulk, rowIt);
+      // index is empty when lastUpdatedAt is zero, so there is no need to load the lines already indexed
+      long maxUpdatedAt = doIndex(bulk, rowIt, lastUpdatedAt > 0L);
       rowIt.close();
       return maxUpdatedAt;
 
@@ -68,43 +87,112 @@ public class SourceLineIndexer extends BaseIndexer {
 
   public long index(Iterator<SourceFileResultSetIterator.Row> dbRows) {
     BulkIndexer bulk = new BulkIndexer(esClient, SourceLineIndexDefinition.INDEX);
-    return doIndex(bulk, dbRows);
+    return doIndex(bulk, dbRows, true);
   }
 
-  private long doIndex(BulkIndexer bulk, Iterator<SourceFileResultSetIterator.Row> dbRows) {
+  private long doIndex(BulkIndexer bulk, Iterator<SourceFileResultSetIterator.Row> dbRows, boolean loadIndexedLines) {
     long maxUpdatedAt = 0L;
     bulk.start();
+    List<SourceFileResultSetIterator.Row> batch = new ArrayList<>();
+    int batchLines = 0;
     while (dbRows.hasNext()) {
       SourceFileResultSetIterator.Row row = dbRows.next();
-      addDeleteRequestsForLinesGreaterThan(bulk, row);
-      for (UpdateRequest updateRequest : row.getLineUpdateRequests()) {
-        bulk.add(updateRequest);
+      batch.add(row);
+      batchLines += row.getLineUpdateRequests().size();
+      if (batch.size() >= MAX_FILES_PER_BATCH || batchLines >= MAX_LINES_PER_BATCH) {
+        indexBatch(bulk, batch, loadIndexedLines);
+        batch.clear();
+        batchLines = 0;
       }
       maxUpdatedAt = Math.max(maxUpdatedAt, row.getUpdatedAt());
     }
+    indexBatch(bulk, batch, loadIndexedLines);
     bulk.stop();
     return maxUpdatedAt;
   }
 
   /**
+   * Only the lines with a new data hash are sent to Elasticsearch. The lines that
+   * do not exist anymore are deleted. The first line is always sent, so that the update date
+   * of the file is indexed: it is the resume point of next indexing (see {@link BaseIndexer#start()}).
    * Use-case:
    * - file had 10 lines in previous analysis
    * - same file has now 5 lines
    * Lines 6 to 10 must be removed from index.
    */
-  private void addDeleteRequestsForLinesGreaterThan(BulkIndexer bulk, SourceFileResultSetIterator.Row fileRow) {
-    int numberOfLines = fileRow.getLineUpdateRequests().size();
+  private void indexBatch(BulkIndexer bulk, List<SourceFileResultSetIterator.Row> batch, boolean loadIndexedLines) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    Map<String, IndexedFile> indexedFiles = loadIndexedLines ? loadIndexedFiles(batch) : Collections.<String, IndexedFile>emptyMap();
+    for (SourceFileResultSetIterator.Row row : batch) {
+      IndexedFile indexedFile = indexedFiles.get(row.getFileUuid());
+      List<UpdateRequest> updateRequests = row.getLineUpdateRequests();
+      for (int index = 0; index < updateRequests.size(); index++) {
+        UpdateRequest updateRequest = updateRequests.get(index);
+        if (index == 0 || indexedFile == null || !row.getLineDataHashes().get(index).equals(indexedFile.dataHashesByDocKey.get(updateRequest.id()))) {
+          bulk.add(updateRequest);
+        }
+      }
+      if (indexedFile != null) {
+        for (int line = updateRequests.size() + 1; line <= indexedFile.maxLine; line++) {
+          bulk.add(new DeleteRequest(SourceLineIndexDefinition.INDEX, SourceLineIndexDefinition.TYPE, SourceLineIndexDefinition.docKey(row.getFileUuid(), line))
+            .routing(row.getProjectUuid()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the data hashes of the lines already indexed for the files of the batch. A single
+   * search is executed for all the files.
+   */
+  private Map<String, IndexedFile> loadIndexedFiles(List<SourceFileResultSetIterator.Row> batch) {
+    Set<String> fileUuids = new HashSet<>();
+    Set<String> projectUuids = new HashSet<>();
+    for (SourceFileResultSetIterator.Row row : batch) {
+      fileUuids.add(row.getFileUuid());
+      projectUuids.add(row.getProjectUuid());
+    }
     SearchRequestBuilder searchRequest = esClient.prepareSearch(SourceLineIndexDefinition.INDEX)
       .setTypes(SourceLineIndexDefinition.TYPE)
-      .setRouting(fileRow.getProjectUuid())
+      .setRouting(projectUuids.toArray(new String[projectUuids.size()]))
+      .setSearchType(SearchType.SCAN)
+      .setScroll(TimeValue.timeValueMinutes(SCROLL_TIME_IN_MINUTES))
+      .setSize(100)
+      .setFetchSource(new String[] {FIELD_FILE_UUID, FIELD_LINE, FIELD_DATA_HASH}, null)
       .setQuery(QueryBuilders.filteredQuery(
         QueryBuilders.matchAllQuery(),
-        FilterBuilders.boolFilter()
-          .must(FilterBuilders.termFilter(FIELD_FILE_UUID, fileRow.getFileUuid()).cache(false))
-          .must(FilterBuilders.rangeFilter(SourceLineIndexDefinition.FIELD_LINE).gt(numberOfLines).cache(false))
-          .cache(false)
-      ));
-    bulk.addDeletion(searchRequest);
+        FilterBuilders.termsFilter(FIELD_FILE_UUID, fileUuids).cache(false)));
+
+    Map<String, IndexedFile> indexedFiles = new HashMap<>();
+    SearchResponse response = searchRequest.get();
+    while (true) {
+      response = esClient.prepareSearchScroll(response.getScrollId())
+        .setScroll(TimeValue.timeValueMinutes(SCROLL_TIME_IN_MINUTES))
+        .get();
+      SearchHit[] hits = response.getHits().getHits();
+      if (hits.length == 0) {
+        break;
+      }
+      for (SearchHit hit : hits) {
+        Map<String, Object> source = hit.getSource();
+        String fileUuid = (String) source.get(FIELD_FILE_UUID);
+        IndexedFile indexedFile = indexedFiles.get(fileUuid);
+        if (indexedFile == null) {
+          indexedFile = new IndexedFile();
+          indexedFiles.put(fileUuid, indexedFile);
+        }
+        indexedFile.maxLine = Math.max(indexedFile.maxLine, ((Number) source.get(FIELD_LINE)).intValue());
+        indexedFile.dataHashesByDocKey.put(hit.getId(), (String) source.get(FIELD_DATA_HASH));
+      }
+    }
+    return indexedFiles;
+  }
+
+  private static class IndexedFile {
+    private final Map<String, String> dataHashesByDocKey = new HashMap<>();
+    private int maxLine = 0;
   }
 
   public void deleteByFile(String fileUuid) {
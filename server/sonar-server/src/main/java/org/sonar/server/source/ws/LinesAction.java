@@ -31,7 +31,7 @@ import org.sonar.api.web.UserRole;
 import org.sonar.core.component.ComponentDto;
 import org.sonar.server.component.ComponentService;
 import org.sonar.server.exceptions.NotFoundException;
-import org.sonar.server.source.HtmlSourceDecorator;
+import org.sonar.server.source.DecoratedSourceCache;
 import org.sonar.server.source.index.SourceLineDoc;
 import org.sonar.server.source.index.SourceLineIndex;
 import org.sonar.server.user.UserSession;
@@ -42,12 +42,12 @@ import java.util.List;
 public class LinesAction implements RequestHandler {
 
   private final SourceLineIndex sourceLineIndex;
-  private final HtmlSourceDecorator htmlSourceDecorator;
+  private final DecoratedSourceCache decoratedSourceCache;
   private final ComponentService componentService;
 
-  public LinesAction(SourceLineIndex sourceLineIndex, HtmlSourceDecorator htmlSourceDecorator, ComponentService componentService) {
+  public LinesAction(SourceLineIndex sourceLineIndex, DecoratedSourceCache decoratedSourceCache, ComponentService componentService) {
     this.sourceLineIndex = sourceLineIndex;
-    this.htmlSourceDecorator = htmlSourceDecorator;
+    this.decoratedSourceCache = decoratedSourceCache;
     this.componentService = componentService;
   }
 
@@ -106,17 +106,19 @@ public class LinesAction implements RequestHandler {
     }
 
     JsonWriter json = response.newJsonWriter().beginObject();
-    writeSource(sourceLines, from, json);
+    List<String> htmlLines = decoratedSourceCache.getDecoratedSourceAsHtml(component.projectUuid(), fileUuid, sourceLines);
+    writeSource(sourceLines, htmlLines, json);
 
     json.endObject().close();
   }
 
-  private void writeSource(List<SourceLineDoc> lines, int from, JsonWriter json) {
+  private void writeSource(List<SourceLineDoc> lines, List<String> htmlLines, JsonWriter json) {
     json.name("sources").beginArray();
-    for (SourceLineDoc line: lines) {
+    for (int index = 0; index < lines.size(); index++) {
+      SourceLineDoc line = lines.get(index);
       json.beginObject()
         .prop("line", line.line())
-        .prop("code", htmlSourceDecorator.getDecoratedSourceAsHtml(line.source(), line.highlighting(), line.symbols()))
+        .prop("code", htmlLines.get(index))
         .prop("scmAuthor", line.scmAuthor())
         .prop("scmRevision", line.scmRevision());
       Date scmDate = line.scmDate();
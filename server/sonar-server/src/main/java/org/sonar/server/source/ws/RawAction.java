@@ -52,6 +52,7 @@ public class RawAction implements RequestHandler {
       .setDescription("Get source code as plain text. Require See Source Code permission on file")
       .setSince("5.0")
       .setResponseExample(Resources.getResource(getClass(), "example-raw.txt"))
+      .setResponseStreamed(true)
       .setHandler(this);
 
     action
@@ -0,0 +1,164 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.user;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import org.sonar.api.ServerComponent;
+import org.sonar.api.utils.System2;
+import org.sonar.core.resource.ResourceDao;
+import org.sonar.core.resource.ResourceDto;
+import org.sonar.core.user.AuthorizationDao;
+import org.sonar.server.util.cache.CacheStats;
+import org.sonar.server.util.cache.SharedMemoryCache;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Project permissions and projects of components, shared by all the {@link UserSession}s
+ * so that authorization checks do not load the authorized projects from database on each request.
+ * <p/>
+ * Permissions are cached per user (or for anonymous) and permission. The cache is cleared
+ * when permissions of projects are changed, see {@link org.sonar.server.issue.index.IssueAuthorizationIndexer}.
+ * Entries expire after {@link #TTL_MS} in order to take into account the changes that are not notified,
+ * like group membership changes made by the Rails application.
+ */
+public class UserPermissionCache implements ServerComponent {
+
+  @VisibleForTesting
+  static final long TTL_MS = TimeUnit.MINUTES.toMillis(1L);
+
+  /**
+   * Maximum number of project keys and uuids kept in memory
+   */
+  private static final long MAX_PROJECTS = 500000L;
+
+  private static final long MAX_COMPONENTS = 100000L;
+
+  private static final String BY_KEY = "key";
+  private static final String BY_UUID = "uuid";
+
+  private final AuthorizationDao authorizationDao;
+  private final ResourceDao resourceDao;
+  private final SharedMemoryCache<List<Object>, Set<String>> permissions;
+  private final SharedMemoryCache<List<String>, String> projects;
+
+  private final SharedMemoryCache.Loader<List<Object>, Set<String>> permissionsLoader = new SharedMemoryCache.Loader<List<Object>, Set<String>>() {
+    @Override
+    public Set<String> load(List<Object> key) {
+      Integer userId = (Integer) key.get(1);
+      String permission = (String) key.get(2);
+      Collection<String> projects = BY_KEY.equals(key.get(0)) ?
+        authorizationDao.selectAuthorizedRootProjectsKeys(userId, permission) :
+        authorizationDao.selectAuthorizedRootProjectsUuids(userId, permission);
+      return ImmutableSet.copyOf(projects);
+    }
+  };
+
+  private final SharedMemoryCache.Loader<List<String>, String> projectsLoader = new SharedMemoryCache.Loader<List<String>, String>() {
+    @Override
+    public String load(List<String> key) {
+      if (BY_KEY.equals(key.get(0))) {
+        ResourceDto project = resourceDao.getRootProjectByComponentKey(key.get(1));
+        return project == null ? null : project.getKey();
+      }
+      ResourceDto component = resourceDao.getResource(key.get(1));
+      return component == null ? null : component.getProjectUuid();
+    }
+  };
+
+  public UserPermissionCache(AuthorizationDao authorizationDao, ResourceDao resourceDao, System2 system) {
+    this.authorizationDao = authorizationDao;
+    this.resourceDao = resourceDao;
+    this.permissions = new SharedMemoryCache<>(new SharedMemoryCache.Weigher<Set<String>>() {
+      @Override
+      public long weigh(Set<String> projects) {
+        return Math.max(1L, projects.size());
+      }
+    }, MAX_PROJECTS, TTL_MS, system);
+    this.projects = new SharedMemoryCache<>(MAX_COMPONENTS, TTL_MS, system);
+  }
+
+  /**
+   * Keys of the root projects on which the user has the given permission
+   * @param userId id of user, null for anonymous
+   */
+  public Set<String> authorizedProjectKeys(@Nullable Integer userId, String permission) {
+    return permissions.get(Arrays.<Object>asList(BY_KEY, userId, permission), permissionsLoader);
+  }
+
+  /**
+   * Uuids of the root projects on which the user has the given permission
+   * @param userId id of user, null for anonymous
+   */
+  public Set<String> authorizedProjectUuids(@Nullable Integer userId, String permission) {
+    return permissions.get(Arrays.<Object>asList(BY_UUID, userId, permission), permissionsLoader);
+  }
+
+  /**
+   * Key of the root project of the given component. Null if the component does not exist.
+   */
+  @CheckForNull
+  public String rootProjectKey(String componentKey) {
+    return projects.get(Arrays.asList(BY_KEY, componentKey), projectsLoader);
+  }
+
+  /**
+   * Uuid of the project of the given component. Null if the component does not exist.
+   */
+  @CheckForNull
+  public String projectUuid(String componentUuid) {
+    return projects.get(Arrays.asList(BY_UUID, componentUuid), projectsLoader);
+  }
+
+  public void clear() {
+    permissions.clear();
+    projects.clear();
+  }
+
+  public CacheStats permissionStats() {
+    return permissions.stats();
+  }
+
+  public CacheStats projectStats() {
+    return projects.stats();
+  }
+
+  /**
+   * Number of users and permissions currently cached
+   */
+  public int permissionEntries() {
+    return permissions.size();
+  }
+
+  /**
+   * Number of components currently cached
+   */
+  public int projectEntries() {
+    return projects.size();
+  }
+}
@@ -21,13 +21,10 @@ package org.sonar.server.user;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
-import com.google.common.collect.HashMultimap;
 import org.sonar.api.security.DefaultGroups;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.permission.GlobalPermissions;
-import org.sonar.core.resource.ResourceDao;
-import org.sonar.core.resource.ResourceDto;
 import org.sonar.core.user.AuthorizationDao;
 import org.sonar.server.exceptions.ForbiddenException;
 import org.sonar.server.exceptions.UnauthorizedException;
@@ -38,13 +35,11 @@ import javax.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
-import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Sets.newHashSet;
 
@@ -66,11 +61,10 @@ public class UserSession {
   private Locale locale = Locale.ENGLISH;
   List<String> globalPermissions = null;
 
-  HashMultimap<String, String> projectKeyByPermission = HashMultimap.create();
-  HashMultimap<String, String> projectUuidByPermission = HashMultimap.create();
+  Map<String, Set<String>> projectKeysByPermission = newHashMap();
+  Map<String, Set<String>> projectUuidsByPermission = newHashMap();
   Map<String, String> projectKeyByComponentKey = newHashMap();
   Map<String, String> projectUuidByComponentUuid = newHashMap();
-  List<String> projectPermissions = newArrayList();
 
   UserSession() {
     // Do not forget that when forceAuthentication is set to true, the Anyone group should not be set (but this will be check when
@@ -199,28 +193,24 @@ public class UserSession {
    * Does the user have the given project permission ?
    */
   public boolean hasProjectPermission(String permission, String projectKey) {
-    if (!projectPermissions.contains(permission)) {
-      Collection<String> projectKeys = authorizationDao().selectAuthorizedRootProjectsKeys(userId, permission);
-      for (String key : projectKeys) {
-        projectKeyByPermission.put(permission, key);
-      }
-      projectPermissions.add(permission);
+    Set<String> projectKeys = projectKeysByPermission.get(permission);
+    if (projectKeys == null) {
+      projectKeys = permissionCache().authorizedProjectKeys(userId, permission);
+      projectKeysByPermission.put(permission, projectKeys);
     }
-    return projectKeyByPermission.get(permission).contains(projectKey);
+    return projectKeys.contains(projectKey);
   }
 
   /**
    * Does the user have the given project permission ?
    */
   public boolean hasProjectPermissionByUuid(String permission, String projectUuid) {
-    if (!projectPermissions.contains(permission)) {
-      Collection<String> projectUuids = authorizationDao().selectAuthorizedRootProjectsUuids(userId, permission);
-      for (String key : projectUuids) {
-        projectUuidByPermission.put(permission, key);
-      }
-      projectPermissions.add(permission);
+    Set<String> projectUuids = projectUuidsByPermission.get(permission);
+    if (projectUuids == null) {
+      projectUuids = permissionCache().authorizedProjectUuids(userId, permission);
+      projectUuidsByPermission.put(permission, projectUuids);
     }
-    return projectUuidByPermission.get(permission).contains(projectUuid);
+    return projectUuids.contains(projectUuid);
   }
 
   /**
@@ -239,11 +229,10 @@ public class UserSession {
   public boolean hasComponentPermission(String permission, String componentKey) {
     String projectKey = projectKeyByComponentKey.get(componentKey);
     if (projectKey == null) {
-      ResourceDto project = resourceDao().getRootProjectByComponentKey(componentKey);
-      if (project == null) {
+      projectKey = permissionCache().rootProjectKey(componentKey);
+      if (projectKey == null) {
         return false;
       }
-      projectKey = project.getKey();
     }
     boolean hasComponentPermission = hasProjectPermission(permission, projectKey);
     if (hasComponentPermission) {
@@ -259,11 +248,10 @@ public class UserSession {
   public boolean hasComponentUuidPermission(String permission, String componentUuid) {
     String projectUuid = projectUuidByComponentUuid.get(componentUuid);
     if (projectUuid == null) {
-      ResourceDto project = resourceDao().getResource(componentUuid);
-      if (project == null) {
+      projectUuid = permissionCache().projectUuid(componentUuid);
+      if (projectUuid == null) {
         return false;
       }
-      projectUuid = project.getProjectUuid();
     }
     boolean hasComponentPermission = hasProjectPermissionByUuid(permission, projectUuid);
     if (hasComponentPermission) {
@@ -277,8 +265,8 @@ public class UserSession {
     return Platform.component(AuthorizationDao.class);
   }
 
-  ResourceDao resourceDao() {
-    return Platform.component(ResourceDao.class);
+  UserPermissionCache permissionCache() {
+    return Platform.component(UserPermissionCache.class);
   }
 
   public static UserSession get() {
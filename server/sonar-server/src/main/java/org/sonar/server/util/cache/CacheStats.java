@@ -0,0 +1,99 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.util.cache;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link SharedMemoryCache}, since server startup.
+ * This class is thread-safe.
+ */
+public class CacheStats {
+
+  private final AtomicLong hits = new AtomicLong(0L);
+  private final AtomicLong misses = new AtomicLong(0L);
+  private final AtomicLong loadTimeMs = new AtomicLong(0L);
+  private final AtomicLong evictions = new AtomicLong(0L);
+
+  void addHit() {
+    hits.incrementAndGet();
+  }
+
+  void addMiss() {
+    misses.incrementAndGet();
+  }
+
+  void addLoadTime(long durationMs) {
+    loadTimeMs.addAndGet(durationMs);
+  }
+
+  void addEvictions(long count) {
+    evictions.addAndGet(count);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Number of requests that required to load the value, including the
+   * requests of values that do not exist
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Percentage of requests served from cache, between 0 and 100
+   */
+  public double getHitRatio() {
+    long hitCount = hits.get();
+    long total = hitCount + misses.get();
+    return total == 0L ? 0D : (hitCount * 100D / total);
+  }
+
+  /**
+   * Average time spent to load a missing value
+   */
+  public long getAverageLoadTimeMs() {
+    long missCount = misses.get();
+    return missCount == 0L ? 0L : (loadTimeMs.get() / missCount);
+  }
+
+  /**
+   * Number of entries removed because the cache was full or because they expired
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = Maps.newLinkedHashMap();
+    map.put("Hits", getHits());
+    map.put("Misses", getMisses());
+    map.put("Hit Ratio", String.format("%.1f%%", getHitRatio()));
+    map.put("Average Load Time (ms)", getAverageLoadTimeMs());
+    map.put("Evictions", getEvictions());
+    return map;
+  }
+}
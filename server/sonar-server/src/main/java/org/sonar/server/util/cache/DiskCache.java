@@ -25,25 +25,43 @@ import org.sonar.api.utils.System2;
 import org.sonar.server.util.CloseableIterator;
 import org.sonar.server.util.ObjectInputStreamIterator;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
 import java.io.*;
 
 /**
  * Serialize and deserialize objects on disk. No search capabilities, only traversal (full scan).
+ * Objects are serialized with Java serialization, except if a {@link DiskCacheCodec} is provided.
  */
 public class DiskCache<O extends Serializable> {
 
+  // marks the beginning of an object encoded by codec
+  private static final int OBJECT_MARKER = 1;
+
   private final File file;
   private final System2 system2;
+  private final DiskCacheCodec<O> codec;
 
   public DiskCache(File file, System2 system2) {
+    this(file, system2, null);
+  }
+
+  public DiskCache(File file, System2 system2, @Nullable DiskCacheCodec<O> codec) {
     this.system2 = system2;
     this.file = file;
+    this.codec = codec;
     OutputStream output = null;
     try {
-      // writes the serialization stream header required when calling "traverse()"
-      // on empty stream. Moreover it allows to call multiple times "newAppender()"
-      output = new ObjectOutputStream(new FileOutputStream(file));
-      output.flush();
+      if (codec == null) {
+        // writes the serialization stream header required when calling "traverse()"
+        // on empty stream. Moreover it allows to call multiple times "newAppender()"
+        output = new ObjectOutputStream(new FileOutputStream(file));
+        output.flush();
+      } else {
+        // codec does not need any header
+        output = new FileOutputStream(file);
+      }
 
       // raise an exception if can't close
       system2.close(output);
@@ -60,23 +78,34 @@ public class DiskCache<O extends Serializable> {
 
   public CloseableIterator<O> traverse() {
     try {
-      return new ObjectInputStreamIterator<>(FileUtils.openInputStream(file));
+      InputStream input = FileUtils.openInputStream(file);
+      if (codec == null) {
+        return new ObjectInputStreamIterator<>(input);
+      }
+      return new CodecIterator(new DataInputStream(new BufferedInputStream(input)));
     } catch (IOException e) {
       throw new IllegalStateException("Fail to traverse file: " + file, e);
     }
   }
 
   public class DiskAppender implements AutoCloseable {
-    private final ObjectOutputStream output;
+    private final ObjectOutputStream objectOutput;
+    private final DataOutputStream dataOutput;
 
     private DiskAppender() {
       try {
-        this.output = new ObjectOutputStream(new FileOutputStream(file, true)) {
-          @Override
-          protected void writeStreamHeader() throws IOException {
-            // do not write stream headers as it's already done in constructor of DiskCache
-          }
-        };
+        if (codec == null) {
+          this.objectOutput = new ObjectOutputStream(new FileOutputStream(file, true)) {
+            @Override
+            protected void writeStreamHeader() throws IOException {
+              // do not write stream headers as it's already done in constructor of DiskCache
+            }
+          };
+          this.dataOutput = null;
+        } else {
+          this.objectOutput = null;
+          this.dataOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
       } catch (IOException e) {
         throw new IllegalStateException("Fail to open file " + file, e);
       }
@@ -84,8 +113,13 @@ public class DiskCache<O extends Serializable> {
 
     public DiskAppender append(O object) {
       try {
-        output.writeObject(object);
-        output.reset();
+        if (codec == null) {
+          objectOutput.writeObject(object);
+          objectOutput.reset();
+        } else {
+          dataOutput.writeByte(OBJECT_MARKER);
+          codec.encode(object, dataOutput);
+        }
         return this;
       } catch (IOException e) {
         throw new IllegalStateException("Fail to write into file " + file, e);
@@ -94,7 +128,37 @@ public class DiskCache<O extends Serializable> {
 
     @Override
     public void close() {
-      system2.close(output);
+      system2.close(codec == null ? objectOutput : dataOutput);
+    }
+  }
+
+  private class CodecIterator extends CloseableIterator<O> {
+    private final DataInputStream input;
+
+    private CodecIterator(DataInputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    @CheckForNull
+    protected O doNext() {
+      try {
+        int marker = input.read();
+        if (marker == -1) {
+          return null;
+        }
+        if (marker != OBJECT_MARKER) {
+          throw new IllegalStateException("Corrupted file: " + file);
+        }
+        return codec.decode(input);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read file " + file, e);
+      }
+    }
+
+    @Override
+    protected void doClose() {
+      IOUtils.closeQuietly(input);
     }
   }
 }
@@ -0,0 +1,216 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.util.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import org.sonar.api.utils.System2;
+
+import javax.annotation.CheckForNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache shared by all the threads of the server, as opposed to {@link MemoryCache}.
+ * Entries are evicted in least-recently-used order as soon as the total weight of
+ * values exceeds a limit, and optionally expire after a time-to-live.
+ * <p/>
+ * Missing values are loaded one by one by a {@link Loader}. Values are loaded outside of the lock, so concurrent requests of the same missing key
+ * may load it several times. A value loaded while the cache is being cleared is dropped,
+ * so that a stale value is never cached after {@link #clear()}.
+ * <p/>
+ * Null values are not cached. This class is thread-safe.
+ */
+public class SharedMemoryCache<K, V> {
+
+  public interface Loader<K, V> {
+    /**
+     * Value associated with the requested key. Null if key is not found.
+     */
+    @CheckForNull
+    V load(K key);
+  }
+
+  public interface Weigher<V> {
+    /**
+     * Relative size of the value, for example the number of elements of a collection. Must be positive.
+     */
+    long weigh(V value);
+  }
+
+  private static final Weigher<Object> SINGLETON_WEIGHER = new Weigher<Object>() {
+    @Override
+    public long weigh(Object value) {
+      return 1L;
+    }
+  };
+
+  private final Weigher<? super V> weigher;
+  private final long maxWeight;
+  private final long ttlMs;
+  private final System2 system;
+  private final CacheStats stats = new CacheStats();
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight = 0L;
+  private long generation = 0L;
+
+  /**
+   * @param maxEntries maximum number of entries
+   * @param ttlMs time-to-live of entries in milliseconds, zero to never expire them
+   */
+  public SharedMemoryCache(long maxEntries, long ttlMs, System2 system) {
+    this(SINGLETON_WEIGHER, maxEntries, ttlMs, system);
+  }
+
+  /**
+   * @param maxWeight maximum sum of the weights of values
+   * @param ttlMs time-to-live of entries in milliseconds, zero to never expire them
+   */
+  public SharedMemoryCache(Weigher<? super V> weigher, long maxWeight, long ttlMs, System2 system) {
+    Preconditions.checkArgument(maxWeight > 0L, "Max weight must be positive: %s", maxWeight);
+    Preconditions.checkArgument(ttlMs >= 0L, "Time-to-live must not be negative: %s", ttlMs);
+    this.weigher = weigher;
+    this.maxWeight = maxWeight;
+    this.ttlMs = ttlMs;
+    this.system = system;
+  }
+
+  @CheckForNull
+  public V get(K key, Loader<? super K, ? extends V> loader) {
+    long loadGeneration;
+    synchronized (this) {
+      Entry<V> entry = entries.get(key);
+      if (entry != null && entry.isExpired(system.now())) {
+        remove(key, entry);
+        stats.addEvictions(1L);
+        entry = null;
+      }
+      if (entry != null) {
+        stats.addHit();
+        return entry.value;
+      }
+      stats.addMiss();
+      loadGeneration = generation;
+    }
+
+    long start = system.now();
+    V value = loader.load(key);
+    stats.addLoadTime(system.now() - start);
+    if (value != null) {
+      put(key, value, loadGeneration);
+    }
+    return value;
+  }
+
+  private synchronized void put(K key, V value, long loadGeneration) {
+    if (loadGeneration != generation) {
+      return;
+    }
+    long valueWeight = weigher.weigh(value);
+    Entry<V> previous = entries.put(key, new Entry<>(value, valueWeight, ttlMs == 0L ? Long.MAX_VALUE : (system.now() + ttlMs)));
+    if (previous != null) {
+      weight -= previous.weight;
+    }
+    weight += valueWeight;
+    evict(key);
+  }
+
+  /**
+   * Removes least-recently-used entries until total weight fits into limit. The entry
+   * just inserted is kept, even if it is heavier than the limit by itself.
+   */
+  private void evict(K insertedKey) {
+    Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+    long evicted = 0L;
+    while (weight > maxWeight && it.hasNext()) {
+      Map.Entry<K, Entry<V>> eldest = it.next();
+      if (!eldest.getKey().equals(insertedKey)) {
+        it.remove();
+        weight -= eldest.getValue().weight;
+        evicted++;
+      }
+    }
+    stats.addEvictions(evicted);
+  }
+
+  private void remove(K key, Entry<V> entry) {
+    entries.remove(key);
+    weight -= entry.weight;
+  }
+
+  public synchronized void invalidate(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry != null) {
+      remove(key, entry);
+    }
+    generation++;
+  }
+
+  /**
+   * Removes the entries whose key matches the predicate
+   */
+  public synchronized void invalidateAll(Predicate<? super K> keyPredicate) {
+    Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<K, Entry<V>> entry = it.next();
+      if (keyPredicate.apply(entry.getKey())) {
+        it.remove();
+        weight -= entry.getValue().weight;
+      }
+    }
+    generation++;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    weight = 0L;
+    generation++;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long weight() {
+    return weight;
+  }
+
+  public CacheStats stats() {
+    return stats;
+  }
+
+  private static class Entry<V> {
+    private final V value;
+    private final long weight;
+    private final long expiresAt;
+
+    Entry(V value, long weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
+}
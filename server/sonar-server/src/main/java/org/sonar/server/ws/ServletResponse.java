@@ -19,24 +19,53 @@
  */
 package org.sonar.server.ws;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import org.apache.commons.lang.StringUtils;
 import org.sonar.api.server.ws.Response;
 import org.sonar.api.utils.text.JsonWriter;
 import org.sonar.api.utils.text.XmlWriter;
 import org.sonar.server.plugins.MimeTypes;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.zip.GZIPOutputStream;
 
 public class ServletResponse implements Response {
 
+  /**
+   * Size of the beginning of streamed responses that is kept in memory, so that errors raised meanwhile
+   * can still be sent to client.
+   */
+  @VisibleForTesting
+  static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Request attribute holding the error that aborted a committed response. See {@link AbortedResponseFilter}.
+   */
+  static final String ABORT_CAUSE_ATTRIBUTE = "sonar.ws.abortCause";
+
   public static class ServletStream implements Stream {
     private String mediaType;
     private int httpStatus = 200;
     private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final HttpServletRequest request;
+    private final HttpServletResponse target;
+    private final boolean gzipAccepted;
+    private StreamingOutput streamingOutput = null;
+
+    ServletStream(@Nullable HttpServletRequest request, @Nullable HttpServletResponse target, boolean gzipAccepted) {
+      this.request = request;
+      this.target = target;
+      this.gzipAccepted = gzipAccepted;
+    }
 
     @CheckForNull
     public String mediaType() {
@@ -61,20 +90,161 @@ public class ServletResponse implements Response {
 
     @Override
     public OutputStream output() {
-      return output;
+      return streamingOutput != null ? streamingOutput : output;
     }
 
     public String outputAsString() {
       return new String(output.toByteArray(), Charsets.UTF_8);
     }
 
+    /**
+     * Clear the response, which is then fully buffered in memory. Should not be called once
+     * the response is committed.
+     */
     public ServletStream reset() {
       output.reset();
+      streamingOutput = null;
+      return this;
+    }
+
+    /**
+     * Write the response directly to the servlet response once the buffer is full, instead of keeping
+     * the whole response in memory. Ignored if the servlet response is not available.
+     */
+    ServletStream enableStreaming() {
+      if (target != null) {
+        streamingOutput = new StreamingOutput();
+      }
       return this;
     }
+
+    /**
+     * @return true if the response has been sent, at least partially, to the servlet response. Status and
+     * content can't be changed anymore.
+     */
+    public boolean isCommitted() {
+      return streamingOutput != null && streamingOutput.servletOutput != null;
+    }
+
+    /**
+     * Send the remaining part of streamed response
+     */
+    void finish() {
+      if (streamingOutput != null) {
+        try {
+          streamingOutput.finish();
+        } catch (IOException e) {
+          throw new IllegalStateException("Fail to send response", e);
+        }
+      }
+    }
+
+    /**
+     * Abort the streamed response after an unexpected error. The response is not ended, in particular the gzip
+     * trailer is not written, and the connection is closed by {@link AbortedResponseFilter}, so that client
+     * can detect that response is truncated.
+     */
+    void abort(Exception cause) {
+      if (isCommitted()) {
+        try {
+          streamingOutput.servletOutput.flush();
+        } catch (IOException e) {
+          // client is probably already disconnected
+        }
+        request.setAttribute(ABORT_CAUSE_ATTRIBUTE, cause);
+      }
+    }
+
+    private class StreamingOutput extends OutputStream {
+      private OutputStream servletOutput = null;
+
+      @Override
+      public void write(int b) throws IOException {
+        if (servletOutput == null) {
+          output.write(b);
+          commitIfBufferIsFull();
+        } else {
+          servletOutput.write(b);
+        }
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (servletOutput == null) {
+          output.write(b, off, len);
+          commitIfBufferIsFull();
+        } else {
+          servletOutput.write(b, off, len);
+        }
+      }
+
+      /**
+       * Content is sent only once the buffer is full
+       */
+      @Override
+      public void flush() throws IOException {
+        if (servletOutput != null) {
+          servletOutput.flush();
+        }
+      }
+
+      /**
+       * Writers are usually closed by actions, but the response is ended by {@link #finish()}
+       */
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+
+      private void commitIfBufferIsFull() throws IOException {
+        if (output.size() >= STREAMING_BUFFER_SIZE) {
+          commit();
+        }
+      }
+
+      private void commit() throws IOException {
+        target.setStatus(httpStatus);
+        if (mediaType != null) {
+          target.setContentType(mediaType);
+        }
+        if (gzipAccepted) {
+          target.setHeader("Content-Encoding", "gzip");
+          target.addHeader("Vary", "Accept-Encoding");
+          servletOutput = new GZIPOutputStream(target.getOutputStream(), true);
+        } else {
+          servletOutput = target.getOutputStream();
+        }
+        output.writeTo(servletOutput);
+        output.reset();
+      }
+
+      private void finish() throws IOException {
+        if (servletOutput == null) {
+          commit();
+        }
+        servletOutput.close();
+        target.flushBuffer();
+      }
+    }
+  }
+
+  private final ServletStream stream;
+
+  /**
+   * Response fully buffered in memory
+   */
+  public ServletResponse() {
+    this.stream = new ServletStream(null, null, false);
   }
 
-  private final ServletStream stream = new ServletStream();
+  /**
+   * Response that can be streamed to the servlet response, if requested by the action
+   * (see {@link org.sonar.api.server.ws.WebService.NewAction#setResponseStreamed(boolean)}). Streamed responses
+   * are compressed when supported by client.
+   */
+  public ServletResponse(HttpServletRequest request, HttpServletResponse target) {
+    this.stream = new ServletStream(request, target, StringUtils.contains(request.getHeader("Accept-Encoding"), "gzip"));
+  }
 
   @Override
   public JsonWriter newJsonWriter() {
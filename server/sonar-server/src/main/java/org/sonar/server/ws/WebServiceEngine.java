@@ -81,19 +81,23 @@ public class WebServiceEngine implements ServerComponent, Startable {
       WebService.Action action = getAction(controllerPath, actionKey);
       request.setAction(action);
       verifyRequest(action, request);
+      if (action.isResponseStreamed()) {
+        response.stream().enableStreaming();
+      }
       action.handler().handle(request, response);
+      response.stream().finish();
 
     } catch (IllegalArgumentException e) {
       // TODO replace by BadRequestException in Request#mandatoryParam()
-      sendErrors(response, 400, new Errors().add(Message.of(e.getMessage())));
+      sendErrors(response, 400, new Errors().add(Message.of(e.getMessage())), e);
     } catch (BadRequestException e) {
-      sendErrors(response, 400, e.errors());
+      sendErrors(response, 400, e.errors(), e);
     } catch (ServerException e) {
-      sendErrors(response, e.httpCode(), new Errors().add(Message.of(e.getMessage())));
+      sendErrors(response, e.httpCode(), new Errors().add(Message.of(e.getMessage())), e);
     } catch (Exception e) {
       // TODO implement Request.toString()
       Loggers.get(getClass()).error("Fail to process request " + request, e);
-      sendErrors(response, 500, new Errors().add(Message.of(e.getMessage())));
+      sendErrors(response, 500, new Errors().add(Message.of(e.getMessage())), e);
     }
   }
 
@@ -116,8 +120,14 @@ public class WebServiceEngine implements ServerComponent, Startable {
     }
   }
 
-  private void sendErrors(ServletResponse response, int status, Errors errors) {
+  private void sendErrors(ServletResponse response, int status, Errors errors, Exception cause) {
     ServletResponse.ServletStream stream = response.stream();
+    if (stream.isCommitted()) {
+      // beginning of the response is already sent, client can only detect that response is truncated
+      Loggers.get(getClass()).error(String.format("Fail to send error %d, response is already committed", status));
+      stream.abort(cause);
+      return;
+    }
     stream.reset();
     stream.setStatus(status);
     stream.setMediaType(MimeTypes.JSON);
@@ -45,6 +45,7 @@ import org.sonar.server.issue.IssueTesting;
 import org.sonar.server.issue.db.IssueDao;
 import org.sonar.server.issue.index.*;
 import org.sonar.server.user.MockUserSession;
+import org.sonar.server.user.UserPermissionCache;
 import org.sonar.server.ws.WsTester;
 import org.sonar.test.DbTests;
 
@@ -88,9 +89,10 @@ public class IssuesActionTest {
     this.session = db.myBatis().openSession(false);
 
     DbClient dbClient = new DbClient(db.database(), db.myBatis(), new IssueDao(db.myBatis()), new ComponentDao());
-    issueIndex = new IssueIndex(es.client(), System2.INSTANCE);
+    AuthorizedProjectsCache authorizedProjectsCache = new AuthorizedProjectsCache(es.client(), System2.INSTANCE);
+    issueIndex = new IssueIndex(es.client(), System2.INSTANCE, authorizedProjectsCache);
     issueIndexer = new IssueIndexer(null, es.client());
-    issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, es.client());
+    issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, es.client(), authorizedProjectsCache, mock(UserPermissionCache.class));
     issuesAction = new IssuesAction(dbClient, issueIndex);
     componentDao = new ComponentDao();
 
@@ -25,12 +25,27 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.sonar.batch.protocol.input.ActiveRule;
+import org.sonar.batch.protocol.input.BatchInput;
+import org.sonar.batch.protocol.input.FileData;
 import org.sonar.batch.protocol.input.ProjectRepositories;
+import org.sonar.batch.protocol.input.QProfile;
 import org.sonar.server.ws.WsTester;
 
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -68,4 +83,94 @@ public class ProjectRepositoryActionTest {
     assertThat(queryArgumentCaptor.getValue().isPreview()).isFalse();
   }
 
+  @Test
+  public void stream_project_referentials() throws Exception {
+    final Date date = new Date(1234567L);
+    final Map<String, String> moduleSettings = new LinkedHashMap<>();
+    moduleSettings.put("prop", "value");
+    // property values are nullable in db
+    moduleSettings.put("empty", null);
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        ProjectRepositoryLoader.Handler handler = (ProjectRepositoryLoader.Handler) invocation.getArguments()[1];
+        handler.addSettings("foo", moduleSettings);
+        handler.addQProfile(new QProfile("squid-java", "Java", "java", date));
+        handler.addActiveRules("squid-java", new ActiveRulesPayload(Arrays.asList(
+          new ActiveRule("repo", "rule", null, "Rule", "MAJOR", "rule1", "java").addParam("param1", "value1").addParam("param2", null))), false);
+        handler.addActiveRules("squid-js", new ActiveRulesPayload(Arrays.asList(
+          new ActiveRule("repo", "rule", null, "Rule", "MAJOR", "rule1", "js"))), true);
+        handler.addActiveRule(new ActiveRule("manual", "rule", null, "Manual rule", null, null, null));
+        handler.addFileData("foo", "src/Foo.java", new FileData("xyz", false, null, null, null));
+        handler.setLastAnalysisDate(date);
+        return null;
+      }
+    }).when(projectRepositoryLoader).load(any(ProjectRepositoryQuery.class), any(ProjectRepositoryLoader.Handler.class));
+
+    WsTester.TestRequest request = tester.newGetRequest("batch", "project")
+      .setParam("key", "org.codehaus.sonar:sonar")
+      .setParam("preview", "true")
+      .setParam("format", "protobuf")
+      .setParam("activeRulesVersions", "squid-java=1234,squid-js=5678");
+    ByteArrayInputStream input = new ByteArrayInputStream(request.execute().output());
+
+    BatchInput.ModuleSettings settings = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getModuleSettings();
+    assertThat(settings.getModuleKey()).isEqualTo("foo");
+    assertThat(settings.getPropertyCount()).isEqualTo(2);
+    assertThat(settings.getProperty(0).getKey()).isEqualTo("prop");
+    assertThat(settings.getProperty(0).getValue()).isEqualTo("value");
+    assertThat(settings.getProperty(1).getKey()).isEqualTo("empty");
+    assertThat(settings.getProperty(1).hasValue()).isFalse();
+
+    BatchInput.QProfile qProfile = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getQprofile();
+    assertThat(qProfile.getKey()).isEqualTo("squid-java");
+    assertThat(qProfile.getName()).isEqualTo("Java");
+    assertThat(qProfile.getLanguage()).isEqualTo("java");
+    assertThat(qProfile.getRulesUpdatedAt()).isEqualTo(1234567L);
+
+    BatchInput.ActiveRulesVersion version = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getActiveRulesVersion();
+    assertThat(version.getProfileKey()).isEqualTo("squid-java");
+    assertThat(version.getVersion()).hasSize(32);
+    assertThat(version.getUnchanged()).isFalse();
+    assertThat(version.getActiveRuleCount()).isEqualTo(1);
+
+    BatchInput.ActiveRule activeRule = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getActiveRule();
+    assertThat(activeRule.getRepositoryKey()).isEqualTo("repo");
+    assertThat(activeRule.getRuleKey()).isEqualTo("rule");
+    assertThat(activeRule.hasTemplateRuleKey()).isFalse();
+    assertThat(activeRule.getSeverity()).isEqualTo("MAJOR");
+    assertThat(activeRule.getInternalKey()).isEqualTo("rule1");
+    assertThat(activeRule.getParam(0).getKey()).isEqualTo("param1");
+    assertThat(activeRule.getParam(0).getValue()).isEqualTo("value1");
+    assertThat(activeRule.getParam(1).getKey()).isEqualTo("param2");
+    assertThat(activeRule.getParam(1).hasValue()).isFalse();
+
+    // active rules of this profile are already known by batch
+    version = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getActiveRulesVersion();
+    assertThat(version.getProfileKey()).isEqualTo("squid-js");
+    assertThat(version.getUnchanged()).isTrue();
+
+    BatchInput.ActiveRule manualRule = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getActiveRule();
+    assertThat(manualRule.getName()).isEqualTo("Manual rule");
+    assertThat(manualRule.hasSeverity()).isFalse();
+    assertThat(manualRule.hasLanguage()).isFalse();
+    assertThat(manualRule.getParamCount()).isEqualTo(0);
+
+    BatchInput.FileData fileData = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getFileData();
+    assertThat(fileData.getModuleKey()).isEqualTo("foo");
+    assertThat(fileData.getPath()).isEqualTo("src/Foo.java");
+    assertThat(fileData.getHash()).isEqualTo("xyz");
+    assertThat(fileData.hasScmAuthorsByLine()).isFalse();
+
+    assertThat(BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getLastAnalysisDate()).isEqualTo(1234567L);
+    assertThat(BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input).getEndOfStream()).isTrue();
+    assertThat(BatchInput.ProjectRepositoryItem.parseDelimitedFrom(input)).isNull();
+
+    ArgumentCaptor<ProjectRepositoryQuery> queryArgumentCaptor = ArgumentCaptor.forClass(ProjectRepositoryQuery.class);
+    verify(projectRepositoryLoader).load(queryArgumentCaptor.capture(), any(ProjectRepositoryLoader.Handler.class));
+    assertThat(queryArgumentCaptor.getValue().getActiveRulesVersion("squid-java")).isEqualTo("1234");
+    assertThat(queryArgumentCaptor.getValue().getActiveRulesVersion("squid-js")).isEqualTo("5678");
+    assertThat(queryArgumentCaptor.getValue().getActiveRulesVersion("other")).isNull();
+  }
+
 }
@@ -38,6 +38,7 @@ import org.sonar.core.component.ComponentDto;
 import org.sonar.core.permission.GlobalPermissions;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.properties.PropertyDto;
+import org.sonar.core.qualityprofile.db.ActiveRuleKey;
 import org.sonar.core.qualityprofile.db.QualityProfileDto;
 import org.sonar.core.rule.RuleDto;
 import org.sonar.core.rule.RuleParamDto;
@@ -54,6 +55,8 @@ import org.sonar.server.rule.RuleTesting;
 import org.sonar.server.tester.ServerTester;
 import org.sonar.server.user.MockUserSession;
 
+import javax.annotation.Nullable;
+
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -76,6 +79,7 @@ public class ProjectRepositoryLoaderMediumTest {
     tester.clearDbAndIndexes();
     dbSession = tester.get(DbClient.class).openSession(false);
     loader = tester.get(ProjectRepositoryLoader.class);
+    tester.get(ActiveRulesCache.class).clear();
   }
 
   @After
@@ -611,6 +615,85 @@ public class ProjectRepositoryLoaderMediumTest {
     assertThat(activeRules.get(0).params()).isEqualTo(ImmutableMap.of("max", "2"));
   }
 
+  @Test
+  public void cache_active_rules_until_indexed_rules_change() throws Exception {
+    ComponentDto project = ComponentTesting.newProjectDto();
+    MockUserSession.set().setLogin("john").setGlobalPermissions(GlobalPermissions.SCAN_EXECUTION);
+    tester.get(DbClient.class).componentDao().insert(dbSession, project);
+    addDefaultProfile();
+
+    RuleKey ruleKey1 = RuleKey.of("squid", "AvoidCycle");
+    RuleKey ruleKey2 = RuleKey.of("squid", "AvoidNPE");
+    RuleDto rule1 = RuleTesting.newDto(ruleKey1).setName("Avoid Cycle").setLanguage(ServerTester.Xoo.KEY);
+    tester.get(DbClient.class).ruleDao().insert(dbSession,
+      rule1,
+      RuleTesting.newDto(ruleKey2).setName("Avoid NPE").setLanguage(ServerTester.Xoo.KEY)
+    );
+    tester.get(RuleActivator.class).activate(dbSession, new RuleActivation(ruleKey1).setSeverity(Severity.MINOR), "abcd");
+    dbSession.commit();
+
+    ActiveRulesRecorder recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()), recorder);
+    assertThat(recorder.activeRules.activeRules()).hasSize(1);
+    ActiveRulesPayload payload = recorder.activeRules;
+
+    recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()), recorder);
+    assertThat(recorder.activeRules).isSameAs(payload);
+
+    // activation
+    tester.get(RuleActivator.class).activate(dbSession, new RuleActivation(ruleKey2).setSeverity(Severity.MAJOR), "abcd");
+    dbSession.commit();
+    recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()), recorder);
+    assertThat(recorder.activeRules.activeRules()).hasSize(2);
+
+    // deactivation
+    tester.get(RuleActivator.class).deactivate(dbSession, ActiveRuleKey.of("abcd", ruleKey2), false);
+    dbSession.commit();
+    recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()), recorder);
+    assertThat(recorder.activeRules.activeRules()).hasSize(1);
+    payload = recorder.activeRules;
+
+    // update of rule
+    tester.get(DbClient.class).ruleDao().update(dbSession, rule1.setName("Avoid Cycles"));
+    dbSession.commit();
+    recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()), recorder);
+    assertThat(recorder.activeRules).isNotSameAs(payload);
+    assertThat(recorder.activeRules.activeRules().get(0).name()).isEqualTo("Avoid Cycles");
+  }
+
+  @Test
+  public void do_not_return_active_rules_already_known_by_batch() throws Exception {
+    ComponentDto project = ComponentTesting.newProjectDto();
+    MockUserSession.set().setLogin("john").setGlobalPermissions(GlobalPermissions.SCAN_EXECUTION);
+    tester.get(DbClient.class).componentDao().insert(dbSession, project);
+    addDefaultProfile();
+
+    RuleKey ruleKey = RuleKey.of("squid", "AvoidCycle");
+    tester.get(DbClient.class).ruleDao().insert(dbSession, RuleTesting.newDto(ruleKey).setName("Avoid Cycle").setLanguage(ServerTester.Xoo.KEY));
+    tester.get(RuleActivator.class).activate(dbSession, new RuleActivation(ruleKey).setSeverity(Severity.MINOR), "abcd");
+    dbSession.commit();
+
+    ActiveRulesRecorder recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()), recorder);
+    assertThat(recorder.unchanged).isFalse();
+    assertThat(recorder.activeRules.activeRules()).hasSize(1);
+
+    // same version
+    String version = recorder.activeRules.version();
+    recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()).setActiveRulesVersions(ImmutableMap.of("abcd", version)), recorder);
+    assertThat(recorder.unchanged).isTrue();
+
+    // another version
+    recorder = new ActiveRulesRecorder();
+    loader.load(ProjectRepositoryQuery.create().setModuleKey(project.key()).setActiveRulesVersions(ImmutableMap.of("abcd", "other")), recorder);
+    assertThat(recorder.unchanged).isFalse();
+  }
+
   @Test
   public void return_only_active_rules_from_project_profile() throws Exception {
     ComponentDto project = ComponentTesting.newProjectDto();
@@ -833,6 +916,37 @@ public class ProjectRepositoryLoaderMediumTest {
     assertThat(ref.fileData(project.key(), projectFile.path())).isNull();
   }
 
+  private static class ActiveRulesRecorder implements ProjectRepositoryLoader.Handler {
+    ActiveRulesPayload activeRules;
+    boolean unchanged;
+
+    @Override
+    public void addSettings(String moduleKey, Map<String, String> settings) {
+    }
+
+    @Override
+    public void addQProfile(QProfile qProfile) {
+    }
+
+    @Override
+    public void addActiveRules(String profileKey, ActiveRulesPayload activeRules, boolean unchanged) {
+      this.activeRules = activeRules;
+      this.unchanged = unchanged;
+    }
+
+    @Override
+    public void addActiveRule(ActiveRule activeRule) {
+    }
+
+    @Override
+    public void addFileData(String moduleKey, String path, FileData fileData) {
+    }
+
+    @Override
+    public void setLastAnalysisDate(@Nullable Date lastAnalysisDate) {
+    }
+  }
+
   private void addDefaultProfile() {
     QualityProfileDto profileDto = QProfileTesting.newDto(QProfileName.createFor(ServerTester.Xoo.KEY, "SonarQube way"), "abcd").setRulesUpdatedAt(
       DateUtils.formatDateTime(new Date()));
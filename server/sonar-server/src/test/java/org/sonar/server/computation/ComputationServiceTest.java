@@ -25,7 +25,9 @@ import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.api.utils.System2;
 import org.sonar.api.utils.ZipUtils;
@@ -76,7 +78,7 @@ public class ComputationServiceTest {
   @Before
   public void setUp() throws Exception {
     DbClient dbClient = new DbClient(dbTester.database(), dbTester.myBatis(), new ComponentDao());
-    sut = new ComputationService(dbClient, steps, activityService, settingsFactory, tempFolder, system);
+    sut = new ComputationService(dbClient, steps, activityService, settingsFactory, system, new Settings());
 
     // db contains project with key "P1"
     dbTester.prepareDbUnit(getClass(), "shared.xml");
@@ -105,7 +107,12 @@ public class ComputationServiceTest {
     verify(projectStep1).execute(any(ComputationContext.class));
     verify(projectStep2).execute(any(ComputationContext.class));
     verify(viewStep, never()).execute(any(ComputationContext.class));
-    verify(activityService).save(any(Activity.class));
+
+    // activity contains the size of report and the durations of steps
+    ArgumentCaptor<Activity> activity = ArgumentCaptor.forClass(Activity.class);
+    verify(activityService).save(activity.capture());
+    assertThat(activity.getValue().getData().get("reportSize")).isEqualTo(zip.length());
+    assertThat(activity.getValue().getData()).containsKey(ComputationStats.STEP_PREFIX + ComputationStats.stepKey(projectStep1.getClass()) + ComputationStats.DURATION_SUFFIX);
   }
 
   @Test
@@ -129,7 +136,7 @@ public class ComputationServiceTest {
       sut.process(new ReportQueue.Item(dto, zip));
       fail();
     } catch (IllegalStateException e) {
-      assertThat(e.getMessage()).startsWith("Fail to unzip " + zip.getAbsolutePath() + " into ");
+      assertThat(e.getMessage()).isEqualTo("Fail to open zipped analysis report: " + zip.getAbsolutePath());
       assertThat(dto.getStatus()).isEqualTo(AnalysisReportDto.Status.FAILED);
       assertThat(dto.getFinishedAt()).isNotNull();
     }
@@ -153,6 +160,18 @@ public class ComputationServiceTest {
     }
   }
 
+  @Test
+  public void fail_if_negative_number_of_step_threads() throws Exception {
+    Settings settings = new Settings();
+    settings.setProperty(ComputationService.PROPERTY_STEP_THREADS, -1);
+    try {
+      new ComputationService(mock(DbClient.class), steps, activityService, settingsFactory, system, settings);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Bad value of sonar.computation.stepThreads: -1");
+    }
+  }
+
   private ComputationStep mockStep(String... qualifiers) {
     ComputationStep step = mock(ComputationStep.class);
     when(step.supportedProjectQualifiers()).thenReturn(qualifiers);
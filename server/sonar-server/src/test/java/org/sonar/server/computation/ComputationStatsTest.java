@@ -0,0 +1,59 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation;
+
+import org.assertj.core.data.MapEntry;
+import org.junit.Test;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ParseReportStep;
+import org.sonar.server.computation.step.PersistIssuesStep;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ComputationStatsTest {
+
+  ComputationStats stats = new ComputationStats();
+
+  @Test
+  public void record_duration_and_items() throws Exception {
+    ComputationStep parse = mock(ParseReportStep.class);
+    ComputationStep persist = mock(PersistIssuesStep.class);
+
+    stats.setDuration(parse, 120L);
+    stats.addItems(parse, 10L);
+    stats.addItems(parse, 5L);
+
+    assertThat(stats.getDuration(parse)).isEqualTo(120L);
+    assertThat(stats.getItems(parse)).isEqualTo(15L);
+    assertThat(stats.getDuration(persist)).isEqualTo(0L);
+    assertThat(stats.getItems(persist)).isEqualTo(0L);
+  }
+
+  @Test
+  public void convert_to_activity_data() throws Exception {
+    stats.setDuration(new ParseReportStep(null), 120L);
+    stats.addItems(new ParseReportStep(null), 15L);
+
+    assertThat(stats.toActivityData()).containsOnly(
+      MapEntry.entry("step_ParseReportStep_duration", 120L),
+      MapEntry.entry("step_ParseReportStep_items", 15L));
+  }
+}
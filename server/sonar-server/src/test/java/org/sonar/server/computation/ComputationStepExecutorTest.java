@@ -0,0 +1,155 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.resources.Qualifiers;
+import org.sonar.api.utils.System2;
+import org.sonar.core.component.ComponentDto;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ComputationSteps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ComputationStepExecutorTest {
+
+  ComputationStep step1 = mockStep(Qualifiers.PROJECT);
+  ComputationStep step2 = mockStep(Qualifiers.PROJECT);
+  ComputationStep step3 = mockStep(Qualifiers.PROJECT);
+  ComputationStep viewStep = mockStep(Qualifiers.VIEW);
+  ComputationSteps steps = mock(ComputationSteps.class);
+  ComputationContext context = mock(ComputationContext.class);
+  ComputationStats stats = new ComputationStats();
+  System2 system = mock(System2.class);
+
+  @Before
+  public void setUp() throws Exception {
+    when(context.getStats()).thenReturn(stats);
+  }
+
+  @Test
+  public void execute_steps_sequentially() throws Exception {
+    when(context.getProject()).thenReturn(new ComponentDto().setQualifier(Qualifiers.PROJECT));
+    when(steps.orderedSteps()).thenReturn(Arrays.asList(step1, viewStep, step2, step3));
+
+    new ComputationStepExecutor(steps, 1, system).execute(context);
+
+    InOrder inOrder = inOrder(step1, step2, step3);
+    inOrder.verify(step1).execute(context);
+    inOrder.verify(step2).execute(context);
+    inOrder.verify(step3).execute(context);
+    verify(viewStep, never()).execute(any(ComputationContext.class));
+  }
+
+  @Test
+  public void execute_independent_steps_concurrently() throws Exception {
+    when(context.getProject()).thenReturn(new ComponentDto().setQualifier(Qualifiers.PROJECT));
+    when(steps.orderedSteps()).thenReturn(Arrays.asList(step1, step2, step3));
+    when(steps.dependencies(step3)).thenReturn(Arrays.asList(step1, step2));
+
+    // step1 and step2 wait for each other, so they must be executed concurrently
+    final CountDownLatch latch = new CountDownLatch(2);
+    Answer<Void> waitForOtherStep = new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        latch.countDown();
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        return null;
+      }
+    };
+    doAnswer(waitForOtherStep).when(step1).execute(context);
+    doAnswer(waitForOtherStep).when(step2).execute(context);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        // dependencies are completed
+        assertThat(latch.getCount()).isEqualTo(0);
+        return null;
+      }
+    }).when(step3).execute(context);
+
+    new ComputationStepExecutor(steps, 2, system).execute(context);
+
+    verify(step1).execute(context);
+    verify(step2).execute(context);
+    verify(step3).execute(context);
+  }
+
+  @Test
+  public void ignore_dependencies_on_steps_not_supporting_qualifier() throws Exception {
+    when(context.getProject()).thenReturn(new ComponentDto().setQualifier(Qualifiers.PROJECT));
+    when(steps.orderedSteps()).thenReturn(Arrays.asList(viewStep, step1, step2));
+    when(steps.dependencies(step1)).thenReturn(Collections.singletonList(viewStep));
+
+    new ComputationStepExecutor(steps, 2, system).execute(context);
+
+    verify(step1).execute(context);
+    verify(step2).execute(context);
+    verify(viewStep, never()).execute(any(ComputationContext.class));
+  }
+
+  @Test
+  public void do_not_execute_dependent_steps_on_failure() throws Exception {
+    when(context.getProject()).thenReturn(new ComponentDto().setQualifier(Qualifiers.PROJECT));
+    when(steps.orderedSteps()).thenReturn(Arrays.asList(step1, step2, step3));
+    when(steps.dependencies(step2)).thenReturn(Collections.singletonList(step1));
+    when(steps.dependencies(step3)).thenReturn(Collections.singletonList(step2));
+    doThrow(new IllegalStateException("pb")).when(step1).execute(context);
+
+    try {
+      new ComputationStepExecutor(steps, 2, system).execute(context);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("pb");
+      verify(step2, never()).execute(any(ComputationContext.class));
+      verify(step3, never()).execute(any(ComputationContext.class));
+    }
+  }
+
+  @Test
+  public void record_duration_of_steps() throws Exception {
+    when(context.getProject()).thenReturn(new ComponentDto().setQualifier(Qualifiers.PROJECT));
+    when(steps.orderedSteps()).thenReturn(Arrays.asList(step1));
+    when(system.now()).thenReturn(1000L, 1250L);
+
+    new ComputationStepExecutor(steps, 1, system).execute(context);
+
+    assertThat(stats.getDuration(step1)).isEqualTo(250L);
+  }
+
+  private ComputationStep mockStep(String... qualifiers) {
+    ComputationStep step = mock(ComputationStep.class);
+    when(step.supportedProjectQualifiers()).thenReturn(qualifiers);
+    when(step.getDescription()).thenReturn("step");
+    return step;
+  }
+}
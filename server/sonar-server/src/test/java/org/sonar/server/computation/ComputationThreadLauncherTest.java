@@ -25,12 +25,18 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.DisableOnDebug;
+import org.junit.rules.ExpectedException;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.config.Settings;
 import org.sonar.api.platform.Server;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class ComputationThreadLauncherTest {
@@ -38,8 +44,12 @@ public class ComputationThreadLauncherTest {
   @Rule
   public TestRule timeout = new DisableOnDebug(Timeout.seconds(5));
 
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
   ComputationThreadLauncher sut;
   ReportQueue queue;
+  Settings settings = new Settings();
 
   @Before
   public void before() {
@@ -48,12 +58,14 @@ public class ComputationThreadLauncherTest {
 
   @After
   public void after() {
-    sut.stop();
+    if (sut != null) {
+      sut.stop();
+    }
   }
 
   @Test
   public void call_findAndBook_when_launching_a_recurrent_task() throws Exception {
-    sut = new ComputationThreadLauncher(queue, 0, 1, TimeUnit.MILLISECONDS);
+    sut = new ComputationThreadLauncher(queue, settings, 0, 1, TimeUnit.MILLISECONDS);
 
     sut.onServerStart(mock(Server.class));
 
@@ -64,7 +76,7 @@ public class ComputationThreadLauncherTest {
 
   @Test
   public void call_findAndBook_when_executing_task_immediately() throws Exception {
-    sut = new ComputationThreadLauncher(queue, 1, 1, TimeUnit.HOURS);
+    sut = new ComputationThreadLauncher(queue, settings, 1, 1, TimeUnit.HOURS);
     sut.start();
 
     sut.startAnalysisTaskNow();
@@ -76,8 +88,48 @@ public class ComputationThreadLauncherTest {
 
   @Test
   public void test_real_constructor() throws Exception {
-    sut = new ComputationThreadLauncher(queue);
+    sut = new ComputationThreadLauncher(queue, settings);
     sut.start();
+
+    assertThat(sut.getWorkers()).isEqualTo(ComputationThreadLauncher.DEFAULT_WORKERS);
+  }
+
+  @Test
+  public void number_of_workers_is_configurable() throws Exception {
+    settings.setProperty(ComputationThreadLauncher.PROPERTY_WORKERS, 4);
+    sut = new ComputationThreadLauncher(queue, settings);
+
+    assertThat(sut.getWorkers()).isEqualTo(4);
+  }
+
+  @Test
+  public void fail_if_negative_number_of_workers() throws Exception {
+    settings.setProperty(ComputationThreadLauncher.PROPERTY_WORKERS, -1);
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Bad value of sonar.computation.workers: -1");
+
+    new ComputationThreadLauncher(queue, settings);
+  }
+
+  @Test
+  public void workers_pop_the_queue_concurrently() throws Exception {
+    settings.setProperty(ComputationThreadLauncher.PROPERTY_WORKERS, 2);
+    sut = new ComputationThreadLauncher(queue, settings, 1, 1, TimeUnit.HOURS);
+    final CountDownLatch popping = new CountDownLatch(2);
+    when(queue.pop()).thenAnswer(new Answer<ReportQueue.Item>() {
+      @Override
+      public ReportQueue.Item answer(InvocationOnMock invocation) throws Throwable {
+        popping.countDown();
+        // block until the second worker is popping too
+        popping.await(2, TimeUnit.SECONDS);
+        return null;
+      }
+    });
+
+    sut.startAnalysisTaskNow();
+
+    assertThat(popping.await(2, TimeUnit.SECONDS)).isTrue();
   }
 
   private void sleep() throws InterruptedException {
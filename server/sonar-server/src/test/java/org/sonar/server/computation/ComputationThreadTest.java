@@ -65,6 +65,18 @@ public class ComputationThreadTest {
     verify(container).execute(item);
   }
 
+  @Test
+  public void process_next_report_returns_whether_a_report_has_been_popped() throws IOException {
+    AnalysisReportDto report = AnalysisReportDto.newForTests(1L);
+    ReportQueue.Item item = new ReportQueue.Item(report, temp.newFile());
+    when(queue.pop()).thenReturn(item, null);
+
+    assertThat(sut.processNextReport()).isTrue();
+    assertThat(sut.processNextReport()).isFalse();
+
+    verify(container).execute(item);
+  }
+
   @Test
   public void handle_error_during_queue_pop() throws Exception {
     when(queue.pop()).thenThrow(new IllegalStateException());
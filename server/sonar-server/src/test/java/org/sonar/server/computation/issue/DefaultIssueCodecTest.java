@@ -0,0 +1,193 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.issue;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.IssueComment;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.issue.internal.DefaultIssueComment;
+import org.sonar.api.issue.internal.FieldDiffs;
+import org.sonar.api.issue.internal.IssueChangeContext;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class DefaultIssueCodecTest {
+
+  DefaultIssueCodec codec = new DefaultIssueCodec();
+
+  @Test
+  public void encode_and_decode_all_fields() throws Exception {
+    Date date = new Date(1_500_000_000_000L);
+    DefaultIssue issue = new DefaultIssue()
+      .setKey("ISSUE_A")
+      .setComponentUuid("FILE_A")
+      .setComponentKey("struts:Action.java")
+      .setModuleUuid("MODULE_A")
+      .setModuleUuidPath(".PROJECT_A.MODULE_A.")
+      .setProjectUuid("PROJECT_A")
+      .setProjectKey("struts")
+      .setRuleKey(RuleKey.of("squid", "AvoidCycle"))
+      .setLanguage("java")
+      .setSeverity(Severity.BLOCKER)
+      .setManualSeverity(true)
+      .setMessage("the message")
+      .setLine(42)
+      .setEffortToFix(3.14)
+      .setDebt(Duration.create(10L))
+      .setStatus(Issue.STATUS_RESOLVED)
+      .setResolution(Issue.RESOLUTION_FIXED)
+      .setReporter("emmerik")
+      .setAssignee("simon")
+      .setChecksum("CHECKSUM")
+      .setAttributes(ImmutableMap.of("JIRA", "FOO-123"))
+      .setAuthorLogin("julien")
+      .setActionPlanKey("PLAN_A")
+      .setTags(Arrays.asList("bug", "performance"))
+      .setCreationDate(date)
+      .setUpdateDate(date)
+      .setCloseDate(date)
+      .setNew(false)
+      .setEndOfLife(true)
+      .setOnDisabledRule(true)
+      .setChanged(true)
+      .setSendNotifications(true)
+      .setSelectedAt(1_400_000_000_000L);
+    issue.addComment(new DefaultIssueComment()
+      .setKey("COMMENT_A")
+      .setIssueKey("ISSUE_A")
+      .setUserLogin("simon")
+      .setMarkdownText("the comment")
+      .setCreatedAt(date)
+      .setUpdatedAt(date)
+      .setNew(true));
+    issue.addChange(new FieldDiffs().setIssueKey("ISSUE_A").setUserLogin("julien").setCreationDate(date).setDiff("severity", "MINOR", "MAJOR"));
+    issue.setFieldChange(IssueChangeContext.createUser(date, "simon"), "technicalDebt", 5L, 10L);
+
+    DefaultIssue decoded = encodeAndDecode(issue);
+
+    assertThat(decoded.key()).isEqualTo("ISSUE_A");
+    assertThat(decoded.componentUuid()).isEqualTo("FILE_A");
+    assertThat(decoded.componentKey()).isEqualTo("struts:Action.java");
+    assertThat(decoded.moduleUuid()).isEqualTo("MODULE_A");
+    assertThat(decoded.moduleUuidPath()).isEqualTo(".PROJECT_A.MODULE_A.");
+    assertThat(decoded.projectUuid()).isEqualTo("PROJECT_A");
+    assertThat(decoded.projectKey()).isEqualTo("struts");
+    assertThat(decoded.ruleKey()).isEqualTo(RuleKey.of("squid", "AvoidCycle"));
+    assertThat(decoded.language()).isEqualTo("java");
+    assertThat(decoded.severity()).isEqualTo(Severity.BLOCKER);
+    assertThat(decoded.manualSeverity()).isTrue();
+    assertThat(decoded.message()).isEqualTo("the message");
+    assertThat(decoded.line()).isEqualTo(42);
+    assertThat(decoded.effortToFix()).isEqualTo(3.14);
+    assertThat(decoded.debtInMinutes()).isEqualTo(10L);
+    assertThat(decoded.status()).isEqualTo(Issue.STATUS_RESOLVED);
+    assertThat(decoded.resolution()).isEqualTo(Issue.RESOLUTION_FIXED);
+    assertThat(decoded.reporter()).isEqualTo("emmerik");
+    assertThat(decoded.assignee()).isEqualTo("simon");
+    assertThat(decoded.checksum()).isEqualTo("CHECKSUM");
+    assertThat(decoded.attributes()).containsOnly(entry("JIRA", "FOO-123"));
+    assertThat(decoded.authorLogin()).isEqualTo("julien");
+    assertThat(decoded.actionPlanKey()).isEqualTo("PLAN_A");
+    assertThat(decoded.tags()).containsExactly("bug", "performance");
+    assertThat(decoded.creationDate()).isEqualTo(date);
+    assertThat(decoded.updateDate()).isEqualTo(date);
+    assertThat(decoded.closeDate()).isEqualTo(date);
+    assertThat(decoded.isNew()).isFalse();
+    assertThat(decoded.isEndOfLife()).isTrue();
+    assertThat(decoded.isOnDisabledRule()).isTrue();
+    assertThat(decoded.isChanged()).isTrue();
+    assertThat(decoded.mustSendNotifications()).isTrue();
+    assertThat(decoded.selectedAt()).isEqualTo(1_400_000_000_000L);
+
+    assertThat(decoded.comments()).hasSize(1);
+    IssueComment comment = decoded.comments().get(0);
+    assertThat(comment.key()).isEqualTo("COMMENT_A");
+    assertThat(comment.issueKey()).isEqualTo("ISSUE_A");
+    assertThat(comment.userLogin()).isEqualTo("simon");
+    assertThat(comment.markdownText()).isEqualTo("the comment");
+    assertThat(comment.createdAt()).isEqualTo(date);
+    assertThat(comment.updatedAt()).isEqualTo(date);
+    assertThat(((DefaultIssueComment) comment).isNew()).isTrue();
+
+    assertThat(decoded.changes()).hasSize(2);
+    FieldDiffs firstChange = decoded.changes().get(0);
+    assertThat(firstChange.issueKey()).isEqualTo("ISSUE_A");
+    assertThat(firstChange.userLogin()).isEqualTo("julien");
+    assertThat(firstChange.creationDate()).isEqualTo(date);
+    assertThat(firstChange.get("severity").oldValue()).isEqualTo("MINOR");
+    assertThat(firstChange.get("severity").newValue()).isEqualTo("MAJOR");
+    // current change is the same instance as the last change
+    assertThat(decoded.currentChange()).isSameAs(decoded.changes().get(1));
+    assertThat(decoded.currentChange().userLogin()).isEqualTo("simon");
+    assertThat(decoded.currentChange().get("technicalDebt").oldValue()).isEqualTo(5L);
+    assertThat(decoded.currentChange().get("technicalDebt").newValue()).isEqualTo(10L);
+  }
+
+  @Test
+  public void encode_and_decode_issue_with_null_fields() throws Exception {
+    DefaultIssue decoded = encodeAndDecode(new DefaultIssue());
+
+    assertThat(decoded.key()).isNull();
+    assertThat(decoded.ruleKey()).isNull();
+    assertThat(decoded.line()).isNull();
+    assertThat(decoded.effortToFix()).isNull();
+    assertThat(decoded.debt()).isNull();
+    assertThat(decoded.creationDate()).isNull();
+    assertThat(decoded.attributes()).isEmpty();
+    assertThat(decoded.tags()).isEmpty();
+    assertThat(decoded.comments()).isEmpty();
+    assertThat(decoded.changes()).isEmpty();
+    assertThat(decoded.currentChange()).isNull();
+    assertThat(decoded.isNew()).isTrue();
+  }
+
+  @Test
+  public void encode_and_decode_current_change_not_listed_in_changes() throws Exception {
+    DefaultIssue issue = new DefaultIssue();
+    issue.setCurrentChange(new FieldDiffs().setDiff("line", 1, 2));
+    issue.setChanges(null);
+
+    DefaultIssue decoded = encodeAndDecode(issue);
+
+    assertThat(decoded.changes()).isEmpty();
+    assertThat(decoded.currentChange().get("line").oldValue()).isEqualTo(1);
+    assertThat(decoded.currentChange().get("line").newValue()).isEqualTo(2);
+  }
+
+  private DefaultIssue encodeAndDecode(DefaultIssue issue) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.encode(issue, new DataOutputStream(bytes));
+    return codec.decode(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+}
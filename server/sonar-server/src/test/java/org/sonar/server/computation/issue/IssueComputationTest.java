@@ -21,7 +21,6 @@ package org.sonar.server.computation.issue;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
-import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -80,11 +79,6 @@ public class IssueComputationTest {
     sut = new IssueComputation(ruleCache, lineCache, scmAccountCache, outputIssues, userIndex);
   }
 
-  @After
-  public void after() throws Exception {
-    sut.afterReportProcessing();
-  }
-
   @Test
   public void store_issues_on_disk() throws Exception {
     process();
@@ -215,5 +209,7 @@ public class IssueComputationTest {
 
   private void process() {
     sut.processComponentIssues(context, "FILE_A", Arrays.asList(inputIssue.build()));
+    // issues are buffered until appender is closed
+    sut.afterReportProcessing();
   }
 }
@@ -80,4 +80,26 @@ public class SourceLinesCacheTest {
     assertThat(cache.countLines()).isEqualTo(0);
   }
 
+  @Test
+  public void skip_fields_other_than_scm() throws Exception {
+    dbTester.prepareDbUnit(getClass(), "load_data.xml");
+    FileSourceDb.Data.Builder data = FileSourceDb.Data.newBuilder();
+    data.addLinesBuilder().setLine(1).setSource("package foo;").setHighlighting("0,7,k").setScmRevision("rev1")
+      .setScmAuthor("charb").setScmDate(1_400_000_000_000L).setUtLineHits(2).addDuplication(1);
+    data.addLinesBuilder().setLine(2).setSource("").setSymbols("1,2,3");
+    data.addLinesBuilder().setLine(3).setSource("class Foo {}").setScmDate(1_500_000_000_000L).setScmAuthor("cabu").setItLineHits(1);
+    try (Connection connection = dbTester.openConnection()) {
+      FileSourceTesting.updateDataColumn(connection, "FILE_A", data.build());
+    }
+
+    DbClient dbClient = new DbClient(dbTester.database(), dbTester.myBatis(), new FileSourceDao(dbTester.myBatis()));
+    SourceLinesCache cache = new SourceLinesCache(dbClient);
+    cache.init("FILE_A");
+
+    assertThat(cache.lineAuthor(1)).isEqualTo("charb");
+    assertThat(cache.lineAuthor(2)).isEqualTo("cabu");
+    assertThat(cache.lineAuthor(3)).isEqualTo("cabu");
+    assertThat(cache.lineAuthor(null)).isEqualTo("cabu");
+    assertThat(cache.countLines()).isEqualTo(3);
+  }
 }
@@ -22,6 +22,9 @@ package org.sonar.server.computation.step;
 
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -52,6 +55,42 @@ public class ComputationStepsTest {
     assertThat(registry.orderedSteps().get(12)).isInstanceOf(SendIssueNotificationsStep.class);
   }
 
+  @Test
+  public void dependencies() throws Exception {
+    ParseReportStep parseReportStep = mock(ParseReportStep.class);
+    PersistIssuesStep persistIssuesStep = mock(PersistIssuesStep.class);
+    IndexSourceLinesStep indexSourceLinesStep = mock(IndexSourceLinesStep.class);
+    PurgeDatastoresStep purgeDatastoresStep = mock(PurgeDatastoresStep.class);
+    ComputationSteps registry = new ComputationSteps(
+      mock(ApplyPermissionsStep.class),
+      parseReportStep,
+      indexSourceLinesStep,
+      mock(IndexViewsStep.class),
+      mock(PurgeRemovedViewsStep.class),
+      persistIssuesStep,
+      mock(IndexIssuesStep.class),
+      mock(SwitchSnapshotStep.class),
+      purgeDatastoresStep,
+      mock(SendIssueNotificationsStep.class),
+      mock(IndexComponentsStep.class),
+      mock(PersistComponentLinksStep.class),
+      mock(PersistEventsStep.class)
+      );
+
+    assertThat(registry.dependencies(parseReportStep)).isEmpty();
+    assertThat(registry.dependencies(persistIssuesStep)).containsExactly(parseReportStep);
+    // ES indexing is done after all db changes
+    assertThat(registry.dependencies(indexSourceLinesStep)).containsExactly(purgeDatastoresStep);
+  }
+
+  @Test
+  public void steps_depend_only_on_previous_steps() throws Exception {
+    List<Class<? extends ComputationStep>> orderedClasses = ComputationSteps.orderedStepClasses();
+    for (Map.Entry<Class<? extends ComputationStep>, Class<? extends ComputationStep>> dependency : ComputationSteps.stepDependencies().entries()) {
+      assertThat(orderedClasses.indexOf(dependency.getValue())).isGreaterThanOrEqualTo(0).isLessThan(orderedClasses.indexOf(dependency.getKey()));
+    }
+  }
+
   @Test
   public void fail_if_a_step_is_not_registered_in_picocontainer() throws Exception {
     try {
@@ -33,6 +33,7 @@ import org.sonar.server.component.ComponentTesting;
 import org.sonar.server.computation.ComputationContext;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.es.EsTester;
+import org.sonar.server.source.DecoratedSourceCache;
 import org.sonar.server.source.db.FileSourceTesting;
 import org.sonar.server.source.index.SourceLineDoc;
 import org.sonar.server.source.index.SourceLineIndexDefinition;
@@ -45,6 +46,7 @@ import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class IndexSourceLinesStepTest extends BaseStepTest {
@@ -59,6 +61,8 @@ public class IndexSourceLinesStepTest extends BaseStepTest {
 
   DbClient dbClient;
 
+  DecoratedSourceCache decoratedSourceCache = mock(DecoratedSourceCache.class);
+
   @Before
   public void setUp() throws Exception {
     dbClient = new DbClient(dbTester.database(), dbTester.myBatis(), new FileSourceDao(null));
@@ -69,7 +73,7 @@ public class IndexSourceLinesStepTest extends BaseStepTest {
   protected ComputationStep step() throws IOException {
     SourceLineIndexer sourceLineIndexer = new SourceLineIndexer(dbClient, esTester.client());
     sourceLineIndexer.setEnabled(true);
-    return new IndexSourceLinesStep(dbClient, system2, sourceLineIndexer);
+    return new IndexSourceLinesStep(dbClient, system2, sourceLineIndexer, decoratedSourceCache);
   }
 
   @Test
@@ -95,5 +99,6 @@ public class IndexSourceLinesStepTest extends BaseStepTest {
     assertThat(doc.projectUuid()).isEqualTo("ABCD");
     assertThat(doc.fileUuid()).isEqualTo("FILE1_UUID");
     assertThat(doc.updateDate()).isEqualTo(new Date(system2.now()));
+    verify(decoratedSourceCache).invalidateProject("ABCD");
   }
 }
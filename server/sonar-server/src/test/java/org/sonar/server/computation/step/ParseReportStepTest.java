@@ -73,6 +73,9 @@ public class ParseReportStepTest extends BaseStepTest {
     verify(issueComputation).processComponentIssues(context, "FILE2_UUID", Collections.<BatchReport.Issue>emptyList());
     verify(issueComputation).processComponentIssues(context, "DELETED_UUID", ISSUES_ON_DELETED_COMPONENT);
     verify(issueComputation).afterReportProcessing();
+
+    // number of processed issues
+    assertThat(context.getStats().getItems(sut)).isEqualTo(1);
   }
 
   private File generateReport() throws IOException {
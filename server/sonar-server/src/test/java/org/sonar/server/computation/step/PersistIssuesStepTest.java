@@ -22,6 +22,7 @@ package org.sonar.server.computation.step;
 
 import org.junit.*;
 import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.internal.DefaultIssue;
 import org.sonar.api.issue.internal.DefaultIssueComment;
@@ -32,15 +33,21 @@ import org.sonar.api.utils.System2;
 import org.sonar.core.issue.db.UpdateConflictResolver;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.DbTester;
+import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.ComputationStats;
 import org.sonar.server.computation.issue.IssueCache;
 import org.sonar.server.computation.issue.RuleCache;
 import org.sonar.server.computation.issue.RuleCacheLoader;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.issue.db.IssueDao;
 import org.sonar.server.rule.db.RuleDao;
+import org.sonar.server.util.cache.DiskCache;
 
 import java.io.IOException;
+import java.util.Map;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -60,7 +67,11 @@ public class PersistIssuesStepTest extends BaseStepTest {
 
   IssueCache issueCache;
 
-  ComputationStep step;
+  Settings settings;
+
+  ComputationContext context;
+
+  PersistIssuesStep step;
 
   @Override
   protected ComputationStep step() throws IOException {
@@ -76,7 +87,14 @@ public class PersistIssuesStepTest extends BaseStepTest {
     issueCache = new IssueCache(temp.newFile(), System2.INSTANCE);
     system2 = mock(System2.class);
     when(system2.now()).thenReturn(1400000000000L);
-    step = new PersistIssuesStep(dbClient, system2, new UpdateConflictResolver(), new RuleCache(new RuleCacheLoader(dbClient)), issueCache);
+    settings = new Settings();
+    step = newStep();
+    context = mock(ComputationContext.class);
+    when(context.getStats()).thenReturn(new ComputationStats());
+  }
+
+  private PersistIssuesStep newStep() {
+    return new PersistIssuesStep(dbClient, system2, new UpdateConflictResolver(), new RuleCache(new RuleCacheLoader(dbClient)), issueCache, settings);
   }
 
   @After
@@ -98,7 +116,7 @@ public class PersistIssuesStepTest extends BaseStepTest {
         .setNew(true)
     ).close();
 
-    step.execute(null);
+    step.execute(context);
 
     dbTester.assertDbUnit(getClass(), "insert_new_issue-result.xml", new String[]{"id"}, "issues");
   }
@@ -119,7 +137,7 @@ public class PersistIssuesStepTest extends BaseStepTest {
         .setChanged(true)
     ).close();
 
-    step.execute(null);
+    step.execute(context);
 
     dbTester.assertDbUnit(getClass(), "close_issue-result.xml", "issues");
   }
@@ -147,7 +165,7 @@ public class PersistIssuesStepTest extends BaseStepTest {
         )
     ).close();
 
-    step.execute(null);
+    step.execute(context);
 
     dbTester.assertDbUnit(getClass(), "add_comment-result.xml", new String[]{"id", "created_at", "updated_at"}, "issue_changes");
   }
@@ -173,9 +191,109 @@ public class PersistIssuesStepTest extends BaseStepTest {
         )
     ).close();
 
-    step.execute(null);
+    step.execute(context);
 
     dbTester.assertDbUnit(getClass(), "add_change-result.xml", new String[]{"id", "created_at", "updated_at"}, "issue_changes");
   }
 
+  @Test
+  public void update_issue_not_changed_since_selection() throws Exception {
+    dbTester.prepareDbUnit(getClass(), "shared.xml");
+
+    issueCache.newAppender().append(new DefaultIssue()
+        .setKey("ISSUE")
+        .setRuleKey(RuleKey.of("xoo", "S01"))
+        .setComponentUuid("COMPONENT")
+        .setProjectUuid("PROJECT")
+        .setSeverity(Severity.BLOCKER)
+        .setStatus(Issue.STATUS_OPEN)
+        .setAssignee("john")
+        .setSelectedAt(1200000000000L)
+        .setNew(false)
+        .setChanged(true)
+    ).close();
+
+    step.execute(context);
+
+    Map<String, Object> row = dbTester.selectFirst("select assignee as \"assignee\", updated_at as \"updatedAt\" from issues");
+    assertThat(row.get("assignee")).isEqualTo("john");
+    assertThat(row.get("updatedAt")).isEqualTo(1400000000000L);
+  }
+
+  @Test
+  public void resolve_conflict_if_issue_changed_since_selection() throws Exception {
+    dbTester.prepareDbUnit(getClass(), "resolve_conflict.xml");
+
+    issueCache.newAppender().append(new DefaultIssue()
+        .setKey("ISSUE")
+        .setRuleKey(RuleKey.of("xoo", "S01"))
+        .setComponentUuid("COMPONENT")
+        .setProjectUuid("PROJECT")
+        .setSeverity(Severity.BLOCKER)
+        .setStatus(Issue.STATUS_OPEN)
+        .setMessage("new message")
+        .setAssignee("john")
+        .setSelectedAt(1000000000000L)
+        .setNew(false)
+        .setChanged(true)
+    ).close();
+
+    step.execute(context);
+
+    // assignee is kept from db, message is changed by analysis
+    Map<String, Object> row = dbTester.selectFirst("select assignee as \"assignee\", message as \"message\" from issues");
+    assertThat(row.get("assignee")).isNull();
+    assertThat(row.get("message")).isEqualTo("new message");
+  }
+
+  @Test
+  public void persist_issues_by_groups() throws Exception {
+    dbTester.prepareDbUnit(getClass(), "insert_new_issue.xml");
+    settings.setProperty(PersistIssuesStep.PROPERTY_BATCH_SIZE, 2);
+    step = newStep();
+
+    DiskCache<DefaultIssue>.DiskAppender appender = issueCache.newAppender();
+    for (int i = 0; i < 5; i++) {
+      appender.append(new DefaultIssue()
+        .setKey("ISSUE_" + i)
+        .setRuleKey(RuleKey.of("xoo", "S01"))
+        .setComponentUuid("COMPONENT")
+        .setProjectUuid("PROJECT")
+        .setSeverity(Severity.BLOCKER)
+        .setStatus(Issue.STATUS_OPEN)
+        .setNew(true)
+        .addComment(new DefaultIssueComment()
+          .setKey("COMMENT_" + i)
+          .setIssueKey("ISSUE_" + i)
+          .setUserLogin("john")
+          .setMarkdownText("Some text")
+          .setNew(true)));
+    }
+    appender.close();
+
+    step.execute(context);
+
+    assertThat(dbTester.countRowsOfTable("issues")).isEqualTo(5);
+    assertThat(dbTester.countRowsOfTable("issue_changes")).isEqualTo(5);
+    assertThat(context.getStats().getItems(step)).isEqualTo(10);
+  }
+
+  @Test
+  public void default_batch_size() throws Exception {
+    assertThat(step.getBatchSize()).isEqualTo(PersistIssuesStep.DEFAULT_BATCH_SIZE);
+
+    settings.setProperty(PersistIssuesStep.PROPERTY_BATCH_SIZE, 0);
+    assertThat(newStep().getBatchSize()).isEqualTo(PersistIssuesStep.DEFAULT_BATCH_SIZE);
+  }
+
+  @Test
+  public void fail_if_negative_batch_size() throws Exception {
+    settings.setProperty(PersistIssuesStep.PROPERTY_BATCH_SIZE, -1);
+    try {
+      newStep();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Bad value of sonar.computation.issues.batchSize: -1");
+    }
+  }
 }
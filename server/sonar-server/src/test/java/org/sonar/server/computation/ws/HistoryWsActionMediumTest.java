@@ -62,6 +62,9 @@ public class HistoryWsActionMediumTest {
     activity1.setData("projectUuid", "U1");
     activity1.setData("status", AnalysisReportDto.Status.SUCCESS);
     activity1.setData("submittedAt", new Date());
+    activity1.setData("step_ParseReportStep_duration", 120L);
+    activity1.setData("step_ParseReportStep_items", 15L);
+    activity1.setData("step_PersistIssuesStep_duration", 40L);
     activityService.save(activity1);
 
     Activity activity2 = new Activity();
@@ -0,0 +1,100 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.ws;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.core.permission.GlobalPermissions;
+import org.sonar.server.activity.index.ActivityDoc;
+import org.sonar.server.activity.index.ActivityIndex;
+import org.sonar.server.activity.index.ActivityIndexDefinition;
+import org.sonar.server.activity.index.ActivityQuery;
+import org.sonar.server.es.SearchOptions;
+import org.sonar.server.es.SearchResult;
+import org.sonar.server.exceptions.ForbiddenException;
+import org.sonar.server.user.MockUserSession;
+import org.sonar.server.ws.WsTester;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StatsWsActionTest {
+
+  ActivityIndex activityIndex = mock(ActivityIndex.class);
+  WsTester tester;
+
+  @Before
+  public void setUp() throws Exception {
+    tester = new WsTester(new ComputationWebService(new StatsWsAction(activityIndex)));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MockUserSession.set();
+  }
+
+  @Test
+  public void distribution_of_step_durations() throws Exception {
+    SearchResult<ActivityDoc> result = mock(SearchResult.class);
+    when(result.getDocs()).thenReturn(Arrays.asList(
+      newDoc(ImmutableMap.of("step_ParseReportStep_duration", "100", "step_ParseReportStep_items", "10", "step_PersistIssuesStep_duration", "20")),
+      newDoc(ImmutableMap.of("step_ParseReportStep_duration", "300", "step_ParseReportStep_items", "30")),
+      newDoc(ImmutableMap.of("step_ParseReportStep_duration", "200", "step_ParseReportStep_items", "20")),
+      // report without step details, for example integrated by a previous version
+      newDoc(ImmutableMap.of("projectKey", "P1"))));
+    when(activityIndex.search(any(ActivityQuery.class), any(SearchOptions.class))).thenReturn(result);
+    MockUserSession.set().setGlobalPermissions(GlobalPermissions.SYSTEM_ADMIN);
+
+    WsTester.TestRequest request = tester.newGetRequest(ComputationWebService.API_ENDPOINT, "stats");
+    request.execute().assertJson(getClass(), "distribution_of_step_durations.json", true);
+  }
+
+  @Test(expected = ForbiddenException.class)
+  public void requires_admin_right() throws Exception {
+    MockUserSession.set();
+
+    tester.newGetRequest(ComputationWebService.API_ENDPOINT, "stats").execute();
+  }
+
+  @Test
+  public void percentile() throws Exception {
+    long[] values = {10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L, 100L};
+    assertThat(StatsWsAction.percentile(values, 50)).isEqualTo(50L);
+    assertThat(StatsWsAction.percentile(values, 90)).isEqualTo(90L);
+    assertThat(StatsWsAction.percentile(values, 99)).isEqualTo(100L);
+    assertThat(StatsWsAction.percentile(new long[] {42L}, 50)).isEqualTo(42L);
+  }
+
+  @Test
+  public void define() throws Exception {
+    assertThat(tester.controller(ComputationWebService.API_ENDPOINT).action("stats")).isNotNull();
+  }
+
+  private static ActivityDoc newDoc(Map<String, String> details) {
+    return new ActivityDoc(ImmutableMap.<String, Object>of(ActivityIndexDefinition.FIELD_DETAILS, details));
+  }
+}
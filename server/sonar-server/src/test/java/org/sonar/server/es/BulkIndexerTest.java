@@ -19,14 +19,32 @@
  */
 package org.sonar.server.es;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.TransportException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 
 public class BulkIndexerTest {
 
@@ -97,6 +115,176 @@ public class BulkIndexerTest {
     assertThat(count()).isEqualTo(2);
   }
 
+  @Test
+  public void record_stats() throws Exception {
+    BulkIndexerStats.IndexStats stats = esTester.client().getBulkIndexerStats().forIndex(FakeIndexDefinition.INDEX);
+    long docsBefore = stats.getDocs();
+
+    BulkIndexer indexer = new BulkIndexer(esTester.client(), FakeIndexDefinition.INDEX);
+    indexer.start();
+    indexer.add(newIndexRequest(42));
+    indexer.add(newIndexRequest(78));
+    indexer.stop();
+
+    assertThat(stats.getDocs()).isEqualTo(docsBefore + 2);
+    assertThat(stats.getFailures()).isEqualTo(0);
+    assertThat(esTester.client().getBulkIndexerStats().all()).containsKey(FakeIndexDefinition.INDEX);
+  }
+
+  @Test
+  public void index_documents_with_different_routing_keys() throws Exception {
+    BulkIndexer indexer = new BulkIndexer(esTester.client(), FakeIndexDefinition.INDEX);
+    indexer.start();
+    for (int i = 0; i < 30; i++) {
+      indexer.add(newIndexRequest(i).routing("routing" + (i % 3)));
+    }
+    indexer.add(newIndexRequest(100));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(31);
+  }
+
+  @Test
+  public void delete_documents_over_many_scroll_pages() throws Exception {
+    BulkIndexer indexer = new BulkIndexer(esTester.client(), FakeIndexDefinition.INDEX);
+    indexer.start();
+    for (int i = 0; i < 100; i++) {
+      indexer.add(newIndexRequest(i));
+    }
+    indexer.stop();
+    assertThat(count()).isEqualTo(100);
+
+    SearchRequestBuilder search = esTester.client().prepareSearch(FakeIndexDefinition.INDEX)
+      .setTypes(FakeIndexDefinition.TYPE)
+      .setQuery(QueryBuilders.matchAllQuery())
+      .setSize(10);
+    BulkIndexer.delete(esTester.client(), FakeIndexDefinition.INDEX, search);
+
+    assertThat(count()).isEqualTo(0);
+  }
+
+  @Test
+  public void bulk_size_is_kept_within_bounds() throws Exception {
+    BulkIndexer indexer = new BulkIndexer(esTester.client(), FakeIndexDefinition.INDEX);
+    assertThat(indexer.getFlushByteSize()).isEqualTo(BulkIndexer.DEFAULT_FLUSH_BYTE_SIZE);
+
+    indexer.start();
+    for (int i = 0; i < 1000; i++) {
+      indexer.add(newIndexRequest(i));
+    }
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(1000);
+    assertThat(indexer.getFlushByteSize()).isBetween(BulkIndexer.MIN_FLUSH_BYTE_SIZE, BulkIndexer.MAX_FLUSH_BYTE_SIZE);
+  }
+
+  @Test
+  public void retry_rejected_requests() throws Exception {
+    BulkIndexerStats.IndexStats stats = esTester.client().getBulkIndexerStats().forIndex(FakeIndexDefinition.INDEX);
+    long rejectionsBefore = stats.getRejections();
+    long retriesBefore = stats.getRetries();
+
+    BulkIndexer indexer = new BulkIndexer(clientFailingWith(RestStatus.TOO_MANY_REQUESTS), FakeIndexDefinition.INDEX);
+    indexer.start();
+    indexer.add(newIndexRequest(42).id("1"));
+    indexer.add(newIndexRequest(78).id("2"));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(2);
+    assertThat(stats.getRejections()).isEqualTo(rejectionsBefore + 2);
+    assertThat(stats.getRetries()).isEqualTo(retriesBefore + 2);
+    // bulk size is decreased on rejection, then increased again by the successful retry
+    assertThat(indexer.getFlushByteSize()).isEqualTo(BulkIndexer.DEFAULT_FLUSH_BYTE_SIZE / 2 + BulkIndexer.MIN_FLUSH_BYTE_SIZE);
+  }
+
+  @Test
+  public void retry_requests_that_fail_because_of_transport_errors() throws Exception {
+    BulkIndexer indexer = new BulkIndexer(clientFailingWith(new TransportException("node disconnected")), FakeIndexDefinition.INDEX);
+    indexer.start();
+    indexer.add(newIndexRequest(42).id("1"));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(1);
+  }
+
+  @Test
+  public void do_not_retry_bad_requests() throws Exception {
+    BulkIndexerStats.IndexStats stats = esTester.client().getBulkIndexerStats().forIndex(FakeIndexDefinition.INDEX);
+    long failuresBefore = stats.getFailures();
+    long retriesBefore = stats.getRetries();
+
+    BulkIndexer indexer = new BulkIndexer(clientFailingWith(RestStatus.BAD_REQUEST), FakeIndexDefinition.INDEX);
+    indexer.start();
+    indexer.add(newIndexRequest(42).id("1"));
+    indexer.add(newIndexRequest(78).id("2"));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(0);
+    assertThat(stats.getFailures()).isEqualTo(failuresBefore + 2);
+    assertThat(stats.getRetries()).isEqualTo(retriesBefore);
+  }
+
+  @Test
+  public void retried_request_does_not_override_a_more_recent_request_on_same_document() throws Exception {
+    BulkIndexer indexer = new BulkIndexer(clientFailingWith(RestStatus.TOO_MANY_REQUESTS), FakeIndexDefinition.INDEX);
+    indexer.start();
+    // big enough to be sent immediately, then rejected
+    indexer.add(newIndexRequest(1).id("1")
+      .source(ImmutableMap.of(FakeIndexDefinition.INT_FIELD, 1, "padding", Strings.repeat("a", (int) BulkIndexer.DEFAULT_FLUSH_BYTE_SIZE))));
+    indexer.add(newIndexRequest(2).id("1"));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(1);
+    Object value = esTester.client().prepareGet(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, "1").get().getSource().get(FakeIndexDefinition.INT_FIELD);
+    assertThat(value).isEqualTo(2);
+  }
+
+  /**
+   * The first bulk request fails with the given status or exception, the next ones are executed.
+   */
+  private EsClient clientFailingWith(Object failure) {
+    final Client nativeClient = esTester.client().nativeClient();
+    final Deque<Object> failures = new ArrayDeque<>(Arrays.asList(failure));
+    EsClient client = spy(esTester.client());
+    doAnswer(new Answer<BulkRequestBuilder>() {
+      @Override
+      public BulkRequestBuilder answer(InvocationOnMock invocation) {
+        return new FailingBulkRequestBuilder(nativeClient, failures);
+      }
+    }).when(client).prepareBulk();
+    return client;
+  }
+
+  private static class FailingBulkRequestBuilder extends BulkRequestBuilder {
+    private final Deque<Object> failures;
+
+    FailingBulkRequestBuilder(Client client, Deque<Object> failures) {
+      super(client);
+      this.failures = failures;
+    }
+
+    @Override
+    public void execute(ActionListener<BulkResponse> listener) {
+      Object failure;
+      synchronized (failures) {
+        failure = failures.poll();
+      }
+      if (failure == null) {
+        super.execute(listener);
+      } else if (failure instanceof Throwable) {
+        listener.onFailure((Throwable) failure);
+      } else {
+        int size = request().numberOfActions();
+        BulkItemResponse[] items = new BulkItemResponse[size];
+        for (int i = 0; i < size; i++) {
+          IndexRequest indexRequest = (IndexRequest) request().requests().get(i);
+          items[i] = new BulkItemResponse(i, "index", new BulkItemResponse.Failure(indexRequest.index(), indexRequest.type(), indexRequest.id(),
+            "failure", (RestStatus) failure));
+        }
+        listener.onResponse(new BulkResponse(items, 1L));
+      }
+    }
+  }
 
   private long count() {
     return esTester.countDocuments("fakes", "fake");
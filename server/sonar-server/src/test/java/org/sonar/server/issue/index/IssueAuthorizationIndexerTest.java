@@ -25,9 +25,11 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.sonar.api.config.Settings;
+import org.sonar.api.utils.System2;
 import org.sonar.core.persistence.DbTester;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.es.EsTester;
+import org.sonar.server.user.UserPermissionCache;
 import org.sonar.test.DbTests;
 
 import java.util.Arrays;
@@ -35,6 +37,9 @@ import java.util.Collection;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @Category(DbTests.class)
 public class IssueAuthorizationIndexerTest {
@@ -45,6 +50,8 @@ public class IssueAuthorizationIndexerTest {
   @ClassRule
   public static EsTester esTester = new EsTester().addDefinitions(new IssueIndexDefinition(new Settings()));
 
+  UserPermissionCache userPermissionCache = mock(UserPermissionCache.class);
+
   @Before
   public void setUp() throws Exception {
     dbTester.truncateTables();
@@ -57,6 +64,7 @@ public class IssueAuthorizationIndexerTest {
     indexer.doIndex(0L);
 
     assertThat(esTester.countDocuments("issues", "authorization")).isZero();
+    verify(userPermissionCache, never()).clear();
   }
 
   @Test
@@ -72,6 +80,7 @@ public class IssueAuthorizationIndexerTest {
     assertThat(doc.getSource().get("project")).isEqualTo("ABC");
     assertThat((Collection) doc.getSource().get("groups")).containsOnly("devs", "Anyone");
     assertThat((Collection) doc.getSource().get("users")).containsOnly("user1");
+    verify(userPermissionCache).clear();
 
     // delete project
     indexer.deleteProject("ABC", true);
@@ -108,6 +117,7 @@ public class IssueAuthorizationIndexerTest {
   }
 
   private IssueAuthorizationIndexer createIndexer() {
-    return new IssueAuthorizationIndexer(new DbClient(dbTester.database(), dbTester.myBatis()), esTester.client());
+    return new IssueAuthorizationIndexer(new DbClient(dbTester.database(), dbTester.myBatis()), esTester.client(),
+      new AuthorizedProjectsCache(esTester.client(), System2.INSTANCE), userPermissionCache);
   }
 }
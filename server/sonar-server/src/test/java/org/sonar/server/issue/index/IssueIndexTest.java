@@ -44,6 +44,7 @@ import org.sonar.server.exceptions.NotFoundException;
 import org.sonar.server.issue.IssueQuery;
 import org.sonar.server.issue.IssueTesting;
 import org.sonar.server.user.MockUserSession;
+import org.sonar.server.user.UserPermissionCache;
 import org.sonar.server.view.index.ViewDoc;
 import org.sonar.server.view.index.ViewIndexDefinition;
 import org.sonar.server.view.index.ViewIndexer;
@@ -74,13 +75,14 @@ public class IssueIndexTest {
   public void setUp() throws Exception {
     tester.truncateIndices();
     issueIndexer = new IssueIndexer(null, tester.client());
-    issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, tester.client());
+    AuthorizedProjectsCache authorizedProjectsCache = new AuthorizedProjectsCache(tester.client(), System2.INSTANCE);
+    issueAuthorizationIndexer = new IssueAuthorizationIndexer(null, tester.client(), authorizedProjectsCache, mock(UserPermissionCache.class));
     viewIndexer = new ViewIndexer(null, tester.client());
     System2 system = mock(System2.class);
     when(system.getDefaultTimeZone()).thenReturn(TimeZone.getTimeZone("+01:00"));
     when(system.newDate()).thenReturn(new Date());
 
-    index = new IssueIndex(tester.client(), system);
+    index = new IssueIndex(tester.client(), system, authorizedProjectsCache);
 
   }
 
@@ -1126,6 +1128,41 @@ public class IssueIndexTest {
     assertThat(index.search(IssueQuery.builder().projectUuids(newArrayList(project3.uuid())).build(), new SearchOptions()).getDocs()).isEmpty();
   }
 
+  @Test
+  public void authorized_projects_are_reloaded_when_authorizations_change() throws Exception {
+    ComponentDto project = ComponentTesting.newProjectDto().setKey("project1");
+    ComponentDto file = ComponentTesting.newFileDto(project).setKey("file1");
+    indexIssue(IssueTesting.newDoc("ISSUE1", file), "sonar-admins", null);
+
+    MockUserSession.set().setUserGroups("sonar-users");
+    assertThat(index.search(IssueQuery.builder().build(), new SearchOptions()).getDocs()).isEmpty();
+
+    addIssueAuthorization(project.uuid(), "sonar-users", null);
+    assertThat(index.search(IssueQuery.builder().build(), new SearchOptions()).getDocs()).hasSize(1);
+
+    issueAuthorizationIndexer.deleteProject(project.uuid(), true);
+    assertThat(index.search(IssueQuery.builder().build(), new SearchOptions()).getDocs()).isEmpty();
+  }
+
+  @Test
+  public void authorized_issues_when_user_can_browse_many_projects() throws Exception {
+    ComponentDto project1 = ComponentTesting.newProjectDto().setKey("project1");
+    ComponentDto project2 = ComponentTesting.newProjectDto().setKey("project2");
+    ComponentDto project3 = ComponentTesting.newProjectDto().setKey("project3");
+    indexIssue(IssueTesting.newDoc("ISSUE1", ComponentTesting.newFileDto(project1)), "sonar-users", null);
+    indexIssue(IssueTesting.newDoc("ISSUE2", ComponentTesting.newFileDto(project2)), null, "john");
+    indexIssue(IssueTesting.newDoc("ISSUE3", ComponentTesting.newFileDto(project3)), "sonar-admins", null);
+    // too many projects to be listed in the authorization filter
+    List<IssueAuthorizationDao.Dto> authorizations = newArrayList();
+    for (int i = 0; i < IssueIndex.MAX_PROJECTS_IN_AUTHORIZATION_FILTER; i++) {
+      authorizations.add(new IssueAuthorizationDao.Dto("PROJECT_WITHOUT_ISSUES_" + i, 1).addGroup("sonar-users"));
+    }
+    issueAuthorizationIndexer.index(authorizations);
+
+    MockUserSession.set().setLogin("john").setUserGroups("sonar-users");
+    assertThat(index.search(IssueQuery.builder().build(), new SearchOptions()).getDocs()).hasSize(2);
+  }
+
   @Test
   public void authorized_issues_on_user() throws Exception {
     ComponentDto project1 = ComponentTesting.newProjectDto().setKey("project1");
@@ -25,9 +25,11 @@ import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.sonar.api.utils.System2;
 import org.sonar.core.persistence.DbTester;
 import org.sonar.server.es.EsTester;
 import org.sonar.server.issue.IssueTesting;
+import org.sonar.server.issue.index.AuthorizedProjectsCache;
 import org.sonar.server.issue.index.IssueIndexDefinition;
 import org.sonar.server.rule.RuleTesting;
 import org.sonar.server.rule.index.RuleDoc;
@@ -55,7 +57,7 @@ public class BackendCleanupMediumTest {
 
   @Before
   public void setUp() throws Exception {
-    backendCleanup = new BackendCleanup(esTester.client(), dbTester.myBatis());
+    backendCleanup = new BackendCleanup(esTester.client(), dbTester.myBatis(), new AuthorizedProjectsCache(esTester.client(), System2.INSTANCE));
   }
 
   @Test
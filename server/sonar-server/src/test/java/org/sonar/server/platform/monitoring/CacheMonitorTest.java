@@ -0,0 +1,77 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.platform.monitoring;
+
+import org.junit.Test;
+import org.sonar.api.utils.System2;
+import org.sonar.api.web.UserRole;
+import org.sonar.core.resource.ResourceDao;
+import org.sonar.core.user.AuthorizationDao;
+import org.sonar.server.es.EsClient;
+import org.sonar.server.issue.index.AuthorizedProjectsCache;
+import org.sonar.server.source.DecoratedSourceCache;
+import org.sonar.server.source.HtmlSourceDecorator;
+import org.sonar.server.user.UserPermissionCache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class CacheMonitorTest {
+
+  UserPermissionCache userPermissionCache = new UserPermissionCache(mock(AuthorizationDao.class), mock(ResourceDao.class), System2.INSTANCE);
+  DecoratedSourceCache decoratedSourceCache = new DecoratedSourceCache(new HtmlSourceDecorator(), System2.INSTANCE);
+  AuthorizedProjectsCache authorizedProjectsCache = new AuthorizedProjectsCache(mock(EsClient.class), System2.INSTANCE);
+  CacheMonitor sut = new CacheMonitor(userPermissionCache, decoratedSourceCache, authorizedProjectsCache);
+
+  @Test
+  public void name() {
+    assertThat(sut.name()).isEqualTo("Caches");
+  }
+
+  @Test
+  public void cache_attributes() {
+    userPermissionCache.authorizedProjectKeys(1, UserRole.USER);
+    userPermissionCache.authorizedProjectKeys(1, UserRole.USER);
+    // anonymous without groups is not authorized on any project, index is not requested
+    authorizedProjectsCache.get(null, Collections.<String>emptySet());
+    authorizedProjectsCache.get(null, Collections.<String>emptySet());
+    authorizedProjectsCache.get(null, Collections.<String>emptySet());
+
+    LinkedHashMap<String, Object> attributes = sut.attributes();
+
+    assertThat(attributes).containsKeys("Permissions", "Projects of Components", "Decorated Sources", "Issue Authorized Projects");
+    Map<String, Object> permissions = (Map<String, Object>) attributes.get("Permissions");
+    assertThat(permissions.get("Entries")).isEqualTo(1);
+    assertThat(permissions.get("Hits")).isEqualTo(1L);
+    assertThat(permissions.get("Misses")).isEqualTo(1L);
+    assertThat(sut.getPermissionsHitRatio()).isEqualTo(50D);
+    assertThat(sut.getProjectsOfComponentsHitRatio()).isZero();
+    assertThat(sut.getDecoratedSourcesHitRatio()).isZero();
+    assertThat(sut.getDecoratedSourcesAverageDecorationTimeMs()).isZero();
+    Map<String, Object> authorizedProjects = (Map<String, Object>) attributes.get("Issue Authorized Projects");
+    assertThat(authorizedProjects.get("Entries")).isEqualTo(1);
+    assertThat(authorizedProjects.get("Hits")).isEqualTo(2L);
+    assertThat(sut.getIssueAuthorizedProjectsHitRatio()).isEqualTo(200D / 3D);
+  }
+}
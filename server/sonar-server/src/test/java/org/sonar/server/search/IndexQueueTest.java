@@ -0,0 +1,170 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.search;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.junit.Test;
+import org.sonar.api.platform.ComponentContainer;
+import org.sonar.core.persistence.Dto;
+import org.sonar.server.search.action.DeleteKey;
+import org.sonar.server.search.action.IndexAction;
+import org.sonar.server.search.action.InsertDto;
+import org.sonar.server.search.action.RefreshIndex;
+import org.sonar.server.search.action.UpsertDto;
+import org.sonar.server.search.action.UpsertNestedItem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IndexQueueTest {
+
+  @Test
+  public void coalesce_upserts_of_same_document() {
+    IndexAction<?> upsertFoo = new UpsertDto<>("rules", new FakeDto("foo"));
+    IndexAction<?> upsertBar = new UpsertDto<>("rules", new FakeDto("bar"));
+    IndexAction<?> upsertFooAgain = new UpsertDto<>("rules", new FakeDto("foo"));
+    IndexAction<?> upsertFooInOtherIndex = new UpsertDto<>("activeRules", new FakeDto("foo"));
+
+    List<IndexAction<?>> actions = IndexQueue.coalesce(Arrays.<IndexAction<?>>asList(upsertFoo, upsertBar, upsertFooAgain, upsertFooInOtherIndex));
+
+    assertThat(actions).containsExactly(upsertBar, upsertFooAgain, upsertFooInOtherIndex);
+  }
+
+  @Test
+  public void drop_upserts_of_deleted_document() {
+    IndexAction<?> insertFoo = new InsertDto<>("rules", new FakeDto("foo"), false);
+    IndexAction<?> deleteFoo = new DeleteKey<>("rules", "foo");
+    IndexAction<?> upsertFoo = new UpsertDto<>("rules", new FakeDto("foo"));
+
+    assertThat(IndexQueue.coalesce(Arrays.<IndexAction<?>>asList(insertFoo, deleteFoo))).containsExactly(deleteFoo);
+    // deletion is kept as it also drops nested items
+    assertThat(IndexQueue.coalesce(Arrays.<IndexAction<?>>asList(deleteFoo, upsertFoo))).containsExactly(deleteFoo, upsertFoo);
+  }
+
+  @Test
+  public void keep_upsert_followed_by_change_of_nested_item() {
+    IndexAction<?> upsertFoo = new UpsertDto<>("rules", new FakeDto("foo"));
+    IndexAction<?> upsertParam = new UpsertNestedItem<>("rules", "foo", "param");
+    IndexAction<?> upsertFooAgain = new UpsertDto<>("rules", new FakeDto("foo"));
+    IndexAction<?> refresh = new RefreshIndex("rules");
+
+    assertThat(IndexQueue.coalesce(Arrays.<IndexAction<?>>asList(upsertFoo, upsertParam, upsertFooAgain, refresh)))
+      .containsExactly(upsertFoo, upsertParam, upsertFooAgain, refresh);
+  }
+
+  @Test
+  public void retry_actions_that_fail_in_background() throws Exception {
+    IndexQueue queue = newQueue();
+    FakeAction action = new FakeAction("foo", 2);
+    queue.start();
+    try {
+      queue.enqueue(Arrays.<IndexAction<?>>asList(action));
+
+      assertThat(action.indexed.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(action.calls).isEqualTo(3);
+    } finally {
+      queue.stop();
+    }
+  }
+
+  @Test
+  public void drop_actions_after_max_attempts() throws Exception {
+    IndexQueue queue = newQueue();
+    FakeAction action = new FakeAction("foo", Integer.MAX_VALUE);
+    queue.start();
+    try {
+      queue.enqueue(Arrays.<IndexAction<?>>asList(action));
+
+      assertThat(action.failed.await(10, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      // dropped actions are not indexed again when stopping
+      queue.stop();
+    }
+    assertThat(action.calls).isEqualTo(IndexQueue.MAX_BACKGROUND_ATTEMPTS);
+  }
+
+  private static IndexQueue newQueue() {
+    SearchClient searchClient = mock(SearchClient.class);
+    when(searchClient.prepareBulk()).thenReturn(mock(BulkRequestBuilder.class));
+    Index index = mock(Index.class);
+    when(index.getIndexType()).thenReturn(FakeAction.INDEX_TYPE);
+    ComponentContainer container = mock(ComponentContainer.class);
+    when(container.getComponentsByType(Index.class)).thenReturn(Arrays.asList(index));
+    IndexQueue queue = new IndexQueue(searchClient, container);
+    queue.retryDelayMs = 1L;
+    return queue;
+  }
+
+  /**
+   * Fails a given number of times, then does not generate any request
+   */
+  private static class FakeAction extends IndexAction<ActionRequest> {
+    static final String INDEX_TYPE = "fake";
+
+    private final String key;
+    private final int failures;
+    private final CountDownLatch indexed = new CountDownLatch(1);
+    private final CountDownLatch failed = new CountDownLatch(IndexQueue.MAX_BACKGROUND_ATTEMPTS);
+    private volatile int calls = 0;
+
+    FakeAction(String key, int failures) {
+      super(INDEX_TYPE, false);
+      this.key = key;
+      this.failures = failures;
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public List<ActionRequest> doCall(Index index) {
+      calls++;
+      if (calls <= failures) {
+        failed.countDown();
+        throw new IllegalStateException("Fail to index " + key);
+      }
+      indexed.countDown();
+      return Collections.emptyList();
+    }
+  }
+
+  private static class FakeDto extends Dto<String> {
+    private final String key;
+
+    FakeDto(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+  }
+}
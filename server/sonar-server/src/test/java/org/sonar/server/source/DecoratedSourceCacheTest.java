@@ -0,0 +1,111 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.source;
+
+import org.junit.Test;
+import org.sonar.api.utils.System2;
+import org.sonar.server.source.index.SourceLineDoc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class DecoratedSourceCacheTest {
+
+  HtmlSourceDecorator htmlSourceDecorator = spy(new HtmlSourceDecorator());
+  DecoratedSourceCache cache = new DecoratedSourceCache(htmlSourceDecorator, System2.INSTANCE);
+
+  @Test
+  public void decorate_lines_once() throws Exception {
+    List<SourceLineDoc> lines = Arrays.asList(newLine(1, "package org.polop;", "H1"), newLine(2, "class Foo {}", "H2"));
+
+    List<String> html = cache.getDecoratedSourceAsHtml("PROJECT", "FILE", lines);
+    assertThat(html).containsExactly("<span class=\"k\">package</span> org.polop;", "<span class=\"k\">class</span> Foo {}");
+    assertThat(cache.getDecoratedSourceAsHtml("PROJECT", "FILE", lines)).isEqualTo(html);
+
+    verify(htmlSourceDecorator, times(2)).getDecoratedSourceAsHtml(anyString(), anyString(), anyString());
+    assertThat(cache.entries()).isEqualTo(1);
+    assertThat(cache.stats().getHits()).isEqualTo(1L);
+    assertThat(cache.stats().getMisses()).isEqualTo(1L);
+  }
+
+  @Test
+  public void decorate_again_modified_lines() throws Exception {
+    cache.getDecoratedSourceAsHtml("PROJECT", "FILE", Arrays.asList(newLine(1, "package org.polop;", "H1")));
+
+    List<String> html = cache.getDecoratedSourceAsHtml("PROJECT", "FILE", Arrays.asList(newLine(1, "package org.palap;", "H3")));
+
+    assertThat(html).containsExactly("<span class=\"k\">package</span> org.palap;");
+    assertThat(cache.stats().getHits()).isZero();
+  }
+
+  @Test
+  public void ranges_of_lines_are_cached_separately() throws Exception {
+    SourceLineDoc line1 = newLine(1, "package org.polop;", "H1");
+    SourceLineDoc line2 = newLine(2, "class Foo {}", "H2");
+    cache.getDecoratedSourceAsHtml("PROJECT", "FILE", Arrays.asList(line1, line2));
+
+    cache.getDecoratedSourceAsHtml("PROJECT", "FILE", Arrays.asList(line1));
+
+    assertThat(cache.entries()).isEqualTo(2);
+    assertThat(cache.stats().getHits()).isZero();
+  }
+
+  @Test
+  public void invalidate_project() throws Exception {
+    List<SourceLineDoc> lines = Arrays.asList(newLine(1, "package org.polop;", "H1"));
+    cache.getDecoratedSourceAsHtml("PROJECT1", "FILE1", lines);
+    cache.getDecoratedSourceAsHtml("PROJECT2", "FILE2", lines);
+
+    cache.invalidateProject("PROJECT1");
+
+    assertThat(cache.entries()).isEqualTo(1);
+    cache.getDecoratedSourceAsHtml("PROJECT2", "FILE2", lines);
+    assertThat(cache.stats().getHits()).isEqualTo(1L);
+  }
+
+  @Test
+  public void do_not_cache_lines_without_data_hash() throws Exception {
+    List<SourceLineDoc> lines = Arrays.asList(newLine(1, "package org.polop;", null));
+
+    cache.getDecoratedSourceAsHtml("PROJECT", "FILE", lines);
+    cache.getDecoratedSourceAsHtml("PROJECT", "FILE", lines);
+
+    assertThat(cache.entries()).isZero();
+    verify(htmlSourceDecorator, times(2)).getDecoratedSourceAsHtml(anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void no_lines() throws Exception {
+    assertThat(cache.getDecoratedSourceAsHtml("PROJECT", "FILE", Collections.<SourceLineDoc>emptyList())).isEmpty();
+  }
+
+  private static SourceLineDoc newLine(int line, String source, String dataHash) {
+    return new SourceLineDoc()
+      .setLine(line)
+      .setSource(source)
+      .setHighlighting(source.startsWith("package") ? "0,7,k" : "0,5,k")
+      .setSymbols("")
+      .setDataHash(dataHash);
+  }
+}
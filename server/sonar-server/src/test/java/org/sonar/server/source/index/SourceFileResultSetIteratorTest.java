@@ -71,6 +71,7 @@ public class SourceFileResultSetIteratorTest {
     assertThat(row.getFileUuid()).isEqualTo("F1");
     assertThat(row.getUpdatedAt()).isEqualTo(1416239042000L);
     assertThat(row.getLineUpdateRequests()).hasSize(3);
+    assertThat(row.getLineDataHashes()).hasSize(3).doesNotContainNull();
 
     UpdateRequest firstRequest = row.getLineUpdateRequests().get(0);
     Map<String, Object> doc = firstRequest.doc().sourceAsMap();
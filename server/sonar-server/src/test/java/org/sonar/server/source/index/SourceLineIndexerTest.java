@@ -35,6 +35,7 @@ import org.sonar.api.utils.DateUtils;
 import org.sonar.core.persistence.DbTester;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.es.EsTester;
+import org.sonar.server.es.EsUtils;
 import org.sonar.server.source.db.FileSourceDb;
 import org.sonar.server.source.db.FileSourceTesting;
 import org.sonar.test.DbTests;
@@ -120,6 +121,64 @@ public class SourceLineIndexerTest {
       );
   }
 
+  @Test
+  public void index_only_lines_with_new_data() throws Exception {
+    Date firstAnalysis = DateUtils.parseDateTime("2014-01-01T12:34:56+0100");
+    Date secondAnalysis = DateUtils.parseDateTime("2014-02-01T12:34:56+0100");
+    FileSourceDb.Data.Builder dataBuilder = FileSourceDb.Data.newBuilder();
+    dataBuilder.addLinesBuilder().setLine(1).setSource("line1");
+    dataBuilder.addLinesBuilder().setLine(2).setSource("line2");
+    dataBuilder.addLinesBuilder().setLine(3).setSource("line3");
+    indexer.index(Iterators.singletonIterator(SourceFileResultSetIterator.toRow("P1", "F1", firstAnalysis, dataBuilder.build())));
+
+    dataBuilder.getLinesBuilder(2).setSource("new line3");
+    indexer.index(Iterators.singletonIterator(SourceFileResultSetIterator.toRow("P1", "F1", secondAnalysis, dataBuilder.build())));
+
+    assertThat(countDocuments()).isEqualTo(3L);
+    Map<String, Object> line2 = getLine("F1", 2);
+    assertThat(line2.get(FIELD_SOURCE)).isEqualTo("line2");
+    // unchanged line is not sent again
+    assertThat(line2.get(FIELD_UPDATED_AT)).isEqualTo(EsUtils.formatDateTime(firstAnalysis));
+    Map<String, Object> line3 = getLine("F1", 3);
+    assertThat(line3.get(FIELD_SOURCE)).isEqualTo("new line3");
+    assertThat(line3.get(FIELD_UPDATED_AT)).isEqualTo(EsUtils.formatDateTime(secondAnalysis));
+  }
+
+  @Test
+  public void index_date_of_file_even_if_lines_did_not_change() throws Exception {
+    Date firstAnalysis = DateUtils.parseDateTime("2014-01-01T12:34:56+0100");
+    Date secondAnalysis = DateUtils.parseDateTime("2014-02-01T12:34:56+0100");
+    FileSourceDb.Data.Builder dataBuilder = FileSourceDb.Data.newBuilder();
+    dataBuilder.addLinesBuilder().setLine(1).setSource("line1");
+    dataBuilder.addLinesBuilder().setLine(2).setSource("line2");
+    indexer.index(Iterators.singletonIterator(SourceFileResultSetIterator.toRow("P1", "F1", firstAnalysis, dataBuilder.build())));
+
+    indexer.index(Iterators.singletonIterator(SourceFileResultSetIterator.toRow("P1", "F1", secondAnalysis, dataBuilder.build())));
+
+    // the first line holds the date of the file, which is the resume point of next indexing
+    assertThat(getLine("F1", 1).get(FIELD_UPDATED_AT)).isEqualTo(EsUtils.formatDateTime(secondAnalysis));
+    assertThat(getLine("F1", 2).get(FIELD_UPDATED_AT)).isEqualTo(EsUtils.formatDateTime(firstAnalysis));
+    assertThat(es.client().getMaxFieldValue(INDEX, TYPE, FIELD_UPDATED_AT)).isEqualTo(secondAnalysis.getTime());
+  }
+
+  @Test
+  public void delete_lines_greater_than_new_number_of_lines() throws Exception {
+    FileSourceDb.Data.Builder dataBuilder = FileSourceDb.Data.newBuilder();
+    for (int line = 1; line <= 5; line++) {
+      dataBuilder.addLinesBuilder().setLine(line).setSource("line" + line);
+    }
+    indexer.index(Iterators.forArray(
+      SourceFileResultSetIterator.toRow("P1", "F1", new Date(), dataBuilder.build()),
+      SourceFileResultSetIterator.toRow("P1", "F2", new Date(), dataBuilder.build())));
+    assertThat(countDocuments()).isEqualTo(10L);
+
+    dataBuilder.removeLines(4).removeLines(3).removeLines(2);
+    indexer.index(Iterators.singletonIterator(SourceFileResultSetIterator.toRow("P1", "F1", new Date(), dataBuilder.build())));
+
+    assertThat(countDocuments()).isEqualTo(7L);
+    assertThat(prepareSearch().setQuery(QueryBuilders.termQuery(FIELD_FILE_UUID, "F1")).get().getHits().getTotalHits()).isEqualTo(2L);
+  }
+
   @Test
   public void delete_file_uuid() throws Exception {
     indexLine("P1", "F1", 1);
@@ -198,6 +257,10 @@ public class SourceLineIndexerTest {
       .get();
   }
 
+  private Map<String, Object> getLine(String fileUuid, int line) {
+    return es.client().prepareGet(INDEX, TYPE, SourceLineIndexDefinition.docKey(fileUuid, line)).setRouting("P1").get().getSourceAsMap();
+  }
+
   private SearchRequestBuilder prepareSearch() {
     return es.client().prepareSearch(INDEX)
       .setTypes(TYPE);
@@ -19,7 +19,7 @@
  */
 package org.sonar.server.user;
 
-import com.google.common.collect.HashMultimap;
+import org.sonar.api.utils.System2;
 import org.sonar.core.resource.ResourceDao;
 import org.sonar.core.user.AuthorizationDao;
 
@@ -28,22 +28,22 @@ import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
-import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
 import static org.mockito.Mockito.mock;
 
 public class MockUserSession extends UserSession {
 
   private final AuthorizationDao authorizationDao;
 
-  private final ResourceDao resourceDao;
+  private final UserPermissionCache permissionCache;
 
   private MockUserSession() {
     globalPermissions = Collections.emptyList();
-    projectKeyByPermission = HashMultimap.create();
-    projectUuidByPermission = HashMultimap.create();
     authorizationDao = mock(AuthorizationDao.class);
-    resourceDao = mock(ResourceDao.class);
+    permissionCache = new UserPermissionCache(authorizationDao, mock(ResourceDao.class), System2.INSTANCE);
   }
 
   public static MockUserSession set() {
@@ -91,14 +91,12 @@ public class MockUserSession extends UserSession {
    */
   @Deprecated
   public MockUserSession addProjectPermissions(String projectPermission, String... projectKeys) {
-    this.projectPermissions.add(projectPermission);
-    this.projectKeyByPermission.putAll(projectPermission, newArrayList(projectKeys));
+    addAll(projectKeysByPermission, projectPermission, projectKeys);
     return this;
   }
 
   public MockUserSession addProjectUuidPermissions(String projectPermission, String... projectUuids) {
-    this.projectPermissions.add(projectPermission);
-    this.projectUuidByPermission.putAll(projectPermission, newArrayList(projectUuids));
+    addAll(projectUuidsByPermission, projectPermission, projectUuids);
     return this;
   }
 
@@ -124,7 +122,16 @@ public class MockUserSession extends UserSession {
   }
 
   @Override
-  ResourceDao resourceDao() {
-    return resourceDao;
+  UserPermissionCache permissionCache() {
+    return permissionCache;
+  }
+
+  private static void addAll(Map<String, Set<String>> projectsByPermission, String projectPermission, String... projects) {
+    Set<String> permissionProjects = projectsByPermission.get(projectPermission);
+    if (permissionProjects == null) {
+      permissionProjects = newHashSet();
+      projectsByPermission.put(projectPermission, permissionProjects);
+    }
+    permissionProjects.addAll(Arrays.asList(projects));
   }
 }
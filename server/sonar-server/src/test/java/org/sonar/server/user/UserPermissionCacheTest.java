@@ -0,0 +1,114 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.user;
+
+import org.junit.Test;
+import org.sonar.api.utils.System2;
+import org.sonar.api.web.UserRole;
+import org.sonar.core.resource.ResourceDao;
+import org.sonar.core.resource.ResourceDto;
+import org.sonar.core.user.AuthorizationDao;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class UserPermissionCacheTest {
+
+  AuthorizationDao authorizationDao = mock(AuthorizationDao.class);
+  ResourceDao resourceDao = mock(ResourceDao.class);
+  System2 system = mock(System2.class);
+  UserPermissionCache cache = new UserPermissionCache(authorizationDao, resourceDao, system);
+
+  @Test
+  public void load_authorized_projects_once_per_user_and_permission() throws Exception {
+    when(authorizationDao.selectAuthorizedRootProjectsKeys(1, UserRole.USER)).thenReturn(newArrayList("com.foo:Bar"));
+    when(authorizationDao.selectAuthorizedRootProjectsUuids(1, UserRole.USER)).thenReturn(newArrayList("ABCD"));
+
+    assertThat(cache.authorizedProjectKeys(1, UserRole.USER)).containsOnly("com.foo:Bar");
+    assertThat(cache.authorizedProjectKeys(1, UserRole.USER)).containsOnly("com.foo:Bar");
+    assertThat(cache.authorizedProjectUuids(1, UserRole.USER)).containsOnly("ABCD");
+    assertThat(cache.authorizedProjectKeys(2, UserRole.USER)).isEmpty();
+    assertThat(cache.authorizedProjectKeys(1, UserRole.ADMIN)).isEmpty();
+
+    verify(authorizationDao, times(1)).selectAuthorizedRootProjectsKeys(1, UserRole.USER);
+    verify(authorizationDao, times(1)).selectAuthorizedRootProjectsUuids(1, UserRole.USER);
+    assertThat(cache.permissionEntries()).isEqualTo(4);
+    assertThat(cache.permissionStats().getHits()).isEqualTo(1L);
+  }
+
+  @Test
+  public void cache_permissions_of_anonymous() throws Exception {
+    when(authorizationDao.selectAuthorizedRootProjectsKeys(null, UserRole.USER)).thenReturn(newArrayList("com.foo:Bar"));
+
+    assertThat(cache.authorizedProjectKeys(null, UserRole.USER)).containsOnly("com.foo:Bar");
+    assertThat(cache.authorizedProjectKeys(null, UserRole.USER)).containsOnly("com.foo:Bar");
+
+    verify(authorizationDao, times(1)).selectAuthorizedRootProjectsKeys(null, UserRole.USER);
+  }
+
+  @Test
+  public void permissions_expire() throws Exception {
+    when(system.now()).thenReturn(0L);
+    cache.authorizedProjectKeys(1, UserRole.USER);
+
+    when(system.now()).thenReturn(UserPermissionCache.TTL_MS);
+    cache.authorizedProjectKeys(1, UserRole.USER);
+
+    verify(authorizationDao, times(2)).selectAuthorizedRootProjectsKeys(1, UserRole.USER);
+  }
+
+  @Test
+  public void reload_permissions_after_clear() throws Exception {
+    when(resourceDao.getRootProjectByComponentKey("com.foo:Bar:BarFile.xoo")).thenReturn(new ResourceDto().setKey("com.foo:Bar"));
+    cache.authorizedProjectKeys(1, UserRole.USER);
+    cache.rootProjectKey("com.foo:Bar:BarFile.xoo");
+
+    cache.clear();
+    cache.authorizedProjectKeys(1, UserRole.USER);
+    cache.rootProjectKey("com.foo:Bar:BarFile.xoo");
+
+    verify(authorizationDao, times(2)).selectAuthorizedRootProjectsKeys(1, UserRole.USER);
+    verify(resourceDao, times(2)).getRootProjectByComponentKey("com.foo:Bar:BarFile.xoo");
+  }
+
+  @Test
+  public void load_projects_of_components_once() throws Exception {
+    when(resourceDao.getRootProjectByComponentKey("com.foo:Bar:BarFile.xoo")).thenReturn(new ResourceDto().setKey("com.foo:Bar"));
+    when(resourceDao.getResource("FILE")).thenReturn(new ResourceDto().setUuid("FILE").setProjectUuid("ABCD"));
+
+    assertThat(cache.rootProjectKey("com.foo:Bar:BarFile.xoo")).isEqualTo("com.foo:Bar");
+    assertThat(cache.rootProjectKey("com.foo:Bar:BarFile.xoo")).isEqualTo("com.foo:Bar");
+    assertThat(cache.projectUuid("FILE")).isEqualTo("ABCD");
+    assertThat(cache.projectUuid("FILE")).isEqualTo("ABCD");
+
+    verify(resourceDao, times(1)).getRootProjectByComponentKey("com.foo:Bar:BarFile.xoo");
+    verify(resourceDao, times(1)).getResource("FILE");
+    assertThat(cache.projectEntries()).isEqualTo(2);
+    assertThat(cache.projectStats().getHitRatio()).isEqualTo(50D);
+  }
+
+  @Test
+  public void unknown_components_have_no_project() throws Exception {
+    assertThat(cache.rootProjectKey("unknown")).isNull();
+    assertThat(cache.projectUuid("unknown")).isNull();
+    assertThat(cache.projectEntries()).isZero();
+  }
+}
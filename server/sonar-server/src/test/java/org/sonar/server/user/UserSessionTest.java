@@ -21,6 +21,7 @@ package org.sonar.server.user;
 
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.sonar.api.utils.System2;
 import org.sonar.api.web.UserRole;
 import org.sonar.core.component.ComponentDto;
 import org.sonar.core.permission.GlobalPermissions;
@@ -38,6 +39,8 @@ import java.util.Locale;
 import static com.google.common.collect.Lists.newArrayList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class UserSessionTest {
@@ -132,6 +135,36 @@ public class UserSessionTest {
     assertThat(session.hasProjectPermissionByUuid(UserRole.ADMIN, "ABCD")).isFalse();
   }
 
+  @Test
+  public void has_project_permission_by_key_and_by_uuid() throws Exception {
+    AuthorizationDao authorizationDao = mock(AuthorizationDao.class);
+    UserSession session = new SpyUserSession("marius", authorizationDao).setUserId(1);
+    when(authorizationDao.selectAuthorizedRootProjectsKeys(1, UserRole.USER)).thenReturn(newArrayList("com.foo:Bar"));
+    when(authorizationDao.selectAuthorizedRootProjectsUuids(1, UserRole.USER)).thenReturn(newArrayList("ABCD"));
+
+    assertThat(session.hasProjectPermission(UserRole.USER, "com.foo:Bar")).isTrue();
+    assertThat(session.hasProjectPermissionByUuid(UserRole.USER, "ABCD")).isTrue();
+  }
+
+  @Test
+  public void project_permissions_are_shared_between_sessions() throws Exception {
+    AuthorizationDao authorizationDao = mock(AuthorizationDao.class);
+    final UserPermissionCache permissionCache = new UserPermissionCache(authorizationDao, mock(ResourceDao.class), System2.INSTANCE);
+    when(authorizationDao.selectAuthorizedRootProjectsKeys(1, UserRole.USER)).thenReturn(newArrayList("com.foo:Bar"));
+
+    for (int i = 0; i < 2; i++) {
+      UserSession session = new UserSession() {
+        @Override
+        UserPermissionCache permissionCache() {
+          return permissionCache;
+        }
+      }.setUserId(1);
+      assertThat(session.hasProjectPermission(UserRole.USER, "com.foo:Bar")).isTrue();
+    }
+
+    verify(authorizationDao, times(1)).selectAuthorizedRootProjectsKeys(1, UserRole.USER);
+  }
+
   @Test
   public void check_project_permission_ok() throws Exception {
     AuthorizationDao authorizationDao = mock(AuthorizationDao.class);
@@ -236,7 +269,7 @@ public class UserSessionTest {
 
   static class SpyUserSession extends UserSession {
     private AuthorizationDao authorizationDao;
-    private ResourceDao resourceDao;
+    private UserPermissionCache permissionCache;
 
     SpyUserSession(String login, AuthorizationDao authorizationDao) {
       this(login, authorizationDao, null);
@@ -244,7 +277,7 @@ public class UserSessionTest {
 
     SpyUserSession(String login, AuthorizationDao authorizationDao, @Nullable ResourceDao resourceDao) {
       this.authorizationDao = authorizationDao;
-      this.resourceDao = resourceDao;
+      this.permissionCache = new UserPermissionCache(authorizationDao, resourceDao, System2.INSTANCE);
       setLogin(login);
     }
 
@@ -254,8 +287,8 @@ public class UserSessionTest {
     }
 
     @Override
-    ResourceDao resourceDao() {
-      return resourceDao;
+    UserPermissionCache permissionCache() {
+      return permissionCache;
     }
 
   }
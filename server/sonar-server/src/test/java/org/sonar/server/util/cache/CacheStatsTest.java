@@ -0,0 +1,52 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.util.cache;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CacheStatsTest {
+
+  CacheStats stats = new CacheStats();
+
+  @Test
+  public void empty_stats() throws Exception {
+    assertThat(stats.getHitRatio()).isZero();
+    assertThat(stats.getAverageLoadTimeMs()).isZero();
+    assertThat(stats.toMap()).containsKeys("Hits", "Misses", "Hit Ratio", "Average Load Time (ms)", "Evictions");
+  }
+
+  @Test
+  public void compute_ratios() throws Exception {
+    stats.addHit();
+    stats.addHit();
+    stats.addHit();
+    stats.addMiss();
+    stats.addLoadTime(40L);
+    stats.addEvictions(2L);
+
+    assertThat(stats.getHits()).isEqualTo(3L);
+    assertThat(stats.getMisses()).isEqualTo(1L);
+    assertThat(stats.getHitRatio()).isEqualTo(75D);
+    assertThat(stats.getAverageLoadTimeMs()).isEqualTo(40L);
+    assertThat(stats.getEvictions()).isEqualTo(2L);
+  }
+}
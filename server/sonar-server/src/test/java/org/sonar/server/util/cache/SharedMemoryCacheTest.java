@@ -0,0 +1,181 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.util.cache;
+
+import com.google.common.base.Predicate;
+import org.junit.Test;
+import org.sonar.api.utils.System2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class SharedMemoryCacheTest {
+
+  SharedMemoryCache.Loader<String, String> loader = mock(SharedMemoryCache.Loader.class);
+  System2 system = mock(System2.class);
+
+  @Test
+  public void load_missing_values_once() throws Exception {
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(10L, 0L, system);
+    when(loader.load("foo")).thenReturn("bar");
+
+    assertThat(cache.get("foo", loader)).isEqualTo("bar");
+    assertThat(cache.get("foo", loader)).isEqualTo("bar");
+    verify(loader, times(1)).load("foo");
+
+    // null values are not cached
+    assertThat(cache.get("not_exists", loader)).isNull();
+    assertThat(cache.get("not_exists", loader)).isNull();
+    verify(loader, times(2)).load("not_exists");
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.stats().getHits()).isEqualTo(1L);
+    assertThat(cache.stats().getMisses()).isEqualTo(3L);
+    assertThat(cache.stats().getHitRatio()).isEqualTo(25D);
+  }
+
+  @Test
+  public void clear() throws Exception {
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(10L, 0L, system);
+    when(loader.load("foo")).thenReturn("bar");
+    cache.get("foo", loader);
+
+    cache.clear();
+
+    assertThat(cache.size()).isZero();
+    assertThat(cache.weight()).isZero();
+    cache.get("foo", loader);
+    verify(loader, times(2)).load("foo");
+  }
+
+  @Test
+  public void invalidate() throws Exception {
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(10L, 0L, system);
+    when(loader.load(anyString())).thenReturn("bar");
+    cache.get("foo", loader);
+    cache.get("other", loader);
+
+    cache.invalidate("foo");
+
+    assertThat(cache.size()).isEqualTo(1);
+    cache.get("foo", loader);
+    cache.get("other", loader);
+    verify(loader, times(2)).load("foo");
+    verify(loader, times(1)).load("other");
+  }
+
+  @Test
+  public void invalidate_all_matching_keys() throws Exception {
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(10L, 0L, system);
+    when(loader.load(anyString())).thenReturn("bar");
+    cache.get("foo1", loader);
+    cache.get("foo2", loader);
+    cache.get("other", loader);
+
+    cache.invalidateAll(new Predicate<String>() {
+      @Override
+      public boolean apply(String key) {
+        return key.startsWith("foo");
+      }
+    });
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.weight()).isEqualTo(1L);
+  }
+
+  @Test
+  public void do_not_cache_value_loaded_while_clearing() throws Exception {
+    final SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(10L, 0L, system);
+    SharedMemoryCache.Loader<String, String> clearingLoader = new SharedMemoryCache.Loader<String, String>() {
+      @Override
+      public String load(String key) {
+        cache.clear();
+        return "stale";
+      }
+    };
+
+    assertThat(cache.get("foo", clearingLoader)).isEqualTo("stale");
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void evict_least_recently_used_entries_when_full() throws Exception {
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(2L, 0L, system);
+    when(loader.load(anyString())).thenReturn("bar");
+    cache.get("one", loader);
+    cache.get("two", loader);
+    // "one" becomes the most recently used
+    cache.get("one", loader);
+
+    cache.get("three", loader);
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.stats().getEvictions()).isEqualTo(1L);
+    cache.get("one", loader);
+    cache.get("two", loader);
+    verify(loader, times(1)).load("one");
+    verify(loader, times(2)).load("two");
+  }
+
+  @Test
+  public void evict_by_weight() throws Exception {
+    SharedMemoryCache.Weigher<String> lengthWeigher = new SharedMemoryCache.Weigher<String>() {
+      @Override
+      public long weigh(String value) {
+        return value.length();
+      }
+    };
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(lengthWeigher, 5L, 0L, system);
+    when(loader.load("small")).thenReturn("abc");
+    when(loader.load("big")).thenReturn("abcdefgh");
+
+    cache.get("small", loader);
+    assertThat(cache.weight()).isEqualTo(3L);
+
+    // value heavier than limit is kept alone
+    cache.get("big", loader);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.weight()).isEqualTo(8L);
+    cache.get("big", loader);
+    verify(loader, times(1)).load("big");
+  }
+
+  @Test
+  public void expire_entries_after_ttl() throws Exception {
+    SharedMemoryCache<String, String> cache = new SharedMemoryCache<>(10L, 100L, system);
+    when(loader.load("foo")).thenReturn("bar");
+    when(system.now()).thenReturn(1000L);
+    cache.get("foo", loader);
+
+    when(system.now()).thenReturn(1099L);
+    cache.get("foo", loader);
+    verify(loader, times(1)).load("foo");
+
+    when(system.now()).thenReturn(1100L);
+    cache.get("foo", loader);
+    verify(loader, times(2)).load("foo");
+    assertThat(cache.stats().getEvictions()).isEqualTo(1L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_if_max_weight_is_not_positive() throws Exception {
+    new SharedMemoryCache<String, String>(0L, 0L, system);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.ws;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.commons.io.IOUtils;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.process.NetworkUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AbortedResponseFilterTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  HttpServletRequest request = mock(HttpServletRequest.class);
+  HttpServletResponse response = mock(HttpServletResponse.class);
+  FilterChain chain = mock(FilterChain.class);
+  AbortedResponseFilter filter = new AbortedResponseFilter();
+
+  @Test
+  public void do_nothing_if_response_is_not_aborted() throws Exception {
+    filter.doFilter(request, response, chain);
+
+    verify(chain).doFilter(request, response);
+  }
+
+  @Test
+  public void rethrow_cause_of_aborted_response() throws Exception {
+    IllegalStateException cause = new IllegalStateException("Unexpected");
+    when(request.getAttribute(ServletResponse.ABORT_CAUSE_ATTRIBUTE)).thenReturn(cause);
+
+    try {
+      filter.doFilter(request, response, chain);
+      fail();
+    } catch (ServletException e) {
+      assertThat(e.getCause()).isSameAs(cause);
+      verify(chain).doFilter(request, response);
+    }
+  }
+
+  @Test
+  public void client_detects_truncation_of_aborted_response() throws Exception {
+    int port = NetworkUtils.freePort();
+    Tomcat tomcat = new Tomcat();
+    tomcat.setBaseDir(temp.newFolder().getAbsolutePath());
+    tomcat.setPort(port);
+    Context context = tomcat.addContext("", temp.newFolder().getAbsolutePath());
+    Tomcat.addServlet(context, "ws", new AbortingServlet());
+    context.addServletMapping("/ws", "ws");
+    FilterDef filterDef = new FilterDef();
+    filterDef.setFilterName("aborted");
+    filterDef.setFilterClass(AbortedResponseFilter.class.getName());
+    context.addFilterDef(filterDef);
+    FilterMap filterMap = new FilterMap();
+    filterMap.setFilterName("aborted");
+    filterMap.addURLPattern("/*");
+    context.addFilterMap(filterMap);
+    tomcat.start();
+
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/ws").openConnection();
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+      InputStream input = connection.getInputStream();
+      try {
+        IOUtils.toByteArray(input);
+        fail();
+      } catch (IOException e) {
+        // expected, response is not ended
+      } finally {
+        IOUtils.closeQuietly(input);
+      }
+    } finally {
+      tomcat.stop();
+      tomcat.destroy();
+    }
+  }
+
+  @Test
+  public void just_for_fun_and_coverage() throws Exception {
+    filter.init(mock(FilterConfig.class));
+    filter.destroy();
+    // do not fail
+  }
+
+  private static class AbortingServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+      ServletResponse.ServletStream stream = new ServletResponse(req, resp).stream().enableStreaming();
+      stream.output().write(new byte[2 * ServletResponse.STREAMING_BUFFER_SIZE]);
+      stream.abort(new IllegalStateException("Unexpected"));
+    }
+  }
+}
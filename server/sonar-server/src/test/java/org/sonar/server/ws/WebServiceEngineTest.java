@@ -37,14 +37,28 @@ import org.sonar.server.plugins.MimeTypes;
 import org.sonar.server.user.MockUserSession;
 
 import javax.annotation.Nullable;
-
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class WebServiceEngineTest {
@@ -94,10 +108,28 @@ public class WebServiceEngineTest {
   }
 
   I18n i18n = mock(I18n.class);
+  ByteArrayOutputStream servletOutput = new ByteArrayOutputStream();
+  HttpServletResponse servletResponse = mock(HttpServletResponse.class);
   WebServiceEngine engine = new WebServiceEngine(new WebService[] {new SystemWebService()}, i18n);
 
   @Before
-  public void start() {
+  public void start() throws IOException {
+    when(servletResponse.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        servletOutput.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        throw new UnsupportedOperationException();
+      }
+    });
     engine.start();
   }
 
@@ -289,6 +321,101 @@ public class WebServiceEngineTest {
     assertThat(response.stream().mediaType()).isEqualTo(MimeTypes.JSON);
   }
 
+  @Test
+  public void stream_large_response() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", String.valueOf(3 * ServletResponse.STREAMING_BUFFER_SIZE));
+    ServletResponse response = new ServletResponse(mock(HttpServletRequest.class), servletResponse);
+    engine.execute(request, response, "api/system", "stream");
+
+    assertThat(response.stream().isCommitted()).isTrue();
+    assertThat(servletOutput.size()).isEqualTo(3 * ServletResponse.STREAMING_BUFFER_SIZE);
+    verify(servletResponse).setStatus(200);
+    verify(servletResponse).setContentType("text/plain");
+    verify(servletResponse).flushBuffer();
+    assertThat(response.stream().outputAsString()).isEmpty();
+  }
+
+  @Test
+  public void stream_small_response() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", "10");
+    ServletResponse response = new ServletResponse(mock(HttpServletRequest.class), servletResponse);
+    engine.execute(request, response, "api/system", "stream");
+
+    assertThat(response.stream().isCommitted()).isTrue();
+    assertThat(servletOutput.toString()).isEqualTo("aaaaaaaaaa");
+  }
+
+  @Test
+  public void compress_streamed_response() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", "10");
+    HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+    when(servletRequest.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+    ServletResponse response = new ServletResponse(servletRequest, servletResponse);
+    engine.execute(request, response, "api/system", "stream");
+
+    verify(servletResponse).setHeader("Content-Encoding", "gzip");
+    assertThat(IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(servletOutput.toByteArray())))).isEqualTo("aaaaaaaaaa");
+  }
+
+  @Test
+  public void send_errors_raised_before_streamed_response_is_committed() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", "10").setParam("fail", "true");
+    ServletResponse response = new ServletResponse(mock(HttpServletRequest.class), servletResponse);
+    engine.execute(request, response, "api/system", "stream");
+
+    assertThat(response.stream().isCommitted()).isFalse();
+    assertThat(response.stream().outputAsString()).isEqualTo("{\"errors\":[{\"msg\":\"Unexpected\"}]}");
+    assertThat(response.stream().httpStatus()).isEqualTo(500);
+    verify(servletResponse, never()).getOutputStream();
+  }
+
+  @Test
+  public void truncate_streamed_response_on_errors_raised_after_commit() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", String.valueOf(2 * ServletResponse.STREAMING_BUFFER_SIZE))
+      .setParam("fail", "true");
+    HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+    ServletResponse response = new ServletResponse(servletRequest, servletResponse);
+    engine.execute(request, response, "api/system", "stream");
+
+    assertThat(response.stream().isCommitted()).isTrue();
+    assertThat(servletOutput.size()).isEqualTo(2 * ServletResponse.STREAMING_BUFFER_SIZE);
+    verify(servletResponse).setStatus(200);
+    verify(servletResponse, never()).setStatus(500);
+    verify(servletResponse, never()).flushBuffer();
+    verify(servletRequest).setAttribute(eq(ServletResponse.ABORT_CAUSE_ATTRIBUTE), any(IllegalStateException.class));
+  }
+
+  @Test
+  public void do_not_end_compressed_response_on_errors_raised_after_commit() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", String.valueOf(2 * ServletResponse.STREAMING_BUFFER_SIZE))
+      .setParam("fail", "true");
+    HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+    when(servletRequest.getHeader("Accept-Encoding")).thenReturn("gzip");
+    ServletResponse response = new ServletResponse(servletRequest, servletResponse);
+    engine.execute(request, response, "api/system", "stream");
+
+    assertThat(response.stream().isCommitted()).isTrue();
+    verify(servletRequest).setAttribute(eq(ServletResponse.ABORT_CAUSE_ATTRIBUTE), any(IllegalStateException.class));
+
+    // gzip trailer is missing, so client can detect that response is truncated
+    try {
+      IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(servletOutput.toByteArray())));
+      fail();
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void ignore_streaming_when_servlet_response_is_not_available() throws Exception {
+    ValidatingRequest request = new SimpleRequest("GET").setParam("size", String.valueOf(2 * ServletResponse.STREAMING_BUFFER_SIZE));
+    ServletResponse response = new ServletResponse();
+    engine.execute(request, response, "api/system", "stream");
+
+    assertThat(response.stream().isCommitted()).isFalse();
+    assertThat(response.stream().outputAsString()).hasSize(2 * ServletResponse.STREAMING_BUFFER_SIZE);
+  }
+
   static class SystemWebService implements WebService {
     @Override
     public void define(Context context) {
@@ -354,6 +481,28 @@ public class WebServiceEngineTest {
             throw new BadRequestException(errors);
           }
         });
+      NewAction stream = newController.createAction("stream")
+        .setResponseStreamed(true)
+        .setHandler(new RequestHandler() {
+          @Override
+          public void handle(Request request, Response response) {
+            response.stream().setMediaType("text/plain");
+            try {
+              OutputStream output = response.stream().output();
+              for (int i = 0; i < request.mandatoryParamAsInt("size"); i++) {
+                output.write('a');
+              }
+              output.close();
+            } catch (IOException e) {
+              throw new IllegalStateException(e);
+            }
+            if (request.mandatoryParamAsBoolean("fail")) {
+              throw new IllegalStateException("Unexpected");
+            }
+          }
+        });
+      stream.createParam("size");
+      stream.createParam("fail").setDefaultValue("false");
       newController.createAction("alive")
         .setHandler(new RequestHandler() {
           @Override
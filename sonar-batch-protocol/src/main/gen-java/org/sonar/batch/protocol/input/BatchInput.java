@@ -2216,11 +2216,7875 @@ public final class BatchInput {
     // @@protoc_insertion_point(class_scope:ServerIssue)
   }
 
+  public interface ProjectRepositoryItemOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional int64 last_analysis_date = 1;
+    /**
+     * <code>optional int64 last_analysis_date = 1;</code>
+     */
+    boolean hasLastAnalysisDate();
+    /**
+     * <code>optional int64 last_analysis_date = 1;</code>
+     */
+    long getLastAnalysisDate();
+
+    // optional .ModuleSettings module_settings = 2;
+    /**
+     * <code>optional .ModuleSettings module_settings = 2;</code>
+     */
+    boolean hasModuleSettings();
+    /**
+     * <code>optional .ModuleSettings module_settings = 2;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.ModuleSettings getModuleSettings();
+    /**
+     * <code>optional .ModuleSettings module_settings = 2;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder getModuleSettingsOrBuilder();
+
+    // optional .QProfile qprofile = 3;
+    /**
+     * <code>optional .QProfile qprofile = 3;</code>
+     */
+    boolean hasQprofile();
+    /**
+     * <code>optional .QProfile qprofile = 3;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.QProfile getQprofile();
+    /**
+     * <code>optional .QProfile qprofile = 3;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder getQprofileOrBuilder();
+
+    // optional .ActiveRule active_rule = 4;
+    /**
+     * <code>optional .ActiveRule active_rule = 4;</code>
+     */
+    boolean hasActiveRule();
+    /**
+     * <code>optional .ActiveRule active_rule = 4;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.ActiveRule getActiveRule();
+    /**
+     * <code>optional .ActiveRule active_rule = 4;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder getActiveRuleOrBuilder();
+
+    // optional .FileData file_data = 5;
+    /**
+     * <code>optional .FileData file_data = 5;</code>
+     */
+    boolean hasFileData();
+    /**
+     * <code>optional .FileData file_data = 5;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.FileData getFileData();
+    /**
+     * <code>optional .FileData file_data = 5;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder getFileDataOrBuilder();
+
+    // optional .ActiveRulesVersion active_rules_version = 6;
+    /**
+     * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+     */
+    boolean hasActiveRulesVersion();
+    /**
+     * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion getActiveRulesVersion();
+    /**
+     * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder getActiveRulesVersionOrBuilder();
+
+    // optional bool end_of_stream = 7;
+    /**
+     * <code>optional bool end_of_stream = 7;</code>
+     *
+     * <pre>
+     * set on the last item, so that a truncated stream can be detected
+     * </pre>
+     */
+    boolean hasEndOfStream();
+    /**
+     * <code>optional bool end_of_stream = 7;</code>
+     *
+     * <pre>
+     * set on the last item, so that a truncated stream can be detected
+     * </pre>
+     */
+    boolean getEndOfStream();
+  }
+  /**
+   * Protobuf type {@code ProjectRepositoryItem}
+   *
+   * <pre>
+   * Project repository, streamed as a sequence of delimited items. Each item has only one field set.
+   * </pre>
+   */
+  public static final class ProjectRepositoryItem extends
+      com.google.protobuf.GeneratedMessage
+      implements ProjectRepositoryItemOrBuilder {
+    // Use ProjectRepositoryItem.newBuilder() to construct.
+    private ProjectRepositoryItem(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private ProjectRepositoryItem(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final ProjectRepositoryItem defaultInstance;
+    public static ProjectRepositoryItem getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public ProjectRepositoryItem getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private ProjectRepositoryItem(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 8: {
+              bitField0_ |= 0x00000001;
+              lastAnalysisDate_ = input.readInt64();
+              break;
+            }
+            case 18: {
+              org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000002) == 0x00000002)) {
+                subBuilder = moduleSettings_.toBuilder();
+              }
+              moduleSettings_ = input.readMessage(org.sonar.batch.protocol.input.BatchInput.ModuleSettings.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(moduleSettings_);
+                moduleSettings_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000002;
+              break;
+            }
+            case 26: {
+              org.sonar.batch.protocol.input.BatchInput.QProfile.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000004) == 0x00000004)) {
+                subBuilder = qprofile_.toBuilder();
+              }
+              qprofile_ = input.readMessage(org.sonar.batch.protocol.input.BatchInput.QProfile.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(qprofile_);
+                qprofile_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000004;
+              break;
+            }
+            case 34: {
+              org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000008) == 0x00000008)) {
+                subBuilder = activeRule_.toBuilder();
+              }
+              activeRule_ = input.readMessage(org.sonar.batch.protocol.input.BatchInput.ActiveRule.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(activeRule_);
+                activeRule_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000008;
+              break;
+            }
+            case 42: {
+              org.sonar.batch.protocol.input.BatchInput.FileData.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000010) == 0x00000010)) {
+                subBuilder = fileData_.toBuilder();
+              }
+              fileData_ = input.readMessage(org.sonar.batch.protocol.input.BatchInput.FileData.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(fileData_);
+                fileData_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000010;
+              break;
+            }
+            case 50: {
+              org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder subBuilder = null;
+              if (((bitField0_ & 0x00000020) == 0x00000020)) {
+                subBuilder = activeRulesVersion_.toBuilder();
+              }
+              activeRulesVersion_ = input.readMessage(org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.PARSER, extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(activeRulesVersion_);
+                activeRulesVersion_ = subBuilder.buildPartial();
+              }
+              bitField0_ |= 0x00000020;
+              break;
+            }
+            case 56: {
+              bitField0_ |= 0x00000040;
+              endOfStream_ = input.readBool();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ProjectRepositoryItem_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ProjectRepositoryItem_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.class, org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<ProjectRepositoryItem> PARSER =
+        new com.google.protobuf.AbstractParser<ProjectRepositoryItem>() {
+      public ProjectRepositoryItem parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new ProjectRepositoryItem(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<ProjectRepositoryItem> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional int64 last_analysis_date = 1;
+    public static final int LAST_ANALYSIS_DATE_FIELD_NUMBER = 1;
+    private long lastAnalysisDate_;
+    /**
+     * <code>optional int64 last_analysis_date = 1;</code>
+     */
+    public boolean hasLastAnalysisDate() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional int64 last_analysis_date = 1;</code>
+     */
+    public long getLastAnalysisDate() {
+      return lastAnalysisDate_;
+    }
+
+    // optional .ModuleSettings module_settings = 2;
+    public static final int MODULE_SETTINGS_FIELD_NUMBER = 2;
+    private org.sonar.batch.protocol.input.BatchInput.ModuleSettings moduleSettings_;
+    /**
+     * <code>optional .ModuleSettings module_settings = 2;</code>
+     */
+    public boolean hasModuleSettings() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional .ModuleSettings module_settings = 2;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.ModuleSettings getModuleSettings() {
+      return moduleSettings_;
+    }
+    /**
+     * <code>optional .ModuleSettings module_settings = 2;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder getModuleSettingsOrBuilder() {
+      return moduleSettings_;
+    }
+
+    // optional .QProfile qprofile = 3;
+    public static final int QPROFILE_FIELD_NUMBER = 3;
+    private org.sonar.batch.protocol.input.BatchInput.QProfile qprofile_;
+    /**
+     * <code>optional .QProfile qprofile = 3;</code>
+     */
+    public boolean hasQprofile() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional .QProfile qprofile = 3;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.QProfile getQprofile() {
+      return qprofile_;
+    }
+    /**
+     * <code>optional .QProfile qprofile = 3;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder getQprofileOrBuilder() {
+      return qprofile_;
+    }
+
+    // optional .ActiveRule active_rule = 4;
+    public static final int ACTIVE_RULE_FIELD_NUMBER = 4;
+    private org.sonar.batch.protocol.input.BatchInput.ActiveRule activeRule_;
+    /**
+     * <code>optional .ActiveRule active_rule = 4;</code>
+     */
+    public boolean hasActiveRule() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional .ActiveRule active_rule = 4;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.ActiveRule getActiveRule() {
+      return activeRule_;
+    }
+    /**
+     * <code>optional .ActiveRule active_rule = 4;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder getActiveRuleOrBuilder() {
+      return activeRule_;
+    }
+
+    // optional .FileData file_data = 5;
+    public static final int FILE_DATA_FIELD_NUMBER = 5;
+    private org.sonar.batch.protocol.input.BatchInput.FileData fileData_;
+    /**
+     * <code>optional .FileData file_data = 5;</code>
+     */
+    public boolean hasFileData() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional .FileData file_data = 5;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.FileData getFileData() {
+      return fileData_;
+    }
+    /**
+     * <code>optional .FileData file_data = 5;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder getFileDataOrBuilder() {
+      return fileData_;
+    }
+
+    // optional .ActiveRulesVersion active_rules_version = 6;
+    public static final int ACTIVE_RULES_VERSION_FIELD_NUMBER = 6;
+    private org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion activeRulesVersion_;
+    /**
+     * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+     */
+    public boolean hasActiveRulesVersion() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion getActiveRulesVersion() {
+      return activeRulesVersion_;
+    }
+    /**
+     * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder getActiveRulesVersionOrBuilder() {
+      return activeRulesVersion_;
+    }
+
+    // optional bool end_of_stream = 7;
+    public static final int END_OF_STREAM_FIELD_NUMBER = 7;
+    private boolean endOfStream_;
+    /**
+     * <code>optional bool end_of_stream = 7;</code>
+     *
+     * <pre>
+     * set on the last item, so that a truncated stream can be detected
+     * </pre>
+     */
+    public boolean hasEndOfStream() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional bool end_of_stream = 7;</code>
+     *
+     * <pre>
+     * set on the last item, so that a truncated stream can be detected
+     * </pre>
+     */
+    public boolean getEndOfStream() {
+      return endOfStream_;
+    }
+
+    private void initFields() {
+      lastAnalysisDate_ = 0L;
+      moduleSettings_ = org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance();
+      qprofile_ = org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance();
+      activeRule_ = org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance();
+      fileData_ = org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance();
+      activeRulesVersion_ = org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance();
+      endOfStream_ = false;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeInt64(1, lastAnalysisDate_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeMessage(2, moduleSettings_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeMessage(3, qprofile_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeMessage(4, activeRule_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeMessage(5, fileData_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeMessage(6, activeRulesVersion_);
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeBool(7, endOfStream_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(1, lastAnalysisDate_);
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(2, moduleSettings_);
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(3, qprofile_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(4, activeRule_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(5, fileData_);
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(6, activeRulesVersion_);
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(7, endOfStream_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code ProjectRepositoryItem}
+     *
+     * <pre>
+     * Project repository, streamed as a sequence of delimited items. Each item has only one field set.
+     * </pre>
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItemOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ProjectRepositoryItem_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ProjectRepositoryItem_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.class, org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+          getModuleSettingsFieldBuilder();
+          getQprofileFieldBuilder();
+          getActiveRuleFieldBuilder();
+          getFileDataFieldBuilder();
+          getActiveRulesVersionFieldBuilder();
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        lastAnalysisDate_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000001);
+        if (moduleSettingsBuilder_ == null) {
+          moduleSettings_ = org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance();
+        } else {
+          moduleSettingsBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000002);
+        if (qprofileBuilder_ == null) {
+          qprofile_ = org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance();
+        } else {
+          qprofileBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000004);
+        if (activeRuleBuilder_ == null) {
+          activeRule_ = org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance();
+        } else {
+          activeRuleBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000008);
+        if (fileDataBuilder_ == null) {
+          fileData_ = org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance();
+        } else {
+          fileDataBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000010);
+        if (activeRulesVersionBuilder_ == null) {
+          activeRulesVersion_ = org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance();
+        } else {
+          activeRulesVersionBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000020);
+        endOfStream_ = false;
+        bitField0_ = (bitField0_ & ~0x00000040);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ProjectRepositoryItem_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem build() {
+        org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem result = new org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.lastAnalysisDate_ = lastAnalysisDate_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        if (moduleSettingsBuilder_ == null) {
+          result.moduleSettings_ = moduleSettings_;
+        } else {
+          result.moduleSettings_ = moduleSettingsBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        if (qprofileBuilder_ == null) {
+          result.qprofile_ = qprofile_;
+        } else {
+          result.qprofile_ = qprofileBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        if (activeRuleBuilder_ == null) {
+          result.activeRule_ = activeRule_;
+        } else {
+          result.activeRule_ = activeRuleBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        if (fileDataBuilder_ == null) {
+          result.fileData_ = fileData_;
+        } else {
+          result.fileData_ = fileDataBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        if (activeRulesVersionBuilder_ == null) {
+          result.activeRulesVersion_ = activeRulesVersion_;
+        } else {
+          result.activeRulesVersion_ = activeRulesVersionBuilder_.build();
+        }
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.endOfStream_ = endOfStream_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem.getDefaultInstance()) return this;
+        if (other.hasLastAnalysisDate()) {
+          setLastAnalysisDate(other.getLastAnalysisDate());
+        }
+        if (other.hasModuleSettings()) {
+          mergeModuleSettings(other.getModuleSettings());
+        }
+        if (other.hasQprofile()) {
+          mergeQprofile(other.getQprofile());
+        }
+        if (other.hasActiveRule()) {
+          mergeActiveRule(other.getActiveRule());
+        }
+        if (other.hasFileData()) {
+          mergeFileData(other.getFileData());
+        }
+        if (other.hasActiveRulesVersion()) {
+          mergeActiveRulesVersion(other.getActiveRulesVersion());
+        }
+        if (other.hasEndOfStream()) {
+          setEndOfStream(other.getEndOfStream());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.ProjectRepositoryItem) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional int64 last_analysis_date = 1;
+      private long lastAnalysisDate_ ;
+      /**
+       * <code>optional int64 last_analysis_date = 1;</code>
+       */
+      public boolean hasLastAnalysisDate() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional int64 last_analysis_date = 1;</code>
+       */
+      public long getLastAnalysisDate() {
+        return lastAnalysisDate_;
+      }
+      /**
+       * <code>optional int64 last_analysis_date = 1;</code>
+       */
+      public Builder setLastAnalysisDate(long value) {
+        bitField0_ |= 0x00000001;
+        lastAnalysisDate_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int64 last_analysis_date = 1;</code>
+       */
+      public Builder clearLastAnalysisDate() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        lastAnalysisDate_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // optional .ModuleSettings module_settings = 2;
+      private org.sonar.batch.protocol.input.BatchInput.ModuleSettings moduleSettings_ = org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.ModuleSettings, org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder, org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder> moduleSettingsBuilder_;
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public boolean hasModuleSettings() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ModuleSettings getModuleSettings() {
+        if (moduleSettingsBuilder_ == null) {
+          return moduleSettings_;
+        } else {
+          return moduleSettingsBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public Builder setModuleSettings(org.sonar.batch.protocol.input.BatchInput.ModuleSettings value) {
+        if (moduleSettingsBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          moduleSettings_ = value;
+          onChanged();
+        } else {
+          moduleSettingsBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000002;
+        return this;
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public Builder setModuleSettings(
+          org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder builderForValue) {
+        if (moduleSettingsBuilder_ == null) {
+          moduleSettings_ = builderForValue.build();
+          onChanged();
+        } else {
+          moduleSettingsBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000002;
+        return this;
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public Builder mergeModuleSettings(org.sonar.batch.protocol.input.BatchInput.ModuleSettings value) {
+        if (moduleSettingsBuilder_ == null) {
+          if (((bitField0_ & 0x00000002) == 0x00000002) &&
+              moduleSettings_ != org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance()) {
+            moduleSettings_ =
+              org.sonar.batch.protocol.input.BatchInput.ModuleSettings.newBuilder(moduleSettings_).mergeFrom(value).buildPartial();
+          } else {
+            moduleSettings_ = value;
+          }
+          onChanged();
+        } else {
+          moduleSettingsBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000002;
+        return this;
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public Builder clearModuleSettings() {
+        if (moduleSettingsBuilder_ == null) {
+          moduleSettings_ = org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance();
+          onChanged();
+        } else {
+          moduleSettingsBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000002);
+        return this;
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder getModuleSettingsBuilder() {
+        bitField0_ |= 0x00000002;
+        onChanged();
+        return getModuleSettingsFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder getModuleSettingsOrBuilder() {
+        if (moduleSettingsBuilder_ != null) {
+          return moduleSettingsBuilder_.getMessageOrBuilder();
+        } else {
+          return moduleSettings_;
+        }
+      }
+      /**
+       * <code>optional .ModuleSettings module_settings = 2;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.ModuleSettings, org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder, org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder> 
+          getModuleSettingsFieldBuilder() {
+        if (moduleSettingsBuilder_ == null) {
+          moduleSettingsBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.ModuleSettings, org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder, org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder>(
+                  moduleSettings_,
+                  getParentForChildren(),
+                  isClean());
+          moduleSettings_ = null;
+        }
+        return moduleSettingsBuilder_;
+      }
+
+      // optional .QProfile qprofile = 3;
+      private org.sonar.batch.protocol.input.BatchInput.QProfile qprofile_ = org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.QProfile, org.sonar.batch.protocol.input.BatchInput.QProfile.Builder, org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder> qprofileBuilder_;
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public boolean hasQprofile() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.QProfile getQprofile() {
+        if (qprofileBuilder_ == null) {
+          return qprofile_;
+        } else {
+          return qprofileBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public Builder setQprofile(org.sonar.batch.protocol.input.BatchInput.QProfile value) {
+        if (qprofileBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          qprofile_ = value;
+          onChanged();
+        } else {
+          qprofileBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000004;
+        return this;
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public Builder setQprofile(
+          org.sonar.batch.protocol.input.BatchInput.QProfile.Builder builderForValue) {
+        if (qprofileBuilder_ == null) {
+          qprofile_ = builderForValue.build();
+          onChanged();
+        } else {
+          qprofileBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000004;
+        return this;
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public Builder mergeQprofile(org.sonar.batch.protocol.input.BatchInput.QProfile value) {
+        if (qprofileBuilder_ == null) {
+          if (((bitField0_ & 0x00000004) == 0x00000004) &&
+              qprofile_ != org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance()) {
+            qprofile_ =
+              org.sonar.batch.protocol.input.BatchInput.QProfile.newBuilder(qprofile_).mergeFrom(value).buildPartial();
+          } else {
+            qprofile_ = value;
+          }
+          onChanged();
+        } else {
+          qprofileBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000004;
+        return this;
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public Builder clearQprofile() {
+        if (qprofileBuilder_ == null) {
+          qprofile_ = org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance();
+          onChanged();
+        } else {
+          qprofileBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000004);
+        return this;
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.QProfile.Builder getQprofileBuilder() {
+        bitField0_ |= 0x00000004;
+        onChanged();
+        return getQprofileFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder getQprofileOrBuilder() {
+        if (qprofileBuilder_ != null) {
+          return qprofileBuilder_.getMessageOrBuilder();
+        } else {
+          return qprofile_;
+        }
+      }
+      /**
+       * <code>optional .QProfile qprofile = 3;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.QProfile, org.sonar.batch.protocol.input.BatchInput.QProfile.Builder, org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder> 
+          getQprofileFieldBuilder() {
+        if (qprofileBuilder_ == null) {
+          qprofileBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.QProfile, org.sonar.batch.protocol.input.BatchInput.QProfile.Builder, org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder>(
+                  qprofile_,
+                  getParentForChildren(),
+                  isClean());
+          qprofile_ = null;
+        }
+        return qprofileBuilder_;
+      }
+
+      // optional .ActiveRule active_rule = 4;
+      private org.sonar.batch.protocol.input.BatchInput.ActiveRule activeRule_ = org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.ActiveRule, org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder, org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder> activeRuleBuilder_;
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public boolean hasActiveRule() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRule getActiveRule() {
+        if (activeRuleBuilder_ == null) {
+          return activeRule_;
+        } else {
+          return activeRuleBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public Builder setActiveRule(org.sonar.batch.protocol.input.BatchInput.ActiveRule value) {
+        if (activeRuleBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          activeRule_ = value;
+          onChanged();
+        } else {
+          activeRuleBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000008;
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public Builder setActiveRule(
+          org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder builderForValue) {
+        if (activeRuleBuilder_ == null) {
+          activeRule_ = builderForValue.build();
+          onChanged();
+        } else {
+          activeRuleBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000008;
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public Builder mergeActiveRule(org.sonar.batch.protocol.input.BatchInput.ActiveRule value) {
+        if (activeRuleBuilder_ == null) {
+          if (((bitField0_ & 0x00000008) == 0x00000008) &&
+              activeRule_ != org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance()) {
+            activeRule_ =
+              org.sonar.batch.protocol.input.BatchInput.ActiveRule.newBuilder(activeRule_).mergeFrom(value).buildPartial();
+          } else {
+            activeRule_ = value;
+          }
+          onChanged();
+        } else {
+          activeRuleBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000008;
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public Builder clearActiveRule() {
+        if (activeRuleBuilder_ == null) {
+          activeRule_ = org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance();
+          onChanged();
+        } else {
+          activeRuleBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000008);
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder getActiveRuleBuilder() {
+        bitField0_ |= 0x00000008;
+        onChanged();
+        return getActiveRuleFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder getActiveRuleOrBuilder() {
+        if (activeRuleBuilder_ != null) {
+          return activeRuleBuilder_.getMessageOrBuilder();
+        } else {
+          return activeRule_;
+        }
+      }
+      /**
+       * <code>optional .ActiveRule active_rule = 4;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.ActiveRule, org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder, org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder> 
+          getActiveRuleFieldBuilder() {
+        if (activeRuleBuilder_ == null) {
+          activeRuleBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.ActiveRule, org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder, org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder>(
+                  activeRule_,
+                  getParentForChildren(),
+                  isClean());
+          activeRule_ = null;
+        }
+        return activeRuleBuilder_;
+      }
+
+      // optional .FileData file_data = 5;
+      private org.sonar.batch.protocol.input.BatchInput.FileData fileData_ = org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.FileData, org.sonar.batch.protocol.input.BatchInput.FileData.Builder, org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder> fileDataBuilder_;
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public boolean hasFileData() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.FileData getFileData() {
+        if (fileDataBuilder_ == null) {
+          return fileData_;
+        } else {
+          return fileDataBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public Builder setFileData(org.sonar.batch.protocol.input.BatchInput.FileData value) {
+        if (fileDataBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          fileData_ = value;
+          onChanged();
+        } else {
+          fileDataBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000010;
+        return this;
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public Builder setFileData(
+          org.sonar.batch.protocol.input.BatchInput.FileData.Builder builderForValue) {
+        if (fileDataBuilder_ == null) {
+          fileData_ = builderForValue.build();
+          onChanged();
+        } else {
+          fileDataBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000010;
+        return this;
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public Builder mergeFileData(org.sonar.batch.protocol.input.BatchInput.FileData value) {
+        if (fileDataBuilder_ == null) {
+          if (((bitField0_ & 0x00000010) == 0x00000010) &&
+              fileData_ != org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance()) {
+            fileData_ =
+              org.sonar.batch.protocol.input.BatchInput.FileData.newBuilder(fileData_).mergeFrom(value).buildPartial();
+          } else {
+            fileData_ = value;
+          }
+          onChanged();
+        } else {
+          fileDataBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000010;
+        return this;
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public Builder clearFileData() {
+        if (fileDataBuilder_ == null) {
+          fileData_ = org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance();
+          onChanged();
+        } else {
+          fileDataBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000010);
+        return this;
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.FileData.Builder getFileDataBuilder() {
+        bitField0_ |= 0x00000010;
+        onChanged();
+        return getFileDataFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder getFileDataOrBuilder() {
+        if (fileDataBuilder_ != null) {
+          return fileDataBuilder_.getMessageOrBuilder();
+        } else {
+          return fileData_;
+        }
+      }
+      /**
+       * <code>optional .FileData file_data = 5;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.FileData, org.sonar.batch.protocol.input.BatchInput.FileData.Builder, org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder> 
+          getFileDataFieldBuilder() {
+        if (fileDataBuilder_ == null) {
+          fileDataBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.FileData, org.sonar.batch.protocol.input.BatchInput.FileData.Builder, org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder>(
+                  fileData_,
+                  getParentForChildren(),
+                  isClean());
+          fileData_ = null;
+        }
+        return fileDataBuilder_;
+      }
+
+      // optional .ActiveRulesVersion active_rules_version = 6;
+      private org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion activeRulesVersion_ = org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance();
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder> activeRulesVersionBuilder_;
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public boolean hasActiveRulesVersion() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion getActiveRulesVersion() {
+        if (activeRulesVersionBuilder_ == null) {
+          return activeRulesVersion_;
+        } else {
+          return activeRulesVersionBuilder_.getMessage();
+        }
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public Builder setActiveRulesVersion(org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion value) {
+        if (activeRulesVersionBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          activeRulesVersion_ = value;
+          onChanged();
+        } else {
+          activeRulesVersionBuilder_.setMessage(value);
+        }
+        bitField0_ |= 0x00000020;
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public Builder setActiveRulesVersion(
+          org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder builderForValue) {
+        if (activeRulesVersionBuilder_ == null) {
+          activeRulesVersion_ = builderForValue.build();
+          onChanged();
+        } else {
+          activeRulesVersionBuilder_.setMessage(builderForValue.build());
+        }
+        bitField0_ |= 0x00000020;
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public Builder mergeActiveRulesVersion(org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion value) {
+        if (activeRulesVersionBuilder_ == null) {
+          if (((bitField0_ & 0x00000020) == 0x00000020) &&
+              activeRulesVersion_ != org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance()) {
+            activeRulesVersion_ =
+              org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.newBuilder(activeRulesVersion_).mergeFrom(value).buildPartial();
+          } else {
+            activeRulesVersion_ = value;
+          }
+          onChanged();
+        } else {
+          activeRulesVersionBuilder_.mergeFrom(value);
+        }
+        bitField0_ |= 0x00000020;
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public Builder clearActiveRulesVersion() {
+        if (activeRulesVersionBuilder_ == null) {
+          activeRulesVersion_ = org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance();
+          onChanged();
+        } else {
+          activeRulesVersionBuilder_.clear();
+        }
+        bitField0_ = (bitField0_ & ~0x00000020);
+        return this;
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder getActiveRulesVersionBuilder() {
+        bitField0_ |= 0x00000020;
+        onChanged();
+        return getActiveRulesVersionFieldBuilder().getBuilder();
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder getActiveRulesVersionOrBuilder() {
+        if (activeRulesVersionBuilder_ != null) {
+          return activeRulesVersionBuilder_.getMessageOrBuilder();
+        } else {
+          return activeRulesVersion_;
+        }
+      }
+      /**
+       * <code>optional .ActiveRulesVersion active_rules_version = 6;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder> 
+          getActiveRulesVersionFieldBuilder() {
+        if (activeRulesVersionBuilder_ == null) {
+          activeRulesVersionBuilder_ = new com.google.protobuf.SingleFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder>(
+                  activeRulesVersion_,
+                  getParentForChildren(),
+                  isClean());
+          activeRulesVersion_ = null;
+        }
+        return activeRulesVersionBuilder_;
+      }
+
+      // optional bool end_of_stream = 7;
+      private boolean endOfStream_ ;
+      /**
+       * <code>optional bool end_of_stream = 7;</code>
+       *
+       * <pre>
+       * set on the last item, so that a truncated stream can be detected
+       * </pre>
+       */
+      public boolean hasEndOfStream() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional bool end_of_stream = 7;</code>
+       *
+       * <pre>
+       * set on the last item, so that a truncated stream can be detected
+       * </pre>
+       */
+      public boolean getEndOfStream() {
+        return endOfStream_;
+      }
+      /**
+       * <code>optional bool end_of_stream = 7;</code>
+       *
+       * <pre>
+       * set on the last item, so that a truncated stream can be detected
+       * </pre>
+       */
+      public Builder setEndOfStream(boolean value) {
+        bitField0_ |= 0x00000040;
+        endOfStream_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool end_of_stream = 7;</code>
+       *
+       * <pre>
+       * set on the last item, so that a truncated stream can be detected
+       * </pre>
+       */
+      public Builder clearEndOfStream() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        endOfStream_ = false;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:ProjectRepositoryItem)
+    }
+
+    static {
+      defaultInstance = new ProjectRepositoryItem(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:ProjectRepositoryItem)
+  }
+
+  public interface ActiveRulesVersionOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string profile_key = 1;
+    /**
+     * <code>optional string profile_key = 1;</code>
+     */
+    boolean hasProfileKey();
+    /**
+     * <code>optional string profile_key = 1;</code>
+     */
+    java.lang.String getProfileKey();
+    /**
+     * <code>optional string profile_key = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getProfileKeyBytes();
+
+    // optional string version = 2;
+    /**
+     * <code>optional string version = 2;</code>
+     */
+    boolean hasVersion();
+    /**
+     * <code>optional string version = 2;</code>
+     */
+    java.lang.String getVersion();
+    /**
+     * <code>optional string version = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getVersionBytes();
+
+    // optional bool unchanged = 3;
+    /**
+     * <code>optional bool unchanged = 3;</code>
+     */
+    boolean hasUnchanged();
+    /**
+     * <code>optional bool unchanged = 3;</code>
+     */
+    boolean getUnchanged();
+
+    // optional int32 active_rule_count = 4;
+    /**
+     * <code>optional int32 active_rule_count = 4;</code>
+     *
+     * <pre>
+     * number of active rules written after this item
+     * </pre>
+     */
+    boolean hasActiveRuleCount();
+    /**
+     * <code>optional int32 active_rule_count = 4;</code>
+     *
+     * <pre>
+     * number of active rules written after this item
+     * </pre>
+     */
+    int getActiveRuleCount();
+  }
+  /**
+   * Protobuf type {@code ActiveRulesVersion}
+   *
+   * <pre>
+   * Written before the active rules of a quality profile. The active rules are not written when
+   * the batch already has the same version of them.
+   * </pre>
+   */
+  public static final class ActiveRulesVersion extends
+      com.google.protobuf.GeneratedMessage
+      implements ActiveRulesVersionOrBuilder {
+    // Use ActiveRulesVersion.newBuilder() to construct.
+    private ActiveRulesVersion(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private ActiveRulesVersion(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final ActiveRulesVersion defaultInstance;
+    public static ActiveRulesVersion getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public ActiveRulesVersion getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private ActiveRulesVersion(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              profileKey_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              version_ = input.readBytes();
+              break;
+            }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              unchanged_ = input.readBool();
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              activeRuleCount_ = input.readInt32();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRulesVersion_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRulesVersion_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.class, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<ActiveRulesVersion> PARSER =
+        new com.google.protobuf.AbstractParser<ActiveRulesVersion>() {
+      public ActiveRulesVersion parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new ActiveRulesVersion(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<ActiveRulesVersion> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string profile_key = 1;
+    public static final int PROFILE_KEY_FIELD_NUMBER = 1;
+    private java.lang.Object profileKey_;
+    /**
+     * <code>optional string profile_key = 1;</code>
+     */
+    public boolean hasProfileKey() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string profile_key = 1;</code>
+     */
+    public java.lang.String getProfileKey() {
+      java.lang.Object ref = profileKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          profileKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string profile_key = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getProfileKeyBytes() {
+      java.lang.Object ref = profileKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        profileKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string version = 2;
+    public static final int VERSION_FIELD_NUMBER = 2;
+    private java.lang.Object version_;
+    /**
+     * <code>optional string version = 2;</code>
+     */
+    public boolean hasVersion() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string version = 2;</code>
+     */
+    public java.lang.String getVersion() {
+      java.lang.Object ref = version_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          version_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string version = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getVersionBytes() {
+      java.lang.Object ref = version_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        version_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional bool unchanged = 3;
+    public static final int UNCHANGED_FIELD_NUMBER = 3;
+    private boolean unchanged_;
+    /**
+     * <code>optional bool unchanged = 3;</code>
+     */
+    public boolean hasUnchanged() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional bool unchanged = 3;</code>
+     */
+    public boolean getUnchanged() {
+      return unchanged_;
+    }
+
+    // optional int32 active_rule_count = 4;
+    public static final int ACTIVE_RULE_COUNT_FIELD_NUMBER = 4;
+    private int activeRuleCount_;
+    /**
+     * <code>optional int32 active_rule_count = 4;</code>
+     *
+     * <pre>
+     * number of active rules written after this item
+     * </pre>
+     */
+    public boolean hasActiveRuleCount() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional int32 active_rule_count = 4;</code>
+     *
+     * <pre>
+     * number of active rules written after this item
+     * </pre>
+     */
+    public int getActiveRuleCount() {
+      return activeRuleCount_;
+    }
+
+    private void initFields() {
+      profileKey_ = "";
+      version_ = "";
+      unchanged_ = false;
+      activeRuleCount_ = 0;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getProfileKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getVersionBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBool(3, unchanged_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeInt32(4, activeRuleCount_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getProfileKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getVersionBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(3, unchanged_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(4, activeRuleCount_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code ActiveRulesVersion}
+     *
+     * <pre>
+     * Written before the active rules of a quality profile. The active rules are not written when
+     * the batch already has the same version of them.
+     * </pre>
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersionOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRulesVersion_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRulesVersion_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.class, org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        profileKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        version_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        unchanged_ = false;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        activeRuleCount_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRulesVersion_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion build() {
+        org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion result = new org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.profileKey_ = profileKey_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.version_ = version_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.unchanged_ = unchanged_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.activeRuleCount_ = activeRuleCount_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion.getDefaultInstance()) return this;
+        if (other.hasProfileKey()) {
+          bitField0_ |= 0x00000001;
+          profileKey_ = other.profileKey_;
+          onChanged();
+        }
+        if (other.hasVersion()) {
+          bitField0_ |= 0x00000002;
+          version_ = other.version_;
+          onChanged();
+        }
+        if (other.hasUnchanged()) {
+          setUnchanged(other.getUnchanged());
+        }
+        if (other.hasActiveRuleCount()) {
+          setActiveRuleCount(other.getActiveRuleCount());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.ActiveRulesVersion) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string profile_key = 1;
+      private java.lang.Object profileKey_ = "";
+      /**
+       * <code>optional string profile_key = 1;</code>
+       */
+      public boolean hasProfileKey() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string profile_key = 1;</code>
+       */
+      public java.lang.String getProfileKey() {
+        java.lang.Object ref = profileKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          profileKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string profile_key = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getProfileKeyBytes() {
+        java.lang.Object ref = profileKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          profileKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string profile_key = 1;</code>
+       */
+      public Builder setProfileKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        profileKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string profile_key = 1;</code>
+       */
+      public Builder clearProfileKey() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        profileKey_ = getDefaultInstance().getProfileKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string profile_key = 1;</code>
+       */
+      public Builder setProfileKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        profileKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string version = 2;
+      private java.lang.Object version_ = "";
+      /**
+       * <code>optional string version = 2;</code>
+       */
+      public boolean hasVersion() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string version = 2;</code>
+       */
+      public java.lang.String getVersion() {
+        java.lang.Object ref = version_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          version_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string version = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getVersionBytes() {
+        java.lang.Object ref = version_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          version_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string version = 2;</code>
+       */
+      public Builder setVersion(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        version_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string version = 2;</code>
+       */
+      public Builder clearVersion() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        version_ = getDefaultInstance().getVersion();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string version = 2;</code>
+       */
+      public Builder setVersionBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        version_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional bool unchanged = 3;
+      private boolean unchanged_ ;
+      /**
+       * <code>optional bool unchanged = 3;</code>
+       */
+      public boolean hasUnchanged() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional bool unchanged = 3;</code>
+       */
+      public boolean getUnchanged() {
+        return unchanged_;
+      }
+      /**
+       * <code>optional bool unchanged = 3;</code>
+       */
+      public Builder setUnchanged(boolean value) {
+        bitField0_ |= 0x00000004;
+        unchanged_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool unchanged = 3;</code>
+       */
+      public Builder clearUnchanged() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        unchanged_ = false;
+        onChanged();
+        return this;
+      }
+
+      // optional int32 active_rule_count = 4;
+      private int activeRuleCount_ ;
+      /**
+       * <code>optional int32 active_rule_count = 4;</code>
+       *
+       * <pre>
+       * number of active rules written after this item
+       * </pre>
+       */
+      public boolean hasActiveRuleCount() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional int32 active_rule_count = 4;</code>
+       *
+       * <pre>
+       * number of active rules written after this item
+       * </pre>
+       */
+      public int getActiveRuleCount() {
+        return activeRuleCount_;
+      }
+      /**
+       * <code>optional int32 active_rule_count = 4;</code>
+       *
+       * <pre>
+       * number of active rules written after this item
+       * </pre>
+       */
+      public Builder setActiveRuleCount(int value) {
+        bitField0_ |= 0x00000008;
+        activeRuleCount_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int32 active_rule_count = 4;</code>
+       *
+       * <pre>
+       * number of active rules written after this item
+       * </pre>
+       */
+      public Builder clearActiveRuleCount() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        activeRuleCount_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:ActiveRulesVersion)
+    }
+
+    static {
+      defaultInstance = new ActiveRulesVersion(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:ActiveRulesVersion)
+  }
+
+  public interface PropertyOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string key = 1;
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    boolean hasKey();
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    java.lang.String getKey();
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getKeyBytes();
+
+    // optional string value = 2;
+    /**
+     * <code>optional string value = 2;</code>
+     */
+    boolean hasValue();
+    /**
+     * <code>optional string value = 2;</code>
+     */
+    java.lang.String getValue();
+    /**
+     * <code>optional string value = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getValueBytes();
+  }
+  /**
+   * Protobuf type {@code Property}
+   */
+  public static final class Property extends
+      com.google.protobuf.GeneratedMessage
+      implements PropertyOrBuilder {
+    // Use Property.newBuilder() to construct.
+    private Property(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private Property(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final Property defaultInstance;
+    public static Property getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public Property getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private Property(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              key_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              value_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_Property_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_Property_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.Property.class, org.sonar.batch.protocol.input.BatchInput.Property.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<Property> PARSER =
+        new com.google.protobuf.AbstractParser<Property>() {
+      public Property parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new Property(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<Property> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string key = 1;
+    public static final int KEY_FIELD_NUMBER = 1;
+    private java.lang.Object key_;
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    public boolean hasKey() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    public java.lang.String getKey() {
+      java.lang.Object ref = key_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          key_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getKeyBytes() {
+      java.lang.Object ref = key_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        key_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string value = 2;
+    public static final int VALUE_FIELD_NUMBER = 2;
+    private java.lang.Object value_;
+    /**
+     * <code>optional string value = 2;</code>
+     */
+    public boolean hasValue() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string value = 2;</code>
+     */
+    public java.lang.String getValue() {
+      java.lang.Object ref = value_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          value_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string value = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getValueBytes() {
+      java.lang.Object ref = value_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        value_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    private void initFields() {
+      key_ = "";
+      value_ = "";
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getValueBytes());
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getValueBytes());
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.Property parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.Property prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code Property}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_Property_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_Property_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.Property.class, org.sonar.batch.protocol.input.BatchInput.Property.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.Property.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        key_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        value_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_Property_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.Property getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.Property.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.Property build() {
+        org.sonar.batch.protocol.input.BatchInput.Property result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.Property buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.Property result = new org.sonar.batch.protocol.input.BatchInput.Property(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.key_ = key_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.value_ = value_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.Property) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.Property)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.Property other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.Property.getDefaultInstance()) return this;
+        if (other.hasKey()) {
+          bitField0_ |= 0x00000001;
+          key_ = other.key_;
+          onChanged();
+        }
+        if (other.hasValue()) {
+          bitField0_ |= 0x00000002;
+          value_ = other.value_;
+          onChanged();
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.Property parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.Property) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string key = 1;
+      private java.lang.Object key_ = "";
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public boolean hasKey() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public java.lang.String getKey() {
+        java.lang.Object ref = key_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          key_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getKeyBytes() {
+        java.lang.Object ref = key_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          key_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public Builder setKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        key_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public Builder clearKey() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        key_ = getDefaultInstance().getKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public Builder setKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        key_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string value = 2;
+      private java.lang.Object value_ = "";
+      /**
+       * <code>optional string value = 2;</code>
+       */
+      public boolean hasValue() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string value = 2;</code>
+       */
+      public java.lang.String getValue() {
+        java.lang.Object ref = value_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          value_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string value = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getValueBytes() {
+        java.lang.Object ref = value_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          value_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string value = 2;</code>
+       */
+      public Builder setValue(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        value_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string value = 2;</code>
+       */
+      public Builder clearValue() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        value_ = getDefaultInstance().getValue();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string value = 2;</code>
+       */
+      public Builder setValueBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        value_ = value;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:Property)
+    }
+
+    static {
+      defaultInstance = new Property(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:Property)
+  }
+
+  public interface ModuleSettingsOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string module_key = 1;
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    boolean hasModuleKey();
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    java.lang.String getModuleKey();
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getModuleKeyBytes();
+
+    // repeated .Property property = 2;
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> 
+        getPropertyList();
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.Property getProperty(int index);
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    int getPropertyCount();
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    java.util.List<? extends org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+        getPropertyOrBuilderList();
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder getPropertyOrBuilder(
+        int index);
+  }
+  /**
+   * Protobuf type {@code ModuleSettings}
+   */
+  public static final class ModuleSettings extends
+      com.google.protobuf.GeneratedMessage
+      implements ModuleSettingsOrBuilder {
+    // Use ModuleSettings.newBuilder() to construct.
+    private ModuleSettings(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private ModuleSettings(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final ModuleSettings defaultInstance;
+    public static ModuleSettings getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public ModuleSettings getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private ModuleSettings(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              moduleKey_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              if (!((mutable_bitField0_ & 0x00000002) == 0x00000002)) {
+                property_ = new java.util.ArrayList<org.sonar.batch.protocol.input.BatchInput.Property>();
+                mutable_bitField0_ |= 0x00000002;
+              }
+              property_.add(input.readMessage(org.sonar.batch.protocol.input.BatchInput.Property.PARSER, extensionRegistry));
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        if (((mutable_bitField0_ & 0x00000002) == 0x00000002)) {
+          property_ = java.util.Collections.unmodifiableList(property_);
+        }
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ModuleSettings_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ModuleSettings_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.ModuleSettings.class, org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<ModuleSettings> PARSER =
+        new com.google.protobuf.AbstractParser<ModuleSettings>() {
+      public ModuleSettings parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new ModuleSettings(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<ModuleSettings> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string module_key = 1;
+    public static final int MODULE_KEY_FIELD_NUMBER = 1;
+    private java.lang.Object moduleKey_;
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    public boolean hasModuleKey() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    public java.lang.String getModuleKey() {
+      java.lang.Object ref = moduleKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          moduleKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getModuleKeyBytes() {
+      java.lang.Object ref = moduleKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        moduleKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // repeated .Property property = 2;
+    public static final int PROPERTY_FIELD_NUMBER = 2;
+    private java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> property_;
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    public java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> getPropertyList() {
+      return property_;
+    }
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    public java.util.List<? extends org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+        getPropertyOrBuilderList() {
+      return property_;
+    }
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    public int getPropertyCount() {
+      return property_.size();
+    }
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.Property getProperty(int index) {
+      return property_.get(index);
+    }
+    /**
+     * <code>repeated .Property property = 2;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder getPropertyOrBuilder(
+        int index) {
+      return property_.get(index);
+    }
+
+    private void initFields() {
+      moduleKey_ = "";
+      property_ = java.util.Collections.emptyList();
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getModuleKeyBytes());
+      }
+      for (int i = 0; i < property_.size(); i++) {
+        output.writeMessage(2, property_.get(i));
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getModuleKeyBytes());
+      }
+      for (int i = 0; i < property_.size(); i++) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(2, property_.get(i));
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ModuleSettings parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.ModuleSettings prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code ModuleSettings}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.ModuleSettingsOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ModuleSettings_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ModuleSettings_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.ModuleSettings.class, org.sonar.batch.protocol.input.BatchInput.ModuleSettings.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.ModuleSettings.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+          getPropertyFieldBuilder();
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        moduleKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        if (propertyBuilder_ == null) {
+          property_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000002);
+        } else {
+          propertyBuilder_.clear();
+        }
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ModuleSettings_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ModuleSettings getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ModuleSettings build() {
+        org.sonar.batch.protocol.input.BatchInput.ModuleSettings result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ModuleSettings buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.ModuleSettings result = new org.sonar.batch.protocol.input.BatchInput.ModuleSettings(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.moduleKey_ = moduleKey_;
+        if (propertyBuilder_ == null) {
+          if (((bitField0_ & 0x00000002) == 0x00000002)) {
+            property_ = java.util.Collections.unmodifiableList(property_);
+            bitField0_ = (bitField0_ & ~0x00000002);
+          }
+          result.property_ = property_;
+        } else {
+          result.property_ = propertyBuilder_.build();
+        }
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.ModuleSettings) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.ModuleSettings)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.ModuleSettings other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.ModuleSettings.getDefaultInstance()) return this;
+        if (other.hasModuleKey()) {
+          bitField0_ |= 0x00000001;
+          moduleKey_ = other.moduleKey_;
+          onChanged();
+        }
+        if (propertyBuilder_ == null) {
+          if (!other.property_.isEmpty()) {
+            if (property_.isEmpty()) {
+              property_ = other.property_;
+              bitField0_ = (bitField0_ & ~0x00000002);
+            } else {
+              ensurePropertyIsMutable();
+              property_.addAll(other.property_);
+            }
+            onChanged();
+          }
+        } else {
+          if (!other.property_.isEmpty()) {
+            if (propertyBuilder_.isEmpty()) {
+              propertyBuilder_.dispose();
+              propertyBuilder_ = null;
+              property_ = other.property_;
+              bitField0_ = (bitField0_ & ~0x00000002);
+              propertyBuilder_ = 
+                com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders ?
+                   getPropertyFieldBuilder() : null;
+            } else {
+              propertyBuilder_.addAllMessages(other.property_);
+            }
+          }
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.ModuleSettings parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.ModuleSettings) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string module_key = 1;
+      private java.lang.Object moduleKey_ = "";
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public boolean hasModuleKey() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public java.lang.String getModuleKey() {
+        java.lang.Object ref = moduleKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          moduleKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getModuleKeyBytes() {
+        java.lang.Object ref = moduleKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          moduleKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public Builder setModuleKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        moduleKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public Builder clearModuleKey() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        moduleKey_ = getDefaultInstance().getModuleKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public Builder setModuleKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        moduleKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // repeated .Property property = 2;
+      private java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> property_ =
+        java.util.Collections.emptyList();
+      private void ensurePropertyIsMutable() {
+        if (!((bitField0_ & 0x00000002) == 0x00000002)) {
+          property_ = new java.util.ArrayList<org.sonar.batch.protocol.input.BatchInput.Property>(property_);
+          bitField0_ |= 0x00000002;
+         }
+      }
+
+      private com.google.protobuf.RepeatedFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.Property, org.sonar.batch.protocol.input.BatchInput.Property.Builder, org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> propertyBuilder_;
+
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> getPropertyList() {
+        if (propertyBuilder_ == null) {
+          return java.util.Collections.unmodifiableList(property_);
+        } else {
+          return propertyBuilder_.getMessageList();
+        }
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public int getPropertyCount() {
+        if (propertyBuilder_ == null) {
+          return property_.size();
+        } else {
+          return propertyBuilder_.getCount();
+        }
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property getProperty(int index) {
+        if (propertyBuilder_ == null) {
+          return property_.get(index);
+        } else {
+          return propertyBuilder_.getMessage(index);
+        }
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder setProperty(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property value) {
+        if (propertyBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensurePropertyIsMutable();
+          property_.set(index, value);
+          onChanged();
+        } else {
+          propertyBuilder_.setMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder setProperty(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property.Builder builderForValue) {
+        if (propertyBuilder_ == null) {
+          ensurePropertyIsMutable();
+          property_.set(index, builderForValue.build());
+          onChanged();
+        } else {
+          propertyBuilder_.setMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder addProperty(org.sonar.batch.protocol.input.BatchInput.Property value) {
+        if (propertyBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensurePropertyIsMutable();
+          property_.add(value);
+          onChanged();
+        } else {
+          propertyBuilder_.addMessage(value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder addProperty(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property value) {
+        if (propertyBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensurePropertyIsMutable();
+          property_.add(index, value);
+          onChanged();
+        } else {
+          propertyBuilder_.addMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder addProperty(
+          org.sonar.batch.protocol.input.BatchInput.Property.Builder builderForValue) {
+        if (propertyBuilder_ == null) {
+          ensurePropertyIsMutable();
+          property_.add(builderForValue.build());
+          onChanged();
+        } else {
+          propertyBuilder_.addMessage(builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder addProperty(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property.Builder builderForValue) {
+        if (propertyBuilder_ == null) {
+          ensurePropertyIsMutable();
+          property_.add(index, builderForValue.build());
+          onChanged();
+        } else {
+          propertyBuilder_.addMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder addAllProperty(
+          java.lang.Iterable<? extends org.sonar.batch.protocol.input.BatchInput.Property> values) {
+        if (propertyBuilder_ == null) {
+          ensurePropertyIsMutable();
+          super.addAll(values, property_);
+          onChanged();
+        } else {
+          propertyBuilder_.addAllMessages(values);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder clearProperty() {
+        if (propertyBuilder_ == null) {
+          property_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000002);
+          onChanged();
+        } else {
+          propertyBuilder_.clear();
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public Builder removeProperty(int index) {
+        if (propertyBuilder_ == null) {
+          ensurePropertyIsMutable();
+          property_.remove(index);
+          onChanged();
+        } else {
+          propertyBuilder_.remove(index);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property.Builder getPropertyBuilder(
+          int index) {
+        return getPropertyFieldBuilder().getBuilder(index);
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder getPropertyOrBuilder(
+          int index) {
+        if (propertyBuilder_ == null) {
+          return property_.get(index);  } else {
+          return propertyBuilder_.getMessageOrBuilder(index);
+        }
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public java.util.List<? extends org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+           getPropertyOrBuilderList() {
+        if (propertyBuilder_ != null) {
+          return propertyBuilder_.getMessageOrBuilderList();
+        } else {
+          return java.util.Collections.unmodifiableList(property_);
+        }
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property.Builder addPropertyBuilder() {
+        return getPropertyFieldBuilder().addBuilder(
+            org.sonar.batch.protocol.input.BatchInput.Property.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property.Builder addPropertyBuilder(
+          int index) {
+        return getPropertyFieldBuilder().addBuilder(
+            index, org.sonar.batch.protocol.input.BatchInput.Property.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .Property property = 2;</code>
+       */
+      public java.util.List<org.sonar.batch.protocol.input.BatchInput.Property.Builder> 
+           getPropertyBuilderList() {
+        return getPropertyFieldBuilder().getBuilderList();
+      }
+      private com.google.protobuf.RepeatedFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.Property, org.sonar.batch.protocol.input.BatchInput.Property.Builder, org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+          getPropertyFieldBuilder() {
+        if (propertyBuilder_ == null) {
+          propertyBuilder_ = new com.google.protobuf.RepeatedFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.Property, org.sonar.batch.protocol.input.BatchInput.Property.Builder, org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder>(
+                  property_,
+                  ((bitField0_ & 0x00000002) == 0x00000002),
+                  getParentForChildren(),
+                  isClean());
+          property_ = null;
+        }
+        return propertyBuilder_;
+      }
+
+      // @@protoc_insertion_point(builder_scope:ModuleSettings)
+    }
+
+    static {
+      defaultInstance = new ModuleSettings(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:ModuleSettings)
+  }
+
+  public interface QProfileOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string key = 1;
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    boolean hasKey();
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    java.lang.String getKey();
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getKeyBytes();
+
+    // optional string name = 2;
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    boolean hasName();
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    java.lang.String getName();
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getNameBytes();
+
+    // optional string language = 3;
+    /**
+     * <code>optional string language = 3;</code>
+     */
+    boolean hasLanguage();
+    /**
+     * <code>optional string language = 3;</code>
+     */
+    java.lang.String getLanguage();
+    /**
+     * <code>optional string language = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getLanguageBytes();
+
+    // optional int64 rules_updated_at = 4;
+    /**
+     * <code>optional int64 rules_updated_at = 4;</code>
+     */
+    boolean hasRulesUpdatedAt();
+    /**
+     * <code>optional int64 rules_updated_at = 4;</code>
+     */
+    long getRulesUpdatedAt();
+  }
+  /**
+   * Protobuf type {@code QProfile}
+   */
+  public static final class QProfile extends
+      com.google.protobuf.GeneratedMessage
+      implements QProfileOrBuilder {
+    // Use QProfile.newBuilder() to construct.
+    private QProfile(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private QProfile(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final QProfile defaultInstance;
+    public static QProfile getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public QProfile getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private QProfile(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              key_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              name_ = input.readBytes();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              language_ = input.readBytes();
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              rulesUpdatedAt_ = input.readInt64();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_QProfile_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_QProfile_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.QProfile.class, org.sonar.batch.protocol.input.BatchInput.QProfile.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<QProfile> PARSER =
+        new com.google.protobuf.AbstractParser<QProfile>() {
+      public QProfile parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new QProfile(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<QProfile> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string key = 1;
+    public static final int KEY_FIELD_NUMBER = 1;
+    private java.lang.Object key_;
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    public boolean hasKey() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    public java.lang.String getKey() {
+      java.lang.Object ref = key_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          key_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string key = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getKeyBytes() {
+      java.lang.Object ref = key_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        key_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string name = 2;
+    public static final int NAME_FIELD_NUMBER = 2;
+    private java.lang.Object name_;
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    public boolean hasName() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    public java.lang.String getName() {
+      java.lang.Object ref = name_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          name_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string name = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getNameBytes() {
+      java.lang.Object ref = name_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        name_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string language = 3;
+    public static final int LANGUAGE_FIELD_NUMBER = 3;
+    private java.lang.Object language_;
+    /**
+     * <code>optional string language = 3;</code>
+     */
+    public boolean hasLanguage() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional string language = 3;</code>
+     */
+    public java.lang.String getLanguage() {
+      java.lang.Object ref = language_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          language_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string language = 3;</code>
+     */
+    public com.google.protobuf.ByteString
+        getLanguageBytes() {
+      java.lang.Object ref = language_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        language_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional int64 rules_updated_at = 4;
+    public static final int RULES_UPDATED_AT_FIELD_NUMBER = 4;
+    private long rulesUpdatedAt_;
+    /**
+     * <code>optional int64 rules_updated_at = 4;</code>
+     */
+    public boolean hasRulesUpdatedAt() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional int64 rules_updated_at = 4;</code>
+     */
+    public long getRulesUpdatedAt() {
+      return rulesUpdatedAt_;
+    }
+
+    private void initFields() {
+      key_ = "";
+      name_ = "";
+      language_ = "";
+      rulesUpdatedAt_ = 0L;
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getNameBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, getLanguageBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeInt64(4, rulesUpdatedAt_);
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getNameBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, getLanguageBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(4, rulesUpdatedAt_);
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.QProfile parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.QProfile prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code QProfile}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.QProfileOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_QProfile_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_QProfile_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.QProfile.class, org.sonar.batch.protocol.input.BatchInput.QProfile.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.QProfile.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        key_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        name_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        language_ = "";
+        bitField0_ = (bitField0_ & ~0x00000004);
+        rulesUpdatedAt_ = 0L;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_QProfile_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.QProfile getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.QProfile build() {
+        org.sonar.batch.protocol.input.BatchInput.QProfile result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.QProfile buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.QProfile result = new org.sonar.batch.protocol.input.BatchInput.QProfile(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.key_ = key_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.name_ = name_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.language_ = language_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.rulesUpdatedAt_ = rulesUpdatedAt_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.QProfile) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.QProfile)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.QProfile other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.QProfile.getDefaultInstance()) return this;
+        if (other.hasKey()) {
+          bitField0_ |= 0x00000001;
+          key_ = other.key_;
+          onChanged();
+        }
+        if (other.hasName()) {
+          bitField0_ |= 0x00000002;
+          name_ = other.name_;
+          onChanged();
+        }
+        if (other.hasLanguage()) {
+          bitField0_ |= 0x00000004;
+          language_ = other.language_;
+          onChanged();
+        }
+        if (other.hasRulesUpdatedAt()) {
+          setRulesUpdatedAt(other.getRulesUpdatedAt());
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.QProfile parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.QProfile) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string key = 1;
+      private java.lang.Object key_ = "";
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public boolean hasKey() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public java.lang.String getKey() {
+        java.lang.Object ref = key_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          key_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getKeyBytes() {
+        java.lang.Object ref = key_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          key_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public Builder setKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        key_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public Builder clearKey() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        key_ = getDefaultInstance().getKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string key = 1;</code>
+       */
+      public Builder setKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        key_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string name = 2;
+      private java.lang.Object name_ = "";
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public boolean hasName() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public java.lang.String getName() {
+        java.lang.Object ref = name_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          name_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getNameBytes() {
+        java.lang.Object ref = name_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          name_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public Builder setName(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        name_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public Builder clearName() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        name_ = getDefaultInstance().getName();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string name = 2;</code>
+       */
+      public Builder setNameBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        name_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string language = 3;
+      private java.lang.Object language_ = "";
+      /**
+       * <code>optional string language = 3;</code>
+       */
+      public boolean hasLanguage() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional string language = 3;</code>
+       */
+      public java.lang.String getLanguage() {
+        java.lang.Object ref = language_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          language_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string language = 3;</code>
+       */
+      public com.google.protobuf.ByteString
+          getLanguageBytes() {
+        java.lang.Object ref = language_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          language_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string language = 3;</code>
+       */
+      public Builder setLanguage(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        language_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string language = 3;</code>
+       */
+      public Builder clearLanguage() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        language_ = getDefaultInstance().getLanguage();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string language = 3;</code>
+       */
+      public Builder setLanguageBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        language_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional int64 rules_updated_at = 4;
+      private long rulesUpdatedAt_ ;
+      /**
+       * <code>optional int64 rules_updated_at = 4;</code>
+       */
+      public boolean hasRulesUpdatedAt() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional int64 rules_updated_at = 4;</code>
+       */
+      public long getRulesUpdatedAt() {
+        return rulesUpdatedAt_;
+      }
+      /**
+       * <code>optional int64 rules_updated_at = 4;</code>
+       */
+      public Builder setRulesUpdatedAt(long value) {
+        bitField0_ |= 0x00000008;
+        rulesUpdatedAt_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional int64 rules_updated_at = 4;</code>
+       */
+      public Builder clearRulesUpdatedAt() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        rulesUpdatedAt_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:QProfile)
+    }
+
+    static {
+      defaultInstance = new QProfile(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:QProfile)
+  }
+
+  public interface ActiveRuleOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string repository_key = 1;
+    /**
+     * <code>optional string repository_key = 1;</code>
+     */
+    boolean hasRepositoryKey();
+    /**
+     * <code>optional string repository_key = 1;</code>
+     */
+    java.lang.String getRepositoryKey();
+    /**
+     * <code>optional string repository_key = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getRepositoryKeyBytes();
+
+    // optional string rule_key = 2;
+    /**
+     * <code>optional string rule_key = 2;</code>
+     */
+    boolean hasRuleKey();
+    /**
+     * <code>optional string rule_key = 2;</code>
+     */
+    java.lang.String getRuleKey();
+    /**
+     * <code>optional string rule_key = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getRuleKeyBytes();
+
+    // optional string template_rule_key = 3;
+    /**
+     * <code>optional string template_rule_key = 3;</code>
+     */
+    boolean hasTemplateRuleKey();
+    /**
+     * <code>optional string template_rule_key = 3;</code>
+     */
+    java.lang.String getTemplateRuleKey();
+    /**
+     * <code>optional string template_rule_key = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getTemplateRuleKeyBytes();
+
+    // optional string name = 4;
+    /**
+     * <code>optional string name = 4;</code>
+     */
+    boolean hasName();
+    /**
+     * <code>optional string name = 4;</code>
+     */
+    java.lang.String getName();
+    /**
+     * <code>optional string name = 4;</code>
+     */
+    com.google.protobuf.ByteString
+        getNameBytes();
+
+    // optional string severity = 5;
+    /**
+     * <code>optional string severity = 5;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    boolean hasSeverity();
+    /**
+     * <code>optional string severity = 5;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    java.lang.String getSeverity();
+    /**
+     * <code>optional string severity = 5;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getSeverityBytes();
+
+    // optional string internal_key = 6;
+    /**
+     * <code>optional string internal_key = 6;</code>
+     */
+    boolean hasInternalKey();
+    /**
+     * <code>optional string internal_key = 6;</code>
+     */
+    java.lang.String getInternalKey();
+    /**
+     * <code>optional string internal_key = 6;</code>
+     */
+    com.google.protobuf.ByteString
+        getInternalKeyBytes();
+
+    // optional string language = 7;
+    /**
+     * <code>optional string language = 7;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    boolean hasLanguage();
+    /**
+     * <code>optional string language = 7;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    java.lang.String getLanguage();
+    /**
+     * <code>optional string language = 7;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    com.google.protobuf.ByteString
+        getLanguageBytes();
+
+    // repeated .Property param = 8;
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> 
+        getParamList();
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.Property getParam(int index);
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    int getParamCount();
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    java.util.List<? extends org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+        getParamOrBuilderList();
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder getParamOrBuilder(
+        int index);
+  }
+  /**
+   * Protobuf type {@code ActiveRule}
+   */
+  public static final class ActiveRule extends
+      com.google.protobuf.GeneratedMessage
+      implements ActiveRuleOrBuilder {
+    // Use ActiveRule.newBuilder() to construct.
+    private ActiveRule(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private ActiveRule(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final ActiveRule defaultInstance;
+    public static ActiveRule getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public ActiveRule getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private ActiveRule(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              repositoryKey_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              ruleKey_ = input.readBytes();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              templateRuleKey_ = input.readBytes();
+              break;
+            }
+            case 34: {
+              bitField0_ |= 0x00000008;
+              name_ = input.readBytes();
+              break;
+            }
+            case 42: {
+              bitField0_ |= 0x00000010;
+              severity_ = input.readBytes();
+              break;
+            }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              internalKey_ = input.readBytes();
+              break;
+            }
+            case 58: {
+              bitField0_ |= 0x00000040;
+              language_ = input.readBytes();
+              break;
+            }
+            case 66: {
+              if (!((mutable_bitField0_ & 0x00000080) == 0x00000080)) {
+                param_ = new java.util.ArrayList<org.sonar.batch.protocol.input.BatchInput.Property>();
+                mutable_bitField0_ |= 0x00000080;
+              }
+              param_.add(input.readMessage(org.sonar.batch.protocol.input.BatchInput.Property.PARSER, extensionRegistry));
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        if (((mutable_bitField0_ & 0x00000080) == 0x00000080)) {
+          param_ = java.util.Collections.unmodifiableList(param_);
+        }
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRule_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRule_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.ActiveRule.class, org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<ActiveRule> PARSER =
+        new com.google.protobuf.AbstractParser<ActiveRule>() {
+      public ActiveRule parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new ActiveRule(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<ActiveRule> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string repository_key = 1;
+    public static final int REPOSITORY_KEY_FIELD_NUMBER = 1;
+    private java.lang.Object repositoryKey_;
+    /**
+     * <code>optional string repository_key = 1;</code>
+     */
+    public boolean hasRepositoryKey() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string repository_key = 1;</code>
+     */
+    public java.lang.String getRepositoryKey() {
+      java.lang.Object ref = repositoryKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          repositoryKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string repository_key = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getRepositoryKeyBytes() {
+      java.lang.Object ref = repositoryKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        repositoryKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string rule_key = 2;
+    public static final int RULE_KEY_FIELD_NUMBER = 2;
+    private java.lang.Object ruleKey_;
+    /**
+     * <code>optional string rule_key = 2;</code>
+     */
+    public boolean hasRuleKey() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string rule_key = 2;</code>
+     */
+    public java.lang.String getRuleKey() {
+      java.lang.Object ref = ruleKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          ruleKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string rule_key = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getRuleKeyBytes() {
+      java.lang.Object ref = ruleKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        ruleKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string template_rule_key = 3;
+    public static final int TEMPLATE_RULE_KEY_FIELD_NUMBER = 3;
+    private java.lang.Object templateRuleKey_;
+    /**
+     * <code>optional string template_rule_key = 3;</code>
+     */
+    public boolean hasTemplateRuleKey() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional string template_rule_key = 3;</code>
+     */
+    public java.lang.String getTemplateRuleKey() {
+      java.lang.Object ref = templateRuleKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          templateRuleKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string template_rule_key = 3;</code>
+     */
+    public com.google.protobuf.ByteString
+        getTemplateRuleKeyBytes() {
+      java.lang.Object ref = templateRuleKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        templateRuleKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string name = 4;
+    public static final int NAME_FIELD_NUMBER = 4;
+    private java.lang.Object name_;
+    /**
+     * <code>optional string name = 4;</code>
+     */
+    public boolean hasName() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional string name = 4;</code>
+     */
+    public java.lang.String getName() {
+      java.lang.Object ref = name_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          name_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string name = 4;</code>
+     */
+    public com.google.protobuf.ByteString
+        getNameBytes() {
+      java.lang.Object ref = name_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        name_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string severity = 5;
+    public static final int SEVERITY_FIELD_NUMBER = 5;
+    private java.lang.Object severity_;
+    /**
+     * <code>optional string severity = 5;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    public boolean hasSeverity() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional string severity = 5;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    public java.lang.String getSeverity() {
+      java.lang.Object ref = severity_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          severity_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string severity = 5;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getSeverityBytes() {
+      java.lang.Object ref = severity_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        severity_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string internal_key = 6;
+    public static final int INTERNAL_KEY_FIELD_NUMBER = 6;
+    private java.lang.Object internalKey_;
+    /**
+     * <code>optional string internal_key = 6;</code>
+     */
+    public boolean hasInternalKey() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional string internal_key = 6;</code>
+     */
+    public java.lang.String getInternalKey() {
+      java.lang.Object ref = internalKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          internalKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string internal_key = 6;</code>
+     */
+    public com.google.protobuf.ByteString
+        getInternalKeyBytes() {
+      java.lang.Object ref = internalKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        internalKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string language = 7;
+    public static final int LANGUAGE_FIELD_NUMBER = 7;
+    private java.lang.Object language_;
+    /**
+     * <code>optional string language = 7;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    public boolean hasLanguage() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional string language = 7;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    public java.lang.String getLanguage() {
+      java.lang.Object ref = language_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          language_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string language = 7;</code>
+     *
+     * <pre>
+     * null on manual rules
+     * </pre>
+     */
+    public com.google.protobuf.ByteString
+        getLanguageBytes() {
+      java.lang.Object ref = language_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        language_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // repeated .Property param = 8;
+    public static final int PARAM_FIELD_NUMBER = 8;
+    private java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> param_;
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    public java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> getParamList() {
+      return param_;
+    }
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    public java.util.List<? extends org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+        getParamOrBuilderList() {
+      return param_;
+    }
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    public int getParamCount() {
+      return param_.size();
+    }
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.Property getParam(int index) {
+      return param_.get(index);
+    }
+    /**
+     * <code>repeated .Property param = 8;</code>
+     */
+    public org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder getParamOrBuilder(
+        int index) {
+      return param_.get(index);
+    }
+
+    private void initFields() {
+      repositoryKey_ = "";
+      ruleKey_ = "";
+      templateRuleKey_ = "";
+      name_ = "";
+      severity_ = "";
+      internalKey_ = "";
+      language_ = "";
+      param_ = java.util.Collections.emptyList();
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getRepositoryKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getRuleKeyBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, getTemplateRuleKeyBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBytes(4, getNameBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeBytes(5, getSeverityBytes());
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeBytes(6, getInternalKeyBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeBytes(7, getLanguageBytes());
+      }
+      for (int i = 0; i < param_.size(); i++) {
+        output.writeMessage(8, param_.get(i));
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getRepositoryKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getRuleKeyBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, getTemplateRuleKeyBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(4, getNameBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(5, getSeverityBytes());
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, getInternalKeyBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(7, getLanguageBytes());
+      }
+      for (int i = 0; i < param_.size(); i++) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(8, param_.get(i));
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.ActiveRule parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.ActiveRule prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code ActiveRule}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.ActiveRuleOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRule_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRule_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.ActiveRule.class, org.sonar.batch.protocol.input.BatchInput.ActiveRule.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.ActiveRule.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+          getParamFieldBuilder();
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        repositoryKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        ruleKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        templateRuleKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000004);
+        name_ = "";
+        bitField0_ = (bitField0_ & ~0x00000008);
+        severity_ = "";
+        bitField0_ = (bitField0_ & ~0x00000010);
+        internalKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000020);
+        language_ = "";
+        bitField0_ = (bitField0_ & ~0x00000040);
+        if (paramBuilder_ == null) {
+          param_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000080);
+        } else {
+          paramBuilder_.clear();
+        }
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_ActiveRule_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRule getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRule build() {
+        org.sonar.batch.protocol.input.BatchInput.ActiveRule result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.ActiveRule buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.ActiveRule result = new org.sonar.batch.protocol.input.BatchInput.ActiveRule(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.repositoryKey_ = repositoryKey_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.ruleKey_ = ruleKey_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.templateRuleKey_ = templateRuleKey_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.name_ = name_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.severity_ = severity_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.internalKey_ = internalKey_;
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.language_ = language_;
+        if (paramBuilder_ == null) {
+          if (((bitField0_ & 0x00000080) == 0x00000080)) {
+            param_ = java.util.Collections.unmodifiableList(param_);
+            bitField0_ = (bitField0_ & ~0x00000080);
+          }
+          result.param_ = param_;
+        } else {
+          result.param_ = paramBuilder_.build();
+        }
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.ActiveRule) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.ActiveRule)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.ActiveRule other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.ActiveRule.getDefaultInstance()) return this;
+        if (other.hasRepositoryKey()) {
+          bitField0_ |= 0x00000001;
+          repositoryKey_ = other.repositoryKey_;
+          onChanged();
+        }
+        if (other.hasRuleKey()) {
+          bitField0_ |= 0x00000002;
+          ruleKey_ = other.ruleKey_;
+          onChanged();
+        }
+        if (other.hasTemplateRuleKey()) {
+          bitField0_ |= 0x00000004;
+          templateRuleKey_ = other.templateRuleKey_;
+          onChanged();
+        }
+        if (other.hasName()) {
+          bitField0_ |= 0x00000008;
+          name_ = other.name_;
+          onChanged();
+        }
+        if (other.hasSeverity()) {
+          bitField0_ |= 0x00000010;
+          severity_ = other.severity_;
+          onChanged();
+        }
+        if (other.hasInternalKey()) {
+          bitField0_ |= 0x00000020;
+          internalKey_ = other.internalKey_;
+          onChanged();
+        }
+        if (other.hasLanguage()) {
+          bitField0_ |= 0x00000040;
+          language_ = other.language_;
+          onChanged();
+        }
+        if (paramBuilder_ == null) {
+          if (!other.param_.isEmpty()) {
+            if (param_.isEmpty()) {
+              param_ = other.param_;
+              bitField0_ = (bitField0_ & ~0x00000080);
+            } else {
+              ensureParamIsMutable();
+              param_.addAll(other.param_);
+            }
+            onChanged();
+          }
+        } else {
+          if (!other.param_.isEmpty()) {
+            if (paramBuilder_.isEmpty()) {
+              paramBuilder_.dispose();
+              paramBuilder_ = null;
+              param_ = other.param_;
+              bitField0_ = (bitField0_ & ~0x00000080);
+              paramBuilder_ = 
+                com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders ?
+                   getParamFieldBuilder() : null;
+            } else {
+              paramBuilder_.addAllMessages(other.param_);
+            }
+          }
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.ActiveRule parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.ActiveRule) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string repository_key = 1;
+      private java.lang.Object repositoryKey_ = "";
+      /**
+       * <code>optional string repository_key = 1;</code>
+       */
+      public boolean hasRepositoryKey() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string repository_key = 1;</code>
+       */
+      public java.lang.String getRepositoryKey() {
+        java.lang.Object ref = repositoryKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          repositoryKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string repository_key = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getRepositoryKeyBytes() {
+        java.lang.Object ref = repositoryKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          repositoryKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string repository_key = 1;</code>
+       */
+      public Builder setRepositoryKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        repositoryKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string repository_key = 1;</code>
+       */
+      public Builder clearRepositoryKey() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        repositoryKey_ = getDefaultInstance().getRepositoryKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string repository_key = 1;</code>
+       */
+      public Builder setRepositoryKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        repositoryKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string rule_key = 2;
+      private java.lang.Object ruleKey_ = "";
+      /**
+       * <code>optional string rule_key = 2;</code>
+       */
+      public boolean hasRuleKey() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string rule_key = 2;</code>
+       */
+      public java.lang.String getRuleKey() {
+        java.lang.Object ref = ruleKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          ruleKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string rule_key = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getRuleKeyBytes() {
+        java.lang.Object ref = ruleKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          ruleKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string rule_key = 2;</code>
+       */
+      public Builder setRuleKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        ruleKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string rule_key = 2;</code>
+       */
+      public Builder clearRuleKey() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        ruleKey_ = getDefaultInstance().getRuleKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string rule_key = 2;</code>
+       */
+      public Builder setRuleKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        ruleKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string template_rule_key = 3;
+      private java.lang.Object templateRuleKey_ = "";
+      /**
+       * <code>optional string template_rule_key = 3;</code>
+       */
+      public boolean hasTemplateRuleKey() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional string template_rule_key = 3;</code>
+       */
+      public java.lang.String getTemplateRuleKey() {
+        java.lang.Object ref = templateRuleKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          templateRuleKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string template_rule_key = 3;</code>
+       */
+      public com.google.protobuf.ByteString
+          getTemplateRuleKeyBytes() {
+        java.lang.Object ref = templateRuleKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          templateRuleKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string template_rule_key = 3;</code>
+       */
+      public Builder setTemplateRuleKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        templateRuleKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string template_rule_key = 3;</code>
+       */
+      public Builder clearTemplateRuleKey() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        templateRuleKey_ = getDefaultInstance().getTemplateRuleKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string template_rule_key = 3;</code>
+       */
+      public Builder setTemplateRuleKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        templateRuleKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string name = 4;
+      private java.lang.Object name_ = "";
+      /**
+       * <code>optional string name = 4;</code>
+       */
+      public boolean hasName() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional string name = 4;</code>
+       */
+      public java.lang.String getName() {
+        java.lang.Object ref = name_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          name_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string name = 4;</code>
+       */
+      public com.google.protobuf.ByteString
+          getNameBytes() {
+        java.lang.Object ref = name_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          name_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string name = 4;</code>
+       */
+      public Builder setName(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        name_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string name = 4;</code>
+       */
+      public Builder clearName() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        name_ = getDefaultInstance().getName();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string name = 4;</code>
+       */
+      public Builder setNameBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        name_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string severity = 5;
+      private java.lang.Object severity_ = "";
+      /**
+       * <code>optional string severity = 5;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public boolean hasSeverity() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional string severity = 5;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public java.lang.String getSeverity() {
+        java.lang.Object ref = severity_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          severity_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string severity = 5;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getSeverityBytes() {
+        java.lang.Object ref = severity_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          severity_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string severity = 5;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public Builder setSeverity(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        severity_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string severity = 5;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public Builder clearSeverity() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        severity_ = getDefaultInstance().getSeverity();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string severity = 5;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public Builder setSeverityBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        severity_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string internal_key = 6;
+      private java.lang.Object internalKey_ = "";
+      /**
+       * <code>optional string internal_key = 6;</code>
+       */
+      public boolean hasInternalKey() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional string internal_key = 6;</code>
+       */
+      public java.lang.String getInternalKey() {
+        java.lang.Object ref = internalKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          internalKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string internal_key = 6;</code>
+       */
+      public com.google.protobuf.ByteString
+          getInternalKeyBytes() {
+        java.lang.Object ref = internalKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          internalKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string internal_key = 6;</code>
+       */
+      public Builder setInternalKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        internalKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string internal_key = 6;</code>
+       */
+      public Builder clearInternalKey() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        internalKey_ = getDefaultInstance().getInternalKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string internal_key = 6;</code>
+       */
+      public Builder setInternalKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        internalKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string language = 7;
+      private java.lang.Object language_ = "";
+      /**
+       * <code>optional string language = 7;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public boolean hasLanguage() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional string language = 7;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public java.lang.String getLanguage() {
+        java.lang.Object ref = language_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          language_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string language = 7;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public com.google.protobuf.ByteString
+          getLanguageBytes() {
+        java.lang.Object ref = language_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          language_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string language = 7;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public Builder setLanguage(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        language_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string language = 7;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public Builder clearLanguage() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        language_ = getDefaultInstance().getLanguage();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string language = 7;</code>
+       *
+       * <pre>
+       * null on manual rules
+       * </pre>
+       */
+      public Builder setLanguageBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        language_ = value;
+        onChanged();
+        return this;
+      }
+
+      // repeated .Property param = 8;
+      private java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> param_ =
+        java.util.Collections.emptyList();
+      private void ensureParamIsMutable() {
+        if (!((bitField0_ & 0x00000080) == 0x00000080)) {
+          param_ = new java.util.ArrayList<org.sonar.batch.protocol.input.BatchInput.Property>(param_);
+          bitField0_ |= 0x00000080;
+         }
+      }
+
+      private com.google.protobuf.RepeatedFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.Property, org.sonar.batch.protocol.input.BatchInput.Property.Builder, org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> paramBuilder_;
+
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public java.util.List<org.sonar.batch.protocol.input.BatchInput.Property> getParamList() {
+        if (paramBuilder_ == null) {
+          return java.util.Collections.unmodifiableList(param_);
+        } else {
+          return paramBuilder_.getMessageList();
+        }
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public int getParamCount() {
+        if (paramBuilder_ == null) {
+          return param_.size();
+        } else {
+          return paramBuilder_.getCount();
+        }
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property getParam(int index) {
+        if (paramBuilder_ == null) {
+          return param_.get(index);
+        } else {
+          return paramBuilder_.getMessage(index);
+        }
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder setParam(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property value) {
+        if (paramBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureParamIsMutable();
+          param_.set(index, value);
+          onChanged();
+        } else {
+          paramBuilder_.setMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder setParam(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property.Builder builderForValue) {
+        if (paramBuilder_ == null) {
+          ensureParamIsMutable();
+          param_.set(index, builderForValue.build());
+          onChanged();
+        } else {
+          paramBuilder_.setMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder addParam(org.sonar.batch.protocol.input.BatchInput.Property value) {
+        if (paramBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureParamIsMutable();
+          param_.add(value);
+          onChanged();
+        } else {
+          paramBuilder_.addMessage(value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder addParam(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property value) {
+        if (paramBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureParamIsMutable();
+          param_.add(index, value);
+          onChanged();
+        } else {
+          paramBuilder_.addMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder addParam(
+          org.sonar.batch.protocol.input.BatchInput.Property.Builder builderForValue) {
+        if (paramBuilder_ == null) {
+          ensureParamIsMutable();
+          param_.add(builderForValue.build());
+          onChanged();
+        } else {
+          paramBuilder_.addMessage(builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder addParam(
+          int index, org.sonar.batch.protocol.input.BatchInput.Property.Builder builderForValue) {
+        if (paramBuilder_ == null) {
+          ensureParamIsMutable();
+          param_.add(index, builderForValue.build());
+          onChanged();
+        } else {
+          paramBuilder_.addMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder addAllParam(
+          java.lang.Iterable<? extends org.sonar.batch.protocol.input.BatchInput.Property> values) {
+        if (paramBuilder_ == null) {
+          ensureParamIsMutable();
+          super.addAll(values, param_);
+          onChanged();
+        } else {
+          paramBuilder_.addAllMessages(values);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder clearParam() {
+        if (paramBuilder_ == null) {
+          param_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000080);
+          onChanged();
+        } else {
+          paramBuilder_.clear();
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public Builder removeParam(int index) {
+        if (paramBuilder_ == null) {
+          ensureParamIsMutable();
+          param_.remove(index);
+          onChanged();
+        } else {
+          paramBuilder_.remove(index);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property.Builder getParamBuilder(
+          int index) {
+        return getParamFieldBuilder().getBuilder(index);
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder getParamOrBuilder(
+          int index) {
+        if (paramBuilder_ == null) {
+          return param_.get(index);  } else {
+          return paramBuilder_.getMessageOrBuilder(index);
+        }
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public java.util.List<? extends org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+           getParamOrBuilderList() {
+        if (paramBuilder_ != null) {
+          return paramBuilder_.getMessageOrBuilderList();
+        } else {
+          return java.util.Collections.unmodifiableList(param_);
+        }
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property.Builder addParamBuilder() {
+        return getParamFieldBuilder().addBuilder(
+            org.sonar.batch.protocol.input.BatchInput.Property.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public org.sonar.batch.protocol.input.BatchInput.Property.Builder addParamBuilder(
+          int index) {
+        return getParamFieldBuilder().addBuilder(
+            index, org.sonar.batch.protocol.input.BatchInput.Property.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .Property param = 8;</code>
+       */
+      public java.util.List<org.sonar.batch.protocol.input.BatchInput.Property.Builder> 
+           getParamBuilderList() {
+        return getParamFieldBuilder().getBuilderList();
+      }
+      private com.google.protobuf.RepeatedFieldBuilder<
+          org.sonar.batch.protocol.input.BatchInput.Property, org.sonar.batch.protocol.input.BatchInput.Property.Builder, org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder> 
+          getParamFieldBuilder() {
+        if (paramBuilder_ == null) {
+          paramBuilder_ = new com.google.protobuf.RepeatedFieldBuilder<
+              org.sonar.batch.protocol.input.BatchInput.Property, org.sonar.batch.protocol.input.BatchInput.Property.Builder, org.sonar.batch.protocol.input.BatchInput.PropertyOrBuilder>(
+                  param_,
+                  ((bitField0_ & 0x00000080) == 0x00000080),
+                  getParentForChildren(),
+                  isClean());
+          param_ = null;
+        }
+        return paramBuilder_;
+      }
+
+      // @@protoc_insertion_point(builder_scope:ActiveRule)
+    }
+
+    static {
+      defaultInstance = new ActiveRule(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:ActiveRule)
+  }
+
+  public interface FileDataOrBuilder
+      extends com.google.protobuf.MessageOrBuilder {
+
+    // optional string module_key = 1;
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    boolean hasModuleKey();
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    java.lang.String getModuleKey();
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    com.google.protobuf.ByteString
+        getModuleKeyBytes();
+
+    // optional string path = 2;
+    /**
+     * <code>optional string path = 2;</code>
+     */
+    boolean hasPath();
+    /**
+     * <code>optional string path = 2;</code>
+     */
+    java.lang.String getPath();
+    /**
+     * <code>optional string path = 2;</code>
+     */
+    com.google.protobuf.ByteString
+        getPathBytes();
+
+    // optional string hash = 3;
+    /**
+     * <code>optional string hash = 3;</code>
+     */
+    boolean hasHash();
+    /**
+     * <code>optional string hash = 3;</code>
+     */
+    java.lang.String getHash();
+    /**
+     * <code>optional string hash = 3;</code>
+     */
+    com.google.protobuf.ByteString
+        getHashBytes();
+
+    // optional bool need_blame = 4;
+    /**
+     * <code>optional bool need_blame = 4;</code>
+     */
+    boolean hasNeedBlame();
+    /**
+     * <code>optional bool need_blame = 4;</code>
+     */
+    boolean getNeedBlame();
+
+    // optional string scm_last_commit_datetimes_by_line = 5;
+    /**
+     * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+     */
+    boolean hasScmLastCommitDatetimesByLine();
+    /**
+     * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+     */
+    java.lang.String getScmLastCommitDatetimesByLine();
+    /**
+     * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+     */
+    com.google.protobuf.ByteString
+        getScmLastCommitDatetimesByLineBytes();
+
+    // optional string scm_revisions_by_line = 6;
+    /**
+     * <code>optional string scm_revisions_by_line = 6;</code>
+     */
+    boolean hasScmRevisionsByLine();
+    /**
+     * <code>optional string scm_revisions_by_line = 6;</code>
+     */
+    java.lang.String getScmRevisionsByLine();
+    /**
+     * <code>optional string scm_revisions_by_line = 6;</code>
+     */
+    com.google.protobuf.ByteString
+        getScmRevisionsByLineBytes();
+
+    // optional string scm_authors_by_line = 7;
+    /**
+     * <code>optional string scm_authors_by_line = 7;</code>
+     */
+    boolean hasScmAuthorsByLine();
+    /**
+     * <code>optional string scm_authors_by_line = 7;</code>
+     */
+    java.lang.String getScmAuthorsByLine();
+    /**
+     * <code>optional string scm_authors_by_line = 7;</code>
+     */
+    com.google.protobuf.ByteString
+        getScmAuthorsByLineBytes();
+  }
+  /**
+   * Protobuf type {@code FileData}
+   */
+  public static final class FileData extends
+      com.google.protobuf.GeneratedMessage
+      implements FileDataOrBuilder {
+    // Use FileData.newBuilder() to construct.
+    private FileData(com.google.protobuf.GeneratedMessage.Builder<?> builder) {
+      super(builder);
+      this.unknownFields = builder.getUnknownFields();
+    }
+    private FileData(boolean noInit) { this.unknownFields = com.google.protobuf.UnknownFieldSet.getDefaultInstance(); }
+
+    private static final FileData defaultInstance;
+    public static FileData getDefaultInstance() {
+      return defaultInstance;
+    }
+
+    public FileData getDefaultInstanceForType() {
+      return defaultInstance;
+    }
+
+    private final com.google.protobuf.UnknownFieldSet unknownFields;
+    @java.lang.Override
+    public final com.google.protobuf.UnknownFieldSet
+        getUnknownFields() {
+      return this.unknownFields;
+    }
+    private FileData(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      initFields();
+      int mutable_bitField0_ = 0;
+      com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+          com.google.protobuf.UnknownFieldSet.newBuilder();
+      try {
+        boolean done = false;
+        while (!done) {
+          int tag = input.readTag();
+          switch (tag) {
+            case 0:
+              done = true;
+              break;
+            default: {
+              if (!parseUnknownField(input, unknownFields,
+                                     extensionRegistry, tag)) {
+                done = true;
+              }
+              break;
+            }
+            case 10: {
+              bitField0_ |= 0x00000001;
+              moduleKey_ = input.readBytes();
+              break;
+            }
+            case 18: {
+              bitField0_ |= 0x00000002;
+              path_ = input.readBytes();
+              break;
+            }
+            case 26: {
+              bitField0_ |= 0x00000004;
+              hash_ = input.readBytes();
+              break;
+            }
+            case 32: {
+              bitField0_ |= 0x00000008;
+              needBlame_ = input.readBool();
+              break;
+            }
+            case 42: {
+              bitField0_ |= 0x00000010;
+              scmLastCommitDatetimesByLine_ = input.readBytes();
+              break;
+            }
+            case 50: {
+              bitField0_ |= 0x00000020;
+              scmRevisionsByLine_ = input.readBytes();
+              break;
+            }
+            case 58: {
+              bitField0_ |= 0x00000040;
+              scmAuthorsByLine_ = input.readBytes();
+              break;
+            }
+          }
+        }
+      } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+        throw e.setUnfinishedMessage(this);
+      } catch (java.io.IOException e) {
+        throw new com.google.protobuf.InvalidProtocolBufferException(
+            e.getMessage()).setUnfinishedMessage(this);
+      } finally {
+        this.unknownFields = unknownFields.build();
+        makeExtensionsImmutable();
+      }
+    }
+    public static final com.google.protobuf.Descriptors.Descriptor
+        getDescriptor() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_FileData_descriptor;
+    }
+
+    protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+        internalGetFieldAccessorTable() {
+      return org.sonar.batch.protocol.input.BatchInput.internal_static_FileData_fieldAccessorTable
+          .ensureFieldAccessorsInitialized(
+              org.sonar.batch.protocol.input.BatchInput.FileData.class, org.sonar.batch.protocol.input.BatchInput.FileData.Builder.class);
+    }
+
+    public static com.google.protobuf.Parser<FileData> PARSER =
+        new com.google.protobuf.AbstractParser<FileData>() {
+      public FileData parsePartialFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return new FileData(input, extensionRegistry);
+      }
+    };
+
+    @java.lang.Override
+    public com.google.protobuf.Parser<FileData> getParserForType() {
+      return PARSER;
+    }
+
+    private int bitField0_;
+    // optional string module_key = 1;
+    public static final int MODULE_KEY_FIELD_NUMBER = 1;
+    private java.lang.Object moduleKey_;
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    public boolean hasModuleKey() {
+      return ((bitField0_ & 0x00000001) == 0x00000001);
+    }
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    public java.lang.String getModuleKey() {
+      java.lang.Object ref = moduleKey_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          moduleKey_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string module_key = 1;</code>
+     */
+    public com.google.protobuf.ByteString
+        getModuleKeyBytes() {
+      java.lang.Object ref = moduleKey_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        moduleKey_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string path = 2;
+    public static final int PATH_FIELD_NUMBER = 2;
+    private java.lang.Object path_;
+    /**
+     * <code>optional string path = 2;</code>
+     */
+    public boolean hasPath() {
+      return ((bitField0_ & 0x00000002) == 0x00000002);
+    }
+    /**
+     * <code>optional string path = 2;</code>
+     */
+    public java.lang.String getPath() {
+      java.lang.Object ref = path_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          path_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string path = 2;</code>
+     */
+    public com.google.protobuf.ByteString
+        getPathBytes() {
+      java.lang.Object ref = path_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        path_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string hash = 3;
+    public static final int HASH_FIELD_NUMBER = 3;
+    private java.lang.Object hash_;
+    /**
+     * <code>optional string hash = 3;</code>
+     */
+    public boolean hasHash() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional string hash = 3;</code>
+     */
+    public java.lang.String getHash() {
+      java.lang.Object ref = hash_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          hash_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string hash = 3;</code>
+     */
+    public com.google.protobuf.ByteString
+        getHashBytes() {
+      java.lang.Object ref = hash_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        hash_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional bool need_blame = 4;
+    public static final int NEED_BLAME_FIELD_NUMBER = 4;
+    private boolean needBlame_;
+    /**
+     * <code>optional bool need_blame = 4;</code>
+     */
+    public boolean hasNeedBlame() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional bool need_blame = 4;</code>
+     */
+    public boolean getNeedBlame() {
+      return needBlame_;
+    }
+
+    // optional string scm_last_commit_datetimes_by_line = 5;
+    public static final int SCM_LAST_COMMIT_DATETIMES_BY_LINE_FIELD_NUMBER = 5;
+    private java.lang.Object scmLastCommitDatetimesByLine_;
+    /**
+     * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+     */
+    public boolean hasScmLastCommitDatetimesByLine() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+     */
+    public java.lang.String getScmLastCommitDatetimesByLine() {
+      java.lang.Object ref = scmLastCommitDatetimesByLine_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          scmLastCommitDatetimesByLine_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+     */
+    public com.google.protobuf.ByteString
+        getScmLastCommitDatetimesByLineBytes() {
+      java.lang.Object ref = scmLastCommitDatetimesByLine_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        scmLastCommitDatetimesByLine_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string scm_revisions_by_line = 6;
+    public static final int SCM_REVISIONS_BY_LINE_FIELD_NUMBER = 6;
+    private java.lang.Object scmRevisionsByLine_;
+    /**
+     * <code>optional string scm_revisions_by_line = 6;</code>
+     */
+    public boolean hasScmRevisionsByLine() {
+      return ((bitField0_ & 0x00000020) == 0x00000020);
+    }
+    /**
+     * <code>optional string scm_revisions_by_line = 6;</code>
+     */
+    public java.lang.String getScmRevisionsByLine() {
+      java.lang.Object ref = scmRevisionsByLine_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          scmRevisionsByLine_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string scm_revisions_by_line = 6;</code>
+     */
+    public com.google.protobuf.ByteString
+        getScmRevisionsByLineBytes() {
+      java.lang.Object ref = scmRevisionsByLine_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        scmRevisionsByLine_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional string scm_authors_by_line = 7;
+    public static final int SCM_AUTHORS_BY_LINE_FIELD_NUMBER = 7;
+    private java.lang.Object scmAuthorsByLine_;
+    /**
+     * <code>optional string scm_authors_by_line = 7;</code>
+     */
+    public boolean hasScmAuthorsByLine() {
+      return ((bitField0_ & 0x00000040) == 0x00000040);
+    }
+    /**
+     * <code>optional string scm_authors_by_line = 7;</code>
+     */
+    public java.lang.String getScmAuthorsByLine() {
+      java.lang.Object ref = scmAuthorsByLine_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          scmAuthorsByLine_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string scm_authors_by_line = 7;</code>
+     */
+    public com.google.protobuf.ByteString
+        getScmAuthorsByLineBytes() {
+      java.lang.Object ref = scmAuthorsByLine_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        scmAuthorsByLine_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    private void initFields() {
+      moduleKey_ = "";
+      path_ = "";
+      hash_ = "";
+      needBlame_ = false;
+      scmLastCommitDatetimesByLine_ = "";
+      scmRevisionsByLine_ = "";
+      scmAuthorsByLine_ = "";
+    }
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized != -1) return isInitialized == 1;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      getSerializedSize();
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        output.writeBytes(1, getModuleKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        output.writeBytes(2, getPathBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeBytes(3, getHashBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBool(4, needBlame_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeBytes(5, getScmLastCommitDatetimesByLineBytes());
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        output.writeBytes(6, getScmRevisionsByLineBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        output.writeBytes(7, getScmAuthorsByLineBytes());
+      }
+      getUnknownFields().writeTo(output);
+    }
+
+    private int memoizedSerializedSize = -1;
+    public int getSerializedSize() {
+      int size = memoizedSerializedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (((bitField0_ & 0x00000001) == 0x00000001)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(1, getModuleKeyBytes());
+      }
+      if (((bitField0_ & 0x00000002) == 0x00000002)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(2, getPathBytes());
+      }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, getHashBytes());
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(4, needBlame_);
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(5, getScmLastCommitDatetimesByLineBytes());
+      }
+      if (((bitField0_ & 0x00000020) == 0x00000020)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(6, getScmRevisionsByLineBytes());
+      }
+      if (((bitField0_ & 0x00000040) == 0x00000040)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(7, getScmAuthorsByLineBytes());
+      }
+      size += getUnknownFields().getSerializedSize();
+      memoizedSerializedSize = size;
+      return size;
+    }
+
+    private static final long serialVersionUID = 0L;
+    @java.lang.Override
+    protected java.lang.Object writeReplace()
+        throws java.io.ObjectStreamException {
+      return super.writeReplace();
+    }
+
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseDelimitedFrom(input, extensionRegistry);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input);
+    }
+    public static org.sonar.batch.protocol.input.BatchInput.FileData parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return PARSER.parseFrom(input, extensionRegistry);
+    }
+
+    public static Builder newBuilder() { return Builder.create(); }
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder(org.sonar.batch.protocol.input.BatchInput.FileData prototype) {
+      return newBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() { return newBuilder(this); }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code FileData}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessage.Builder<Builder>
+       implements org.sonar.batch.protocol.input.BatchInput.FileDataOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_FileData_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessage.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_FileData_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                org.sonar.batch.protocol.input.BatchInput.FileData.class, org.sonar.batch.protocol.input.BatchInput.FileData.Builder.class);
+      }
+
+      // Construct using org.sonar.batch.protocol.input.BatchInput.FileData.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessage.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
+        }
+      }
+      private static Builder create() {
+        return new Builder();
+      }
+
+      public Builder clear() {
+        super.clear();
+        moduleKey_ = "";
+        bitField0_ = (bitField0_ & ~0x00000001);
+        path_ = "";
+        bitField0_ = (bitField0_ & ~0x00000002);
+        hash_ = "";
+        bitField0_ = (bitField0_ & ~0x00000004);
+        needBlame_ = false;
+        bitField0_ = (bitField0_ & ~0x00000008);
+        scmLastCommitDatetimesByLine_ = "";
+        bitField0_ = (bitField0_ & ~0x00000010);
+        scmRevisionsByLine_ = "";
+        bitField0_ = (bitField0_ & ~0x00000020);
+        scmAuthorsByLine_ = "";
+        bitField0_ = (bitField0_ & ~0x00000040);
+        return this;
+      }
+
+      public Builder clone() {
+        return create().mergeFrom(buildPartial());
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return org.sonar.batch.protocol.input.BatchInput.internal_static_FileData_descriptor;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.FileData getDefaultInstanceForType() {
+        return org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance();
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.FileData build() {
+        org.sonar.batch.protocol.input.BatchInput.FileData result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public org.sonar.batch.protocol.input.BatchInput.FileData buildPartial() {
+        org.sonar.batch.protocol.input.BatchInput.FileData result = new org.sonar.batch.protocol.input.BatchInput.FileData(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        if (((from_bitField0_ & 0x00000001) == 0x00000001)) {
+          to_bitField0_ |= 0x00000001;
+        }
+        result.moduleKey_ = moduleKey_;
+        if (((from_bitField0_ & 0x00000002) == 0x00000002)) {
+          to_bitField0_ |= 0x00000002;
+        }
+        result.path_ = path_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.hash_ = hash_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.needBlame_ = needBlame_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.scmLastCommitDatetimesByLine_ = scmLastCommitDatetimesByLine_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000020;
+        }
+        result.scmRevisionsByLine_ = scmRevisionsByLine_;
+        if (((from_bitField0_ & 0x00000040) == 0x00000040)) {
+          to_bitField0_ |= 0x00000040;
+        }
+        result.scmAuthorsByLine_ = scmAuthorsByLine_;
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof org.sonar.batch.protocol.input.BatchInput.FileData) {
+          return mergeFrom((org.sonar.batch.protocol.input.BatchInput.FileData)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(org.sonar.batch.protocol.input.BatchInput.FileData other) {
+        if (other == org.sonar.batch.protocol.input.BatchInput.FileData.getDefaultInstance()) return this;
+        if (other.hasModuleKey()) {
+          bitField0_ |= 0x00000001;
+          moduleKey_ = other.moduleKey_;
+          onChanged();
+        }
+        if (other.hasPath()) {
+          bitField0_ |= 0x00000002;
+          path_ = other.path_;
+          onChanged();
+        }
+        if (other.hasHash()) {
+          bitField0_ |= 0x00000004;
+          hash_ = other.hash_;
+          onChanged();
+        }
+        if (other.hasNeedBlame()) {
+          setNeedBlame(other.getNeedBlame());
+        }
+        if (other.hasScmLastCommitDatetimesByLine()) {
+          bitField0_ |= 0x00000010;
+          scmLastCommitDatetimesByLine_ = other.scmLastCommitDatetimesByLine_;
+          onChanged();
+        }
+        if (other.hasScmRevisionsByLine()) {
+          bitField0_ |= 0x00000020;
+          scmRevisionsByLine_ = other.scmRevisionsByLine_;
+          onChanged();
+        }
+        if (other.hasScmAuthorsByLine()) {
+          bitField0_ |= 0x00000040;
+          scmAuthorsByLine_ = other.scmAuthorsByLine_;
+          onChanged();
+        }
+        this.mergeUnknownFields(other.getUnknownFields());
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        org.sonar.batch.protocol.input.BatchInput.FileData parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (org.sonar.batch.protocol.input.BatchInput.FileData) e.getUnfinishedMessage();
+          throw e;
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      // optional string module_key = 1;
+      private java.lang.Object moduleKey_ = "";
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public boolean hasModuleKey() {
+        return ((bitField0_ & 0x00000001) == 0x00000001);
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public java.lang.String getModuleKey() {
+        java.lang.Object ref = moduleKey_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          moduleKey_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public com.google.protobuf.ByteString
+          getModuleKeyBytes() {
+        java.lang.Object ref = moduleKey_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          moduleKey_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public Builder setModuleKey(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        moduleKey_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public Builder clearModuleKey() {
+        bitField0_ = (bitField0_ & ~0x00000001);
+        moduleKey_ = getDefaultInstance().getModuleKey();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string module_key = 1;</code>
+       */
+      public Builder setModuleKeyBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000001;
+        moduleKey_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string path = 2;
+      private java.lang.Object path_ = "";
+      /**
+       * <code>optional string path = 2;</code>
+       */
+      public boolean hasPath() {
+        return ((bitField0_ & 0x00000002) == 0x00000002);
+      }
+      /**
+       * <code>optional string path = 2;</code>
+       */
+      public java.lang.String getPath() {
+        java.lang.Object ref = path_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          path_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string path = 2;</code>
+       */
+      public com.google.protobuf.ByteString
+          getPathBytes() {
+        java.lang.Object ref = path_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          path_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string path = 2;</code>
+       */
+      public Builder setPath(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        path_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string path = 2;</code>
+       */
+      public Builder clearPath() {
+        bitField0_ = (bitField0_ & ~0x00000002);
+        path_ = getDefaultInstance().getPath();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string path = 2;</code>
+       */
+      public Builder setPathBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000002;
+        path_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string hash = 3;
+      private java.lang.Object hash_ = "";
+      /**
+       * <code>optional string hash = 3;</code>
+       */
+      public boolean hasHash() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional string hash = 3;</code>
+       */
+      public java.lang.String getHash() {
+        java.lang.Object ref = hash_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          hash_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string hash = 3;</code>
+       */
+      public com.google.protobuf.ByteString
+          getHashBytes() {
+        java.lang.Object ref = hash_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          hash_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string hash = 3;</code>
+       */
+      public Builder setHash(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        hash_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string hash = 3;</code>
+       */
+      public Builder clearHash() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        hash_ = getDefaultInstance().getHash();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string hash = 3;</code>
+       */
+      public Builder setHashBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000004;
+        hash_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional bool need_blame = 4;
+      private boolean needBlame_ ;
+      /**
+       * <code>optional bool need_blame = 4;</code>
+       */
+      public boolean hasNeedBlame() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional bool need_blame = 4;</code>
+       */
+      public boolean getNeedBlame() {
+        return needBlame_;
+      }
+      /**
+       * <code>optional bool need_blame = 4;</code>
+       */
+      public Builder setNeedBlame(boolean value) {
+        bitField0_ |= 0x00000008;
+        needBlame_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional bool need_blame = 4;</code>
+       */
+      public Builder clearNeedBlame() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        needBlame_ = false;
+        onChanged();
+        return this;
+      }
+
+      // optional string scm_last_commit_datetimes_by_line = 5;
+      private java.lang.Object scmLastCommitDatetimesByLine_ = "";
+      /**
+       * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+       */
+      public boolean hasScmLastCommitDatetimesByLine() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+       */
+      public java.lang.String getScmLastCommitDatetimesByLine() {
+        java.lang.Object ref = scmLastCommitDatetimesByLine_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          scmLastCommitDatetimesByLine_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+       */
+      public com.google.protobuf.ByteString
+          getScmLastCommitDatetimesByLineBytes() {
+        java.lang.Object ref = scmLastCommitDatetimesByLine_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          scmLastCommitDatetimesByLine_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+       */
+      public Builder setScmLastCommitDatetimesByLine(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        scmLastCommitDatetimesByLine_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+       */
+      public Builder clearScmLastCommitDatetimesByLine() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        scmLastCommitDatetimesByLine_ = getDefaultInstance().getScmLastCommitDatetimesByLine();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string scm_last_commit_datetimes_by_line = 5;</code>
+       */
+      public Builder setScmLastCommitDatetimesByLineBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000010;
+        scmLastCommitDatetimesByLine_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string scm_revisions_by_line = 6;
+      private java.lang.Object scmRevisionsByLine_ = "";
+      /**
+       * <code>optional string scm_revisions_by_line = 6;</code>
+       */
+      public boolean hasScmRevisionsByLine() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      /**
+       * <code>optional string scm_revisions_by_line = 6;</code>
+       */
+      public java.lang.String getScmRevisionsByLine() {
+        java.lang.Object ref = scmRevisionsByLine_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          scmRevisionsByLine_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string scm_revisions_by_line = 6;</code>
+       */
+      public com.google.protobuf.ByteString
+          getScmRevisionsByLineBytes() {
+        java.lang.Object ref = scmRevisionsByLine_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          scmRevisionsByLine_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string scm_revisions_by_line = 6;</code>
+       */
+      public Builder setScmRevisionsByLine(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        scmRevisionsByLine_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string scm_revisions_by_line = 6;</code>
+       */
+      public Builder clearScmRevisionsByLine() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        scmRevisionsByLine_ = getDefaultInstance().getScmRevisionsByLine();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string scm_revisions_by_line = 6;</code>
+       */
+      public Builder setScmRevisionsByLineBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000020;
+        scmRevisionsByLine_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional string scm_authors_by_line = 7;
+      private java.lang.Object scmAuthorsByLine_ = "";
+      /**
+       * <code>optional string scm_authors_by_line = 7;</code>
+       */
+      public boolean hasScmAuthorsByLine() {
+        return ((bitField0_ & 0x00000040) == 0x00000040);
+      }
+      /**
+       * <code>optional string scm_authors_by_line = 7;</code>
+       */
+      public java.lang.String getScmAuthorsByLine() {
+        java.lang.Object ref = scmAuthorsByLine_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          scmAuthorsByLine_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string scm_authors_by_line = 7;</code>
+       */
+      public com.google.protobuf.ByteString
+          getScmAuthorsByLineBytes() {
+        java.lang.Object ref = scmAuthorsByLine_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          scmAuthorsByLine_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string scm_authors_by_line = 7;</code>
+       */
+      public Builder setScmAuthorsByLine(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        scmAuthorsByLine_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string scm_authors_by_line = 7;</code>
+       */
+      public Builder clearScmAuthorsByLine() {
+        bitField0_ = (bitField0_ & ~0x00000040);
+        scmAuthorsByLine_ = getDefaultInstance().getScmAuthorsByLine();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string scm_authors_by_line = 7;</code>
+       */
+      public Builder setScmAuthorsByLineBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000040;
+        scmAuthorsByLine_ = value;
+        onChanged();
+        return this;
+      }
+
+      // @@protoc_insertion_point(builder_scope:FileData)
+    }
+
+    static {
+      defaultInstance = new FileData(true);
+      defaultInstance.initFields();
+    }
+
+    // @@protoc_insertion_point(class_scope:FileData)
+  }
+
   private static com.google.protobuf.Descriptors.Descriptor
     internal_static_ServerIssue_descriptor;
   private static
     com.google.protobuf.GeneratedMessage.FieldAccessorTable
       internal_static_ServerIssue_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_ProjectRepositoryItem_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_ProjectRepositoryItem_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_ActiveRulesVersion_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_ActiveRulesVersion_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_Property_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_Property_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_ModuleSettings_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_ModuleSettings_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_QProfile_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_QProfile_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_ActiveRule_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_ActiveRule_fieldAccessorTable;
+  private static com.google.protobuf.Descriptors.Descriptor
+    internal_static_FileData_descriptor;
+  private static
+    com.google.protobuf.GeneratedMessage.FieldAccessorTable
+      internal_static_FileData_fieldAccessorTable;
 
   public static com.google.protobuf.Descriptors.FileDescriptor
       getDescriptor() {
@@ -2238,7 +10102,31 @@ public final class BatchInput {
       "\n\017manual_severity\030\t \001(\010\022\022\n\nresolution\030\n " +
       "\001(\t\022\016\n\006status\030\013 \001(\t\022\020\n\010checksum\030\014 \001(\t\022\026\n" +
       "\016assignee_login\030\r \001(\t\022\025\n\rcreation_date\030\016" +
-      " \001(\003B\"\n\036org.sonar.batch.protocol.inputH\001"
+      " \001(\003\"\204\002\n\025ProjectRepositoryItem\022\032\n\022last_a" +
+      "nalysis_date\030\001 \001(\003\022(\n\017module_settings\030\002 ",
+      "\001(\0132\017.ModuleSettings\022\033\n\010qprofile\030\003 \001(\0132\t" +
+      ".QProfile\022 \n\013active_rule\030\004 \001(\0132\013.ActiveR" +
+      "ule\022\034\n\tfile_data\030\005 \001(\0132\t.FileData\0221\n\024act" +
+      "ive_rules_version\030\006 \001(\0132\023.ActiveRulesVer" +
+      "sion\022\025\n\rend_of_stream\030\007 \001(\010\"h\n\022ActiveRul" +
+      "esVersion\022\023\n\013profile_key\030\001 \001(\t\022\017\n\007versio" +
+      "n\030\002 \001(\t\022\021\n\tunchanged\030\003 \001(\010\022\031\n\021active_rul" +
+      "e_count\030\004 \001(\005\"&\n\010Property\022\013\n\003key\030\001 \001(\t\022\r" +
+      "\n\005value\030\002 \001(\t\"A\n\016ModuleSettings\022\022\n\nmodul" +
+      "e_key\030\001 \001(\t\022\033\n\010property\030\002 \003(\0132\t.Property",
+      "\"Q\n\010QProfile\022\013\n\003key\030\001 \001(\t\022\014\n\004name\030\002 \001(\t\022" +
+      "\020\n\010language\030\003 \001(\t\022\030\n\020rules_updated_at\030\004 " +
+      "\001(\003\"\263\001\n\nActiveRule\022\026\n\016repository_key\030\001 \001" +
+      "(\t\022\020\n\010rule_key\030\002 \001(\t\022\031\n\021template_rule_ke" +
+      "y\030\003 \001(\t\022\014\n\004name\030\004 \001(\t\022\020\n\010severity\030\005 \001(\t\022" +
+      "\024\n\014internal_key\030\006 \001(\t\022\020\n\010language\030\007 \001(\t\022" +
+      "\030\n\005param\030\010 \003(\0132\t.Property\"\265\001\n\010FileData\022\022" +
+      "\n\nmodule_key\030\001 \001(\t\022\014\n\004path\030\002 \001(\t\022\014\n\004hash" +
+      "\030\003 \001(\t\022\022\n\nneed_blame\030\004 \001(\010\022)\n!scm_last_c" +
+      "ommit_datetimes_by_line\030\005 \001(\t\022\035\n\025scm_rev",
+      "isions_by_line\030\006 \001(\t\022\033\n\023scm_authors_by_l" +
+      "ine\030\007 \001(\tB\"\n\036org.sonar.batch.protocol.in" +
+      "putH\001"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -2251,6 +10139,48 @@ public final class BatchInput {
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_ServerIssue_descriptor,
               new java.lang.String[] { "Key", "ModuleKey", "Path", "RuleRepository", "RuleKey", "Line", "Msg", "Severity", "ManualSeverity", "Resolution", "Status", "Checksum", "AssigneeLogin", "CreationDate", });
+          internal_static_ProjectRepositoryItem_descriptor =
+            getDescriptor().getMessageTypes().get(1);
+          internal_static_ProjectRepositoryItem_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_ProjectRepositoryItem_descriptor,
+              new java.lang.String[] { "LastAnalysisDate", "ModuleSettings", "Qprofile", "ActiveRule", "FileData", "ActiveRulesVersion", "EndOfStream", });
+          internal_static_ActiveRulesVersion_descriptor =
+            getDescriptor().getMessageTypes().get(2);
+          internal_static_ActiveRulesVersion_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_ActiveRulesVersion_descriptor,
+              new java.lang.String[] { "ProfileKey", "Version", "Unchanged", "ActiveRuleCount", });
+          internal_static_Property_descriptor =
+            getDescriptor().getMessageTypes().get(3);
+          internal_static_Property_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_Property_descriptor,
+              new java.lang.String[] { "Key", "Value", });
+          internal_static_ModuleSettings_descriptor =
+            getDescriptor().getMessageTypes().get(4);
+          internal_static_ModuleSettings_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_ModuleSettings_descriptor,
+              new java.lang.String[] { "ModuleKey", "Property", });
+          internal_static_QProfile_descriptor =
+            getDescriptor().getMessageTypes().get(5);
+          internal_static_QProfile_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_QProfile_descriptor,
+              new java.lang.String[] { "Key", "Name", "Language", "RulesUpdatedAt", });
+          internal_static_ActiveRule_descriptor =
+            getDescriptor().getMessageTypes().get(6);
+          internal_static_ActiveRule_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_ActiveRule_descriptor,
+              new java.lang.String[] { "RepositoryKey", "RuleKey", "TemplateRuleKey", "Name", "Severity", "InternalKey", "Language", "Param", });
+          internal_static_FileData_descriptor =
+            getDescriptor().getMessageTypes().get(7);
+          internal_static_FileData_fieldAccessorTable = new
+            com.google.protobuf.GeneratedMessage.FieldAccessorTable(
+              internal_static_FileData_descriptor,
+              new java.lang.String[] { "ModuleKey", "Path", "Hash", "NeedBlame", "ScmLastCommitDatetimesByLine", "ScmRevisionsByLine", "ScmAuthorsByLine", });
           return null;
         }
       };
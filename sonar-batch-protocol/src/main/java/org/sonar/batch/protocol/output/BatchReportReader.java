@@ -19,53 +19,173 @@
  */
 package org.sonar.batch.protocol.output;
 
-import org.sonar.batch.protocol.ProtobufUtil;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.apache.commons.io.IOUtils;
 import org.sonar.batch.protocol.output.BatchReport.Issues;
 
+import javax.annotation.CheckForNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
-public class BatchReportReader {
+/**
+ * Reads the report generated by {@link BatchReportWriter}, either from the directory or directly
+ * from the zip file uploaded by batch. In the latter case entries are inflated on demand, without
+ * extracting the report on disk.
+ */
+public class BatchReportReader implements Closeable {
 
-  private final FileStructure fileStructure;
+  private final Entries entries;
 
   public BatchReportReader(File dir) {
-    this.fileStructure = new FileStructure(dir);
+    this.entries = new DirectoryEntries(new FileStructure(dir));
+  }
+
+  private BatchReportReader(Entries entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Reads the report from the zip file, whose entries are the files of {@link FileStructure}.
+   * The reader must be closed in order to release the zip file.
+   */
+  public static BatchReportReader fromZip(File zipFile) {
+    try {
+      return new BatchReportReader(new ZipEntries(new ZipFile(zipFile)));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to open zipped analysis report: " + zipFile, e);
+    }
   }
 
   public BatchReport.Metadata readMetadata() {
-    File file = fileStructure.metadataFile();
-    if (!file.exists() || !file.isFile()) {
-      throw new IllegalStateException("Metadata file is missing in analysis report: " + file);
+    String name = FileStructure.metadataFileName();
+    BatchReport.Metadata metadata = read(name, BatchReport.Metadata.PARSER);
+    if (metadata == null) {
+      throw new IllegalStateException("Metadata file is missing in analysis report: " + entries.describe(name));
     }
-    return ProtobufUtil.readFile(file, BatchReport.Metadata.PARSER);
+    return metadata;
   }
 
   public BatchReport.Component readComponent(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COMPONENT, componentRef);
-    if (!file.exists() || !file.isFile()) {
-      throw new IllegalStateException("Unable to find report for component #" + componentRef + ". File does not exist: " + file);
+    String name = FileStructure.fileNameFor(FileStructure.Domain.COMPONENT, componentRef);
+    BatchReport.Component component = read(name, BatchReport.Component.PARSER);
+    if (component == null) {
+      throw new IllegalStateException("Unable to find report for component #" + componentRef + ". File does not exist: " + entries.describe(name));
     }
-    return ProtobufUtil.readFile(file, BatchReport.Component.PARSER);
+    return component;
   }
 
   public List<BatchReport.Issue> readComponentIssues(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.ISSUES, componentRef);
-    if (file.exists() && file.isFile()) {
-      // all the issues are loaded in memory
-      BatchReport.Issues issues = ProtobufUtil.readFile(file, BatchReport.Issues.PARSER);
+    // all the issues are loaded in memory
+    BatchReport.Issues issues = read(FileStructure.fileNameFor(FileStructure.Domain.ISSUES, componentRef), BatchReport.Issues.PARSER);
+    if (issues != null) {
       return issues.getIssueList();
     }
     return Collections.emptyList();
   }
 
   public Issues readDeletedComponentIssues(int deletedComponentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.ISSUES_ON_DELETED, deletedComponentRef);
-    if (!file.exists() || !file.isFile()) {
+    // all the issues are loaded in memory
+    Issues issues = read(FileStructure.fileNameFor(FileStructure.Domain.ISSUES_ON_DELETED, deletedComponentRef), Issues.PARSER);
+    if (issues == null) {
       throw new IllegalStateException("Unable to find report for deleted component #" + deletedComponentRef);
     }
-    // all the issues are loaded in memory
-    return ProtobufUtil.readFile(file, Issues.PARSER);
+    return issues;
+  }
+
+  @Override
+  public void close() {
+    entries.close();
+  }
+
+  /**
+   * @return null if the entry does not exist
+   */
+  @CheckForNull
+  private <T extends Message> T read(String name, Parser<T> parser) {
+    InputStream input = null;
+    try {
+      input = entries.open(name);
+      return input == null ? null : parser.parseFrom(input);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read file: " + entries.describe(name), e);
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  private interface Entries {
+    /**
+     * @return null if the entry does not exist
+     */
+    @CheckForNull
+    InputStream open(String name) throws IOException;
+
+    String describe(String name);
+
+    void close();
+  }
+
+  private static class DirectoryEntries implements Entries {
+    private final FileStructure fileStructure;
+
+    DirectoryEntries(FileStructure fileStructure) {
+      this.fileStructure = fileStructure;
+    }
+
+    @Override
+    public InputStream open(String name) throws IOException {
+      File file = fileStructure.fileNamed(name);
+      if (!file.exists() || !file.isFile()) {
+        return null;
+      }
+      return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public String describe(String name) {
+      return fileStructure.fileNamed(name).toString();
+    }
+
+    @Override
+    public void close() {
+      // nothing to release
+    }
+  }
+
+  private static class ZipEntries implements Entries {
+    private final ZipFile zipFile;
+
+    ZipEntries(ZipFile zipFile) {
+      this.zipFile = zipFile;
+    }
+
+    @Override
+    public InputStream open(String name) throws IOException {
+      ZipEntry entry = zipFile.getEntry(name);
+      if (entry == null || entry.isDirectory()) {
+        return null;
+      }
+      return new BufferedInputStream(zipFile.getInputStream(entry));
+    }
+
+    @Override
+    public String describe(String name) {
+      return zipFile.getName() + "!" + name;
+    }
+
+    @Override
+    public void close() {
+      IOUtils.closeQuietly(zipFile);
+    }
   }
 }
@@ -46,11 +46,29 @@ public class FileStructure {
   }
 
   public File metadataFile() {
-    return new File(dir, "metadata.pb");
+    return new File(dir, metadataFileName());
   }
 
   public File fileFor(Domain domain, int componentRef) {
-    return new File(dir, domain.filePrefix + componentRef + ".pb");
+    return new File(dir, fileNameFor(domain, componentRef));
+  }
+
+  File fileNamed(String name) {
+    return new File(dir, name);
+  }
+
+  /**
+   * Name of the metadata file, relative to the root of report. It is also the name of the entry in the zipped report.
+   */
+  public static String metadataFileName() {
+    return "metadata.pb";
+  }
+
+  /**
+   * Name of the file, relative to the root of report. It is also the name of the entry in the zipped report.
+   */
+  public static String fileNameFor(Domain domain, int componentRef) {
+    return domain.filePrefix + componentRef + ".pb";
   }
 
 }
@@ -19,6 +19,7 @@
  */
 package org.sonar.batch.protocol.output;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -26,9 +27,14 @@ import org.sonar.batch.protocol.output.BatchReport.Issues;
 import org.sonar.batch.protocol.output.BatchReport.Metadata;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class BatchReportReaderTest {
 
@@ -53,6 +59,54 @@ public class BatchReportReaderTest {
     assertThat(deletedComponentIssues.getIssueList()).hasSize(1);
   }
 
+  @Test
+  public void read_zipped_report() throws Exception {
+    File dir = temp.newFolder();
+    initFiles(dir);
+    File zip = zip(dir);
+
+    BatchReportReader reader = BatchReportReader.fromZip(zip);
+    try {
+      assertThat(reader.readMetadata().getAnalysisDate()).isEqualTo(15000000L);
+      assertThat(reader.readComponentIssues(1)).hasSize(1);
+      assertThat(reader.readComponentIssues(200)).isEmpty();
+      assertThat(reader.readComponent(1).getUuid()).isEqualTo("UUID_A");
+      assertThat(reader.readDeletedComponentIssues(1).getIssueList()).hasSize(1);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void fail_if_missing_component_in_zipped_report() throws Exception {
+    File dir = temp.newFolder();
+    initFiles(dir);
+    File zip = zip(dir);
+
+    BatchReportReader reader = BatchReportReader.fromZip(zip);
+    try {
+      reader.readComponent(666);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Unable to find report for component #666. File does not exist: " + zip.getAbsolutePath() + "!component-666.pb");
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void fail_if_invalid_zip() throws Exception {
+    File zip = temp.newFile();
+    FileUtils.write(zip, "not a zip");
+
+    try {
+      BatchReportReader.fromZip(zip);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Fail to open zipped analysis report: " + zip);
+    }
+  }
+
   @Test(expected = IllegalStateException.class)
   public void fail_if_missing_metadata_file() throws Exception {
     File dir = temp.newFolder();
@@ -88,6 +142,18 @@ public class BatchReportReaderTest {
     assertThat(reader.readComponentIssues(666)).isEmpty();
   }
 
+  private File zip(File dir) throws IOException {
+    File zip = temp.newFile();
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      for (File file : dir.listFiles()) {
+        out.putNextEntry(new ZipEntry(file.getName()));
+        FileUtils.copyFile(file, out);
+        out.closeEntry();
+      }
+    }
+    return zip;
+  }
+
   private void initFiles(File dir) {
     BatchReportWriter writer = new BatchReportWriter(dir);
 
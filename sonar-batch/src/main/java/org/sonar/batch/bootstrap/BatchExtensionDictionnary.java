@@ -37,6 +37,7 @@ import org.sonar.api.utils.dag.DirectAcyclicGraph;
 import org.sonar.batch.scan.SensorWrapper;
 import org.sonar.batch.sensor.AnalyzerOptimizer;
 import org.sonar.batch.sensor.DefaultSensorContext;
+import org.sonar.batch.sensor.PerFileSensorExecutor;
 
 import javax.annotation.Nullable;
 
@@ -57,11 +58,14 @@ public class BatchExtensionDictionnary {
   private final ComponentContainer componentContainer;
   private final SensorContext context;
   private final AnalyzerOptimizer analyzerOptimizer;
+  private final PerFileSensorExecutor perFileSensorExecutor;
 
-  public BatchExtensionDictionnary(ComponentContainer componentContainer, DefaultSensorContext context, AnalyzerOptimizer analyzerOptimizer) {
+  public BatchExtensionDictionnary(ComponentContainer componentContainer, DefaultSensorContext context, AnalyzerOptimizer analyzerOptimizer,
+    PerFileSensorExecutor perFileSensorExecutor) {
     this.componentContainer = componentContainer;
     this.context = context;
     this.analyzerOptimizer = analyzerOptimizer;
+    this.perFileSensorExecutor = perFileSensorExecutor;
   }
 
   public <T> Collection<T> select(Class<T> type, @Nullable Project project, boolean sort, @Nullable ExtensionMatcher matcher) {
@@ -90,7 +94,7 @@ public class BatchExtensionDictionnary {
     List<T> result = Lists.newArrayList();
     for (Object extension : getExtensions(type)) {
       if (org.sonar.api.batch.Sensor.class.equals(type) && extension instanceof Sensor) {
-        extension = new SensorWrapper((Sensor) extension, context, analyzerOptimizer);
+        extension = new SensorWrapper((Sensor) extension, context, analyzerOptimizer, perFileSensorExecutor);
       }
       if (shouldKeep(type, extension, project, matcher)) {
         result.add((T) extension);
@@ -99,7 +103,7 @@ public class BatchExtensionDictionnary {
     if (org.sonar.api.batch.Sensor.class.equals(type)) {
       // Retrieve new Sensors and wrap then in SensorWrapper
       for (Object extension : getExtensions(Sensor.class)) {
-        extension = new SensorWrapper((Sensor) extension, context, analyzerOptimizer);
+        extension = new SensorWrapper((Sensor) extension, context, analyzerOptimizer, perFileSensorExecutor);
         if (shouldKeep(type, extension, project, matcher)) {
           result.add((T) extension);
         }
@@ -94,7 +94,8 @@ public class GlobalContainer extends ComponentContainer {
       System2.INSTANCE,
       DefaultI18n.class,
       new GlobalRepositoriesProvider(),
-      UserRepository.class);
+      UserRepository.class,
+      ActiveRulesCache.class);
     if (getComponentByType(PluginsRepository.class) == null) {
       add(DefaultPluginsRepository.class);
     }
@@ -0,0 +1,280 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchComponent;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.config.Settings;
+import org.sonar.api.platform.PluginMetadata;
+import org.sonar.api.platform.PluginRepository;
+import org.sonar.batch.scan.filesystem.InputFileMetadata;
+import org.sonar.batch.scan.filesystem.InputPathCache;
+import org.sonar.home.cache.FileCache;
+
+import javax.annotation.CheckForNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Local cache of results computed on files, stored in the user cache (see {@link FileCache}) in order
+ * to be reused by next analyses. Entries are keyed by the hash of file content and by a fingerprint
+ * of everything else that may change results: installed plugins, active rules and module settings,
+ * except the ones that change on each analysis without impact on results (see {@link #IGNORED_PROPERTIES}).
+ * Only the entries of the last {@link #MAX_FINGERPRINTS} fingerprints are kept and, for a given fingerprint,
+ * only the entry of the last content of each file.
+ * Storage is best effort: I/O errors are logged and entries are considered as missing.
+ */
+public class AnalysisCache implements BatchComponent {
+
+  /**
+   * Set to true to ignore and not update the cache.
+   */
+  public static final String DISABLED_PROPERTY = "sonar.analysisCache.disabled";
+
+  private static final Logger LOG = LoggerFactory.getLogger(AnalysisCache.class);
+
+  /**
+   * To be incremented when the format of entries changes
+   */
+  private static final String FORMAT_VERSION = "2";
+
+  /**
+   * Number of fingerprints whose entries are kept in the cache. Entries of older fingerprints are deleted.
+   */
+  @VisibleForTesting
+  static final int MAX_FINGERPRINTS = 10;
+
+  /**
+   * Properties that are set by server, runner or build at each analysis and that do not change results.
+   * They are not part of the fingerprint.
+   */
+  private static final Set<String> IGNORED_PROPERTIES = ImmutableSet.of(
+    CoreProperties.SERVER_STARTTIME,
+    CoreProperties.SERVER_ID,
+    CoreProperties.SERVER_BASE_URL,
+    CoreProperties.PROJECT_VERSION_PROPERTY,
+    CoreProperties.PROJECT_DATE_PROPERTY,
+    CoreProperties.LOGIN,
+    CoreProperties.PASSWORD,
+    CoreProperties.WORKING_DIRECTORY,
+    "sonar.host.url",
+    "sonar.buildString",
+    DISABLED_PROPERTY);
+  private static final List<String> IGNORED_PROPERTY_PREFIXES = Arrays.asList("sonar.jdbc.", "sonar.runner.");
+
+  private final Settings settings;
+  private final FileCache fileCache;
+  private final ActiveRules activeRules;
+  private final PluginRepository pluginRepository;
+  private final InputPathCache inputPathCache;
+  private File dir;
+
+  public AnalysisCache(Settings settings, FileCache fileCache, ActiveRules activeRules, PluginRepository pluginRepository, InputPathCache inputPathCache) {
+    this.settings = settings;
+    this.fileCache = fileCache;
+    this.activeRules = activeRules;
+    this.pluginRepository = pluginRepository;
+    this.inputPathCache = inputPathCache;
+  }
+
+  public boolean isEnabled() {
+    return !settings.getBoolean(DISABLED_PROPERTY);
+  }
+
+  /**
+   * Data previously stored by {@link #put(InputFile, String, byte[])} for the same content of file,
+   * or null if missing.
+   */
+  @CheckForNull
+  public byte[] get(InputFile inputFile, String namespace) {
+    File file = entry(inputFile, namespace);
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+    try {
+      return FileUtils.readFileToByteArray(file);
+    } catch (IOException e) {
+      LOG.debug("Fail to read analysis cache entry " + file, e);
+      return null;
+    }
+  }
+
+  public void put(InputFile inputFile, String namespace, byte[] data) {
+    File file = entry(inputFile, namespace);
+    if (file == null) {
+      return;
+    }
+    File tmp = null;
+    try {
+      FileUtils.forceMkdir(file.getParentFile());
+      // write into a temporary file then rename it, so that concurrent analyses never read partial entries
+      tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      FileUtils.writeByteArrayToFile(tmp, data);
+      if (tmp.renameTo(file)) {
+        deleteOtherContents(file);
+      } else {
+        FileUtils.deleteQuietly(tmp);
+      }
+    } catch (IOException e) {
+      LOG.debug("Fail to write analysis cache entry " + file, e);
+      FileUtils.deleteQuietly(tmp);
+    }
+  }
+
+  @CheckForNull
+  private File entry(InputFile inputFile, String namespace) {
+    if (!isEnabled()) {
+      return null;
+    }
+    InputFileMetadata metadata = inputPathCache.getFileMetadata(((DefaultInputFile) inputFile).moduleKey(), inputFile.relativePath());
+    if (metadata == null || metadata.hash() == null) {
+      return null;
+    }
+    return new File(new File(new File(dir(), namespace), DigestUtils.md5Hex(inputFile.relativePath())), metadata.hash());
+  }
+
+  /**
+   * Entries of previous contents of the file can't be used anymore, except by reverting the file.
+   * Temporary files of concurrent analyses are kept.
+   */
+  private static void deleteOtherContents(File entry) {
+    File[] siblings = entry.getParentFile().listFiles();
+    if (siblings == null) {
+      return;
+    }
+    for (File sibling : siblings) {
+      if (!sibling.equals(entry) && !sibling.getName().endsWith(".tmp")) {
+        FileUtils.deleteQuietly(sibling);
+      }
+    }
+  }
+
+  private synchronized File dir() {
+    if (dir == null) {
+      File root = new File(fileCache.getDir(), "analysis");
+      dir = new File(root, fingerprint(settings, activeRules, pluginRepository.getMetadata()));
+      purge(root, dir);
+    }
+    return dir;
+  }
+
+  /**
+   * Marks the directory of the current fingerprint as the most recently used one, then deletes
+   * the directories of the fingerprints that are not part of the {@link #MAX_FINGERPRINTS} last used.
+   */
+  private static void purge(File root, File current) {
+    try {
+      FileUtils.forceMkdir(current);
+      if (!current.setLastModified(System.currentTimeMillis())) {
+        LOG.debug("Fail to touch analysis cache directory " + current);
+      }
+    } catch (IOException e) {
+      LOG.debug("Fail to create analysis cache directory " + current, e);
+      return;
+    }
+    File[] fingerprintDirs = root.listFiles();
+    if (fingerprintDirs == null || fingerprintDirs.length <= MAX_FINGERPRINTS) {
+      return;
+    }
+    List<File> lastUsedFirst = Ordering.from(new LastModifiedComparator()).reverse().sortedCopy(Arrays.asList(fingerprintDirs));
+    for (File obsolete : lastUsedFirst.subList(MAX_FINGERPRINTS, lastUsedFirst.size())) {
+      if (!obsolete.equals(current)) {
+        FileUtils.deleteQuietly(obsolete);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static String fingerprint(Settings settings, ActiveRules activeRules, Collection<PluginMetadata> plugins) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(FORMAT_VERSION).append('\n');
+    for (PluginMetadata plugin : Ordering.from(new PluginComparator()).sortedCopy(plugins)) {
+      sb.append(plugin.getKey()).append(':').append(plugin.getVersion());
+      File file = plugin.getFile();
+      if (file != null) {
+        // snapshot versions can be rebuilt without changing version
+        sb.append(':').append(file).append(':').append(file.length()).append(':').append(file.lastModified());
+      }
+      sb.append('\n');
+    }
+    for (ActiveRule activeRule : Ordering.from(new ActiveRuleComparator()).sortedCopy(activeRules.findAll())) {
+      sb.append(activeRule.ruleKey()).append(':').append(activeRule.severity()).append(':').append(activeRule.internalKey())
+        .append(':').append(new TreeMap<>(activeRule.params())).append('\n');
+    }
+    for (Map.Entry<String, String> property : new TreeMap<>(settings.getProperties()).entrySet()) {
+      if (!isIgnored(property.getKey())) {
+        sb.append(property.getKey()).append('=').append(property.getValue()).append('\n');
+      }
+    }
+    return DigestUtils.md5Hex(sb.toString());
+  }
+
+  private static boolean isIgnored(String propertyKey) {
+    if (IGNORED_PROPERTIES.contains(propertyKey)) {
+      return true;
+    }
+    for (String prefix : IGNORED_PROPERTY_PREFIXES) {
+      if (propertyKey.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class PluginComparator implements Comparator<PluginMetadata> {
+    @Override
+    public int compare(PluginMetadata o1, PluginMetadata o2) {
+      return o1.getKey().compareTo(o2.getKey());
+    }
+  }
+
+  private static class LastModifiedComparator implements Comparator<File> {
+    @Override
+    public int compare(File o1, File o2) {
+      return Long.compare(o1.lastModified(), o2.lastModified());
+    }
+  }
+
+  private static class ActiveRuleComparator implements Comparator<ActiveRule> {
+    @Override
+    public int compare(ActiveRule o1, ActiveRule o2) {
+      return o1.ruleKey().toString().compareTo(o2.ruleKey().toString());
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd;
+
+import com.google.common.collect.Lists;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+
+import javax.annotation.CheckForNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Binary format of the blocks of a file, as stored in {@link org.sonar.batch.cache.AnalysisCache}.
+ * Resource id is not stored as it changes with the location of file.
+ */
+class CachedBlocks {
+
+  private CachedBlocks() {
+    // only static methods
+  }
+
+  static byte[] write(List<Block> blocks) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(blocks.size());
+      for (Block block : blocks) {
+        byte[] hash = block.getBlockHash().getBytes();
+        out.writeInt(hash.length);
+        out.write(hash);
+        out.writeInt(block.getIndexInFile());
+        out.writeInt(block.getStartLine());
+        out.writeInt(block.getEndLine());
+        out.writeInt(block.getStartUnit());
+        out.writeInt(block.getEndUnit());
+      }
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to write duplication blocks", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return null if data is corrupted
+   */
+  @CheckForNull
+  static List<Block> read(byte[] data, String resourceId) {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    try {
+      int size = in.readInt();
+      List<Block> blocks = Lists.newArrayListWithCapacity(size);
+      Block.Builder builder = Block.builder().setResourceId(resourceId);
+      for (int i = 0; i < size; i++) {
+        byte[] hash = new byte[in.readInt()];
+        in.readFully(hash);
+        builder.setBlockHash(new ByteArray(hash)).setIndexInFile(in.readInt());
+        int startLine = in.readInt();
+        builder.setLines(startLine, in.readInt());
+        int startUnit = in.readInt();
+        builder.setUnit(startUnit, in.readInt());
+        blocks.add(builder.build());
+      }
+      return blocks;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -22,9 +22,21 @@ package org.sonar.batch.cpd;
 import org.slf4j.Logger;
 import org.sonar.api.BatchExtension;
 import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.config.Settings;
+import org.sonar.core.config.SettingsUtils;
 
 public abstract class CpdEngine implements BatchExtension {
 
+  /**
+   * Number of threads used to tokenize files and to detect duplications. Default is the number of processors.
+   */
+  public static final String THREADS_PROPERTY = "sonar.cpd.threads";
+
+  /**
+   * Limit of time to analyse one file (in seconds).
+   */
+  static final int TIMEOUT = 5 * 60;
+
   abstract boolean isLanguageSupported(String language);
 
   abstract void analyse(String language, SensorContext context);
@@ -41,6 +53,10 @@ public abstract class CpdEngine implements BatchExtension {
     }
   }
 
+  protected int getThreads(Settings settings) {
+    return SettingsUtils.getPositiveInt(settings, THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+  }
+
   @Override
   public String toString() {
     return getClass().getSimpleName();
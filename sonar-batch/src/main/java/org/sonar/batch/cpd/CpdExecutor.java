@@ -0,0 +1,158 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.SonarException;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executes a task on each file on a pool of threads. Results are handled by the calling thread,
+ * in the order of files, so that the index and the sensor context are never accessed concurrently.
+ * The number of files being processed is bounded in order to limit memory consumption.
+ * <p/>
+ * A task that times out is cancelled by interrupting its thread, so that it is released for the next files.
+ * That's why a {@link java.util.concurrent.ThreadPoolExecutor} is used rather than a fork-join pool,
+ * whose tasks ignore interruptions.
+ */
+class CpdExecutor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CpdExecutor.class);
+
+  interface FileTask<T> {
+    T execute(InputFile inputFile);
+  }
+
+  interface ResultHandler<T> {
+    /**
+     * @param result null if the task did not complete before timeout
+     */
+    void handle(InputFile inputFile, @Nullable T result);
+  }
+
+  private final int threads;
+  private final long timeoutMs;
+
+  /**
+   * @param timeoutMs limit of time to process one file. Zero means no limit.
+   */
+  CpdExecutor(int threads, long timeoutMs) {
+    this.threads = threads;
+    this.timeoutMs = timeoutMs;
+  }
+
+  /**
+   * @param taskDescription used in logs and error messages, for example "detection of duplications for "
+   */
+  <T> void execute(List<InputFile> inputFiles, final FileTask<T> task, ResultHandler<T> handler, String taskDescription) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    // with a single thread, files are strictly processed one after the other
+    int maxPendingTasks = threads == 1 ? 1 : 2 * threads;
+    Deque<PendingTask<T>> pendingTasks = new ArrayDeque<>();
+    try {
+      for (InputFile inputFile : inputFiles) {
+        if (pendingTasks.size() >= maxPendingTasks) {
+          complete(pendingTasks.poll(), handler, taskDescription);
+        }
+        pendingTasks.add(submit(pool, inputFile, task));
+      }
+      while (!pendingTasks.isEmpty()) {
+        complete(pendingTasks.poll(), handler, taskDescription);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static <T> PendingTask<T> submit(ExecutorService pool, final InputFile inputFile, final FileTask<T> task) {
+    final PendingTask<T> pendingTask = new PendingTask<>(inputFile);
+    pendingTask.future = pool.submit(new Callable<T>() {
+      @Override
+      public T call() {
+        pendingTask.startedAt = System.currentTimeMillis();
+        return task.execute(inputFile);
+      }
+    });
+    return pendingTask;
+  }
+
+  private <T> void complete(PendingTask<T> pendingTask, ResultHandler<T> handler, String taskDescription) {
+    T result;
+    try {
+      result = await(pendingTask);
+    } catch (TimeoutException e) {
+      pendingTask.future.cancel(true);
+      result = null;
+      LOG.warn("Timeout during " + taskDescription + pendingTask.inputFile, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SonarException("Fail during " + taskDescription + pendingTask.inputFile, e);
+    } catch (ExecutionException e) {
+      throw new SonarException("Fail during " + taskDescription + pendingTask.inputFile, e.getCause());
+    }
+    handler.handle(pendingTask.inputFile, result);
+  }
+
+  /**
+   * The timeout is counted from the start of the task, not from its submission, as tasks
+   * can wait for a free thread.
+   */
+  private <T> T await(PendingTask<T> pendingTask) throws InterruptedException, ExecutionException, TimeoutException {
+    if (timeoutMs <= 0L) {
+      return pendingTask.future.get();
+    }
+    while (true) {
+      long startedAt = pendingTask.startedAt;
+      long remainingMs = startedAt == 0L ? timeoutMs : (startedAt + timeoutMs - System.currentTimeMillis());
+      if (remainingMs <= 0L && !pendingTask.future.isDone()) {
+        throw new TimeoutException();
+      }
+      try {
+        return pendingTask.future.get(Math.max(remainingMs, 1L), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // task was not started yet or is still running, check again its start date
+      }
+    }
+  }
+
+  private static class PendingTask<T> {
+    private final InputFile inputFile;
+    private volatile long startedAt = 0L;
+    private Future<T> future;
+
+    PendingTask(InputFile inputFile) {
+      this.inputFile = inputFile;
+    }
+  }
+}
@@ -34,7 +34,6 @@ import org.sonar.api.batch.fs.internal.DeprecatedDefaultInputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
-import org.sonar.api.utils.SonarException;
 import org.sonar.batch.cpd.index.IndexFactory;
 import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
 import org.sonar.duplications.DuplicationPredicates;
@@ -46,21 +45,12 @@ import javax.annotation.Nullable;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 public class DefaultCpdEngine extends CpdEngine {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultCpdEngine.class);
 
-  /**
-   * Limit of time to analyse one file (in seconds).
-   */
-  private static final int TIMEOUT = 5 * 60;
-
   private final IndexFactory indexFactory;
   private final CpdMappings mappings;
   private final FileSystem fs;
@@ -112,34 +102,31 @@ public class DefaultCpdEngine extends CpdEngine {
     runCpdAnalysis(languageKey, context, sourceFiles, index);
   }
 
-  private void runCpdAnalysis(String languageKey, SensorContext context, List<InputFile> sourceFiles, SonarDuplicationsIndex index) {
-    Predicate<CloneGroup> minimumTokensPredicate = DuplicationPredicates.numberOfUnitsNotLessThan(getMinimumTokens(languageKey));
+  private void runCpdAnalysis(String languageKey, final SensorContext context, List<InputFile> sourceFiles, final SonarDuplicationsIndex index) {
+    final Predicate<CloneGroup> minimumTokensPredicate = DuplicationPredicates.numberOfUnitsNotLessThan(getMinimumTokens(languageKey));
 
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
-    try {
-      for (InputFile inputFile : sourceFiles) {
+    int threads = index.supportsConcurrentReads() ? getThreads(settings) : 1;
+    new CpdExecutor(threads, TimeUnit.SECONDS.toMillis(TIMEOUT)).execute(sourceFiles, new CpdExecutor.FileTask<List<CloneGroup>>() {
+      @Override
+      public List<CloneGroup> execute(InputFile inputFile) {
         LOG.debug("Detection of duplications for {}", inputFile);
         String resourceEffectiveKey = ((DeprecatedDefaultInputFile) inputFile).key();
         Collection<Block> fileBlocks = index.getByInputFile(inputFile, resourceEffectiveKey);
-
-        Iterable<CloneGroup> filtered;
-        try {
-          List<CloneGroup> duplications = executorService.submit(new JavaCpdEngine.Task(index, fileBlocks)).get(TIMEOUT, TimeUnit.SECONDS);
-          filtered = Iterables.filter(duplications, minimumTokensPredicate);
-        } catch (TimeoutException e) {
-          filtered = null;
-          LOG.warn("Timeout during detection of duplications for " + inputFile, e);
-        } catch (InterruptedException | ExecutionException e) {
-          throw new SonarException("Fail during detection of duplication for " + inputFile, e);
-        }
-
+        return new JavaCpdEngine.Task(index, fileBlocks).call();
+      }
+    }, new CpdExecutor.ResultHandler<List<CloneGroup>>() {
+      @Override
+      public void handle(InputFile inputFile, @Nullable List<CloneGroup> duplications) {
+        Iterable<CloneGroup> filtered = duplications == null ? null : Iterables.filter(duplications, minimumTokensPredicate);
         JavaCpdEngine.save(context, inputFile, filtered);
       }
-    } finally {
-      executorService.shutdown();
-    }
+    }, "detection of duplications for ");
   }
 
+  /**
+   * Tokenizers provided by plugins are not guaranteed to be thread-safe, so files are tokenized
+   * sequentially.
+   */
   private void populateIndex(String languageKey, List<InputFile> sourceFiles, CpdMapping mapping, SonarDuplicationsIndex index) {
     TokenizerBridge bridge = new TokenizerBridge(mapping.getTokenizer(), fs.encoding().name(), getBlockSize(languageKey));
     for (InputFile inputFile : sourceFiles) {
@@ -39,6 +39,7 @@ import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.resources.Project;
 import org.sonar.api.utils.KeyValueFormat;
 import org.sonar.api.utils.SonarException;
+import org.sonar.batch.cache.AnalysisCache;
 import org.sonar.batch.cpd.index.IndexFactory;
 import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
 import org.sonar.duplications.block.Block;
@@ -66,11 +67,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 public class JavaCpdEngine extends CpdEngine {
 
@@ -78,10 +75,7 @@ public class JavaCpdEngine extends CpdEngine {
 
   private static final int BLOCK_SIZE = 10;
 
-  /**
-   * Limit of time to analyse one file (in seconds).
-   */
-  private static final int TIMEOUT = 5 * 60;
+  private static final String CACHE_NAMESPACE = "cpd-java-" + BLOCK_SIZE;
 
   private static final int MAX_CLONE_GROUP_PER_FILE = 100;
   private static final int MAX_CLONE_PART_PER_GROUP = 100;
@@ -90,16 +84,18 @@ public class JavaCpdEngine extends CpdEngine {
   private final FileSystem fs;
   private final Settings settings;
   private final Project project;
+  private final AnalysisCache analysisCache;
 
-  public JavaCpdEngine(@Nullable Project project, IndexFactory indexFactory, FileSystem fs, Settings settings) {
+  public JavaCpdEngine(@Nullable Project project, IndexFactory indexFactory, FileSystem fs, Settings settings, AnalysisCache analysisCache) {
     this.project = project;
     this.indexFactory = indexFactory;
     this.fs = fs;
     this.settings = settings;
+    this.analysisCache = analysisCache;
   }
 
-  public JavaCpdEngine(IndexFactory indexFactory, FileSystem fs, Settings settings) {
-    this(null, indexFactory, fs, settings);
+  public JavaCpdEngine(IndexFactory indexFactory, FileSystem fs, Settings settings, AnalysisCache analysisCache) {
+    this(null, indexFactory, fs, settings, analysisCache);
   }
 
   @Override
@@ -124,62 +120,83 @@ public class JavaCpdEngine extends CpdEngine {
     detect(index, context, sourceFiles);
   }
 
-  private SonarDuplicationsIndex createIndex(@Nullable Project project, String language, Iterable<InputFile> sourceFiles) {
+  private SonarDuplicationsIndex createIndex(@Nullable Project project, String language, List<InputFile> sourceFiles) {
     final SonarDuplicationsIndex index = indexFactory.create(project, language);
 
-    TokenChunker tokenChunker = JavaTokenProducer.build();
-    StatementChunker statementChunker = JavaStatementBuilder.build();
-    BlockChunker blockChunker = new BlockChunker(BLOCK_SIZE);
+    // chunkers are not thread-safe
+    final ThreadLocal<Chunkers> chunkers = new ThreadLocal<Chunkers>() {
+      @Override
+      protected Chunkers initialValue() {
+        return new Chunkers();
+      }
+    };
 
-    for (InputFile inputFile : sourceFiles) {
-      LOG.debug("Populating index from {}", inputFile);
-      String resourceEffectiveKey = ((DeprecatedDefaultInputFile) inputFile).key();
+    // files are tokenized concurrently, but blocks are inserted in index by a single thread
+    new CpdExecutor(getThreads(settings), 0L).execute(sourceFiles, new CpdExecutor.FileTask<List<Block>>() {
+      @Override
+      public List<Block> execute(InputFile inputFile) {
+        return chunk(chunkers.get(), inputFile);
+      }
+    }, new CpdExecutor.ResultHandler<List<Block>>() {
+      @Override
+      public void handle(InputFile inputFile, @Nullable List<Block> blocks) {
+        index.insert(inputFile, blocks);
+      }
+    }, "tokenization of ");
+
+    return index;
+  }
 
-      List<Statement> statements;
+  private List<Block> chunk(Chunkers chunkers, InputFile inputFile) {
+    LOG.debug("Populating index from {}", inputFile);
+    String resourceEffectiveKey = ((DeprecatedDefaultInputFile) inputFile).key();
 
-      Reader reader = null;
-      try {
-        reader = new InputStreamReader(new FileInputStream(inputFile.file()), fs.encoding());
-        statements = statementChunker.chunk(tokenChunker.chunk(reader));
-      } catch (FileNotFoundException e) {
-        throw new SonarException("Cannot find file " + inputFile.file(), e);
-      } finally {
-        IOUtils.closeQuietly(reader);
+    byte[] cached = analysisCache.get(inputFile, CACHE_NAMESPACE);
+    if (cached != null) {
+      List<Block> blocks = CachedBlocks.read(cached, resourceEffectiveKey);
+      if (blocks != null) {
+        return blocks;
       }
+    }
 
-      List<Block> blocks = blockChunker.chunk(resourceEffectiveKey, statements);
-      index.insert(inputFile, blocks);
+    List<Statement> statements;
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(inputFile.file()), fs.encoding());
+      statements = chunkers.statementChunker.chunk(chunkers.tokenChunker.chunk(reader));
+    } catch (FileNotFoundException e) {
+      throw new SonarException("Cannot find file " + inputFile.file(), e);
+    } finally {
+      IOUtils.closeQuietly(reader);
     }
 
-    return index;
+    List<Block> blocks = chunkers.blockChunker.chunk(resourceEffectiveKey, statements);
+    analysisCache.put(inputFile, CACHE_NAMESPACE, CachedBlocks.write(blocks));
+    return blocks;
   }
 
-  private void detect(SonarDuplicationsIndex index, org.sonar.api.batch.sensor.SensorContext context, List<InputFile> sourceFiles) {
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
-    try {
-      for (InputFile inputFile : sourceFiles) {
+  private static class Chunkers {
+    private final TokenChunker tokenChunker = JavaTokenProducer.build();
+    private final StatementChunker statementChunker = JavaStatementBuilder.build();
+    private final BlockChunker blockChunker = new BlockChunker(BLOCK_SIZE);
+  }
+
+  private void detect(final SonarDuplicationsIndex index, final SensorContext context, List<InputFile> sourceFiles) {
+    int threads = index.supportsConcurrentReads() ? getThreads(settings) : 1;
+    new CpdExecutor(threads, TimeUnit.SECONDS.toMillis(TIMEOUT)).execute(sourceFiles, new CpdExecutor.FileTask<List<CloneGroup>>() {
+      @Override
+      public List<CloneGroup> execute(InputFile inputFile) {
         LOG.debug("Detection of duplications for {}", inputFile);
         String resourceEffectiveKey = ((DeprecatedDefaultInputFile) inputFile).key();
-
         Collection<Block> fileBlocks = index.getByInputFile(inputFile, resourceEffectiveKey);
-
-        List<CloneGroup> clones;
-        try {
-          clones = executorService.submit(new Task(index, fileBlocks)).get(TIMEOUT, TimeUnit.SECONDS);
-        } catch (TimeoutException e) {
-          clones = null;
-          LOG.warn("Timeout during detection of duplications for " + inputFile, e);
-        } catch (InterruptedException e) {
-          throw new SonarException("Fail during detection of duplication for " + inputFile, e);
-        } catch (ExecutionException e) {
-          throw new SonarException("Fail during detection of duplication for " + inputFile, e);
-        }
-
+        return new Task(index, fileBlocks).call();
+      }
+    }, new CpdExecutor.ResultHandler<List<CloneGroup>>() {
+      @Override
+      public void handle(InputFile inputFile, @Nullable List<CloneGroup> clones) {
         save(context, inputFile, clones);
       }
-    } finally {
-      executorService.shutdown();
-    }
+    }, "detection of duplications for ");
   }
 
   static class Task implements Callable<List<CloneGroup>> {
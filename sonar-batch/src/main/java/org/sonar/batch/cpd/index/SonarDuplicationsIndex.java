@@ -52,6 +52,14 @@ public class SonarDuplicationsIndex extends AbstractCloneIndex {
     }
   }
 
+  /**
+   * Files can be queried concurrently only when the index is in memory. Cross-project index
+   * caches the blocks loaded from database for the file being queried.
+   */
+  public boolean supportsConcurrentReads() {
+    return db == null;
+  }
+
   public Collection<Block> getByInputFile(InputFile inputFile, String resourceKey) {
     if (db != null) {
       db.prepareCache(inputFile);
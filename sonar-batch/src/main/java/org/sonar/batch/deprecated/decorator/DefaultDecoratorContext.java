@@ -41,6 +41,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Context of the decoration of a resource. Calls to the shared {@link SonarIndex} are synchronized on it,
+ * as resources can be decorated concurrently (see {@link org.sonar.batch.phases.DecoratorsExecutor#THREADS_PROPERTY}).
+ */
 public class DefaultDecoratorContext implements DecoratorContext {
 
   private static final String SAVE_MEASURE_METHOD = "saveMeasure";
@@ -87,7 +91,9 @@ public class DefaultDecoratorContext implements DecoratorContext {
 
   @Override
   public Project getProject() {
-    return sonarIndex.getProject();
+    synchronized (sonarIndex) {
+      return sonarIndex.getProject();
+    }
   }
 
   @Override
@@ -197,22 +203,30 @@ public class DefaultDecoratorContext implements DecoratorContext {
   @Override
   public Dependency saveDependency(Dependency dependency) {
     checkReadOnly("addDependency");
-    return sonarIndex.addDependency(dependency);
+    synchronized (sonarIndex) {
+      return sonarIndex.addDependency(dependency);
+    }
   }
 
   @Override
   public Set<Dependency> getDependencies() {
-    return sonarIndex.getDependencies();
+    synchronized (sonarIndex) {
+      return sonarIndex.getDependencies();
+    }
   }
 
   @Override
   public Collection<Dependency> getIncomingDependencies() {
-    return sonarIndex.getIncomingEdges(resource);
+    synchronized (sonarIndex) {
+      return sonarIndex.getIncomingEdges(resource);
+    }
   }
 
   @Override
   public Collection<Dependency> getOutgoingDependencies() {
-    return sonarIndex.getOutgoingEdges(resource);
+    synchronized (sonarIndex) {
+      return sonarIndex.getOutgoingEdges(resource);
+    }
   }
 
   @Override
@@ -220,7 +234,9 @@ public class DefaultDecoratorContext implements DecoratorContext {
     if (violation.getResource() == null) {
       violation.setResource(resource);
     }
-    sonarIndex.addViolation(violation, force);
+    synchronized (sonarIndex) {
+      sonarIndex.addViolation(violation, force);
+    }
     return this;
   }
 
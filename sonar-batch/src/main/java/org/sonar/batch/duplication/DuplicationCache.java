@@ -26,13 +26,15 @@ import org.sonar.api.batch.sensor.duplication.internal.DefaultDuplication;
 import org.sonar.batch.index.Cache;
 import org.sonar.batch.index.Caches;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Cache of duplication blocks. This cache is shared amongst all project modules.
  */
 public class DuplicationCache implements BatchComponent {
 
   private final Cache<DefaultDuplication> cache;
-  private int sequence = 1;
+  private final AtomicInteger sequence = new AtomicInteger(1);
 
   public DuplicationCache(Caches caches) {
     caches.registerValueCoder(DefaultDuplication.class, new DefaultDuplicationValueCoder());
@@ -53,8 +55,7 @@ public class DuplicationCache implements BatchComponent {
   }
 
   public DuplicationCache put(String effectiveKey, DefaultDuplication duplication) {
-    cache.put(effectiveKey, sequence, duplication);
-    sequence++;
+    cache.put(effectiveKey, sequence.getAndIncrement(), duplication);
     return this;
   }
 
@@ -19,45 +19,94 @@
  */
 package org.sonar.batch.index;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
-import com.persistit.Exchange;
 import com.persistit.Persistit;
-import com.persistit.Value;
 import com.persistit.Volume;
 import com.persistit.encoding.CoderManager;
 import com.persistit.encoding.ValueCoder;
 import com.persistit.exception.PersistitException;
 import com.persistit.logging.Slf4jAdapter;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.picocontainer.Startable;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.BatchComponent;
+import org.sonar.api.config.Settings;
 import org.sonar.api.utils.TempFolder;
+import org.sonar.core.config.SettingsUtils;
 
 import java.io.File;
 import java.util.Properties;
 import java.util.Set;
 
 /**
- * Factory of caches
+ * Factory of caches. Two backends are supported :
+ * <ul>
+ *   <li>"persistit" (default) stores values on disk, with a buffer pool sized from available heap</li>
+ *   <li>"memory" keeps values in heap. It is faster but is reserved to small and medium projects.</li>
+ * </ul>
  *
  * @since 3.6
  */
 public class Caches implements BatchComponent, Startable {
 
+  public static final String PROPERTY_BACKEND = "sonar.batch.cache.backend";
+  public static final String PERSISTIT_BACKEND = "persistit";
+  public static final String MEMORY_BACKEND = "memory";
+
+  /**
+   * Size in Mb of the Persistit buffer pool. By default 5% of max heap, between 2Mb and 64Mb.
+   */
+  public static final String PROPERTY_BUFFER_MEMORY_MB = "sonar.batch.cache.bufferMemoryMb";
+
+  private static final int PAGE_SIZE = 8192;
+  private static final int MIN_BUFFER_COUNT = 10;
+  private static final long MIN_DEFAULT_BUFFER_MEMORY = 2L * 1024 * 1024;
+  private static final long MAX_DEFAULT_BUFFER_MEMORY = 64L * 1024 * 1024;
+
   private final Set<String> cacheNames = Sets.newHashSet();
   private File tempDir;
   private Persistit persistit;
   private Volume volume;
   private final TempFolder tempFolder;
+  private final boolean memoryBackend;
 
-  public Caches(TempFolder tempFolder) {
+  public Caches(TempFolder tempFolder, Settings settings) {
     this.tempFolder = tempFolder;
-    initPersistit();
+    this.memoryBackend = isMemoryBackend(settings);
+    if (!memoryBackend) {
+      initPersistit(bufferCount(settings, Runtime.getRuntime().maxMemory()));
+    }
+  }
+
+  private static boolean isMemoryBackend(Settings settings) {
+    String backend = StringUtils.defaultIfBlank(settings.getString(PROPERTY_BACKEND), PERSISTIT_BACKEND);
+    if (MEMORY_BACKEND.equals(backend)) {
+      return true;
+    }
+    if (PERSISTIT_BACKEND.equals(backend)) {
+      return false;
+    }
+    throw new IllegalArgumentException(String.format("Bad value of %s: %s. Supported values are %s and %s.", PROPERTY_BACKEND, backend,
+      PERSISTIT_BACKEND, MEMORY_BACKEND));
+  }
+
+  @VisibleForTesting
+  static int bufferCount(Settings settings, long maxHeapBytes) {
+    // zero means that memory is computed from heap
+    int memoryMb = SettingsUtils.getPositiveInt(settings, PROPERTY_BUFFER_MEMORY_MB, 0);
+    long memory;
+    if (memoryMb > 0) {
+      memory = memoryMb * 1024L * 1024L;
+    } else {
+      memory = Math.min(MAX_DEFAULT_BUFFER_MEMORY, Math.max(MIN_DEFAULT_BUFFER_MEMORY, maxHeapBytes / 20));
+    }
+    return (int) Math.max(MIN_BUFFER_COUNT, memory / PAGE_SIZE);
   }
 
-  private void initPersistit() {
+  private void initPersistit(int bufferCount) {
     try {
       tempDir = tempFolder.newDir("caches");
       persistit = new Persistit();
@@ -66,7 +115,7 @@ public class Caches implements BatchComponent, Startable {
       props.setProperty("datapath", tempDir.getAbsolutePath());
       props.setProperty("logpath", "${datapath}/log");
       props.setProperty("logfile", "${logpath}/persistit_${timestamp}.log");
-      props.setProperty("buffer.count.8192", "10");
+      props.setProperty("buffer.count." + PAGE_SIZE, String.valueOf(bufferCount));
       props.setProperty("journalpath", "${datapath}/journal");
       props.setProperty("tmpvoldir", "${datapath}");
       props.setProperty("volume.1", "${datapath}/persistit,create,pageSize:8192,initialPages:10,extensionPages:100,maximumPages:25000");
@@ -79,23 +128,30 @@ public class Caches implements BatchComponent, Startable {
     }
   }
 
+  /**
+   * Coders are used only by Persistit backend, as the memory backend does not serialize values.
+   */
   public void registerValueCoder(Class<?> clazz, ValueCoder coder) {
+    if (memoryBackend) {
+      return;
+    }
     CoderManager cm = persistit.getCoderManager();
     cm.registerValueCoder(clazz, coder);
   }
 
-  public <V> Cache<V> createCache(String cacheName) {
-    Preconditions.checkState(volume != null && volume.isOpened(), "Caches are not initialized");
+  /**
+   * Created caches are thread-safe.
+   */
+  public synchronized <V> Cache<V> createCache(String cacheName) {
+    Preconditions.checkState(memoryBackend || (volume != null && volume.isOpened()), "Caches are not initialized");
     Preconditions.checkState(!cacheNames.contains(cacheName), "Cache is already created: " + cacheName);
-    try {
-      Exchange exchange = persistit.getExchange(volume, cacheName, true);
-      exchange.setMaximumValueSize(Value.MAXIMUM_SIZE);
-      Cache<V> cache = new Cache<V>(cacheName, exchange);
+    if (memoryBackend) {
       cacheNames.add(cacheName);
-      return cache;
-    } catch (Exception e) {
-      throw new IllegalStateException("Fail to create cache: " + cacheName, e);
+      return new MemoryCache<V>();
     }
+    Cache<V> cache = new PersistitCache<V>(cacheName, persistit, volume);
+    cacheNames.add(cacheName);
+    return cache;
   }
 
   @Override
@@ -104,7 +160,7 @@ public class Caches implements BatchComponent, Startable {
   }
 
   @Override
-  public void stop() {
+  public synchronized void stop() {
     if (persistit != null) {
       try {
         persistit.close(false);
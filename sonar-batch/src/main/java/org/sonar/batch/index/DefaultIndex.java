@@ -20,6 +20,8 @@
 package org.sonar.batch.index;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -53,6 +55,11 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * Its public methods are synchronized on the instance, which is the lock shared by all the writes to the index
+ * when sensors or decorators are executed concurrently. Collections are returned as copies, so that they can be
+ * iterated outside of the lock.
+ */
 public class DefaultIndex extends SonarIndex {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultIndex.class);
@@ -194,13 +201,13 @@ public class DefaultIndex extends SonarIndex {
 
   @CheckForNull
   @Override
-  public Measure getMeasure(Resource resource, org.sonar.api.batch.measure.Metric<?> metric) {
+  public synchronized Measure getMeasure(Resource resource, org.sonar.api.batch.measure.Metric<?> metric) {
     return getMeasures(resource, MeasuresFilters.metric(metric));
   }
 
   @CheckForNull
   @Override
-  public <M> M getMeasures(Resource resource, MeasuresFilter<M> filter) {
+  public synchronized <M> M getMeasures(Resource resource, MeasuresFilter<M> filter) {
     // Reload resource so that effective key is populated
     Resource indexedResource = getResource(resource);
     if (indexedResource == null) {
@@ -223,7 +230,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public Measure addMeasure(Resource resource, Measure measure) {
+  public synchronized Measure addMeasure(Resource resource, Measure measure) {
     Bucket bucket = getBucket(resource);
     if (bucket != null) {
       org.sonar.api.batch.measure.Metric metric = metricFinder.findByKey(measure.getMetricKey());
@@ -259,7 +266,7 @@ public class DefaultIndex extends SonarIndex {
   //
 
   @Override
-  public Dependency addDependency(Dependency dependency) {
+  public synchronized Dependency addDependency(Dependency dependency) {
     // Reload resources
     Resource from = getResource(dependency.getFrom());
     Preconditions.checkArgument(from != null, dependency.getFrom() + " is not indexed");
@@ -314,12 +321,12 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public Set<Dependency> getDependencies() {
-    return dependencies;
+  public synchronized Set<Dependency> getDependencies() {
+    return ImmutableSet.copyOf(dependencies);
   }
 
   @Override
-  public Dependency getEdge(Resource from, Resource to) {
+  public synchronized Dependency getEdge(Resource from, Resource to) {
     Map<Resource, Dependency> map = outgoingDependenciesByResource.get(from);
     if (map != null) {
       return map.get(to);
@@ -328,29 +335,29 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean hasEdge(Resource from, Resource to) {
+  public synchronized boolean hasEdge(Resource from, Resource to) {
     return getEdge(from, to) != null;
   }
 
   @Override
-  public Set<Resource> getVertices() {
-    return buckets.keySet();
+  public synchronized Set<Resource> getVertices() {
+    return ImmutableSet.copyOf(buckets.keySet());
   }
 
   @Override
-  public Collection<Dependency> getOutgoingEdges(Resource from) {
+  public synchronized Collection<Dependency> getOutgoingEdges(Resource from) {
     Map<Resource, Dependency> deps = outgoingDependenciesByResource.get(from);
     if (deps != null) {
-      return deps.values();
+      return ImmutableList.copyOf(deps.values());
     }
     return Collections.emptyList();
   }
 
   @Override
-  public Collection<Dependency> getIncomingEdges(Resource to) {
+  public synchronized Collection<Dependency> getIncomingEdges(Resource to) {
     Map<Resource, Dependency> deps = incomingDependenciesByResource.get(to);
     if (deps != null) {
-      return deps.values();
+      return ImmutableList.copyOf(deps.values());
     }
     return Collections.emptyList();
   }
@@ -374,7 +381,7 @@ public class DefaultIndex extends SonarIndex {
   //
 
   @Override
-  public void addViolation(Violation violation, boolean force) {
+  public synchronized void addViolation(Violation violation, boolean force) {
     Resource resource = violation.getResource();
     if (resource == null) {
       violation.setResource(currentProject);
@@ -404,7 +411,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public String getSource(Resource reference) {
+  public synchronized String getSource(Resource reference) {
     Resource resource = getResource(reference);
     if (resource instanceof File) {
       File file = (File) resource;
@@ -423,14 +430,14 @@ public class DefaultIndex extends SonarIndex {
    * Does nothing if the resource is already registered.
    */
   @Override
-  public Resource addResource(Resource resource) {
+  public synchronized Resource addResource(Resource resource) {
     Bucket bucket = doIndex(resource);
     return bucket != null ? bucket.getResource() : null;
   }
 
   @Override
   @CheckForNull
-  public <R extends Resource> R getResource(@Nullable R reference) {
+  public synchronized <R extends Resource> R getResource(@Nullable R reference) {
     Bucket bucket = getBucket(reference);
     if (bucket != null) {
       return (R) bucket.getResource();
@@ -439,7 +446,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public List<Resource> getChildren(Resource resource) {
+  public synchronized List<Resource> getChildren(Resource resource) {
     List<Resource> children = Lists.newLinkedList();
     Bucket bucket = getBucket(resource);
     if (bucket != null) {
@@ -451,7 +458,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public Resource getParent(Resource resource) {
+  public synchronized Resource getParent(Resource resource) {
     Bucket bucket = getBucket(resource);
     if (bucket != null && bucket.getParent() != null) {
       return bucket.getParent().getResource();
@@ -460,7 +467,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean index(Resource resource) {
+  public synchronized boolean index(Resource resource) {
     Bucket bucket = doIndex(resource);
     return bucket != null;
   }
@@ -473,7 +480,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean index(Resource resource, Resource parentReference) {
+  public synchronized boolean index(Resource resource, Resource parentReference) {
     Bucket bucket = doIndex(resource, parentReference);
     return bucket != null;
   }
@@ -516,12 +523,12 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean isExcluded(@Nullable Resource reference) {
+  public synchronized boolean isExcluded(@Nullable Resource reference) {
     return false;
   }
 
   @Override
-  public boolean isIndexed(@Nullable Resource reference, boolean acceptExcluded) {
+  public synchronized boolean isIndexed(@Nullable Resource reference, boolean acceptExcluded) {
     return getBucket(reference) != null;
   }
 
@@ -0,0 +1,338 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.index;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Cache stored in heap, without serialization. It is faster than {@link PersistitCache} but
+ * all the values must fit in memory, so it should be used only on small or medium projects.
+ * <p>
+ * Values are stored by reference: an object must not be modified after being put, unless
+ * it is put again.
+ * </p>
+ * <p>
+ * This cache is thread-safe. Each operation is atomic, but a sequence of operations is not,
+ * so concurrent tasks should write distinct keys, for example the keys of the file they process.
+ * </p>
+ */
+class MemoryCache<V> implements Cache<V> {
+
+  /**
+   * Greater than any part of key. Used as upper bound of the keys starting with a given prefix.
+   */
+  private static final Object AFTER = new Object();
+
+  /**
+   * Replaces null values, which are not accepted by {@link ConcurrentSkipListMap}
+   */
+  private static final Object NULL = new Object();
+
+  private final ConcurrentNavigableMap<Object[], Object> map = new ConcurrentSkipListMap<>(KeyComparator.INSTANCE);
+
+  @Override
+  public Cache<V> put(Object key, V value) {
+    return put(new Object[] {key}, value);
+  }
+
+  @Override
+  public Cache<V> put(Object firstKey, Object secondKey, V value) {
+    return put(new Object[] {firstKey, secondKey}, value);
+  }
+
+  @Override
+  public Cache<V> put(Object firstKey, Object secondKey, Object thirdKey, V value) {
+    return put(new Object[] {firstKey, secondKey, thirdKey}, value);
+  }
+
+  @Override
+  public Cache<V> put(Object[] key, V value) {
+    for (Object part : key) {
+      KeyComparator.checkPart(part);
+    }
+    map.put(key.clone(), value == null ? NULL : value);
+    return this;
+  }
+
+  @Override
+  @CheckForNull
+  public V get(Object key) {
+    return get(new Object[] {key});
+  }
+
+  @Override
+  @CheckForNull
+  public V get(Object firstKey, Object secondKey) {
+    return get(new Object[] {firstKey, secondKey});
+  }
+
+  @Override
+  @CheckForNull
+  public V get(Object firstKey, Object secondKey, Object thirdKey) {
+    return get(new Object[] {firstKey, secondKey, thirdKey});
+  }
+
+  @Override
+  @CheckForNull
+  public V get(Object[] key) {
+    return unwrap(map.get(key));
+  }
+
+  @SuppressWarnings("unchecked")
+  @CheckForNull
+  private static <V> V unwrap(@Nullable Object value) {
+    return value == NULL ? null : (V) value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map.containsKey(new Object[] {key});
+  }
+
+  @Override
+  public boolean containsKey(Object firstKey, Object secondKey) {
+    return map.containsKey(new Object[] {firstKey, secondKey});
+  }
+
+  @Override
+  public boolean containsKey(Object firstKey, Object secondKey, Object thirdKey) {
+    return map.containsKey(new Object[] {firstKey, secondKey, thirdKey});
+  }
+
+  @Override
+  public boolean containsKey(Object[] key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public boolean remove(Object key) {
+    return remove(new Object[] {key});
+  }
+
+  @Override
+  public boolean remove(Object firstKey, Object secondKey) {
+    return remove(new Object[] {firstKey, secondKey});
+  }
+
+  @Override
+  public boolean remove(Object firstKey, Object secondKey, Object thirdKey) {
+    return remove(new Object[] {firstKey, secondKey, thirdKey});
+  }
+
+  @Override
+  public boolean remove(Object[] key) {
+    return map.remove(key) != null;
+  }
+
+  @Override
+  public Cache<V> clear(Object key) {
+    return clear(new Object[] {key});
+  }
+
+  @Override
+  public Cache<V> clear(Object firstKey, Object secondKey) {
+    return clear(new Object[] {firstKey, secondKey});
+  }
+
+  @Override
+  public Cache<V> clear(Object firstKey, Object secondKey, Object thirdKey) {
+    return clear(new Object[] {firstKey, secondKey, thirdKey});
+  }
+
+  @Override
+  public Cache<V> clear(Object[] key) {
+    // the key itself and all its sub-keys
+    map.subMap(key, true, after(key), false).clear();
+    return this;
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public Set keySet(Object key) {
+    return subKeys(new Object[] {key});
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public Set keySet(Object firstKey, Object secondKey) {
+    return subKeys(new Object[] {firstKey, secondKey});
+  }
+
+  @Override
+  public Set<Object> keySet() {
+    return subKeys(new Object[0]);
+  }
+
+  @Override
+  public Iterable<V> values(Object firstKey, Object secondKey) {
+    return new ValueIterable(new Object[] {firstKey, secondKey});
+  }
+
+  @Override
+  public Iterable<V> values(Object firstKey) {
+    return new ValueIterable(new Object[] {firstKey});
+  }
+
+  @Override
+  public Iterable<V> values() {
+    return new ValueIterable(new Object[0]);
+  }
+
+  @Override
+  public Iterable<Entry<V>> entries() {
+    return new EntryIterable(new Object[0]);
+  }
+
+  @Override
+  public Iterable<Entry<V>> entries(Object firstKey) {
+    return new EntryIterable(new Object[] {firstKey});
+  }
+
+  /**
+   * Keys that strictly start with the given prefix. As in Persistit, the key equal to prefix is excluded.
+   */
+  private SortedMap<Object[], Object> descendants(Object[] prefix) {
+    if (prefix.length == 0) {
+      return map;
+    }
+    return map.subMap(prefix, false, after(prefix), false);
+  }
+
+  private Set<Object> subKeys(Object[] prefix) {
+    Set<Object> keys = Sets.newLinkedHashSet();
+    for (Object[] key : descendants(prefix).keySet()) {
+      keys.add(key[prefix.length]);
+    }
+    return keys;
+  }
+
+  private static Object[] after(Object[] prefix) {
+    Object[] after = Arrays.copyOf(prefix, prefix.length + 1);
+    after[prefix.length] = AFTER;
+    return after;
+  }
+
+  /**
+   * Values are copied when iteration starts, so that cache can be updated during iteration, possibly
+   * by other threads.
+   */
+  private class ValueIterable implements Iterable<V> {
+    private final Object[] prefix;
+
+    private ValueIterable(Object[] prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+      List<V> values = Lists.newArrayList();
+      for (Object value : descendants(prefix).values()) {
+        values.add(MemoryCache.<V>unwrap(value));
+      }
+      return Collections.unmodifiableList(values).iterator();
+    }
+  }
+
+  private class EntryIterable implements Iterable<Entry<V>> {
+    private final Object[] prefix;
+
+    private EntryIterable(Object[] prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Iterator<Entry<V>> iterator() {
+      List<Entry<V>> entries = Lists.newArrayList();
+      for (Map.Entry<Object[], Object> entry : descendants(prefix).entrySet()) {
+        entries.add(new Entry<V>(entry.getKey().clone(), MemoryCache.<V>unwrap(entry.getValue())));
+      }
+      return Collections.unmodifiableList(entries).iterator();
+    }
+  }
+
+  /**
+   * Keys are compared part by part. A key is lower than the keys it is prefix of. Parts must be null
+   * or {@link Comparable}, otherwise distinct keys could not be told apart.
+   */
+  static class KeyComparator implements Comparator<Object[]> {
+    static final KeyComparator INSTANCE = new KeyComparator();
+
+    @Override
+    public int compare(Object[] key1, Object[] key2) {
+      int length = Math.min(key1.length, key2.length);
+      for (int i = 0; i < length; i++) {
+        int cmp = compareParts(key1[i], key2[i]);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return key1.length - key2.length;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareParts(Object part1, Object part2) {
+      if (part1 == part2) {
+        return 0;
+      }
+      if (part1 == null || part2 == null) {
+        return part1 == null ? -1 : 1;
+      }
+      if (part1 == AFTER) {
+        return 1;
+      }
+      if (part2 == AFTER) {
+        return -1;
+      }
+      checkPart(part1);
+      checkPart(part2);
+      if (part1.getClass().equals(part2.getClass())) {
+        return ((Comparable) part1).compareTo(part2);
+      }
+      // parts of different types are grouped by type
+      return part1.getClass().getName().compareTo(part2.getClass().getName());
+    }
+
+    static void checkPart(@Nullable Object part) {
+      if (part != null && part != AFTER && !(part instanceof Comparable)) {
+        throw new IllegalArgumentException("Part of key is not comparable: " + part.getClass().getName());
+      }
+    }
+  }
+}
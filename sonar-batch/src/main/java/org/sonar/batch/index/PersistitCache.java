@@ -0,0 +1,558 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.index;
+
+import com.google.common.collect.Sets;
+import com.persistit.Exchange;
+import com.persistit.Key;
+import com.persistit.KeyFilter;
+import com.persistit.Persistit;
+import com.persistit.Value;
+import com.persistit.Volume;
+import com.persistit.exception.PersistitException;
+
+import javax.annotation.CheckForNull;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * This cache is thread-safe. As a {@link com.persistit.Exchange} must not be shared between threads,
+ * the thread that created the cache uses a dedicated exchange, whereas other threads borrow an exchange
+ * from the Persistit pool for each operation. Iterables must be consumed by the thread that requested them.
+ * </p>
+ */
+class PersistitCache<V> implements Cache<V> {
+
+  private final String name;
+  private final Persistit persistit;
+  private final Volume volume;
+  private final Thread ownerThread;
+  private final Exchange ownerExchange;
+
+  PersistitCache(String name, Persistit persistit, Volume volume) {
+    this.name = name;
+    this.persistit = persistit;
+    this.volume = volume;
+    this.ownerThread = Thread.currentThread();
+    this.ownerExchange = newExchange();
+  }
+
+  private Exchange newExchange() {
+    try {
+      Exchange exchange = persistit.getExchange(volume, name, true);
+      exchange.setMaximumValueSize(Value.MAXIMUM_SIZE);
+      return exchange;
+    } catch (PersistitException e) {
+      throw new IllegalStateException("Fail to create cache: " + name, e);
+    }
+  }
+
+  private Exchange exchange() {
+    if (Thread.currentThread() == ownerThread) {
+      return ownerExchange;
+    }
+    return newExchange();
+  }
+
+  private void release(Exchange exchange) {
+    if (exchange != ownerExchange) {
+      persistit.releaseExchange(exchange);
+    }
+  }
+
+  @Override
+  public Cache<V> put(Object key, V value) {
+    return doPut(resetKey(key), value);
+  }
+
+  @Override
+  public Cache<V> put(Object firstKey, Object secondKey, V value) {
+    return doPut(resetKey(firstKey, secondKey), value);
+  }
+
+  @Override
+  public Cache<V> put(Object firstKey, Object secondKey, Object thirdKey, V value) {
+    return doPut(resetKey(firstKey, secondKey, thirdKey), value);
+  }
+
+  @Override
+  public Cache<V> put(Object[] key, V value) {
+    return doPut(resetKey(key), value);
+  }
+
+  private Cache<V> doPut(Exchange exchange, V value) {
+    try {
+      exchange.getValue().put(value);
+      exchange.store();
+      return this;
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to put element in the cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  /**
+   * Returns the value object associated with keys, or null if not found.
+   */
+  @Override
+  public V get(Object key) {
+    return doGet(resetKey(key));
+  }
+
+  /**
+   * Returns the value object associated with keys, or null if not found.
+   */
+  @CheckForNull
+  @Override
+  public V get(Object firstKey, Object secondKey) {
+    return doGet(resetKey(firstKey, secondKey));
+  }
+
+  /**
+   * Returns the value object associated with keys, or null if not found.
+   */
+  @CheckForNull
+  @Override
+  public V get(Object firstKey, Object secondKey, Object thirdKey) {
+    return doGet(resetKey(firstKey, secondKey, thirdKey));
+  }
+
+  /**
+   * Returns the value object associated with keys, or null if not found.
+   */
+  @CheckForNull
+  @Override
+  public V get(Object[] key) {
+    return doGet(resetKey(key));
+  }
+
+  @SuppressWarnings("unchecked")
+  @CheckForNull
+  private V doGet(Exchange exchange) {
+    try {
+      exchange.fetch();
+      if (!exchange.getValue().isDefined()) {
+        return null;
+      }
+      return (V) exchange.getValue().get();
+    } catch (Exception e) {
+      // TODO add parameters to message
+      throw new IllegalStateException("Fail to get element from cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return doContainsKey(resetKey(key));
+  }
+
+  @Override
+  public boolean containsKey(Object firstKey, Object secondKey) {
+    return doContainsKey(resetKey(firstKey, secondKey));
+  }
+
+  @Override
+  public boolean containsKey(Object firstKey, Object secondKey, Object thirdKey) {
+    return doContainsKey(resetKey(firstKey, secondKey, thirdKey));
+  }
+
+  @Override
+  public boolean containsKey(Object[] key) {
+    return doContainsKey(resetKey(key));
+  }
+
+  private boolean doContainsKey(Exchange exchange) {
+    try {
+      exchange.fetch();
+      return exchange.isValueDefined();
+    } catch (Exception e) {
+      // TODO add parameters to message
+      throw new IllegalStateException("Fail to check if element is in cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  @Override
+  public boolean remove(Object key) {
+    return doRemove(resetKey(key));
+  }
+
+  @Override
+  public boolean remove(Object firstKey, Object secondKey) {
+    return doRemove(resetKey(firstKey, secondKey));
+  }
+
+  @Override
+  public boolean remove(Object firstKey, Object secondKey, Object thirdKey) {
+    return doRemove(resetKey(firstKey, secondKey, thirdKey));
+  }
+
+  @Override
+  public boolean remove(Object[] key) {
+    return doRemove(resetKey(key));
+  }
+
+  private boolean doRemove(Exchange exchange) {
+    try {
+      return exchange.remove();
+    } catch (Exception e) {
+      // TODO add parameters to message
+      throw new IllegalStateException("Fail to get element from cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  /**
+   * Removes everything in the specified group.
+   *
+   * @param group The group name.
+   */
+  @Override
+  public Cache<V> clear(Object key) {
+    return doClear(resetKey(key));
+  }
+
+  @Override
+  public Cache<V> clear(Object firstKey, Object secondKey) {
+    return doClear(resetKey(firstKey, secondKey));
+  }
+
+  @Override
+  public Cache<V> clear(Object firstKey, Object secondKey, Object thirdKey) {
+    return doClear(resetKey(firstKey, secondKey, thirdKey));
+  }
+
+  @Override
+  public Cache<V> clear(Object[] key) {
+    return doClear(resetKey(key));
+  }
+
+  private Cache<V> doClear(Exchange exchange) {
+    try {
+      Key to = new Key(exchange.getKey());
+      to.append(Key.AFTER);
+      exchange.removeKeyRange(exchange.getKey(), to);
+      return this;
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to clear values from cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  /**
+   * Clears the default as well as all group caches.
+   */
+  @Override
+  public void clear() {
+    Exchange exchange = exchange();
+    try {
+      exchange.clear();
+      exchange.removeAll();
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to clear cache", e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  /**
+   * Returns the set of cache keys associated with this group.
+   * TODO implement a lazy-loading equivalent with Iterator/Iterable
+   *
+   * @param group The group.
+   * @return The set of cache keys for this group.
+   */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public Set keySet(Object key) {
+    Exchange exchange = exchange();
+    try {
+      Set<Object> keys = Sets.newLinkedHashSet();
+      exchange.clear();
+      Exchange iteratorExchange = new Exchange(exchange);
+      iteratorExchange.append(key);
+      iteratorExchange.append(Key.BEFORE);
+      while (iteratorExchange.next(false)) {
+        keys.add(iteratorExchange.getKey().indexTo(-1).decode());
+      }
+      return keys;
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to get keys from cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public Set keySet(Object firstKey, Object secondKey) {
+    Exchange exchange = exchange();
+    try {
+      Set<Object> keys = Sets.newLinkedHashSet();
+      exchange.clear();
+      Exchange iteratorExchange = new Exchange(exchange);
+      iteratorExchange.append(firstKey);
+      iteratorExchange.append(secondKey);
+      iteratorExchange.append(Key.BEFORE);
+      while (iteratorExchange.next(false)) {
+        keys.add(iteratorExchange.getKey().indexTo(-1).decode());
+      }
+      return keys;
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to get keys from cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  /**
+   * Returns the set of keys associated with this cache.
+   *
+   * @return The set containing the keys for this cache.
+   */
+  @Override
+  public Set<Object> keySet() {
+    Exchange exchange = exchange();
+    try {
+      Set<Object> keys = Sets.newLinkedHashSet();
+      exchange.clear();
+      Exchange iteratorExchange = new Exchange(exchange);
+      iteratorExchange.append(Key.BEFORE);
+      while (iteratorExchange.next(false)) {
+        keys.add(iteratorExchange.getKey().indexTo(-1).decode());
+      }
+      return keys;
+    } catch (Exception e) {
+      throw new IllegalStateException("Fail to get keys from cache " + name, e);
+    } finally {
+      release(exchange);
+    }
+  }
+
+  /**
+   * Lazy-loading values for given keys
+   */
+  @Override
+  public Iterable<V> values(Object firstKey, Object secondKey) {
+    return new ValueIterable<V>(this, firstKey, secondKey);
+  }
+
+  /**
+   * Lazy-loading values for a given key
+   */
+  @Override
+  public Iterable<V> values(Object firstKey) {
+    return new ValueIterable<V>(this, firstKey);
+  }
+
+  /**
+   * Lazy-loading values
+   */
+  @Override
+  public Iterable<V> values() {
+    return new ValueIterable<V>(this);
+  }
+
+  @Override
+  public Iterable<Entry<V>> entries() {
+    return new EntryIterable<V>(this);
+  }
+
+  @Override
+  public Iterable<Entry<V>> entries(Object firstKey) {
+    return new EntryIterable<V>(this, firstKey);
+  }
+
+  private Exchange resetKey(Object key) {
+    Exchange exchange = exchange();
+    exchange.clear();
+    exchange.append(key);
+    return exchange;
+  }
+
+  private Exchange resetKey(Object first, Object second) {
+    Exchange exchange = exchange();
+    exchange.clear();
+    exchange.append(first).append(second);
+    return exchange;
+  }
+
+  private Exchange resetKey(Object first, Object second, Object third) {
+    Exchange exchange = exchange();
+    exchange.clear();
+    exchange.append(first).append(second).append(third);
+    return exchange;
+  }
+
+  private Exchange resetKey(Object[] keys) {
+    Exchange exchange = exchange();
+    exchange.clear();
+    for (Object o : keys) {
+      exchange.append(o);
+    }
+    return exchange;
+  }
+
+  //
+  // LAZY ITERATORS AND ITERABLES
+  //
+
+  private static class ValueIterable<T> implements Iterable<T> {
+    private final PersistitCache<?> cache;
+    private final Object[] keys;
+
+    private ValueIterable(PersistitCache<?> cache, Object... keys) {
+      this.cache = cache;
+      this.keys = keys;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      Exchange originExchange = cache.exchange();
+      originExchange.clear();
+      KeyFilter filter = new KeyFilter();
+      for (Object key : keys) {
+        originExchange.append(key);
+        filter = filter.append(KeyFilter.simpleTerm(key));
+      }
+      originExchange.append(Key.BEFORE);
+      Exchange iteratorExchange = new Exchange(originExchange);
+      cache.release(originExchange);
+      return new ValueIterator<T>(iteratorExchange, filter);
+    }
+  }
+
+  private static class ValueIterator<T> implements Iterator<T> {
+    private final Exchange exchange;
+    private final KeyFilter keyFilter;
+
+    private ValueIterator(Exchange exchange, KeyFilter keyFilter) {
+      this.exchange = exchange;
+      this.keyFilter = keyFilter;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        return exchange.hasNext(keyFilter);
+      } catch (PersistitException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T next() {
+      try {
+        exchange.next(keyFilter);
+      } catch (PersistitException e) {
+        throw new IllegalStateException(e);
+      }
+      if (exchange.getValue().isDefined()) {
+        return (T) exchange.getValue().get();
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Removing an item is not supported");
+    }
+  }
+
+  private static class EntryIterable<T> implements Iterable<Entry<T>> {
+    private final PersistitCache<?> cache;
+    private final Object[] keys;
+
+    private EntryIterable(PersistitCache<?> cache, Object... keys) {
+      this.cache = cache;
+      this.keys = keys;
+    }
+
+    @Override
+    public Iterator<Entry<T>> iterator() {
+      Exchange originExchange = cache.exchange();
+      originExchange.clear();
+      KeyFilter filter = new KeyFilter();
+      for (Object key : keys) {
+        originExchange.append(key);
+        filter = filter.append(KeyFilter.simpleTerm(key));
+      }
+      originExchange.append(Key.BEFORE);
+      Exchange iteratorExchange = new Exchange(originExchange);
+      cache.release(originExchange);
+      return new EntryIterator<T>(iteratorExchange, filter);
+    }
+  }
+
+  private static class EntryIterator<T> implements Iterator<Entry<T>> {
+    private final Exchange exchange;
+    private final KeyFilter keyFilter;
+
+    private EntryIterator(Exchange exchange, KeyFilter keyFilter) {
+      this.exchange = exchange;
+      this.keyFilter = keyFilter;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        return exchange.hasNext(keyFilter);
+      } catch (PersistitException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Entry<T> next() {
+      try {
+        exchange.next(keyFilter);
+      } catch (PersistitException e) {
+        throw new IllegalStateException(e);
+      }
+      if (exchange.getValue().isDefined()) {
+        T value = (T) exchange.getValue().get();
+        Key key = exchange.getKey();
+        Object[] array = new Object[key.getDepth()];
+        for (int i = 0; i < key.getDepth(); i++) {
+          array[i] = key.indexTo(i - key.getDepth()).decode();
+        }
+        return new Entry<T>(array, value);
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Removing an item is not supported");
+    }
+  }
+
+}
@@ -20,7 +20,9 @@
 package org.sonar.batch.index;
 
 import com.google.common.base.CharMatcher;
-import org.apache.commons.io.FileUtils;
+import com.google.protobuf.CodedOutputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.sonar.api.BatchComponent;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
@@ -39,10 +41,15 @@ import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.source.CodeColorizers;
 import org.sonar.batch.symbol.SymbolData;
 import org.sonar.core.source.SnapshotDataTypes;
-import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.server.source.db.FileSourceDb;
 
+import javax.annotation.CheckForNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.*;
 
 /**
@@ -53,6 +60,11 @@ public class SourceDataFactory implements BatchComponent {
 
   private static final String BOM = "\uFEFF";
 
+  /**
+   * Integers with more digits may overflow
+   */
+  private static final int MAX_INT_DIGITS = 9;
+
   private final MeasureCache measureCache;
   private final ComponentDataCache componentDataCache;
   private final DuplicationCache duplicationCache;
@@ -67,128 +79,177 @@ public class SourceDataFactory implements BatchComponent {
   }
 
   public byte[] consolidateData(DefaultInputFile inputFile, InputFileMetadata metadata) throws IOException {
-    FileSourceDb.Data.Builder dataBuilder = createForSource(inputFile);
-    applyLineMeasures(inputFile, dataBuilder);
-    applyDuplications(inputFile.key(), dataBuilder);
-    applyHighlighting(inputFile, metadata, dataBuilder);
-    applySymbolReferences(inputFile, metadata, dataBuilder);
-    return FileSourceDto.encodeData(dataBuilder.build());
+    SourceLinesData linesData = new SourceLinesData(inputFile.lines());
+    applyLineMeasures(inputFile, linesData);
+    applyDuplications(inputFile.key(), linesData);
+    applyHighlighting(inputFile, metadata, linesData);
+    applySymbolReferences(inputFile, metadata, linesData);
+    return writeData(inputFile, linesData);
   }
 
-  FileSourceDb.Data.Builder createForSource(DefaultInputFile inputFile) throws IOException {
-    FileSourceDb.Data.Builder result = FileSourceDb.Data.newBuilder();
-    List<String> lines = FileUtils.readLines(inputFile.file(), inputFile.charset());
-    // Missing empty last line
-    if (lines.size() == inputFile.lines() - 1) {
-      lines.add("");
-    }
-    for (int lineIdx = 1; lineIdx <= lines.size(); lineIdx++) {
-      String s = CharMatcher.anyOf(BOM).removeFrom(lines.get(lineIdx - 1));
-      FileSourceDb.Line.Builder linesBuilder = result.addLinesBuilder();
-      linesBuilder.setLine(lineIdx).setSource(s);
+  /**
+   * Serialize and compress the protobuf message {@link org.sonar.server.source.db.FileSourceDb.Data}.
+   * Source is read and written line per line, so the whole file is never loaded in memory.
+   * @see org.sonar.core.source.db.FileSourceDto#decodeData(byte[])
+   */
+  byte[] writeData(DefaultInputFile inputFile, SourceLinesData linesData) throws IOException {
+    ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+    LZ4BlockOutputStream compressedOutput = new LZ4BlockOutputStream(byteOutput);
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile.file()), inputFile.charset()));
+      CodedOutputStream output = CodedOutputStream.newInstance(compressedOutput);
+      FileSourceDb.Line.Builder lineBuilder = FileSourceDb.Line.newBuilder();
+      int lineIdx = 0;
+      String line = reader.readLine();
+      while (line != null) {
+        lineIdx++;
+        writeLine(output, lineBuilder, lineIdx, line, linesData);
+        line = reader.readLine();
+      }
+      // Missing empty last line
+      if (lineIdx == inputFile.lines() - 1) {
+        lineIdx++;
+        writeLine(output, lineBuilder, lineIdx, "", linesData);
+      }
+      output.flush();
+      compressedOutput.close();
+      return byteOutput.toByteArray();
+    } finally {
+      IOUtils.closeQuietly(reader);
+      IOUtils.closeQuietly(compressedOutput);
     }
-    return result;
   }
 
-  void applyLineMeasures(DefaultInputFile file, FileSourceDb.Data.Builder dataBuilder) {
-    applyLineMeasure(file.key(), CoreMetrics.SCM_AUTHORS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setScmAuthor(value);
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.SCM_REVISIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setScmRevision(value);
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.SCM_LAST_COMMIT_DATETIMES_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setScmDate(DateUtils.parseDateTimeQuietly(value).getTime());
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.COVERAGE_LINE_HITS_DATA_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setUtLineHits(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.CONDITIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setUtConditions(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.COVERED_CONDITIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setUtCoveredConditions(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.IT_COVERAGE_LINE_HITS_DATA_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setItLineHits(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.IT_CONDITIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setItConditions(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.IT_COVERED_CONDITIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setItCoveredConditions(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.OVERALL_COVERAGE_LINE_HITS_DATA_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setOverallLineHits(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.OVERALL_CONDITIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setOverallConditions(Integer.parseInt(value));
-      }
-    });
-    applyLineMeasure(file.key(), CoreMetrics.OVERALL_COVERED_CONDITIONS_BY_LINE_KEY, dataBuilder, new MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setOverallCoveredConditions(Integer.parseInt(value));
+  private static void writeLine(CodedOutputStream output, FileSourceDb.Line.Builder lineBuilder, int lineIdx, String source, SourceLinesData linesData)
+    throws IOException {
+    lineBuilder.clear();
+    lineBuilder.setLine(lineIdx).setSource(CharMatcher.anyOf(BOM).removeFrom(source));
+    linesData.apply(lineIdx, lineBuilder);
+    // Data only contains the repeated field "lines", so writing lines one after the other is equivalent to Data#writeTo()
+    output.writeMessage(FileSourceDb.Data.LINES_FIELD_NUMBER, lineBuilder.build());
+  }
+
+  void applyLineMeasures(DefaultInputFile file, SourceLinesData to) {
+    String key = file.key();
+    to.scmAuthors = stringLineMeasure(key, CoreMetrics.SCM_AUTHORS_BY_LINE_KEY, to);
+    to.scmRevisions = stringLineMeasure(key, CoreMetrics.SCM_REVISIONS_BY_LINE_KEY, to);
+    String[] dates = stringLineMeasure(key, CoreMetrics.SCM_LAST_COMMIT_DATETIMES_BY_LINE_KEY, to);
+    if (dates != null) {
+      to.scmDates = to.newLongArray();
+      for (int i = 0; i < dates.length; i++) {
+        Date date = dates[i] == null ? null : DateUtils.parseDateTimeQuietly(dates[i]);
+        if (date != null) {
+          to.scmDates[i] = date.getTime();
+        }
       }
-    });
+    }
+    to.utLineHits = intLineMeasure(key, CoreMetrics.COVERAGE_LINE_HITS_DATA_KEY, to);
+    to.utConditions = intLineMeasure(key, CoreMetrics.CONDITIONS_BY_LINE_KEY, to);
+    to.utCoveredConditions = intLineMeasure(key, CoreMetrics.COVERED_CONDITIONS_BY_LINE_KEY, to);
+    to.itLineHits = intLineMeasure(key, CoreMetrics.IT_COVERAGE_LINE_HITS_DATA_KEY, to);
+    to.itConditions = intLineMeasure(key, CoreMetrics.IT_CONDITIONS_BY_LINE_KEY, to);
+    to.itCoveredConditions = intLineMeasure(key, CoreMetrics.IT_COVERED_CONDITIONS_BY_LINE_KEY, to);
+    to.overallLineHits = intLineMeasure(key, CoreMetrics.OVERALL_COVERAGE_LINE_HITS_DATA_KEY, to);
+    to.overallConditions = intLineMeasure(key, CoreMetrics.OVERALL_CONDITIONS_BY_LINE_KEY, to);
+    to.overallCoveredConditions = intLineMeasure(key, CoreMetrics.OVERALL_COVERED_CONDITIONS_BY_LINE_KEY, to);
   }
 
-  void applyLineMeasure(String inputFileKey, String metricKey, FileSourceDb.Data.Builder to, MeasureOperation op) {
+  @CheckForNull
+  String[] stringLineMeasure(String inputFileKey, String metricKey, SourceLinesData to) {
+    String[] result = null;
     Iterable<Measure> measures = measureCache.byMetric(inputFileKey, metricKey);
     if (measures != null) {
       for (Measure measure : measures) {
         Map<Integer, String> lineMeasures = KeyValueFormat.parseIntString((String) measure.value());
         for (Map.Entry<Integer, String> lineMeasure : lineMeasures.entrySet()) {
           int lineIdx = lineMeasure.getKey();
-          if (lineIdx <= to.getLinesCount()) {
-            String value = lineMeasure.getValue();
-            if (StringUtils.isNotEmpty(value)) {
-              FileSourceDb.Line.Builder lineBuilder = to.getLinesBuilder(lineIdx - 1);
-              op.apply(value, lineBuilder);
+          String value = lineMeasure.getValue();
+          if (lineIdx >= 1 && lineIdx <= to.lines() && StringUtils.isNotEmpty(value)) {
+            if (result == null) {
+              result = new String[to.lines()];
+            }
+            result[lineIdx - 1] = value;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @CheckForNull
+  int[] intLineMeasure(String inputFileKey, String metricKey, SourceLinesData to) {
+    int[] result = null;
+    Iterable<Measure> measures = measureCache.byMetric(inputFileKey, metricKey);
+    if (measures != null) {
+      for (Measure measure : measures) {
+        String data = (String) measure.value();
+        if (data == null) {
+          continue;
+        }
+        if (result == null) {
+          result = to.newIntArray();
+        }
+        if (!parseIntegers(data, result)) {
+          // unexpected format, for example quoted values
+          for (Map.Entry<Integer, String> lineMeasure : KeyValueFormat.parseIntString(data).entrySet()) {
+            int lineIdx = lineMeasure.getKey();
+            if (lineIdx >= 1 && lineIdx <= to.lines() && StringUtils.isNotEmpty(lineMeasure.getValue())) {
+              result[lineIdx - 1] = Integer.parseInt(lineMeasure.getValue());
             }
           }
         }
       }
     }
+    return result;
+  }
+
+  /**
+   * Fast path of {@link KeyValueFormat#parseIntString(String)} for integer values, for example "1=10;3=4". No
+   * objects are allocated. Lines out of bounds are ignored.
+   * @return false if format is not supported
+   */
+  static boolean parseIntegers(String data, int[] valuesPerLine) {
+    int length = data.length();
+    int i = 0;
+    while (i < length) {
+      int start = i;
+      int lineIdx = 0;
+      while (i < length && isDigit(data.charAt(i))) {
+        lineIdx = lineIdx * 10 + data.charAt(i) - '0';
+        i++;
+      }
+      if (i == start || i - start > MAX_INT_DIGITS || i == length || data.charAt(i) != '=') {
+        return false;
+      }
+      i++;
+      boolean negative = i < length && data.charAt(i) == '-';
+      if (negative) {
+        i++;
+      }
+      start = i;
+      int value = 0;
+      while (i < length && isDigit(data.charAt(i))) {
+        value = value * 10 + data.charAt(i) - '0';
+        i++;
+      }
+      if (i - start > MAX_INT_DIGITS || (negative && i == start) || (i < length && data.charAt(i) != ';')) {
+        return false;
+      }
+      if (i > start && lineIdx >= 1 && lineIdx <= valuesPerLine.length) {
+        valuesPerLine[lineIdx - 1] = negative ? -value : value;
+      }
+      // skip separator
+      i++;
+    }
+    return true;
   }
 
-  static interface MeasureOperation {
-    void apply(String value, FileSourceDb.Line.Builder lineBuilder);
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
   }
 
-  void applyHighlighting(DefaultInputFile inputFile, InputFileMetadata metadata, FileSourceDb.Data.Builder to) {
+  void applyHighlighting(DefaultInputFile inputFile, InputFileMetadata metadata, SourceLinesData to) {
     SyntaxHighlightingData highlighting = componentDataCache.getData(inputFile.key(), SnapshotDataTypes.SYNTAX_HIGHLIGHTING);
     String language = inputFile.language();
     if (highlighting == null && language != null) {
@@ -197,7 +258,7 @@ public class SourceDataFactory implements BatchComponent {
     if (highlighting == null) {
       return;
     }
-    StringBuilder[] highlightingPerLine = new StringBuilder[inputFile.lines()];
+    StringBuilder[] highlightingPerLine = new StringBuilder[to.lines()];
     RuleItemWriter ruleItemWriter = new RuleItemWriter();
     int currentLineIdx = 1;
     for (SyntaxHighlightingRule rule : highlighting.syntaxHighlightingRuleSet()) {
@@ -208,18 +269,13 @@ public class SourceDataFactory implements BatchComponent {
       // Now we know current rule starts on current line
       writeDataPerLine(metadata.originalLineOffsets(), rule, rule.getStartPosition(), rule.getEndPosition(), highlightingPerLine, currentLineIdx, ruleItemWriter);
     }
-    for (int i = 0; i < highlightingPerLine.length; i++) {
-      StringBuilder sb = highlightingPerLine[i];
-      if (sb != null) {
-        to.getLinesBuilder(i).setHighlighting(sb.toString());
-      }
-    }
+    to.highlighting = highlightingPerLine;
   }
 
-  void applySymbolReferences(DefaultInputFile file, InputFileMetadata metadata, FileSourceDb.Data.Builder to) {
+  void applySymbolReferences(DefaultInputFile file, InputFileMetadata metadata, SourceLinesData to) {
     SymbolData symbolRefs = componentDataCache.getData(file.key(), SnapshotDataTypes.SYMBOL_HIGHLIGHTING);
     if (symbolRefs != null) {
-      StringBuilder[] refsPerLine = new StringBuilder[file.lines()];
+      StringBuilder[] refsPerLine = new StringBuilder[to.lines()];
       int symbolId = 1;
       List<Symbol> symbols = new ArrayList<Symbol>(symbolRefs.referencesBySymbol().keySet());
       // Sort symbols to avoid false variation that would lead to an unnecessary update
@@ -243,12 +299,7 @@ public class SourceDataFactory implements BatchComponent {
         }
         symbolId++;
       }
-      for (int i = 0; i < refsPerLine.length; i++) {
-        StringBuilder sb = refsPerLine[i];
-        if (sb != null) {
-          to.getLinesBuilder(i).setSymbols(sb.toString());
-        }
-      }
+      to.symbols = refsPerLine;
     }
   }
 
@@ -336,7 +387,7 @@ public class SourceDataFactory implements BatchComponent {
     }
   }
 
-  void applyDuplications(String inputFileKey, FileSourceDb.Data.Builder to) {
+  void applyDuplications(String inputFileKey, SourceLinesData to) {
     Iterable<DefaultDuplication> groups = duplicationCache.byComponent(inputFileKey);
     int blockId = 1;
     for (Iterator<DefaultDuplication> it = groups.iterator(); it.hasNext();) {
@@ -353,11 +404,11 @@ public class SourceDataFactory implements BatchComponent {
     }
   }
 
-  private void addBlock(int blockId, Duplication.Block block, FileSourceDb.Data.Builder to) {
+  private void addBlock(int blockId, Duplication.Block block, SourceLinesData to) {
     int currentLine = block.startLine();
     for (int i = 0; i < block.length(); i++) {
-      if (currentLine <= to.getLinesCount()) {
-        to.getLinesBuilder(currentLine - 1).addDuplication(blockId);
+      if (currentLine <= to.lines()) {
+        to.addDuplication(currentLine, blockId);
         currentLine++;
       }
     }
@@ -0,0 +1,173 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.index;
+
+import org.sonar.server.source.db.FileSourceDb;
+
+import javax.annotation.CheckForNull;
+
+import java.util.Arrays;
+
+/**
+ * Data computed on each line of a source file, except the source itself. Values are
+ * stored in primitive arrays indexed by line, first line having index 0. Arrays are allocated
+ * only if the related data exists.
+ */
+class SourceLinesData {
+
+  /**
+   * Value of arrays of integers and longs when line has no data
+   */
+  static final int NO_INT = Integer.MIN_VALUE;
+  static final long NO_LONG = Long.MIN_VALUE;
+
+  private final int lines;
+
+  String[] scmRevisions;
+  String[] scmAuthors;
+  long[] scmDates;
+
+  int[] utLineHits;
+  int[] utConditions;
+  int[] utCoveredConditions;
+  int[] itLineHits;
+  int[] itConditions;
+  int[] itCoveredConditions;
+  int[] overallLineHits;
+  int[] overallConditions;
+  int[] overallCoveredConditions;
+
+  StringBuilder[] highlighting;
+  StringBuilder[] symbols;
+
+  private int[][] duplications;
+  private int[] duplicationCounts;
+
+  SourceLinesData(int lines) {
+    this.lines = lines;
+  }
+
+  int lines() {
+    return lines;
+  }
+
+  int[] newIntArray() {
+    int[] result = new int[lines];
+    Arrays.fill(result, NO_INT);
+    return result;
+  }
+
+  long[] newLongArray() {
+    long[] result = new long[lines];
+    Arrays.fill(result, NO_LONG);
+    return result;
+  }
+
+  /**
+   * @param line starts at 1
+   */
+  void addDuplication(int line, int blockId) {
+    if (duplications == null) {
+      duplications = new int[lines][];
+      duplicationCounts = new int[lines];
+    }
+    int index = line - 1;
+    int[] ids = duplications[index];
+    int count = duplicationCounts[index];
+    if (ids == null) {
+      ids = new int[2];
+      duplications[index] = ids;
+    } else if (count == ids.length) {
+      ids = Arrays.copyOf(ids, count * 2);
+      duplications[index] = ids;
+    }
+    ids[count] = blockId;
+    duplicationCounts[index] = count + 1;
+  }
+
+  /**
+   * Copy the data of given line into the builder.
+   * @param line starts at 1. Lines greater than the number of lines declared in constructor have no data.
+   */
+  void apply(int line, FileSourceDb.Line.Builder builder) {
+    int index = line - 1;
+    if (index >= lines) {
+      return;
+    }
+    String s = get(scmRevisions, index);
+    if (s != null) {
+      builder.setScmRevision(s);
+    }
+    s = get(scmAuthors, index);
+    if (s != null) {
+      builder.setScmAuthor(s);
+    }
+    if (scmDates != null && scmDates[index] != NO_LONG) {
+      builder.setScmDate(scmDates[index]);
+    }
+    if (isSet(utLineHits, index)) {
+      builder.setUtLineHits(utLineHits[index]);
+    }
+    if (isSet(utConditions, index)) {
+      builder.setUtConditions(utConditions[index]);
+    }
+    if (isSet(utCoveredConditions, index)) {
+      builder.setUtCoveredConditions(utCoveredConditions[index]);
+    }
+    if (isSet(itLineHits, index)) {
+      builder.setItLineHits(itLineHits[index]);
+    }
+    if (isSet(itConditions, index)) {
+      builder.setItConditions(itConditions[index]);
+    }
+    if (isSet(itCoveredConditions, index)) {
+      builder.setItCoveredConditions(itCoveredConditions[index]);
+    }
+    if (isSet(overallLineHits, index)) {
+      builder.setOverallLineHits(overallLineHits[index]);
+    }
+    if (isSet(overallConditions, index)) {
+      builder.setOverallConditions(overallConditions[index]);
+    }
+    if (isSet(overallCoveredConditions, index)) {
+      builder.setOverallCoveredConditions(overallCoveredConditions[index]);
+    }
+    if (highlighting != null && highlighting[index] != null) {
+      builder.setHighlighting(highlighting[index].toString());
+    }
+    if (symbols != null && symbols[index] != null) {
+      builder.setSymbols(symbols[index].toString());
+    }
+    if (duplications != null) {
+      for (int i = 0; i < duplicationCounts[index]; i++) {
+        builder.addDuplication(duplications[index][i]);
+      }
+    }
+  }
+
+  @CheckForNull
+  private static String get(String[] values, int index) {
+    return values == null ? null : values[index];
+  }
+
+  private static boolean isSet(int[] values, int index) {
+    return values != null && values[index] != NO_INT;
+  }
+}
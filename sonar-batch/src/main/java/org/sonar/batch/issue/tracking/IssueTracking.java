@@ -26,21 +26,35 @@ import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import org.sonar.api.BatchComponent;
 import org.sonar.api.batch.InstantiationStrategy;
 import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.rule.RuleKey;
 
 import javax.annotation.Nullable;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
 
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
 public class IssueTracking implements BatchComponent {
 
+  /**
+   * Maximum number of previous lines with the same hash to be compared with a new line
+   */
+  private static final int MAX_LINES_WITH_SAME_HASH = 10;
+
   /**
    * @param sourceHashHolder Null when working on resource that is not a file (directory/project)
    */
@@ -154,19 +168,110 @@ public class IssueTracking implements BatchComponent {
       }
     }
 
-    // Check if remaining number of lines exceeds threshold
-    if (lastIssuesByLines.keySet().size() * newIssuesByLines.keySet().size() < 250000) {
-      List<LinePair> possibleLinePairs = Lists.newArrayList();
-      for (Integer oldLine : lastIssuesByLines.keySet()) {
-        for (Integer newLine : newIssuesByLines.keySet()) {
-          int weight = rec.computeLengthOfMaximalBlock(oldLine, newLine);
-          possibleLinePairs.add(new LinePair(oldLine, newLine, weight));
+    // Pairs of lines with the same content: the longer the common block around them, the more probable the move
+    Map<String, NavigableSet<Integer>> lastLinesByHash = Maps.newHashMap();
+    for (Integer oldLine : lastIssuesByLines.keySet()) {
+      String hash = hashedReference.getHash(oldLine);
+      NavigableSet<Integer> lines = lastLinesByHash.get(hash);
+      if (lines == null) {
+        lines = Sets.newTreeSet();
+        lastLinesByHash.put(hash, lines);
+      }
+      lines.add(oldLine);
+    }
+    List<LinePair> possibleLinePairs = Lists.newArrayList();
+    for (Integer newLine : newIssuesByLines.keySet()) {
+      NavigableSet<Integer> oldLines = lastLinesByHash.get(hashedSource.getHash(newLine));
+      if (oldLines != null) {
+        for (Integer oldLine : closestLines(oldLines, newLine)) {
+          possibleLinePairs.add(new LinePair(oldLine, newLine, rec.computeLengthOfMaximalBlock(oldLine, newLine)));
         }
       }
-      Collections.sort(possibleLinePairs, LINE_PAIR_COMPARATOR);
-      for (LinePair linePair : possibleLinePairs) {
-        // High probability that lineA has been moved to lineB, so we can map all Issues on lineA to all Issues on lineB
-        map(newIssuesByLines.get(linePair.lineB), lastIssuesByLines.get(linePair.lineA), result);
+    }
+    Collections.sort(possibleLinePairs, LINE_PAIR_COMPARATOR);
+    for (LinePair linePair : possibleLinePairs) {
+      // High probability that lineA has been moved to lineB, so we can map all Issues on lineA to all Issues on lineB
+      map(newIssuesByLines.get(linePair.lineB), lastIssuesByLines.get(linePair.lineA), result);
+    }
+
+    // Finally issues on the closest lines
+    mapClosestLines(newIssuesByLines, lastIssuesByLines, result);
+  }
+
+  /**
+   * The lines that are the closest to the given line, limited to {@link #MAX_LINES_WITH_SAME_HASH}
+   */
+  private static List<Integer> closestLines(NavigableSet<Integer> lines, int line) {
+    List<Integer> result = Lists.newArrayList();
+    Iterator<Integer> lowerLines = lines.headSet(line, false).descendingIterator();
+    Iterator<Integer> higherLines = lines.tailSet(line, true).iterator();
+    Integer lower = lowerLines.hasNext() ? lowerLines.next() : null;
+    Integer higher = higherLines.hasNext() ? higherLines.next() : null;
+    while (result.size() < MAX_LINES_WITH_SAME_HASH && (lower != null || higher != null)) {
+      if (higher == null || (lower != null && line - lower < higher - line)) {
+        result.add(lower);
+        lower = lowerLines.hasNext() ? lowerLines.next() : null;
+      } else {
+        result.add(higher);
+        higher = higherLines.hasNext() ? higherLines.next() : null;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Map the remaining issues of the same rule, starting with the lines which are the closest. Issues of a new line are
+   * grouped in order to be mapped to the closest previous line with remaining issues, then to the next one, and so on.
+   */
+  private void mapClosestLines(Multimap<Integer, DefaultIssue> newIssuesByLines, Multimap<Integer, ServerIssue> lastIssuesByLines, IssueTrackingResult result) {
+    Map<RuleKey, NavigableMap<Integer, Deque<ServerIssue>>> lastIssuesByRuleAndLine = Maps.newHashMap();
+    for (ServerIssue lastIssue : lastIssuesByLines.values()) {
+      if (result.isUnmatched(lastIssue)) {
+        NavigableMap<Integer, Deque<ServerIssue>> lastIssuesByLine = lastIssuesByRuleAndLine.get(lastIssue.ruleKey());
+        if (lastIssuesByLine == null) {
+          lastIssuesByLine = Maps.newTreeMap();
+          lastIssuesByRuleAndLine.put(lastIssue.ruleKey(), lastIssuesByLine);
+        }
+        Deque<ServerIssue> lastIssuesOnLine = lastIssuesByLine.get(lastIssue.line());
+        if (lastIssuesOnLine == null) {
+          lastIssuesOnLine = new ArrayDeque<>();
+          lastIssuesByLine.put(lastIssue.line(), lastIssuesOnLine);
+        }
+        lastIssuesOnLine.add(lastIssue);
+      }
+    }
+
+    Map<List<Object>, NewIssuesOnLine> newIssuesByRuleAndLine = Maps.newLinkedHashMap();
+    for (DefaultIssue newIssue : newIssuesByLines.values()) {
+      if (isNotAlreadyMapped(newIssue, result) && lastIssuesByRuleAndLine.containsKey(newIssue.ruleKey())) {
+        List<Object> key = Arrays.<Object>asList(newIssue.ruleKey(), newIssue.line());
+        NewIssuesOnLine newIssuesOnLine = newIssuesByRuleAndLine.get(key);
+        if (newIssuesOnLine == null) {
+          newIssuesOnLine = new NewIssuesOnLine(newIssue.ruleKey(), newIssue.line());
+          newIssuesByRuleAndLine.put(key, newIssuesOnLine);
+        }
+        newIssuesOnLine.issues.add(newIssue);
+      }
+    }
+
+    PriorityQueue<NewIssuesOnLine> queue = new PriorityQueue<>(Math.max(1, newIssuesByRuleAndLine.size()), CLOSEST_LINE_COMPARATOR);
+    for (NewIssuesOnLine newIssuesOnLine : newIssuesByRuleAndLine.values()) {
+      if (newIssuesOnLine.moveToClosestLine(lastIssuesByRuleAndLine.get(newIssuesOnLine.ruleKey))) {
+        queue.add(newIssuesOnLine);
+      }
+    }
+    while (!queue.isEmpty()) {
+      NewIssuesOnLine newIssuesOnLine = queue.poll();
+      NavigableMap<Integer, Deque<ServerIssue>> lastIssuesByLine = lastIssuesByRuleAndLine.get(newIssuesOnLine.ruleKey);
+      Deque<ServerIssue> lastIssuesOnLine = lastIssuesByLine.get(newIssuesOnLine.closestLine);
+      while (lastIssuesOnLine != null && !lastIssuesOnLine.isEmpty() && !newIssuesOnLine.issues.isEmpty()) {
+        mapIssue(newIssuesOnLine.issues.poll(), lastIssuesOnLine.poll(), result);
+      }
+      if (lastIssuesOnLine != null && lastIssuesOnLine.isEmpty()) {
+        lastIssuesByLine.remove(newIssuesOnLine.closestLine);
+      }
+      if (!newIssuesOnLine.issues.isEmpty() && newIssuesOnLine.moveToClosestLine(lastIssuesByLine)) {
+        queue.add(newIssuesOnLine);
       }
     }
   }
@@ -177,7 +282,7 @@ public class IssueTracking implements BatchComponent {
       if (isNotAlreadyMapped(newIssue, result)) {
         mapIssue(
           newIssue,
-          findLastIssueWithSameChecksumAndMessage(newIssue, result.unmatchedByKeyForRule(newIssue.ruleKey()).values()),
+          result.firstUnmatchedForRuleAndForChecksumAndForMessage(newIssue.ruleKey(), newIssue.checksum(), newIssue.message()),
           result);
       }
     }
@@ -187,7 +292,7 @@ public class IssueTracking implements BatchComponent {
       if (isNotAlreadyMapped(newIssue, result)) {
         mapIssue(
           newIssue,
-          findLastIssueWithSameLineAndMessage(newIssue, result.unmatchedByKeyForRule(newIssue.ruleKey()).values()),
+          result.firstUnmatchedForRuleAndForLineAndForMessage(newIssue.ruleKey(), newIssue.line(), newIssue.message()),
           result);
       }
     }
@@ -198,7 +303,7 @@ public class IssueTracking implements BatchComponent {
       if (isNotAlreadyMapped(newIssue, result)) {
         mapIssue(
           newIssue,
-          findLastIssueWithSameChecksum(newIssue, result.unmatchedByKeyForRule(newIssue.ruleKey()).values()),
+          result.firstUnmatchedForRuleAndForChecksum(newIssue.ruleKey(), newIssue.checksum()),
           result);
       }
     }
@@ -208,7 +313,7 @@ public class IssueTracking implements BatchComponent {
     for (DefaultIssue newIssue : newIssues) {
       if (isNotAlreadyMapped(newIssue, result)) {
         for (ServerIssue previousIssue : previousIssues) {
-          if (isNotAlreadyMapped(previousIssue, result) && Objects.equal(newIssue.ruleKey(), previousIssue.ruleKey())) {
+          if (result.isUnmatched(previousIssue) && Objects.equal(newIssue.ruleKey(), previousIssue.ruleKey())) {
             mapIssue(newIssue, previousIssue, result);
             break;
           }
@@ -237,61 +342,14 @@ public class IssueTracking implements BatchComponent {
     return previousIssuesByLines;
   }
 
-  private ServerIssue findLastIssueWithSameChecksum(DefaultIssue newIssue, Collection<ServerIssue> previousIssues) {
-    for (ServerIssue previousIssue : previousIssues) {
-      if (isSameChecksum(newIssue, previousIssue)) {
-        return previousIssue;
-      }
-    }
-    return null;
-  }
-
-  private ServerIssue findLastIssueWithSameLineAndMessage(DefaultIssue newIssue, Collection<ServerIssue> previousIssues) {
-    for (ServerIssue previousIssue : previousIssues) {
-      if (isSameLine(newIssue, previousIssue) && isSameMessage(newIssue, previousIssue)) {
-        return previousIssue;
-      }
-    }
-    return null;
-  }
-
-  private ServerIssue findLastIssueWithSameChecksumAndMessage(DefaultIssue newIssue, Collection<ServerIssue> previousIssues) {
-    for (ServerIssue previousIssue : previousIssues) {
-      if (isSameChecksum(newIssue, previousIssue) && isSameMessage(newIssue, previousIssue)) {
-        return previousIssue;
-      }
-    }
-    return null;
-  }
-
   private ServerIssue findLastIssueWithSameLineAndChecksum(DefaultIssue newIssue, IssueTrackingResult result) {
-    Collection<ServerIssue> sameRuleAndSameLineAndSameChecksum = result.unmatchedForRuleAndForLineAndForChecksum(newIssue.ruleKey(), newIssue.line(), newIssue.checksum());
-    if (!sameRuleAndSameLineAndSameChecksum.isEmpty()) {
-      return sameRuleAndSameLineAndSameChecksum.iterator().next();
-    }
-    return null;
-  }
-
-  private boolean isNotAlreadyMapped(ServerIssue previousIssue, IssueTrackingResult result) {
-    return result.unmatched().contains(previousIssue);
+    return result.firstUnmatchedForRuleAndForLineAndForChecksum(newIssue.ruleKey(), newIssue.line(), newIssue.checksum());
   }
 
   private boolean isNotAlreadyMapped(DefaultIssue newIssue, IssueTrackingResult result) {
     return !result.isMatched(newIssue);
   }
 
-  private boolean isSameChecksum(DefaultIssue newIssue, ServerIssue previousIssue) {
-    return Objects.equal(previousIssue.checksum(), newIssue.checksum());
-  }
-
-  private boolean isSameLine(DefaultIssue newIssue, ServerIssue previousIssue) {
-    return Objects.equal(previousIssue.line(), newIssue.line());
-  }
-
-  private boolean isSameMessage(DefaultIssue newIssue, ServerIssue previousIssue) {
-    return Objects.equal(newIssue.message(), previousIssue.message());
-  }
-
   private void mapIssue(DefaultIssue issue, @Nullable ServerIssue ref, IssueTrackingResult result) {
     if (ref != null) {
       result.setMatch(issue, ref);
@@ -315,6 +373,46 @@ public class IssueTracking implements BatchComponent {
     }
   }
 
+  private static class NewIssuesOnLine {
+    final RuleKey ruleKey;
+    final int line;
+    final Deque<DefaultIssue> issues = new ArrayDeque<>();
+    int closestLine;
+    int distance;
+
+    NewIssuesOnLine(RuleKey ruleKey, int line) {
+      this.ruleKey = ruleKey;
+      this.line = line;
+    }
+
+    /**
+     * @return false if there are no more previous issues
+     */
+    boolean moveToClosestLine(NavigableMap<Integer, Deque<ServerIssue>> lastIssuesByLine) {
+      Integer lower = lastIssuesByLine.floorKey(line);
+      Integer higher = lastIssuesByLine.ceilingKey(line);
+      if (lower == null && higher == null) {
+        return false;
+      }
+      closestLine = higher == null || (lower != null && line - lower <= higher - line) ? lower : higher;
+      distance = Math.abs(line - closestLine);
+      return true;
+    }
+  }
+
+  private static final Comparator<NewIssuesOnLine> CLOSEST_LINE_COMPARATOR = new Comparator<NewIssuesOnLine>() {
+    @Override
+    public int compare(NewIssuesOnLine o1, NewIssuesOnLine o2) {
+      if (o1.distance != o2.distance) {
+        return o1.distance - o2.distance;
+      }
+      if (o1.closestLine != o2.closestLine) {
+        return o1.closestLine - o2.closestLine;
+      }
+      return o1.line - o2.line;
+    }
+  };
+
   private static class HashOccurrence {
     int lineA;
     int lineB;
@@ -19,49 +19,75 @@
  */
 package org.sonar.batch.issue.tracking;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import org.apache.commons.lang.StringUtils;
 import org.sonar.api.issue.internal.DefaultIssue;
 import org.sonar.api.rule.RuleKey;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Unmatched previous issues are indexed by rule and by the different combinations of fields
+ * used by {@link IssueTracking}, so that each lookup is done in constant time. Indexes keep
+ * the order in which previous issues are added.
+ */
 class IssueTrackingResult {
-  private final Map<String, ServerIssue> unmatchedByKey = new HashMap<>();
+  private final Map<String, ServerIssue> unmatchedByKey = new LinkedHashMap<>();
   private final Map<RuleKey, Map<String, ServerIssue>> unmatchedByRuleAndKey = new HashMap<>();
-  private final Map<RuleKey, Map<Integer, Multimap<String, ServerIssue>>> unmatchedByRuleAndLineAndChecksum = new HashMap<>();
+  private final Multimap<List<Object>, ServerIssue> unmatchedByRuleAndLineAndChecksum = LinkedHashMultimap.create();
+  private final Multimap<List<Object>, ServerIssue> unmatchedByRuleAndChecksumAndMessage = LinkedHashMultimap.create();
+  private final Multimap<List<Object>, ServerIssue> unmatchedByRuleAndLineAndMessage = LinkedHashMultimap.create();
+  private final Multimap<List<Object>, ServerIssue> unmatchedByRuleAndChecksum = LinkedHashMultimap.create();
   private final Map<DefaultIssue, ServerIssue> matched = Maps.newIdentityHashMap();
 
   Collection<ServerIssue> unmatched() {
     return unmatchedByKey.values();
   }
 
+  boolean isUnmatched(ServerIssue issue) {
+    return unmatchedByKey.get(issue.key()) == issue;
+  }
+
   Map<String, ServerIssue> unmatchedByKeyForRule(RuleKey ruleKey) {
     return unmatchedByRuleAndKey.containsKey(ruleKey) ? unmatchedByRuleAndKey.get(ruleKey) : Collections.<String, ServerIssue>emptyMap();
   }
 
-  Collection<ServerIssue> unmatchedForRuleAndForLineAndForChecksum(RuleKey ruleKey, @Nullable Integer line, @Nullable String checksum) {
-    if (!unmatchedByRuleAndLineAndChecksum.containsKey(ruleKey)) {
-      return Collections.emptyList();
-    }
-    Map<Integer, Multimap<String, ServerIssue>> unmatchedForRule = unmatchedByRuleAndLineAndChecksum.get(ruleKey);
-    Integer lineNotNull = line != null ? line : 0;
-    if (!unmatchedForRule.containsKey(lineNotNull)) {
-      return Collections.emptyList();
-    }
-    Multimap<String, ServerIssue> unmatchedForRuleAndLine = unmatchedForRule.get(lineNotNull);
-    String checksumNotNull = StringUtils.defaultString(checksum, "");
-    if (!unmatchedForRuleAndLine.containsKey(checksumNotNull)) {
-      return Collections.emptyList();
-    }
-    return unmatchedForRuleAndLine.get(checksumNotNull);
+  @CheckForNull
+  ServerIssue firstUnmatchedForRuleAndForLineAndForChecksum(RuleKey ruleKey, @Nullable Integer line, @Nullable String checksum) {
+    return first(unmatchedByRuleAndLineAndChecksum.get(lineAndChecksumKey(ruleKey, line, checksum)));
+  }
+
+  @CheckForNull
+  ServerIssue firstUnmatchedForRuleAndForChecksumAndForMessage(RuleKey ruleKey, @Nullable String checksum, @Nullable String message) {
+    return first(unmatchedByRuleAndChecksumAndMessage.get(Arrays.<Object>asList(ruleKey, checksum, message)));
+  }
+
+  @CheckForNull
+  ServerIssue firstUnmatchedForRuleAndForLineAndForMessage(RuleKey ruleKey, @Nullable Integer line, @Nullable String message) {
+    return first(unmatchedByRuleAndLineAndMessage.get(Arrays.<Object>asList(ruleKey, line, message)));
+  }
+
+  @CheckForNull
+  ServerIssue firstUnmatchedForRuleAndForChecksum(RuleKey ruleKey, @Nullable String checksum) {
+    return first(unmatchedByRuleAndChecksum.get(Arrays.<Object>asList(ruleKey, checksum)));
+  }
+
+  @CheckForNull
+  private static ServerIssue first(Collection<ServerIssue> issues) {
+    Iterator<ServerIssue> it = issues.iterator();
+    return it.hasNext() ? it.next() : null;
   }
 
   Collection<DefaultIssue> matched() {
@@ -81,22 +107,19 @@ class IssueTrackingResult {
     RuleKey ruleKey = i.ruleKey();
     if (!unmatchedByRuleAndKey.containsKey(ruleKey)) {
       unmatchedByRuleAndKey.put(ruleKey, new HashMap<String, ServerIssue>());
-      unmatchedByRuleAndLineAndChecksum.put(ruleKey, new HashMap<Integer, Multimap<String, ServerIssue>>());
     }
     unmatchedByRuleAndKey.get(ruleKey).put(i.key(), i);
-    Map<Integer, Multimap<String, ServerIssue>> unmatchedForRule = unmatchedByRuleAndLineAndChecksum.get(ruleKey);
-    Integer lineNotNull = lineNotNull(i);
-    if (!unmatchedForRule.containsKey(lineNotNull)) {
-      unmatchedForRule.put(lineNotNull, HashMultimap.<String, ServerIssue>create());
-    }
-    Multimap<String, ServerIssue> unmatchedForRuleAndLine = unmatchedForRule.get(lineNotNull);
-    String checksumNotNull = StringUtils.defaultString(i.checksum(), "");
-    unmatchedForRuleAndLine.put(checksumNotNull, i);
+    unmatchedByRuleAndLineAndChecksum.put(lineAndChecksumKey(ruleKey, i.line(), i.checksum()), i);
+    unmatchedByRuleAndChecksumAndMessage.put(Arrays.<Object>asList(ruleKey, i.checksum(), i.message()), i);
+    unmatchedByRuleAndLineAndMessage.put(Arrays.<Object>asList(ruleKey, i.line(), i.message()), i);
+    unmatchedByRuleAndChecksum.put(Arrays.<Object>asList(ruleKey, i.checksum()), i);
   }
 
-  private Integer lineNotNull(ServerIssue i) {
-    Integer line = i.line();
-    return line != null ? line : 0;
+  /**
+   * Null line and null checksum are respectively considered as line 0 and empty checksum
+   */
+  private static List<Object> lineAndChecksumKey(RuleKey ruleKey, @Nullable Integer line, @Nullable String checksum) {
+    return Arrays.<Object>asList(ruleKey, line != null ? line : 0, StringUtils.defaultString(checksum, ""));
   }
 
   void setMatch(DefaultIssue issue, ServerIssue matching) {
@@ -104,8 +127,9 @@ class IssueTrackingResult {
     RuleKey ruleKey = matching.ruleKey();
     unmatchedByRuleAndKey.get(ruleKey).remove(matching.key());
     unmatchedByKey.remove(matching.key());
-    Integer lineNotNull = lineNotNull(matching);
-    String checksumNotNull = StringUtils.defaultString(matching.checksum(), "");
-    unmatchedByRuleAndLineAndChecksum.get(ruleKey).get(lineNotNull).get(checksumNotNull).remove(matching);
+    unmatchedByRuleAndLineAndChecksum.remove(lineAndChecksumKey(ruleKey, matching.line(), matching.checksum()), matching);
+    unmatchedByRuleAndChecksumAndMessage.remove(Arrays.<Object>asList(ruleKey, matching.checksum(), matching.message()), matching);
+    unmatchedByRuleAndLineAndMessage.remove(Arrays.<Object>asList(ruleKey, matching.line(), matching.message()), matching);
+    unmatchedByRuleAndChecksum.remove(Arrays.<Object>asList(ruleKey, matching.checksum()), matching);
   }
 }
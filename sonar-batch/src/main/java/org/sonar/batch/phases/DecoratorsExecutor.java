@@ -22,11 +22,15 @@ package org.sonar.batch.phases;
 import org.sonar.batch.deprecated.decorator.DefaultDecoratorContext;
 
 import org.sonar.batch.deprecated.decorator.DecoratorsSelector;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.sonar.api.BatchComponent;
 import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
+import org.sonar.api.batch.ParallelDecorator;
 import org.sonar.api.batch.SonarIndex;
+import org.sonar.api.config.Settings;
 import org.sonar.api.measures.MetricFinder;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
@@ -37,12 +41,32 @@ import org.sonar.batch.duplication.DuplicationCache;
 import org.sonar.batch.events.EventBus;
 import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
+import org.sonar.core.config.SettingsUtils;
+
+import javax.annotation.Nullable;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Executes decorators bottom-up on the tree of resources. Children are decorated before their parent,
+ * so sibling subtrees are independent and can be decorated concurrently when
+ * {@link #THREADS_PROPERTY} is greater than 1. In this mode only the decorators annotated with
+ * {@link ParallelDecorator} run concurrently. The others are executed while holding the lock of the
+ * {@link SonarIndex}, which is the lock of all the writes to the index.
+ */
 public class DecoratorsExecutor implements BatchComponent {
 
+  /**
+   * Number of threads used to decorate sibling subtrees. Default is 1, which decorates
+   * the whole tree sequentially.
+   */
+  public static final String THREADS_PROPERTY = "sonar.decorators.threads";
+
   private DecoratorsSelector decoratorsSelector;
   private SonarIndex index;
   private EventBus eventBus;
@@ -51,10 +75,11 @@ public class DecoratorsExecutor implements BatchComponent {
   private MeasureCache measureCache;
   private MetricFinder metricFinder;
   private final DuplicationCache duplicationCache;
+  private final int threads;
 
   public DecoratorsExecutor(BatchExtensionDictionnary batchExtDictionnary,
     Project project, SonarIndex index, EventBus eventBus, CoverageExclusions coverageFilter, MeasureCache measureCache, MetricFinder metricFinder,
-    DuplicationCache duplicationCache) {
+    DuplicationCache duplicationCache, Settings settings) {
     this.measureCache = measureCache;
     this.metricFinder = metricFinder;
     this.duplicationCache = duplicationCache;
@@ -63,28 +88,74 @@ public class DecoratorsExecutor implements BatchComponent {
     this.eventBus = eventBus;
     this.project = project;
     this.coverageFilter = coverageFilter;
+    this.threads = getThreads(settings);
+  }
+
+  @VisibleForTesting
+  static int getThreads(Settings settings) {
+    return SettingsUtils.getPositiveInt(settings, THREADS_PROPERTY, 1);
   }
 
   public void execute() {
     Collection<Decorator> decorators = decoratorsSelector.select(project);
     eventBus.fireEvent(new DecoratorsPhaseEvent(Lists.newArrayList(decorators), true));
-    ((DefaultDecoratorContext) decorateResource(project, decorators, true)).end();
+    DefaultDecoratorContext context;
+    if (threads > 1) {
+      context = decorateConcurrently(project, decorators);
+    } else {
+      context = decorateResource(project, decorators, true);
+    }
+    context.end();
     eventBus.fireEvent(new DecoratorsPhaseEvent(Lists.newArrayList(decorators), false));
   }
 
-  DecoratorContext decorateResource(Resource resource, Collection<Decorator> decorators, boolean executeDecorators) {
+  DefaultDecoratorContext decorateResource(Resource resource, Collection<Decorator> decorators, boolean executeDecorators) {
     List<DecoratorContext> childrenContexts = Lists.newArrayList();
     for (Resource child : index.getChildren(resource)) {
       boolean isModule = child instanceof Project;
-      DefaultDecoratorContext childContext = (DefaultDecoratorContext) decorateResource(child, decorators, !isModule);
+      DefaultDecoratorContext childContext = decorateResource(child, decorators, !isModule);
       childrenContexts.add(childContext.end());
     }
+    return decorate(resource, decorators, executeDecorators, childrenContexts, null);
+  }
+
+  private DefaultDecoratorContext decorateConcurrently(Project project, Collection<Decorator> decorators) {
+    Set<Decorator> parallelDecorators = Sets.newIdentityHashSet();
+    for (Decorator decorator : decorators) {
+      // not inherited, subclasses may not be thread-safe
+      if (decorator.getClass().isAnnotationPresent(ParallelDecorator.class)) {
+        parallelDecorators.add(decorator);
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    try {
+      return pool.invoke(new DecorateTask(project, decorators, parallelDecorators, true, failure));
+    } catch (RuntimeException e) {
+      // ForkJoinPool rethrows a copy of the exception raised by a worker thread. Keep the original one.
+      RuntimeException original = failure.get();
+      throw original != null ? original : e;
+    } finally {
+      pool.shutdown();
+    }
+  }
 
+  /**
+   * @param parallelDecorators the decorators that can be executed concurrently, null if the tree is decorated sequentially
+   */
+  private DefaultDecoratorContext decorate(Resource resource, Collection<Decorator> decorators, boolean executeDecorators, List<DecoratorContext> childrenContexts,
+    @Nullable Set<Decorator> parallelDecorators) {
     DefaultDecoratorContext context = new DefaultDecoratorContext(resource, index, childrenContexts, measureCache, metricFinder, duplicationCache, coverageFilter);
     context.init();
     if (executeDecorators) {
       for (Decorator decorator : decorators) {
-        executeDecorator(decorator, context, resource);
+        if (parallelDecorators == null || parallelDecorators.contains(decorator)) {
+          executeDecorator(decorator, context, resource);
+        } else {
+          synchronized (index) {
+            executeDecorator(decorator, context, resource);
+          }
+        }
       }
     }
     return context;
@@ -105,4 +176,51 @@ public class DecoratorsExecutor implements BatchComponent {
     }
   }
 
+  /**
+   * Decorates the children of the resource in parallel, then the resource itself.
+   */
+  private class DecorateTask extends RecursiveTask<DefaultDecoratorContext> {
+    private final Resource resource;
+    private final Collection<Decorator> decorators;
+    private final Set<Decorator> parallelDecorators;
+    private final boolean executeDecorators;
+    private final AtomicReference<RuntimeException> failure;
+
+    DecorateTask(Resource resource, Collection<Decorator> decorators, Set<Decorator> parallelDecorators, boolean executeDecorators,
+      AtomicReference<RuntimeException> failure) {
+      this.resource = resource;
+      this.decorators = decorators;
+      this.parallelDecorators = parallelDecorators;
+      this.executeDecorators = executeDecorators;
+      this.failure = failure;
+    }
+
+    @Override
+    protected DefaultDecoratorContext compute() {
+      try {
+        return decorateTree();
+      } catch (RuntimeException e) {
+        failure.compareAndSet(null, e);
+        throw e;
+      }
+    }
+
+    private DefaultDecoratorContext decorateTree() {
+      List<Resource> children;
+      synchronized (index) {
+        children = Lists.newArrayList(index.getChildren(resource));
+      }
+      List<DecorateTask> tasks = Lists.newArrayList();
+      for (Resource child : children) {
+        boolean isModule = child instanceof Project;
+        tasks.add(new DecorateTask(child, decorators, parallelDecorators, !isModule, failure));
+      }
+      invokeAll(tasks);
+      List<DecoratorContext> childrenContexts = Lists.newArrayList();
+      for (DecorateTask task : tasks) {
+        childrenContexts.add(task.join().end());
+      }
+      return decorate(resource, decorators, executeDecorators, childrenContexts, parallelDecorators);
+    }
+  }
 }
@@ -79,40 +79,60 @@ public class PhasesTimeProfiler implements SensorExecutionHandler, DecoratorExec
     }
   }
 
+  /**
+   * Cumulated time and number of decorated resources per decorator. Thread-safe, as
+   * decorators can be executed concurrently on different resources.
+   */
   static class DecoratorsProfiler {
     List<Decorator> decorators = Lists.newArrayList();
     Map<Decorator, Long> durations = new IdentityHashMap<Decorator, Long>();
-    long startTime;
-    Decorator currentDecorator;
+    Map<Decorator, Integer> executions = new IdentityHashMap<Decorator, Integer>();
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+    private final ThreadLocal<Decorator> currentDecorator = new ThreadLocal<Decorator>();
 
     DecoratorsProfiler() {
     }
 
     void start(Decorator decorator) {
-      this.startTime = System.currentTimeMillis();
-      this.currentDecorator = decorator;
+      startTime.set(System.currentTimeMillis());
+      currentDecorator.set(decorator);
     }
 
     void stop() {
+      long duration = System.currentTimeMillis() - startTime.get();
+      add(currentDecorator.get(), duration);
+      currentDecorator.remove();
+      startTime.remove();
+    }
+
+    private synchronized void add(Decorator decorator, long duration) {
       final Long cumulatedDuration;
-      if (durations.containsKey(currentDecorator)) {
-        cumulatedDuration = durations.get(currentDecorator);
+      if (durations.containsKey(decorator)) {
+        cumulatedDuration = durations.get(decorator);
       } else {
-        decorators.add(currentDecorator);
+        decorators.add(decorator);
         cumulatedDuration = 0L;
       }
-      durations.put(currentDecorator, cumulatedDuration + (System.currentTimeMillis() - startTime));
+      durations.put(decorator, cumulatedDuration + duration);
+      Integer count = executions.get(decorator);
+      executions.put(decorator, count == null ? 1 : (count + 1));
     }
 
     void log() {
       LOG.debug(getMessage());
     }
 
-    String getMessage() {
+    synchronized String getMessage() {
       StringBuilder sb = new StringBuilder("Decorator time:").append(SystemUtils.LINE_SEPARATOR);
       for (Decorator decorator : decorators) {
-        sb.append("\t").append(decorator.toString()).append(": ").append(durations.get(decorator)).append("ms")
-            .append(SystemUtils.LINE_SEPARATOR);
+        long duration = durations.get(decorator);
+        int count = executions.get(decorator);
+        sb.append("\t").append(decorator.toString()).append(": ").append(duration).append("ms")
+          .append(" (").append(count).append(" resources");
+        if (duration > 0) {
+          sb.append(", ").append(count * 1000L / duration).append(" resources/s");
+        }
+        sb.append(")").append(SystemUtils.LINE_SEPARATOR);
       }
       return sb.toString();
     }
@@ -0,0 +1,197 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.repository;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchComponent;
+import org.sonar.batch.bootstrap.ServerClient;
+import org.sonar.batch.protocol.input.BatchInput;
+import org.sonar.home.cache.FileCache;
+
+import javax.annotation.CheckForNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Active rules of quality profiles downloaded from server, stored in the user cache (see {@link FileCache}).
+ * Their versions are sent to server, which doesn't send them again while they don't change.
+ * Storage is best effort: I/O errors are logged and entries are considered as missing.
+ */
+public class ActiveRulesCache implements BatchComponent {
+
+  /**
+   * Set to true to ignore and not update the cache.
+   */
+  public static final String DISABLED_PROPERTY = "sonar.activeRulesCache.disabled";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ActiveRulesCache.class);
+
+  private final FileCache fileCache;
+  private final ServerClient serverClient;
+
+  public ActiveRulesCache(FileCache fileCache, ServerClient serverClient) {
+    this.fileCache = fileCache;
+    this.serverClient = serverClient;
+  }
+
+  /**
+   * Active rules of the quality profiles used by the last analysis of the project, by profile key
+   */
+  public Map<String, Entry> load(String projectKey) {
+    File projectFile = projectFile(projectKey);
+    if (!projectFile.isFile()) {
+      return Collections.emptyMap();
+    }
+    Map<String, Entry> entries = new LinkedHashMap<>();
+    try {
+      for (String profileKey : FileUtils.readLines(projectFile, Charsets.UTF_8)) {
+        Entry entry = read(profileFile(profileKey));
+        if (entry != null) {
+          entries.put(profileKey, entry);
+        }
+      }
+    } catch (IOException e) {
+      LOG.debug("Fail to read cached active rules of " + projectKey, e);
+    }
+    return entries;
+  }
+
+  /**
+   * Store the active rules of the quality profiles used by the project
+   */
+  public void save(String projectKey, Map<String, Entry> entriesByProfileKey) {
+    try {
+      for (Map.Entry<String, Entry> entry : entriesByProfileKey.entrySet()) {
+        if (entry.getValue().isNew) {
+          write(profileFile(entry.getKey()), entry.getValue());
+        }
+      }
+      File projectFile = projectFile(projectKey);
+      File tmp = createTempFile(projectFile);
+      FileUtils.writeLines(tmp, Charsets.UTF_8.name(), entriesByProfileKey.keySet());
+      rename(tmp, projectFile);
+    } catch (IOException e) {
+      LOG.debug("Fail to write cached active rules of " + projectKey, e);
+    }
+  }
+
+  @CheckForNull
+  private static Entry read(File file) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+      BatchInput.ActiveRulesVersion version = BatchInput.ActiveRulesVersion.parseDelimitedFrom(input);
+      if (version == null || !version.hasVersion()) {
+        return null;
+      }
+      List<BatchInput.ActiveRule> activeRules = new ArrayList<>(version.getActiveRuleCount());
+      for (int i = 0; i < version.getActiveRuleCount(); i++) {
+        BatchInput.ActiveRule activeRule = BatchInput.ActiveRule.parseDelimitedFrom(input);
+        if (activeRule == null) {
+          // truncated file
+          return null;
+        }
+        activeRules.add(activeRule);
+      }
+      return new Entry(version.getVersion(), activeRules, false);
+    }
+  }
+
+  private static void write(File file, Entry entry) throws IOException {
+    File tmp = createTempFile(file);
+    try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tmp))) {
+      BatchInput.ActiveRulesVersion.newBuilder()
+        .setVersion(entry.version)
+        .setActiveRuleCount(entry.activeRules.size())
+        .build().writeDelimitedTo(output);
+      for (BatchInput.ActiveRule activeRule : entry.activeRules) {
+        activeRule.writeDelimitedTo(output);
+      }
+    }
+    rename(tmp, file);
+  }
+
+  /**
+   * Write into a temporary file then rename it, so that concurrent analyses never read partial files
+   */
+  private static File createTempFile(File file) throws IOException {
+    FileUtils.forceMkdir(file.getParentFile());
+    return File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+  }
+
+  private static void rename(File tmp, File file) {
+    FileUtils.deleteQuietly(file);
+    if (!tmp.renameTo(file)) {
+      FileUtils.deleteQuietly(tmp);
+    }
+  }
+
+  private File projectFile(String projectKey) {
+    return new File(new File(dir(), "projects"), DigestUtils.md5Hex(projectKey));
+  }
+
+  private File profileFile(String profileKey) {
+    return new File(new File(dir(), "profiles"), DigestUtils.md5Hex(profileKey));
+  }
+
+  private File dir() {
+    return new File(new File(fileCache.getDir(), "active_rules"), DigestUtils.md5Hex(serverClient.getURL()));
+  }
+
+  public static class Entry {
+    private final String version;
+    private final List<BatchInput.ActiveRule> activeRules;
+    private final boolean isNew;
+
+    /**
+     * @param isNew true if downloaded by the current analysis, so that it has to be stored
+     */
+    public Entry(String version, List<BatchInput.ActiveRule> activeRules, boolean isNew) {
+      this.version = version;
+      this.activeRules = activeRules;
+      this.isNew = isNew;
+    }
+
+    public String version() {
+      return version;
+    }
+
+    public List<BatchInput.ActiveRule> activeRules() {
+      return activeRules;
+    }
+  }
+}
@@ -19,15 +19,36 @@
  */
 package org.sonar.batch.repository;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.io.InputSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.api.utils.HttpDownloader;
 import org.sonar.batch.bootstrap.DefaultAnalysisMode;
 import org.sonar.batch.bootstrap.ServerClient;
 import org.sonar.batch.bootstrap.TaskProperties;
+import org.sonar.batch.protocol.input.ActiveRule;
+import org.sonar.batch.protocol.input.BatchInput;
+import org.sonar.batch.protocol.input.FileData;
 import org.sonar.batch.protocol.input.ProjectRepositories;
+import org.sonar.batch.protocol.input.QProfile;
 import org.sonar.batch.rule.ModuleQProfiles;
 
+import javax.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class DefaultProjectRepositoriesLoader implements ProjectRepositoriesLoader {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultProjectRepositoriesLoader.class);
@@ -36,10 +57,12 @@ public class DefaultProjectRepositoriesLoader implements ProjectRepositoriesLoad
 
   private final ServerClient serverClient;
   private final DefaultAnalysisMode analysisMode;
+  private final ActiveRulesCache activeRulesCache;
 
-  public DefaultProjectRepositoriesLoader(ServerClient serverClient, DefaultAnalysisMode analysisMode) {
+  public DefaultProjectRepositoriesLoader(ServerClient serverClient, DefaultAnalysisMode analysisMode, ActiveRulesCache activeRulesCache) {
     this.serverClient = serverClient;
     this.analysisMode = analysisMode;
+    this.activeRulesCache = activeRulesCache;
   }
 
   @Override
@@ -52,7 +75,131 @@ public class DefaultProjectRepositoriesLoader implements ProjectRepositoriesLoad
       url += "&profile=" + ServerClient.encodeForUrl(taskProperties.properties().get(ModuleQProfiles.SONAR_PROFILE_PROP));
     }
     url += "&preview=" + analysisMode.isPreview();
-    return ProjectRepositories.fromJson(serverClient.request(url));
+    url += "&format=protobuf";
+    boolean cacheEnabled = !"true".equals(taskProperties.properties().get(ActiveRulesCache.DISABLED_PROPERTY));
+    Map<String, ActiveRulesCache.Entry> cachedActiveRules = cacheEnabled ? activeRulesCache.load(projectKey) : Collections.<String, ActiveRulesCache.Entry>emptyMap();
+    if (!cachedActiveRules.isEmpty()) {
+      url += "&activeRulesVersions=" + ServerClient.encodeForUrl(activeRulesVersions(cachedActiveRules));
+    }
+    InputSupplier<InputStream> request = serverClient.doRequest(url, "GET", null);
+    try (InputStream is = new BufferedInputStream(request.getInput())) {
+      Map<String, ActiveRulesCache.Entry> activeRules = new LinkedHashMap<>();
+      ProjectRepositories ref = read(is, cachedActiveRules, activeRules);
+      if (cacheEnabled) {
+        activeRulesCache.save(projectKey, activeRules);
+      }
+      return ref;
+    } catch (HttpDownloader.HttpException e) {
+      throw serverClient.handleHttpException(e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to load project repositories", e);
+    }
+  }
+
+  private static String activeRulesVersions(Map<String, ActiveRulesCache.Entry> cachedActiveRules) {
+    Map<String, String> versions = new LinkedHashMap<>();
+    for (Map.Entry<String, ActiveRulesCache.Entry> entry : cachedActiveRules.entrySet()) {
+      versions.put(entry.getKey(), entry.getValue().version());
+    }
+    return Joiner.on(',').withKeyValueSeparator("=").join(versions);
+  }
+
+  @VisibleForTesting
+  static ProjectRepositories read(InputStream is) throws IOException {
+    return read(is, Collections.<String, ActiveRulesCache.Entry>emptyMap(), new HashMap<String, ActiveRulesCache.Entry>());
+  }
+
+  /**
+   * Project repository is streamed by server as a sequence of delimited items, so that it's never loaded as a whole
+   * in a String.
+   * Active rules of each quality profile are preceded by their version. When server answers that the version known by batch
+   * is unchanged, rules are taken from the local cache instead of being sent again.
+   * The last item is flagged as end of stream, so that a truncated stream is not mistaken for a complete repository.
+   *
+   * @param cachedActiveRules active rules of the local cache, by profile key
+   * @param activeRules filled with the active rules of the profiles sent by server, by profile key
+   */
+  @VisibleForTesting
+  static ProjectRepositories read(InputStream is, Map<String, ActiveRulesCache.Entry> cachedActiveRules, Map<String, ActiveRulesCache.Entry> activeRules)
+    throws IOException {
+    ProjectRepositories ref = new ProjectRepositories();
+    BatchInput.ProjectRepositoryItem item = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(is);
+    while (item != null && !item.getEndOfStream()) {
+      if (item.hasActiveRulesVersion()) {
+        BatchInput.ActiveRulesVersion version = item.getActiveRulesVersion();
+        activeRules.put(version.getProfileKey(), readActiveRules(is, ref, version, cachedActiveRules.get(version.getProfileKey())));
+      } else if (item.hasModuleSettings()) {
+        BatchInput.ModuleSettings settings = item.getModuleSettings();
+        ref.addSettings(settings.getModuleKey(), toMap(settings.getPropertyList()));
+      } else if (item.hasQprofile()) {
+        BatchInput.QProfile qProfile = item.getQprofile();
+        ref.addQProfile(new QProfile(qProfile.getKey(), qProfile.getName(), qProfile.getLanguage(),
+          qProfile.hasRulesUpdatedAt() ? new Date(qProfile.getRulesUpdatedAt()) : null));
+      } else if (item.hasActiveRule()) {
+        ref.addActiveRule(toActiveRule(item.getActiveRule()));
+      } else if (item.hasFileData()) {
+        BatchInput.FileData fileData = item.getFileData();
+        ref.addFileData(fileData.getModuleKey(), fileData.getPath(), new FileData(
+          fileData.hasHash() ? fileData.getHash() : null,
+          fileData.getNeedBlame(),
+          fileData.hasScmLastCommitDatetimesByLine() ? fileData.getScmLastCommitDatetimesByLine() : null,
+          fileData.hasScmRevisionsByLine() ? fileData.getScmRevisionsByLine() : null,
+          fileData.hasScmAuthorsByLine() ? fileData.getScmAuthorsByLine() : null));
+      } else if (item.hasLastAnalysisDate()) {
+        ref.setLastAnalysisDate(new Date(item.getLastAnalysisDate()));
+      }
+      item = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(is);
+    }
+    if (item == null) {
+      throw new IllegalStateException("Project repositories sent by server are truncated");
+    }
+    return ref;
+  }
+
+  private static ActiveRulesCache.Entry readActiveRules(InputStream is, ProjectRepositories ref, BatchInput.ActiveRulesVersion version,
+    @Nullable ActiveRulesCache.Entry cached) throws IOException {
+    if (version.getUnchanged()) {
+      if (cached == null) {
+        throw new IllegalStateException("Active rules of quality profile " + version.getProfileKey() + " are not cached");
+      }
+      for (BatchInput.ActiveRule activeRule : cached.activeRules()) {
+        ref.addActiveRule(toActiveRule(activeRule));
+      }
+      return cached;
+    }
+    List<BatchInput.ActiveRule> activeRules = new ArrayList<>(version.getActiveRuleCount());
+    for (int i = 0; i < version.getActiveRuleCount(); i++) {
+      BatchInput.ProjectRepositoryItem item = BatchInput.ProjectRepositoryItem.parseDelimitedFrom(is);
+      if (item == null || !item.hasActiveRule()) {
+        throw new IllegalStateException("Missing active rules of quality profile " + version.getProfileKey());
+      }
+      activeRules.add(item.getActiveRule());
+      ref.addActiveRule(toActiveRule(item.getActiveRule()));
+    }
+    return new ActiveRulesCache.Entry(version.getVersion(), activeRules, true);
+  }
+
+  private static ActiveRule toActiveRule(BatchInput.ActiveRule activeRule) {
+    ActiveRule result = new ActiveRule(
+      activeRule.getRepositoryKey(),
+      activeRule.getRuleKey(),
+      activeRule.hasTemplateRuleKey() ? activeRule.getTemplateRuleKey() : null,
+      activeRule.getName(),
+      activeRule.hasSeverity() ? activeRule.getSeverity() : null,
+      activeRule.hasInternalKey() ? activeRule.getInternalKey() : null,
+      activeRule.hasLanguage() ? activeRule.getLanguage() : null);
+    for (BatchInput.Property param : activeRule.getParamList()) {
+      result.addParam(param.getKey(), param.hasValue() ? param.getValue() : null);
+    }
+    return result;
+  }
+
+  private static Map<String, String> toMap(List<BatchInput.Property> properties) {
+    Map<String, String> map = new HashMap<>();
+    for (BatchInput.Property property : properties) {
+      map.put(property.getKey(), property.hasValue() ? property.getValue() : null);
+    }
+    return map;
   }
 
 }
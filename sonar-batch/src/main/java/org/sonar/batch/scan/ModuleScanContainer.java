@@ -31,6 +31,7 @@ import org.sonar.api.resources.Project;
 import org.sonar.api.scan.filesystem.FileExclusions;
 import org.sonar.batch.ProjectTree;
 import org.sonar.batch.bootstrap.*;
+import org.sonar.batch.cache.AnalysisCache;
 import org.sonar.batch.components.TimeMachineConfiguration;
 import org.sonar.batch.debt.*;
 import org.sonar.batch.deprecated.DeprecatedSensorContext;
@@ -64,6 +65,7 @@ import org.sonar.batch.scan.report.IssuesReports;
 import org.sonar.batch.sensor.AnalyzerOptimizer;
 import org.sonar.batch.sensor.DefaultSensorContext;
 import org.sonar.batch.sensor.DefaultSensorStorage;
+import org.sonar.batch.sensor.PerFileSensorExecutor;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
 import org.sonar.core.component.ScanPerspectives;
 
@@ -141,6 +143,8 @@ public class ModuleScanContainer extends ComponentContainer {
 
       DefaultSensorContext.class,
       DefaultSensorStorage.class,
+      AnalysisCache.class,
+      PerFileSensorExecutor.class,
       DeprecatedSensorContext.class,
       BatchExtensionDictionnary.class,
       DefaultTimeMachine.class,
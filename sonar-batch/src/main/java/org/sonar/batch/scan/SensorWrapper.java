@@ -20,6 +20,7 @@
 package org.sonar.batch.scan;
 
 import org.sonar.batch.sensor.AnalyzerOptimizer;
+import org.sonar.batch.sensor.PerFileSensorExecutor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,10 +37,12 @@ public class SensorWrapper implements org.sonar.api.batch.Sensor {
   private SensorContext adaptor;
   private DefaultSensorDescriptor descriptor;
   private AnalyzerOptimizer optimizer;
+  private PerFileSensorExecutor perFileSensorExecutor;
 
-  public SensorWrapper(Sensor newSensor, SensorContext adaptor, AnalyzerOptimizer optimizer) {
+  public SensorWrapper(Sensor newSensor, SensorContext adaptor, AnalyzerOptimizer optimizer, PerFileSensorExecutor perFileSensorExecutor) {
     this.wrappedSensor = newSensor;
     this.optimizer = optimizer;
+    this.perFileSensorExecutor = perFileSensorExecutor;
     descriptor = new DefaultSensorDescriptor();
     newSensor.describe(descriptor);
     this.adaptor = adaptor;
@@ -56,7 +59,11 @@ public class SensorWrapper implements org.sonar.api.batch.Sensor {
 
   @Override
   public void analyse(Project module, org.sonar.api.batch.SensorContext context) {
-    wrappedSensor.execute(adaptor);
+    if (descriptor.isParallelPerFile()) {
+      perFileSensorExecutor.execute(wrappedSensor, descriptor, adaptor);
+    } else {
+      wrappedSensor.execute(adaptor);
+    }
   }
 
   @Override
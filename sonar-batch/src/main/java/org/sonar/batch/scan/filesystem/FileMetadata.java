@@ -19,12 +19,8 @@
  */
 package org.sonar.batch.scan.filesystem;
 
-import com.google.common.base.Charsets;
-import com.google.common.primitives.Ints;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.ByteOrderMark;
-import org.apache.commons.io.input.BOMInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.BatchComponent;
@@ -32,19 +28,20 @@ import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.AnalysisMode;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Computes hash of files. Ends of Lines are ignored, so files with
@@ -56,241 +53,299 @@ public class FileMetadata implements BatchComponent {
 
   private static final char LINE_FEED = '\n';
   private static final char CARRIAGE_RETURN = '\r';
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  /**
+   * Byte order marks that are skipped whatever the encoding. Longest first, as UTF-32LE starts with UTF-16LE.
+   */
+  private static final byte[][] BOMS = {
+    {(byte) 0xFF, (byte) 0xFE, 0x00, 0x00},
+    {0x00, 0x00, (byte) 0xFE, (byte) 0xFF},
+    {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+    {(byte) 0xFF, (byte) 0xFE},
+    {(byte) 0xFE, (byte) 0xFF}
+  };
+  private static final int MAX_BOM_LENGTH = 4;
+
   private final AnalysisMode analysisMode;
 
   public FileMetadata(AnalysisMode analysisMode) {
     this.analysisMode = analysisMode;
   }
 
-  private abstract static class CharHandler {
-
-    void handleAll(char c) {
-    }
-
-    void handleIgnoreEoL(char c) {
-    }
+  /**
+   * Compute hash of a file ignoring line ends differences.
+   * Maximum performance is needed.
+   */
+  Metadata read(File file, Charset encoding) {
+    // No need to compute line offsets in preview mode since there is no syntax highlighting
+    Scanner scanner = new Scanner(file, encoding, true, !analysisMode.isPreview(), null);
+    scanner.scan();
+    return new Metadata(scanner.lines, scanner.nonBlankLines, Hex.encodeHexString(scanner.fileHash.digest()),
+      Arrays.copyOf(scanner.lineOffsets, scanner.lineOffsetCount), scanner.lastValidOffset, scanner.empty);
+  }
 
-    void newLine() {
-    }
+  /**
+   * Reads the file in a single pass. Bytes are read and decoded in bulk, then each char is
+   * dispatched to the enabled computations: line counters and global hash, line offsets, hash of each line.
+   * Hashes are fed with UTF-8 bytes without allocating intermediary strings.
+   */
+  private static final class Scanner {
+    private final File file;
+    private final Charset encoding;
+    private final boolean countLines;
+    private final boolean computeLineOffsets;
+    private final LineHashConsumer lineHashConsumer;
 
-    void eof() {
-    }
-  }
+    private boolean afterCR = false;
 
-  private static class LineCounter extends CharHandler {
+    // line counters and global hash
     private boolean empty = true;
     private int lines = 1;
     private int nonBlankLines = 0;
     private boolean blankLine = true;
-    boolean alreadyLoggedInvalidCharacter = false;
-    private final File file;
-    private final Charset encoding;
+    private boolean alreadyLoggedInvalidCharacter = false;
+    private final Utf8Digest fileHash;
+
+    // line offsets
+    private int currentOriginalOffset = 0;
+    private int[] lineOffsets;
+    private int lineOffsetCount = 0;
+    private int lastValidOffset = 0;
 
-    LineCounter(File file, Charset encoding) {
+    // hash of each line, blank chars excluded
+    private final Utf8Digest lineHash;
+    private int line = 1;
+
+    Scanner(File file, Charset encoding, boolean countLines, boolean computeLineOffsets, @Nullable LineHashConsumer lineHashConsumer) {
       this.file = file;
       this.encoding = encoding;
+      this.countLines = countLines;
+      this.computeLineOffsets = computeLineOffsets;
+      this.lineHashConsumer = lineHashConsumer;
+      this.fileHash = countLines ? new Utf8Digest() : null;
+      this.lineHash = lineHashConsumer != null ? new Utf8Digest() : null;
+      this.lineOffsets = new int[computeLineOffsets ? 64 : 1];
+      this.lineOffsetCount = 1;
     }
 
-    @Override
-    void handleAll(char c) {
-      this.empty = false;
-      if (!alreadyLoggedInvalidCharacter && c == '\ufffd') {
-        LOG.warn("Invalid character encountered in file " + file + " at line " + lines
-          + " for encoding " + encoding + ". Please fix file content or configure the encoding to be used using property '" + CoreProperties.ENCODING_PROPERTY + "'.");
-        alreadyLoggedInvalidCharacter = true;
+    void scan() {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        CharsetDecoder decoder = encoding.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        skipBom(channel, bytes);
+        boolean eof = false;
+        while (!eof) {
+          eof = channel.read(bytes) == -1;
+          bytes.flip();
+          CoderResult result;
+          do {
+            result = decoder.decode(bytes, chars, eof);
+            drain(chars);
+          } while (result.isOverflow());
+          bytes.compact();
+        }
+        while (decoder.flush(chars).isOverflow()) {
+          drain(chars);
+        }
+        drain(chars);
+        eof();
+      } catch (IOException e) {
+        throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", file.getAbsolutePath(), encoding), e);
       }
     }
 
-    @Override
-    void newLine() {
-      lines++;
-      if (!blankLine) {
-        nonBlankLines++;
+    /**
+     * Leaves the buffer ready to be filled, positioned after the byte order mark, if any.
+     */
+    private static void skipBom(FileChannel channel, ByteBuffer bytes) throws IOException {
+      while (bytes.position() < MAX_BOM_LENGTH && channel.read(bytes) != -1) {
+        // read until max length of BOM
       }
-      blankLine = true;
-    }
-
-    @Override
-    void handleIgnoreEoL(char c) {
-      if (!Character.isWhitespace(c)) {
-        blankLine = false;
+      bytes.flip();
+      for (byte[] bom : BOMS) {
+        if (startsWith(bytes, bom)) {
+          bytes.position(bom.length);
+          break;
+        }
       }
+      bytes.compact();
     }
 
-    @Override
-    void eof() {
-      if (!blankLine) {
-        nonBlankLines++;
+    private static boolean startsWith(ByteBuffer bytes, byte[] prefix) {
+      if (bytes.remaining() < prefix.length) {
+        return false;
       }
-    }
-
-    public int lines() {
-      return lines;
-    }
-
-    public int nonBlankLines() {
-      return nonBlankLines;
-    }
-
-    public boolean isEmpty() {
-      return empty;
-    }
-  }
-
-  private static class FileHashComputer extends CharHandler {
-    private MessageDigest globalMd5Digest = DigestUtils.getMd5Digest();
-    private StringBuilder sb = new StringBuilder();
-
-    @Override
-    void handleIgnoreEoL(char c) {
-      sb.append(c);
-    }
-
-    @Override
-    void newLine() {
-      sb.append(LINE_FEED);
-      globalMd5Digest.update(sb.toString().getBytes(Charsets.UTF_8));
-      sb.setLength(0);
-    }
-
-    @Override
-    void eof() {
-      if (sb.length() > 0) {
-        globalMd5Digest.update(sb.toString().getBytes(Charsets.UTF_8));
+      for (int i = 0; i < prefix.length; i++) {
+        if (bytes.get(i) != prefix[i]) {
+          return false;
+        }
       }
+      return true;
     }
 
-    @CheckForNull
-    public String getHash() {
-      return Hex.encodeHexString(globalMd5Digest.digest());
-    }
-  }
-
-  private static class LineHashComputer extends CharHandler {
-    private final MessageDigest lineMd5Digest = DigestUtils.getMd5Digest();
-    private final StringBuilder sb = new StringBuilder();
-    private final LineHashConsumer consumer;
-    private int line = 1;
-
-    public LineHashComputer(LineHashConsumer consumer) {
-      this.consumer = consumer;
-    }
-
-    @Override
-    void handleIgnoreEoL(char c) {
-      if (!Character.isWhitespace(c)) {
-        sb.append(c);
+    private void drain(CharBuffer chars) {
+      chars.flip();
+      char[] array = chars.array();
+      int end = chars.arrayOffset() + chars.limit();
+      for (int i = chars.arrayOffset() + chars.position(); i < end; i++) {
+        scanChar(array[i]);
       }
+      chars.clear();
     }
 
-    @Override
-    void newLine() {
-      consumer.consume(line, sb.length() > 0 ? lineMd5Digest.digest(sb.toString().getBytes(Charsets.UTF_8)) : null);
-      sb.setLength(0);
-      line++;
-    }
-
-    @Override
-    void eof() {
-      consumer.consume(line, sb.length() > 0 ? lineMd5Digest.digest(sb.toString().getBytes(Charsets.UTF_8)) : null);
-    }
-
-  }
-
-  private static class LineOffsetCounter extends CharHandler {
-    private int currentOriginalOffset = 0;
-    private List<Integer> originalLineOffsets = new ArrayList<Integer>();
-    private int lastValidOffset = 0;
-
-    public LineOffsetCounter() {
-      originalLineOffsets.add(0);
+    private void scanChar(char c) {
+      if (afterCR) {
+        if (c != CARRIAGE_RETURN && c != LINE_FEED) {
+          handleIgnoreEoL(c);
+        }
+        handleAll(c);
+        newLine();
+        afterCR = c == CARRIAGE_RETURN;
+      } else if (c == LINE_FEED) {
+        handleAll(c);
+        newLine();
+      } else if (c == CARRIAGE_RETURN) {
+        afterCR = true;
+        handleAll(c);
+      } else {
+        handleIgnoreEoL(c);
+        handleAll(c);
+      }
     }
 
-    @Override
-    void handleAll(char c) {
+    private void handleAll(char c) {
+      if (countLines) {
+        empty = false;
+        if (!alreadyLoggedInvalidCharacter && c == '\ufffd') {
+          LOG.warn("Invalid character encountered in file " + file + " at line " + lines
+            + " for encoding " + encoding + ". Please fix file content or configure the encoding to be used using property '" + CoreProperties.ENCODING_PROPERTY + "'.");
+          alreadyLoggedInvalidCharacter = true;
+        }
+      }
       currentOriginalOffset++;
     }
 
-    @Override
-    void newLine() {
-      originalLineOffsets.add(currentOriginalOffset);
-    }
-
-    @Override
-    void eof() {
-      lastValidOffset = currentOriginalOffset;
+    private void handleIgnoreEoL(char c) {
+      boolean whitespace = Character.isWhitespace(c);
+      if (countLines) {
+        if (!whitespace) {
+          blankLine = false;
+        }
+        fileHash.append(c);
+      }
+      if (lineHash != null && !whitespace) {
+        lineHash.append(c);
+      }
     }
 
-    public List<Integer> getOriginalLineOffsets() {
-      return originalLineOffsets;
+    private void newLine() {
+      if (countLines) {
+        lines++;
+        if (!blankLine) {
+          nonBlankLines++;
+        }
+        blankLine = true;
+        fileHash.append(LINE_FEED);
+      }
+      if (computeLineOffsets) {
+        if (lineOffsetCount == lineOffsets.length) {
+          lineOffsets = Arrays.copyOf(lineOffsets, lineOffsetCount * 2);
+        }
+        lineOffsets[lineOffsetCount] = currentOriginalOffset;
+        lineOffsetCount++;
+      }
+      if (lineHash != null) {
+        lineHashConsumer.consume(line, lineHash.digestIfNotEmpty());
+        line++;
+      }
     }
 
-    public int getLastValidOffset() {
-      return lastValidOffset;
+    private void eof() {
+      if (countLines && !blankLine) {
+        nonBlankLines++;
+      }
+      if (computeLineOffsets) {
+        lastValidOffset = currentOriginalOffset;
+      }
+      if (lineHash != null) {
+        lineHashConsumer.consume(line, lineHash.digestIfNotEmpty());
+      }
     }
-
   }
 
   /**
-   * Compute hash of a file ignoring line ends differences.
-   * Maximum performance is needed.
+   * MD5 digest of chars encoded in UTF-8, as {@code String#getBytes(UTF_8)} does: a malformed surrogate is
+   * replaced by '?'. Bytes are buffered before being sent to the digest.
    */
-  Metadata read(File file, Charset encoding) {
-    LineCounter lineCounter = new LineCounter(file, encoding);
-    FileHashComputer fileHashComputer = new FileHashComputer();
-    LineOffsetCounter lineOffsetCounter = new LineOffsetCounter();
-    if (!analysisMode.isPreview()) {
-      scanFile(file, encoding, lineCounter, fileHashComputer, lineOffsetCounter);
-    } else {
-      // No need to compute line offsets in preview mode since there is no syntax highlighting
-      scanFile(file, encoding, lineCounter, fileHashComputer);
-    }
-    return new Metadata(lineCounter.lines(), lineCounter.nonBlankLines(), fileHashComputer.getHash(), lineOffsetCounter.getOriginalLineOffsets(),
-      lineOffsetCounter.getLastValidOffset(),
-      lineCounter.isEmpty());
-  }
+  private static final class Utf8Digest {
+    private final MessageDigest md5 = DigestUtils.getMd5Digest();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private char pendingHighSurrogate = 0;
+    private boolean empty = true;
 
-  private static void scanFile(File file, Charset encoding, CharHandler... handlers) {
-    char c = (char) 0;
-    try (BOMInputStream bomIn = new BOMInputStream(new FileInputStream(file),
-      ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
-      Reader reader = new BufferedReader(new InputStreamReader(bomIn, encoding))) {
-      int i = reader.read();
-      boolean afterCR = false;
-      while (i != -1) {
-        c = (char) i;
-        if (afterCR) {
-          for (CharHandler handler : handlers) {
-            if (c != CARRIAGE_RETURN && c != LINE_FEED) {
-              handler.handleIgnoreEoL(c);
-            }
-            handler.handleAll(c);
-            handler.newLine();
-          }
-          afterCR = c == CARRIAGE_RETURN;
-        } else if (c == LINE_FEED) {
-          for (CharHandler handler : handlers) {
-            handler.handleAll(c);
-            handler.newLine();
-          }
-        } else if (c == CARRIAGE_RETURN) {
-          afterCR = true;
-          for (CharHandler handler : handlers) {
-            handler.handleAll(c);
-          }
-        } else {
-          for (CharHandler handler : handlers) {
-            handler.handleIgnoreEoL(c);
-            handler.handleAll(c);
-          }
+    void append(char c) {
+      empty = false;
+      if (position > buffer.length - 4) {
+        flush();
+      }
+      if (pendingHighSurrogate != 0) {
+        char high = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        if (Character.isLowSurrogate(c)) {
+          int codePoint = Character.toCodePoint(high, c);
+          buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+          return;
         }
-        i = reader.read();
+        buffer[position++] = '?';
+        if (position > buffer.length - 4) {
+          flush();
+        }
+      }
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)) {
+        pendingHighSurrogate = c;
+      } else if (Character.isLowSurrogate(c)) {
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
       }
-      for (CharHandler handler : handlers) {
-        handler.eof();
+    }
+
+    private void flush() {
+      md5.update(buffer, 0, position);
+      position = 0;
+    }
+
+    byte[] digest() {
+      if (pendingHighSurrogate != 0) {
+        if (position == buffer.length) {
+          flush();
+        }
+        buffer[position++] = '?';
+        pendingHighSurrogate = 0;
       }
-    } catch (IOException e) {
-      throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", file.getAbsolutePath(), encoding), e);
+      flush();
+      empty = true;
+      return md5.digest();
+    }
+
+    @Nullable
+    byte[] digestIfNotEmpty() {
+      return empty ? null : digest();
     }
   }
 
@@ -302,12 +357,12 @@ public class FileMetadata implements BatchComponent {
     final int lastValidOffset;
     final boolean empty;
 
-    private Metadata(int lines, int nonBlankLines, String hash, List<Integer> originalLineOffsets, int lastValidOffset, boolean empty) {
+    private Metadata(int lines, int nonBlankLines, String hash, int[] originalLineOffsets, int lastValidOffset, boolean empty) {
       this.lines = lines;
       this.nonBlankLines = nonBlankLines;
       this.hash = hash;
       this.empty = empty;
-      this.originalLineOffsets = Ints.toArray(originalLineOffsets);
+      this.originalLineOffsets = originalLineOffsets;
       this.lastValidOffset = lastValidOffset;
     }
   }
@@ -322,6 +377,6 @@ public class FileMetadata implements BatchComponent {
    * Compute a MD5 hash of each line of the file after removing of all blank chars
    */
   public static void computeLineHashesForIssueTracking(DefaultInputFile f, LineHashConsumer consumer) {
-    scanFile(f.file(), f.charset(), new LineHashComputer(consumer));
+    new Scanner(f.file(), f.charset(), false, false, consumer).scan();
   }
 }
@@ -61,6 +61,11 @@ import org.sonar.batch.sensor.coverage.CoverageExclusions;
 import org.sonar.core.component.ComponentKeys;
 import org.sonar.core.source.SnapshotDataTypes;
 
+/**
+ * Thread-safe, as sensors declared as {@link org.sonar.api.batch.sensor.SensorDescriptor#parallelPerFile()} are
+ * executed concurrently. Writes to the resource index are serialized on the {@link DefaultIndex}, which is
+ * the lock also used by decorators, while caches support concurrent writes.
+ */
 public class DefaultSensorStorage implements SensorStorage {
 
   private static final String USES = "USES";
@@ -98,25 +103,27 @@ public class DefaultSensorStorage implements SensorStorage {
 
   @Override
   public void store(Measure newMeasure) {
-    DefaultMeasure measure = (DefaultMeasure) newMeasure;
-    org.sonar.api.measures.Metric m = findMetricOrFail(measure.metric().key());
-    org.sonar.api.measures.Measure measureToSave = new org.sonar.api.measures.Measure(m);
-    setValueAccordingToMetricType(newMeasure, m, measureToSave);
-    measureToSave.setFromCore(measure.isFromCore());
-    InputFile inputFile = newMeasure.inputFile();
-    if (inputFile != null) {
-      Formula formula = newMeasure.metric() instanceof org.sonar.api.measures.Metric ?
-        ((org.sonar.api.measures.Metric) newMeasure.metric()).getFormula() : null;
-      if (formula instanceof SumChildDistributionFormula
-        && !Scopes.isHigherThanOrEquals(Scopes.FILE, ((SumChildDistributionFormula) formula).getMinimumScopeToPersist())) {
-        measureToSave.setPersistenceMode(PersistenceMode.MEMORY);
-      }
-      File sonarFile = getFile(inputFile);
-      if (coverageExclusions.accept(sonarFile, measureToSave)) {
-        sonarIndex.addMeasure(sonarFile, measureToSave);
+    synchronized (sonarIndex) {
+      DefaultMeasure measure = (DefaultMeasure) newMeasure;
+      org.sonar.api.measures.Metric m = findMetricOrFail(measure.metric().key());
+      org.sonar.api.measures.Measure measureToSave = new org.sonar.api.measures.Measure(m);
+      setValueAccordingToMetricType(newMeasure, m, measureToSave);
+      measureToSave.setFromCore(measure.isFromCore());
+      InputFile inputFile = newMeasure.inputFile();
+      if (inputFile != null) {
+        Formula formula = newMeasure.metric() instanceof org.sonar.api.measures.Metric ?
+          ((org.sonar.api.measures.Metric) newMeasure.metric()).getFormula() : null;
+        if (formula instanceof SumChildDistributionFormula
+          && !Scopes.isHigherThanOrEquals(Scopes.FILE, ((SumChildDistributionFormula) formula).getMinimumScopeToPersist())) {
+          measureToSave.setPersistenceMode(PersistenceMode.MEMORY);
+        }
+        File sonarFile = getFile(inputFile);
+        if (coverageExclusions.accept(sonarFile, measureToSave)) {
+          sonarIndex.addMeasure(sonarFile, measureToSave);
+        }
+      } else {
+        sonarIndex.addMeasure(project, measureToSave);
       }
-    } else {
-      sonarIndex.addMeasure(project, measureToSave);
     }
   }
 
@@ -150,22 +157,24 @@ public class DefaultSensorStorage implements SensorStorage {
 
   @Override
   public void store(Issue issue) {
-    Resource r;
-    InputPath inputPath = issue.inputPath();
-    if (inputPath != null) {
-      if (inputPath instanceof InputDir) {
-        r = Directory.create(inputPath.relativePath());
+    synchronized (sonarIndex) {
+      Resource r;
+      InputPath inputPath = issue.inputPath();
+      if (inputPath != null) {
+        if (inputPath instanceof InputDir) {
+          r = Directory.create(inputPath.relativePath());
+        } else {
+          r = File.create(inputPath.relativePath());
+        }
       } else {
-        r = File.create(inputPath.relativePath());
+        r = project;
       }
-    } else {
-      r = project;
-    }
-    Issuable issuable = perspectives.as(Issuable.class, r);
-    if (issuable == null) {
-      return;
+      Issuable issuable = perspectives.as(Issuable.class, r);
+      if (issuable == null) {
+        return;
+      }
+      issuable.addIssue(toDefaultIssue(project.getKey(), ComponentKeys.createEffectiveKey(project, r), issue));
     }
-    issuable.addIssue(toDefaultIssue(project.getKey(), ComponentKeys.createEffectiveKey(project, r), issue));
   }
 
   public static DefaultIssue toDefaultIssue(String projectKey, String componentKey, Issue issue) {
@@ -212,31 +221,33 @@ public class DefaultSensorStorage implements SensorStorage {
 
   @Override
   public void store(org.sonar.api.batch.sensor.dependency.Dependency dep) {
-    BatchResource fromBatchResource = resourceCache.get(dep.fromKey());
-    BatchResource toBatchResource = resourceCache.get(dep.toKey());
-    Preconditions.checkNotNull(fromBatchResource, "Unable to find origin resource " + dep.fromKey());
-    Preconditions.checkNotNull(toBatchResource, "Unable to find destination resource " + dep.toKey());
-    File fromResource = (File) fromBatchResource.resource();
-    File toResource = (File) toBatchResource.resource();
-    if (sonarIndex.getEdge(fromResource, toResource) != null) {
-      throw new IllegalStateException("Dependency between " + dep.fromKey() + " and " + dep.toKey() + " was already saved.");
-    }
-    Directory fromParent = fromResource.getParent();
-    Directory toParent = toResource.getParent();
-    Dependency parentDep = null;
-    if (!fromParent.equals(toParent)) {
-      parentDep = sonarIndex.getEdge(fromParent, toParent);
-      if (parentDep != null) {
-        parentDep.setWeight(parentDep.getWeight() + 1);
-      } else {
-        parentDep = new Dependency(fromParent, toParent).setUsage(USES).setWeight(1);
-        parentDep = sonarIndex.addDependency(parentDep);
+    synchronized (sonarIndex) {
+      BatchResource fromBatchResource = resourceCache.get(dep.fromKey());
+      BatchResource toBatchResource = resourceCache.get(dep.toKey());
+      Preconditions.checkNotNull(fromBatchResource, "Unable to find origin resource " + dep.fromKey());
+      Preconditions.checkNotNull(toBatchResource, "Unable to find destination resource " + dep.toKey());
+      File fromResource = (File) fromBatchResource.resource();
+      File toResource = (File) toBatchResource.resource();
+      if (sonarIndex.getEdge(fromResource, toResource) != null) {
+        throw new IllegalStateException("Dependency between " + dep.fromKey() + " and " + dep.toKey() + " was already saved.");
+      }
+      Directory fromParent = fromResource.getParent();
+      Directory toParent = toResource.getParent();
+      Dependency parentDep = null;
+      if (!fromParent.equals(toParent)) {
+        parentDep = sonarIndex.getEdge(fromParent, toParent);
+        if (parentDep != null) {
+          parentDep.setWeight(parentDep.getWeight() + 1);
+        } else {
+          parentDep = new Dependency(fromParent, toParent).setUsage(USES).setWeight(1);
+          parentDep = sonarIndex.addDependency(parentDep);
+        }
       }
+      sonarIndex.addDependency(new Dependency(fromResource, toResource)
+        .setUsage(USES)
+        .setWeight(dep.weight())
+        .setParent(parentDep));
     }
-    sonarIndex.addDependency(new Dependency(fromResource, toResource)
-      .setUsage(USES)
-      .setWeight(dep.weight())
-      .setParent(parentDep));
   }
 
   @Override
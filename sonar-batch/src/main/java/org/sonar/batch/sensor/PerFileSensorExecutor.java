@@ -0,0 +1,179 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.sensor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.BatchComponent;
+import org.sonar.api.batch.fs.FilePredicate;
+import org.sonar.api.batch.fs.FilePredicates;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.measure.MetricFinder;
+import org.sonar.api.batch.sensor.Sensor;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
+import org.sonar.api.batch.sensor.internal.SensorStorage;
+import org.sonar.api.config.Settings;
+import org.sonar.batch.cache.AnalysisCache;
+import org.sonar.core.config.SettingsUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes a sensor declared as {@link org.sonar.api.batch.sensor.SensorDescriptor#parallelPerFile()} once per file
+ * of the module, on a pool of threads. When sensor declares {@link org.sonar.api.batch.sensor.SensorDescriptor#reusableResultsPerFile()},
+ * results are stored in {@link AnalysisCache} and replayed on files whose content did not change.
+ */
+public class PerFileSensorExecutor implements BatchComponent {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PerFileSensorExecutor.class);
+
+  /**
+   * Number of threads used to execute per-file sensors. Default is the number of available processors.
+   */
+  public static final String THREADS_PROPERTY = "sonar.sensor.threads";
+
+  private final int threads;
+  private final SensorStorage storage;
+  private final AnalysisCache analysisCache;
+  private final MetricFinder metricFinder;
+
+  public PerFileSensorExecutor(Settings settings, SensorStorage storage, AnalysisCache analysisCache, MetricFinder metricFinder) {
+    this.threads = getThreads(settings);
+    this.storage = storage;
+    this.analysisCache = analysisCache;
+    this.metricFinder = metricFinder;
+  }
+
+  @VisibleForTesting
+  static int getThreads(Settings settings) {
+    return SettingsUtils.getPositiveInt(settings, THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+  }
+
+  @VisibleForTesting
+  int threads() {
+    return threads;
+  }
+
+  public void execute(Sensor sensor, DefaultSensorDescriptor descriptor, SensorContext context) {
+    FileSystem fs = context.fileSystem();
+    Iterable<InputFile> inputFiles = fs.inputFiles(filesPredicate(fs.predicates(), descriptor));
+    boolean reuse = descriptor.isReusableResultsPerFile() && analysisCache.isEnabled();
+    AtomicInteger reused = new AtomicInteger();
+    if (threads == 1) {
+      for (InputFile inputFile : inputFiles) {
+        new FileTask(sensor, context, inputFile, reuse, reused).run();
+      }
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("sensor-%d").setDaemon(true).build());
+      try {
+        List<Future<?>> futures = Lists.newArrayList();
+        for (InputFile inputFile : inputFiles) {
+          futures.add(executor.submit(new FileTask(sensor, context, inputFile, reuse, reused)));
+        }
+        for (Future<?> future : futures) {
+          waitFor(future, descriptor);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    if (reused.get() > 0) {
+      LOG.info("Results of {} reused on {} unchanged files", descriptor.name(), reused.get());
+    }
+  }
+
+  private static FilePredicate filesPredicate(FilePredicates predicates, DefaultSensorDescriptor descriptor) {
+    List<FilePredicate> list = Lists.newArrayList(predicates.all());
+    if (!descriptor.languages().isEmpty()) {
+      list.add(predicates.hasLanguages(descriptor.languages()));
+    }
+    if (descriptor.type() != null) {
+      list.add(predicates.hasType(descriptor.type()));
+    }
+    return predicates.and(list);
+  }
+
+  private static void waitFor(Future<?> future, DefaultSensorDescriptor descriptor) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during execution of " + descriptor.name(), e);
+    } catch (ExecutionException e) {
+      // keep the exception raised by the sensor, as when it is executed in the main thread
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException("Fail to execute " + descriptor.name(), cause);
+    }
+  }
+
+  private class FileTask implements Runnable {
+    private final Sensor sensor;
+    private final SensorContext context;
+    private final InputFile inputFile;
+    private final boolean reuse;
+    private final AtomicInteger reused;
+
+    private FileTask(Sensor sensor, SensorContext context, InputFile inputFile, boolean reuse, AtomicInteger reused) {
+      this.sensor = sensor;
+      this.context = context;
+      this.inputFile = inputFile;
+      this.reuse = reuse;
+      this.reused = reused;
+    }
+
+    @Override
+    public void run() {
+      SingleFileSystem fs = new SingleFileSystem(context.fileSystem(), inputFile);
+      if (!reuse) {
+        sensor.execute(new SingleFileSensorContext(context, fs, storage));
+        return;
+      }
+      String namespace = sensor.getClass().getName();
+      byte[] data = analysisCache.get(inputFile, namespace);
+      if (data != null && RecordingSensorStorage.replay(data, inputFile, storage, metricFinder)) {
+        reused.incrementAndGet();
+        return;
+      }
+      RecordingSensorStorage recordingStorage = new RecordingSensorStorage(storage, inputFile);
+      sensor.execute(new SingleFileSensorContext(context, fs, recordingStorage));
+      byte[] recorded = recordingStorage.recorded();
+      if (recorded != null) {
+        analysisCache.put(inputFile, namespace, recorded);
+      }
+    }
+  }
+}
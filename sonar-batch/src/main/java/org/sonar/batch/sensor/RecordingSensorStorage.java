@@ -0,0 +1,336 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.sensor;
+
+import com.google.common.collect.Lists;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.measure.Metric;
+import org.sonar.api.batch.measure.MetricFinder;
+import org.sonar.api.batch.sensor.dependency.Dependency;
+import org.sonar.api.batch.sensor.duplication.Duplication;
+import org.sonar.api.batch.sensor.highlighting.TypeOfText;
+import org.sonar.api.batch.sensor.highlighting.internal.DefaultHighlighting;
+import org.sonar.api.batch.sensor.highlighting.internal.SyntaxHighlightingRule;
+import org.sonar.api.batch.sensor.internal.DefaultStorable;
+import org.sonar.api.batch.sensor.internal.SensorStorage;
+import org.sonar.api.batch.sensor.issue.Issue;
+import org.sonar.api.batch.sensor.issue.internal.DefaultIssue;
+import org.sonar.api.batch.sensor.measure.Measure;
+import org.sonar.api.batch.sensor.measure.internal.DefaultMeasure;
+import org.sonar.api.rule.RuleKey;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Storage used during the execution of a sensor on a single file. Data is forwarded to the
+ * module storage and recorded, so that it can be replayed on the same file during next analyses.
+ * Results saved on other components, duplications and dependencies can't be replayed.
+ */
+class RecordingSensorStorage implements SensorStorage {
+
+  private static final byte END = 0;
+  private static final byte MEASURE = 1;
+  private static final byte ISSUE = 2;
+  private static final byte HIGHLIGHTING = 3;
+
+  private static final byte INTEGER = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte STRING = 4;
+  private static final byte BOOLEAN = 5;
+
+  private final SensorStorage storage;
+  private final InputFile inputFile;
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(bytes);
+  private boolean replayable = true;
+
+  RecordingSensorStorage(SensorStorage storage, InputFile inputFile) {
+    this.storage = storage;
+    this.inputFile = inputFile;
+  }
+
+  @Override
+  public void store(Measure measure) {
+    storage.store(measure);
+    if (replayable) {
+      replayable = inputFile.equals(measure.inputFile()) && record((DefaultMeasure) measure);
+    }
+  }
+
+  @Override
+  public void store(Issue issue) {
+    storage.store(issue);
+    if (replayable) {
+      replayable = inputFile.equals(issue.inputPath()) && record(issue);
+    }
+  }
+
+  @Override
+  public void store(Duplication duplication) {
+    storage.store(duplication);
+    replayable = false;
+  }
+
+  @Override
+  public void store(Dependency dependency) {
+    storage.store(dependency);
+    replayable = false;
+  }
+
+  @Override
+  public void store(DefaultHighlighting highlighting) {
+    storage.store(highlighting);
+    if (replayable) {
+      replayable = inputFile.equals(highlighting.inputFile()) && record(highlighting);
+    }
+  }
+
+  /**
+   * Recorded data, or null if results of sensor can't be replayed.
+   */
+  @CheckForNull
+  byte[] recorded() {
+    if (!replayable) {
+      return null;
+    }
+    try {
+      out.writeByte(END);
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to record sensor results on " + inputFile, e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private boolean record(DefaultMeasure<?> measure) {
+    Serializable value = measure.value();
+    byte type;
+    if (value instanceof Integer) {
+      type = INTEGER;
+    } else if (value instanceof Long) {
+      type = LONG;
+    } else if (value instanceof Double) {
+      type = DOUBLE;
+    } else if (value instanceof String) {
+      type = STRING;
+    } else if (value instanceof Boolean) {
+      type = BOOLEAN;
+    } else {
+      return false;
+    }
+    try {
+      out.writeByte(MEASURE);
+      out.writeUTF(measure.metric().key());
+      out.writeBoolean(measure.isFromCore());
+      out.writeByte(type);
+      switch (type) {
+        case INTEGER:
+          out.writeInt((Integer) value);
+          break;
+        case LONG:
+          out.writeLong((Long) value);
+          break;
+        case DOUBLE:
+          out.writeDouble((Double) value);
+          break;
+        case STRING:
+          writeString((String) value);
+          break;
+        default:
+          out.writeBoolean((Boolean) value);
+          break;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to record measure on " + inputFile, e);
+    }
+    return true;
+  }
+
+  private boolean record(Issue issue) {
+    try {
+      out.writeByte(ISSUE);
+      out.writeUTF(issue.ruleKey().toString());
+      writeNullableString(issue.message());
+      out.writeInt(issue.line() == null ? 0 : issue.line());
+      out.writeBoolean(issue.effortToFix() != null);
+      if (issue.effortToFix() != null) {
+        out.writeDouble(issue.effortToFix());
+      }
+      writeNullableString(issue.overridenSeverity() == null ? null : issue.overridenSeverity().name());
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to record issue on " + inputFile, e);
+    }
+    return true;
+  }
+
+  private boolean record(DefaultHighlighting highlighting) {
+    try {
+      out.writeByte(HIGHLIGHTING);
+      out.writeInt(highlighting.getSyntaxHighlightingRuleSet().size());
+      for (SyntaxHighlightingRule rule : highlighting.getSyntaxHighlightingRuleSet()) {
+        out.writeInt(rule.getStartPosition());
+        out.writeInt(rule.getEndPosition());
+        out.writeUTF(rule.getTextType().name());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to record highlighting on " + inputFile, e);
+    }
+    return true;
+  }
+
+  private void writeNullableString(@Nullable String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      writeString(s);
+    }
+  }
+
+  /**
+   * Unlike {@link DataOutputStream#writeUTF(String)}, length of string is not limited to 64Kb
+   */
+  private void writeString(String s) throws IOException {
+    byte[] utf8 = s.getBytes("UTF-8");
+    out.writeInt(utf8.length);
+    out.write(utf8);
+  }
+
+  /**
+   * Saves on the given file the results previously recorded by {@link #recorded()}. Nothing is saved
+   * if data can't be read, for example when a metric does not exist anymore.
+   * @return true if results were replayed
+   */
+  static boolean replay(byte[] data, InputFile inputFile, SensorStorage storage, MetricFinder metricFinder) {
+    List<DefaultStorable> storables = Lists.newArrayList();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    try {
+      for (byte tag = in.readByte(); tag != END; tag = in.readByte()) {
+        DefaultStorable storable;
+        switch (tag) {
+          case MEASURE:
+            storable = readMeasure(in, inputFile, storage, metricFinder);
+            break;
+          case ISSUE:
+            storable = readIssue(in, inputFile, storage);
+            break;
+          case HIGHLIGHTING:
+            storable = readHighlighting(in, inputFile, storage);
+            break;
+          default:
+            return false;
+        }
+        if (storable == null) {
+          return false;
+        }
+        storables.add(storable);
+      }
+    } catch (IOException | RuntimeException e) {
+      // corrupted or obsolete data
+      return false;
+    }
+    for (DefaultStorable storable : storables) {
+      storable.save();
+    }
+    return true;
+  }
+
+  @CheckForNull
+  private static DefaultStorable readMeasure(DataInputStream in, InputFile inputFile, SensorStorage storage, MetricFinder metricFinder) throws IOException {
+    Metric metric = metricFinder.findByKey(in.readUTF());
+    boolean fromCore = in.readBoolean();
+    Serializable value;
+    switch (in.readByte()) {
+      case INTEGER:
+        value = in.readInt();
+        break;
+      case LONG:
+        value = in.readLong();
+        break;
+      case DOUBLE:
+        value = in.readDouble();
+        break;
+      case STRING:
+        value = readString(in);
+        break;
+      case BOOLEAN:
+        value = in.readBoolean();
+        break;
+      default:
+        return null;
+    }
+    if (metric == null) {
+      return null;
+    }
+    DefaultMeasure measure = new DefaultMeasure(storage).onFile(inputFile).forMetric(metric).withValue(value);
+    if (fromCore) {
+      measure.setFromCore();
+    }
+    return measure;
+  }
+
+  private static DefaultStorable readIssue(DataInputStream in, InputFile inputFile, SensorStorage storage) throws IOException {
+    DefaultIssue issue = new DefaultIssue(storage).onFile(inputFile).forRule(RuleKey.parse(in.readUTF()));
+    String message = readNullableString(in);
+    if (message != null) {
+      issue.message(message);
+    }
+    int line = in.readInt();
+    if (line > 0) {
+      issue.atLine(line);
+    }
+    if (in.readBoolean()) {
+      issue.effortToFix(in.readDouble());
+    }
+    String severity = readNullableString(in);
+    if (severity != null) {
+      issue.overrideSeverity(Issue.Severity.valueOf(severity));
+    }
+    return issue;
+  }
+
+  private static DefaultStorable readHighlighting(DataInputStream in, InputFile inputFile, SensorStorage storage) throws IOException {
+    DefaultHighlighting highlighting = new DefaultHighlighting(storage).onFile(inputFile);
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      highlighting.highlight(in.readInt(), in.readInt(), TypeOfText.valueOf(in.readUTF()));
+    }
+    return highlighting;
+  }
+
+  @CheckForNull
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? readString(in) : null;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] utf8 = new byte[in.readInt()];
+    in.readFully(utf8);
+    return new String(utf8, "UTF-8");
+  }
+}
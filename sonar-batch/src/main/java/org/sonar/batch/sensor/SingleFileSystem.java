@@ -0,0 +1,106 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.sensor;
+
+import com.google.common.collect.ImmutableList;
+import org.sonar.api.batch.fs.FilePredicate;
+import org.sonar.api.batch.fs.FilePredicates;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputDir;
+import org.sonar.api.batch.fs.InputFile;
+
+import javax.annotation.CheckForNull;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.SortedSet;
+
+/**
+ * View of the module file system restricted to a single input file. Used to execute
+ * a sensor on one file.
+ */
+class SingleFileSystem implements FileSystem {
+
+  private final FileSystem fs;
+  private final InputFile inputFile;
+
+  SingleFileSystem(FileSystem fs, InputFile inputFile) {
+    this.fs = fs;
+    this.inputFile = inputFile;
+  }
+
+  @Override
+  public File baseDir() {
+    return fs.baseDir();
+  }
+
+  @Override
+  public Charset encoding() {
+    return fs.encoding();
+  }
+
+  @Override
+  public File workDir() {
+    return fs.workDir();
+  }
+
+  @Override
+  public FilePredicates predicates() {
+    return fs.predicates();
+  }
+
+  @Override
+  @CheckForNull
+  public InputFile inputFile(FilePredicate predicate) {
+    return predicate.apply(inputFile) ? inputFile : null;
+  }
+
+  @Override
+  @CheckForNull
+  public InputDir inputDir(File dir) {
+    return fs.inputDir(dir);
+  }
+
+  @Override
+  public Iterable<InputFile> inputFiles(FilePredicate predicate) {
+    return predicate.apply(inputFile) ? ImmutableList.of(inputFile) : Collections.<InputFile>emptyList();
+  }
+
+  @Override
+  public boolean hasFiles(FilePredicate predicate) {
+    return predicate.apply(inputFile);
+  }
+
+  @Override
+  public Iterable<File> files(FilePredicate predicate) {
+    return predicate.apply(inputFile) ? ImmutableList.of(inputFile.file()) : Collections.<File>emptyList();
+  }
+
+  @Override
+  public SortedSet<String> languages() {
+    return fs.languages();
+  }
+
+  @Override
+  public File resolvePath(String path) {
+    return fs.resolvePath(path);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.batch.rule.internal.ActiveRulesBuilder;
+import org.sonar.api.config.Settings;
+import org.sonar.api.platform.PluginMetadata;
+import org.sonar.api.platform.PluginRepository;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.batch.scan.filesystem.InputFileMetadata;
+import org.sonar.batch.scan.filesystem.InputPathCache;
+import org.sonar.core.plugins.DefaultPluginMetadata;
+import org.sonar.home.cache.FileCache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AnalysisCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  Settings settings = new Settings();
+  FileCache fileCache = mock(FileCache.class);
+  ActiveRules activeRules = new ActiveRulesBuilder().create(RuleKey.of("squid", "S0001")).setSeverity("MAJOR").activate().build();
+  PluginRepository pluginRepository = mock(PluginRepository.class);
+  InputPathCache inputPathCache = new InputPathCache();
+  DefaultInputFile foo = new DefaultInputFile("foo", "src/Foo.java");
+  DefaultInputFile bar = new DefaultInputFile("foo", "src/Bar.java");
+  File cacheDir;
+
+  @Before
+  public void prepare() throws Exception {
+    cacheDir = temp.newFolder();
+    when(fileCache.getDir()).thenReturn(cacheDir);
+    inputPathCache.put("foo", "src/Foo.java", new InputFileMetadata().setHash("abc"));
+    inputPathCache.put("foo", "src/Bar.java", new InputFileMetadata().setHash("def"));
+  }
+
+  @Test
+  public void put_and_get() {
+    AnalysisCache cache = new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache);
+    assertThat(cache.isEnabled()).isTrue();
+    assertThat(cache.get(foo, "sensor")).isNull();
+
+    cache.put(foo, "sensor", new byte[] {1, 2, 3});
+
+    assertThat(cache.get(foo, "sensor")).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(cache.get(foo, "other")).isNull();
+    assertThat(cache.get(bar, "sensor")).isNull();
+
+    // next analysis
+    cache = new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache);
+    assertThat(cache.get(foo, "sensor")).isEqualTo(new byte[] {1, 2, 3});
+  }
+
+  @Test
+  public void entries_are_invalidated_when_content_of_file_changes() {
+    AnalysisCache cache = new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache);
+    cache.put(foo, "sensor", new byte[] {1, 2, 3});
+
+    inputPathCache.put("foo", "src/Foo.java", new InputFileMetadata().setHash("abd"));
+
+    assertThat(cache.get(foo, "sensor")).isNull();
+  }
+
+  @Test
+  public void delete_entries_of_previous_contents_of_file() {
+    AnalysisCache cache = new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache);
+    cache.put(foo, "sensor", new byte[] {1, 2, 3});
+    cache.put(bar, "sensor", new byte[] {4, 5, 6});
+
+    inputPathCache.put("foo", "src/Foo.java", new InputFileMetadata().setHash("abd"));
+    cache.put(foo, "sensor", new byte[] {7, 8, 9});
+
+    assertThat(cache.get(foo, "sensor")).isEqualTo(new byte[] {7, 8, 9});
+    assertThat(cache.get(bar, "sensor")).isEqualTo(new byte[] {4, 5, 6});
+    inputPathCache.put("foo", "src/Foo.java", new InputFileMetadata().setHash("abc"));
+    assertThat(cache.get(foo, "sensor")).isNull();
+  }
+
+  @Test
+  public void entries_are_invalidated_when_settings_change() {
+    new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache).put(foo, "sensor", new byte[] {1, 2, 3});
+
+    settings.setProperty("sonar.foo", "bar");
+
+    assertThat(new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache).get(foo, "sensor")).isNull();
+  }
+
+  @Test
+  public void ignore_files_without_hash() {
+    AnalysisCache cache = new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache);
+    DefaultInputFile unknown = new DefaultInputFile("foo", "src/Unknown.java");
+
+    cache.put(unknown, "sensor", new byte[] {1, 2, 3});
+
+    assertThat(cache.get(unknown, "sensor")).isNull();
+  }
+
+  @Test
+  public void disable_cache() {
+    settings.setProperty(AnalysisCache.DISABLED_PROPERTY, true);
+    AnalysisCache cache = new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache);
+    assertThat(cache.isEnabled()).isFalse();
+
+    cache.put(foo, "sensor", new byte[] {1, 2, 3});
+
+    assertThat(cache.get(foo, "sensor")).isNull();
+    assertThat(cacheDir.list()).isEmpty();
+  }
+
+  @Test
+  public void fingerprint_depends_on_plugins_rules_and_settings() {
+    PluginMetadata java = DefaultPluginMetadata.create("java").setVersion("3.0");
+    String fingerprint = AnalysisCache.fingerprint(settings, activeRules, Arrays.asList(java));
+    assertThat(fingerprint).isEqualTo(AnalysisCache.fingerprint(settings, activeRules, Arrays.asList(java)));
+
+    assertThat(AnalysisCache.fingerprint(settings, activeRules, Collections.<PluginMetadata>emptyList())).isNotEqualTo(fingerprint);
+    assertThat(AnalysisCache.fingerprint(settings, activeRules, Arrays.<PluginMetadata>asList(DefaultPluginMetadata.create("java").setVersion("3.1"))))
+      .isNotEqualTo(fingerprint);
+
+    ActiveRules otherRules = new ActiveRulesBuilder().create(RuleKey.of("squid", "S0001")).setSeverity("MINOR").activate().build();
+    assertThat(AnalysisCache.fingerprint(settings, otherRules, Arrays.asList(java))).isNotEqualTo(fingerprint);
+
+    otherRules = new ActiveRulesBuilder().create(RuleKey.of("squid", "S0001")).setSeverity("MAJOR").setParam("max", "10").activate().build();
+    assertThat(AnalysisCache.fingerprint(settings, otherRules, Arrays.asList(java))).isNotEqualTo(fingerprint);
+
+    settings.setProperty("sonar.foo", "bar");
+    assertThat(AnalysisCache.fingerprint(settings, activeRules, Arrays.asList(java))).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void fingerprint_depends_on_plugin_file() throws Exception {
+    File jar = temp.newFile("sonar-java-plugin-3.0-SNAPSHOT.jar");
+    FileUtils.write(jar, "first build");
+    PluginMetadata java = DefaultPluginMetadata.create(jar).setKey("java").setVersion("3.0-SNAPSHOT");
+    String fingerprint = AnalysisCache.fingerprint(settings, activeRules, Arrays.asList(java));
+
+    // plugin is rebuilt with the same version
+    FileUtils.write(jar, "second build");
+
+    assertThat(AnalysisCache.fingerprint(settings, activeRules, Arrays.asList(java))).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void fingerprint_does_not_depend_on_runtime_properties() {
+    String fingerprint = AnalysisCache.fingerprint(settings, activeRules, Collections.<PluginMetadata>emptyList());
+
+    settings.setProperty(CoreProperties.SERVER_STARTTIME, "2015-06-01T10:00:00+0200");
+    settings.setProperty(CoreProperties.PROJECT_VERSION_PROPERTY, "1.0-build42");
+    settings.setProperty(CoreProperties.PROJECT_DATE_PROPERTY, "2015-06-01");
+    settings.setProperty("sonar.buildString", "42");
+    settings.setProperty("sonar.jdbc.url", "jdbc:h2:tcp://localhost/sonar");
+    settings.setProperty("sonar.runner.os", "Linux");
+
+    assertThat(AnalysisCache.fingerprint(settings, activeRules, Collections.<PluginMetadata>emptyList())).isEqualTo(fingerprint);
+  }
+
+  @Test
+  public void purge_entries_of_old_fingerprints() throws Exception {
+    File root = new File(cacheDir, "analysis");
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < AnalysisCache.MAX_FINGERPRINTS + 5; i++) {
+      File old = new File(root, "old" + i);
+      old.mkdirs();
+      old.setLastModified(now - 1000000L * (i + 1));
+    }
+
+    new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache).put(foo, "sensor", new byte[] {1, 2, 3});
+
+    assertThat(root.list()).hasSize(AnalysisCache.MAX_FINGERPRINTS);
+    assertThat(new File(root, "old0")).exists();
+    assertThat(new File(root, "old" + (AnalysisCache.MAX_FINGERPRINTS - 2))).exists();
+    assertThat(new File(root, "old" + (AnalysisCache.MAX_FINGERPRINTS - 1))).doesNotExist();
+    assertThat(new AnalysisCache(settings, fileCache, activeRules, pluginRepository, inputPathCache).get(foo, "sensor")).isEqualTo(new byte[] {1, 2, 3});
+  }
+}
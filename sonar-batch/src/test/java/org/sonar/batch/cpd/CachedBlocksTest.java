@@ -0,0 +1,55 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd;
+
+import org.junit.Test;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachedBlocksTest {
+
+  @Test
+  public void write_and_read() {
+    Block block1 = Block.builder().setResourceId("foo:src/Foo.java").setBlockHash(new ByteArray(123L)).setIndexInFile(0).setLines(1, 10).setUnit(0, 9).build();
+    Block block2 = Block.builder().setResourceId("foo:src/Foo.java").setBlockHash(new ByteArray(456L)).setIndexInFile(1).setLines(2, 12).setUnit(1, 10).build();
+
+    List<Block> blocks = CachedBlocks.read(CachedBlocks.write(Arrays.asList(block1, block2)), "bar:src/Foo.java");
+
+    assertThat(blocks).hasSize(2);
+    Block read = blocks.get(1);
+    assertThat(read.getResourceId()).isEqualTo("bar:src/Foo.java");
+    assertThat(read.getBlockHash()).isEqualTo(new ByteArray(456L));
+    assertThat(read.getIndexInFile()).isEqualTo(1);
+    assertThat(read.getStartLine()).isEqualTo(2);
+    assertThat(read.getEndLine()).isEqualTo(12);
+    assertThat(read.getStartUnit()).isEqualTo(1);
+    assertThat(read.getEndUnit()).isEqualTo(10);
+  }
+
+  @Test
+  public void ignore_corrupted_data() {
+    assertThat(CachedBlocks.read(new byte[] {0, 0, 0, 3, 1}, "foo:src/Foo.java")).isNull();
+  }
+}
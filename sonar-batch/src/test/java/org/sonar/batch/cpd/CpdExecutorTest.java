@@ -0,0 +1,140 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.utils.SonarException;
+
+import javax.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CpdExecutorTest {
+
+  List<InputFile> files = Lists.<InputFile>newArrayList(
+    new DefaultInputFile("foo", "src/A.java"),
+    new DefaultInputFile("foo", "src/B.java"),
+    new DefaultInputFile("foo", "src/C.java"),
+    new DefaultInputFile("foo", "src/D.java"));
+
+  @Test
+  public void handle_results_in_order_of_files() {
+    final CountDownLatch firstFileLatch = new CountDownLatch(1);
+    RecordingHandler handler = new RecordingHandler();
+
+    new CpdExecutor(4, 0L).execute(files, new CpdExecutor.FileTask<String>() {
+      @Override
+      public String execute(InputFile inputFile) {
+        if (inputFile.relativePath().endsWith("A.java")) {
+          // first file is the last one to complete
+          await(firstFileLatch);
+        } else if (inputFile.relativePath().endsWith("D.java")) {
+          firstFileLatch.countDown();
+        }
+        return inputFile.relativePath();
+      }
+    }, handler, "test of ");
+
+    assertThat(handler.results).containsExactly("src/A.java", "src/B.java", "src/C.java", "src/D.java");
+  }
+
+  @Test
+  public void skip_file_on_timeout() {
+    RecordingHandler handler = new RecordingHandler();
+
+    new CpdExecutor(2, 100L).execute(files, new CpdExecutor.FileTask<String>() {
+      @Override
+      public String execute(InputFile inputFile) {
+        if (inputFile.relativePath().endsWith("B.java")) {
+          await(new CountDownLatch(1));
+        }
+        return inputFile.relativePath();
+      }
+    }, handler, "test of ");
+
+    assertThat(handler.results).containsExactly("src/A.java", null, "src/C.java", "src/D.java");
+  }
+
+  @Test
+  public void interrupt_task_on_timeout_to_release_its_thread() {
+    final List<String> interrupted = Collections.synchronizedList(Lists.<String>newArrayList());
+    RecordingHandler handler = new RecordingHandler();
+
+    // a single thread, so next files can be processed only if the thread of B is released
+    new CpdExecutor(1, 100L).execute(files, new CpdExecutor.FileTask<String>() {
+      @Override
+      public String execute(InputFile inputFile) {
+        if (inputFile.relativePath().endsWith("B.java")) {
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            interrupted.add(inputFile.relativePath());
+          }
+        }
+        return inputFile.relativePath();
+      }
+    }, handler, "test of ");
+
+    assertThat(handler.results).containsExactly("src/A.java", null, "src/C.java", "src/D.java");
+    assertThat(interrupted).containsExactly("src/B.java");
+  }
+
+  @Test
+  public void fail_if_task_fails() {
+    try {
+      new CpdExecutor(2, 0L).execute(files, new CpdExecutor.FileTask<String>() {
+        @Override
+        public String execute(InputFile inputFile) {
+          throw new IllegalStateException("BOOM");
+        }
+      }, new RecordingHandler(), "test of ");
+      fail();
+    } catch (SonarException e) {
+      assertThat(e).hasMessage("Fail during test of [moduleKey=foo, relative=src/A.java, basedir=null]");
+      assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+      assertThat(e.getCause().getMessage()).contains("BOOM");
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class RecordingHandler implements CpdExecutor.ResultHandler<String> {
+    private final List<String> results = Lists.newArrayList();
+
+    @Override
+    public void handle(InputFile inputFile, @Nullable String result) {
+      results.add(result);
+    }
+  }
+}
@@ -47,7 +47,7 @@ public class CpdSensorTest {
   @Before
   public void setUp() throws IOException {
     IndexFactory indexFactory = mock(IndexFactory.class);
-    sonarEngine = new JavaCpdEngine(indexFactory, null, null);
+    sonarEngine = new JavaCpdEngine(indexFactory, null, null, null);
     sonarBridgeEngine = new DefaultCpdEngine(indexFactory, new CpdMappings(), null, null);
     settings = new Settings(new PropertyDefinitions(CpdComponents.class));
 
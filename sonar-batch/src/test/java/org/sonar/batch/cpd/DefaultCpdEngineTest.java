@@ -102,6 +102,23 @@ public class DefaultCpdEngineTest {
     assertThat(engine.getMinimumTokens("php")).isEqualTo(33);
   }
 
+  @Test
+  public void defaultThreads() {
+    assertThat(engine.getThreads(settings)).isEqualTo(Runtime.getRuntime().availableProcessors());
+  }
+
+  @Test
+  public void threads() {
+    settings.setProperty(CpdEngine.THREADS_PROPERTY, "3");
+    assertThat(engine.getThreads(settings)).isEqualTo(3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void failIfNegativeThreads() {
+    settings.setProperty(CpdEngine.THREADS_PROPERTY, "-1");
+    engine.getThreads(settings);
+  }
+
   private static Project newProject(String key) {
     return new Project(key).setAnalysisType(Project.AnalysisType.DYNAMIC);
   }
@@ -81,7 +81,7 @@ public class DecoratorsSelectorTest {
     for (Object extension : extensions) {
       ioc.addSingleton(extension);
     }
-    return new BatchExtensionDictionnary(ioc, null, null);
+    return new BatchExtensionDictionnary(ioc, null, null, null);
   }
 
   class FakeFormula implements Formula {
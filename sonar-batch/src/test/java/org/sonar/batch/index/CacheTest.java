@@ -20,13 +20,21 @@
 package org.sonar.batch.index;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
 import org.sonar.batch.index.Cache.Entry;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class CacheTest {
@@ -38,10 +46,14 @@ public class CacheTest {
 
   @Before
   public void start() throws Exception {
-    caches = CachesTest.createCacheOnTemp(temp);
+    caches = CachesTest.createCacheOnTemp(temp, settings());
     caches.start();
   }
 
+  protected Settings settings() {
+    return new Settings();
+  }
+
   @After
   public void stop() {
     caches.stop();
@@ -267,4 +279,42 @@ public class CacheTest {
     cache.clear("foo", "bar", "baz");
     cache.clear();
   }
+
+  @Test
+  public void concurrent_access_by_file() throws Exception {
+    final Cache<Integer> cache = caches.createCache("lines");
+    final int files = 20;
+    final int lines = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> futures = Lists.newArrayList();
+      for (int i = 0; i < files; i++) {
+        final String file = "file" + i;
+        futures.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            for (int line = 0; line < lines; line++) {
+              cache.put(file, line, line);
+            }
+            int sum = 0;
+            for (Integer value : cache.values(file)) {
+              sum += value;
+            }
+            cache.remove(file, 0);
+            return sum;
+          }
+        }));
+      }
+      for (Future<Integer> future : futures) {
+        assertThat(future.get()).isEqualTo(lines * (lines - 1) / 2);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(cache.keySet()).hasSize(files);
+    assertThat(cache.values()).hasSize(files * (lines - 1));
+    assertThat(cache.containsKey("file3", 0)).isFalse();
+    assertThat(cache.get("file3", 10)).isEqualTo(10);
+  }
 }
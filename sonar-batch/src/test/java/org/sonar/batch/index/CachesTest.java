@@ -26,6 +26,7 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.CoreProperties;
+import org.sonar.api.config.Settings;
 import org.sonar.batch.bootstrap.BootstrapProperties;
 import org.sonar.batch.bootstrap.TempFolderProvider;
 
@@ -42,9 +43,13 @@ public class CachesTest {
   public static TemporaryFolder temp = new TemporaryFolder();
 
   public static Caches createCacheOnTemp(TemporaryFolder temp) {
+    return createCacheOnTemp(temp, new Settings());
+  }
+
+  public static Caches createCacheOnTemp(TemporaryFolder temp, Settings settings) {
     try {
       BootstrapProperties bootstrapProps = new BootstrapProperties(ImmutableMap.of(CoreProperties.WORKING_DIRECTORY, temp.newFolder().getAbsolutePath()));
-      return new Caches(new TempFolderProvider().provide(bootstrapProps));
+      return new Caches(new TempFolderProvider().provide(bootstrapProps), settings);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -95,6 +100,45 @@ public class CachesTest {
     }
   }
 
+  @Test
+  public void create_memory_cache() throws Exception {
+    caches.stop();
+    caches = createCacheOnTemp(temp, new Settings().setProperty(Caches.PROPERTY_BACKEND, Caches.MEMORY_BACKEND));
+    caches.start();
+
+    assertThat(caches.persistit()).isNull();
+    assertThat(caches.<Element>createCache("foo")).isInstanceOf(MemoryCache.class);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_if_unknown_backend() throws Exception {
+    createCacheOnTemp(temp, new Settings().setProperty(Caches.PROPERTY_BACKEND, "unknown"));
+  }
+
+  @Test
+  public void buffer_pool_is_sized_from_heap() throws Exception {
+    long mb = 1024L * 1024L;
+    Settings settings = new Settings();
+
+    // 5% of heap
+    assertThat(Caches.bufferCount(settings, 512 * mb)).isEqualTo((int) (512 * mb / 20 / 8192));
+    // lower and upper bounds
+    assertThat(Caches.bufferCount(settings, 10 * mb)).isEqualTo((int) (2 * mb / 8192));
+    assertThat(Caches.bufferCount(settings, 8192 * mb)).isEqualTo((int) (64 * mb / 8192));
+  }
+
+  @Test
+  public void buffer_pool_is_sized_from_settings() throws Exception {
+    Settings settings = new Settings().setProperty(Caches.PROPERTY_BUFFER_MEMORY_MB, 100);
+
+    assertThat(Caches.bufferCount(settings, 512 * 1024L * 1024L)).isEqualTo(100 * 1024 * 1024 / 8192);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_if_negative_buffer_memory() throws Exception {
+    Caches.bufferCount(new Settings().setProperty(Caches.PROPERTY_BUFFER_MEMORY_MB, -1), 512 * 1024L * 1024L);
+  }
+
   static class Element implements Serializable {
 
   }
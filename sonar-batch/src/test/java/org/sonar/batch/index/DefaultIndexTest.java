@@ -25,6 +25,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.bootstrap.ProjectDefinition;
 import org.sonar.api.batch.measure.MetricFinder;
+import org.sonar.api.design.Dependency;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.MeasuresFilters;
@@ -37,6 +38,8 @@ import org.sonar.batch.issue.ModuleIssues;
 import org.sonar.batch.scan.measure.MeasureCache;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -117,6 +120,32 @@ public class DefaultIndexTest {
     assertThat(index.getParent(fileRef)).isInstanceOf(Directory.class);
   }
 
+  @Test
+  public void dependencies_are_copied_so_that_they_can_be_iterated_outside_of_lock() {
+    File foo = File.create("src/Foo.java");
+    File bar = File.create("src/Bar.java");
+    File baz = File.create("src/Baz.java");
+    index.index(foo);
+    index.index(bar);
+    index.index(baz);
+    index.registerDependency(new Dependency(foo, bar));
+
+    Set<Dependency> dependencies = index.getDependencies();
+    Collection<Dependency> outgoing = index.getOutgoingEdges(foo);
+    Collection<Dependency> incoming = index.getIncomingEdges(bar);
+    Set<Resource> vertices = index.getVertices();
+    index.registerDependency(new Dependency(foo, baz));
+    index.registerDependency(new Dependency(baz, bar));
+
+    assertThat(dependencies).hasSize(1);
+    assertThat(outgoing).hasSize(1);
+    assertThat(incoming).hasSize(1);
+    assertThat(index.getDependencies()).hasSize(3);
+    assertThat(index.getOutgoingEdges(foo)).hasSize(2);
+    assertThat(index.getIncomingEdges(bar)).hasSize(2);
+    assertThat(index.getVertices()).containsAll(vertices);
+  }
+
   @Test
   public void shouldGetSource() throws Exception {
     Directory directory = Directory.create("src/org/foo");
@@ -0,0 +1,74 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.index;
+
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Executes the tests of {@link CacheTest} on the memory backend
+ */
+public class MemoryCacheTest extends CacheTest {
+
+  @Override
+  protected Settings settings() {
+    return new Settings().setProperty(Caches.PROPERTY_BACKEND, Caches.MEMORY_BACKEND);
+  }
+
+  @Test
+  public void keys_of_different_types() throws Exception {
+    Cache<String> cache = caches.createCache("mixed");
+    cache.put("foo", 2, "foo2");
+    cache.put("foo", 1, "foo1");
+    cache.put("foo", "bar", "foobar");
+    cache.put("foo", null, "foonull");
+
+    assertThat(cache.get("foo", 1)).isEqualTo("foo1");
+    assertThat(cache.get("foo", null)).isEqualTo("foonull");
+    assertThat(cache.values("foo")).containsExactly("foonull", "foo1", "foo2", "foobar");
+  }
+
+  @Test
+  public void fail_if_part_of_key_is_not_comparable() throws Exception {
+    Cache<String> cache = caches.createCache("uncomparable");
+    try {
+      cache.put("foo", new Object(), "bar");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Part of key is not comparable: java.lang.Object");
+    }
+    assertThat(cache.keySet()).isEmpty();
+  }
+
+  @Test
+  public void update_cache_while_iterating() throws Exception {
+    Cache<String> cache = caches.createCache("capitals");
+    cache.put("france", "paris");
+    cache.put("italy", "rome");
+
+    for (Cache.Entry<String> entry : cache.entries()) {
+      cache.remove(entry.key());
+    }
+    assertThat(cache.keySet()).isEmpty();
+  }
+}
@@ -35,6 +35,7 @@ import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.Metric;
 import org.sonar.api.source.Symbol;
+import org.sonar.api.utils.DateUtils;
 import org.sonar.batch.duplication.DuplicationCache;
 import org.sonar.batch.highlighting.SyntaxHighlightingData;
 import org.sonar.batch.highlighting.SyntaxHighlightingDataBuilder;
@@ -43,6 +44,7 @@ import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.source.CodeColorizers;
 import org.sonar.batch.symbol.DefaultSymbolTableBuilder;
 import org.sonar.core.source.SnapshotDataTypes;
+import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.server.source.db.FileSourceDb;
 
 import java.io.File;
@@ -66,7 +68,7 @@ public class SourceDataFactoryTest {
   DefaultInputFile inputFile;
   InputFileMetadata metadata;
   SourceDataFactory sut = new SourceDataFactory(measureCache, componentDataCache, duplicationCache, colorizers);
-  FileSourceDb.Data.Builder output;
+  SourceLinesData output;
 
   @Before
   public void setUp() throws Exception {
@@ -79,17 +81,49 @@ public class SourceDataFactoryTest {
     fs.add(inputFile);
     metadata = new InputFileMetadata();
     FileUtils.write(inputFile.file(), "one\ntwo\nthree\n");
-    output = sut.createForSource(inputFile);
+    output = new SourceLinesData(3);
     when(duplicationCache.byComponent(anyString())).thenReturn(Collections.<DefaultDuplication>emptyList());
   }
 
+  private FileSourceDb.Data decodeData() throws Exception {
+    return FileSourceDto.decodeData(sut.writeData(inputFile, output));
+  }
+
   @Test
-  public void createForSource() throws Exception {
-    FileSourceDb.Data data = output.build();
+  public void writeData() throws Exception {
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLinesCount()).isEqualTo(3);
     for (int index = 1; index <= 3; index++) {
       assertThat(data.getLines(index - 1).getLine()).isEqualTo(index);
     }
+    assertThat(data.getLines(0).getSource()).isEqualTo("one");
+    assertThat(data.getLines(2).getSource()).isEqualTo("three");
+  }
+
+  @Test
+  public void writeData_adds_missing_empty_last_line() throws Exception {
+    FileUtils.write(inputFile.file(), "\uFEFFone\r\ntwo\n", Charsets.UTF_8);
+    output.utLineHits = output.newIntArray();
+    output.utLineHits[2] = 5;
+
+    FileSourceDb.Data data = decodeData();
+    assertThat(data.getLinesCount()).isEqualTo(3);
+    assertThat(data.getLines(0).getSource()).isEqualTo("one");
+    assertThat(data.getLines(1).getSource()).isEqualTo("two");
+    assertThat(data.getLines(2).getSource()).isEmpty();
+    assertThat(data.getLines(2).getUtLineHits()).isEqualTo(5);
+  }
+
+  @Test
+  public void writeData_is_equivalent_to_protobuf_serialization() throws Exception {
+    setupLineMeasure(CoreMetrics.COVERAGE_LINE_HITS_DATA, "1=10;3=4");
+    sut.applyLineMeasures(inputFile, output);
+
+    FileSourceDb.Data.Builder expected = FileSourceDb.Data.newBuilder();
+    expected.addLinesBuilder().setLine(1).setSource("one").setUtLineHits(10);
+    expected.addLinesBuilder().setLine(2).setSource("two");
+    expected.addLinesBuilder().setLine(3).setSource("three").setUtLineHits(4);
+    assertThat(sut.writeData(inputFile, output)).isEqualTo(FileSourceDto.encodeData(expected.build()));
   }
 
   @Test
@@ -99,43 +133,60 @@ public class SourceDataFactoryTest {
   }
 
   @Test
-  public void applyLineMeasure() throws Exception {
+  public void intLineMeasure() throws Exception {
     Metric metric = CoreMetrics.COVERAGE_LINE_HITS_DATA;
     when(measureCache.byMetric("component_key", metric.key())).thenReturn(
       // line 1 has 10 hits, ...
       Arrays.asList(new Measure().setData("1=10;3=4").setMetric(metric)));
 
-    sut.applyLineMeasure("component_key", metric.key(), output, new SourceDataFactory.MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setUtLineHits(Integer.parseInt(value));
-      }
-    });
+    output.utLineHits = sut.intLineMeasure("component_key", metric.key(), output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getUtLineHits()).isEqualTo(10);
     assertThat(data.getLines(1).hasUtLineHits()).isFalse();
     assertThat(data.getLines(2).getUtLineHits()).isEqualTo(4);
   }
 
   @Test
-  public void applyLineMeasure_ignore_bad_line_numbers() throws Exception {
+  public void intLineMeasure_ignore_bad_line_numbers() throws Exception {
     Metric metric = CoreMetrics.COVERAGE_LINE_HITS_DATA;
     when(measureCache.byMetric("component_key", metric.key())).thenReturn(
       // line 30 does not exist
       Arrays.asList(new Measure().setData("30=42").setMetric(metric)));
 
-    sut.applyLineMeasure("component_key", metric.key(), output, new SourceDataFactory.MeasureOperation() {
-      @Override
-      public void apply(String value, FileSourceDb.Line.Builder lineBuilder) {
-        lineBuilder.setUtLineHits(Integer.parseInt(value));
-      }
-    });
+    output.utLineHits = sut.intLineMeasure("component_key", metric.key(), output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLinesCount()).isEqualTo(3);
   }
 
+  @Test
+  public void intLineMeasure_fallbacks_to_generic_parser() throws Exception {
+    Metric metric = CoreMetrics.COVERAGE_LINE_HITS_DATA;
+    when(measureCache.byMetric("component_key", metric.key())).thenReturn(
+      Arrays.asList(new Measure().setData("1=\"10\";2=;3=4").setMetric(metric)));
+
+    output.utLineHits = sut.intLineMeasure("component_key", metric.key(), output);
+
+    FileSourceDb.Data data = decodeData();
+    assertThat(data.getLines(0).getUtLineHits()).isEqualTo(10);
+    assertThat(data.getLines(1).hasUtLineHits()).isFalse();
+    assertThat(data.getLines(2).getUtLineHits()).isEqualTo(4);
+  }
+
+  @Test
+  public void parseIntegers() throws Exception {
+    int[] values = new int[] {-1, -1, -1, -1};
+    assertThat(SourceDataFactory.parseIntegers("1=10;2=;4=-3;12=5;", values)).isTrue();
+    assertThat(values).containsExactly(10, -1, -1, -3);
+
+    assertThat(SourceDataFactory.parseIntegers("1=\"10\"", values)).isFalse();
+    assertThat(SourceDataFactory.parseIntegers("=10", values)).isFalse();
+    assertThat(SourceDataFactory.parseIntegers("1", values)).isFalse();
+    assertThat(SourceDataFactory.parseIntegers("1=-", values)).isFalse();
+    assertThat(SourceDataFactory.parseIntegers("1=12345678901", values)).isFalse();
+  }
+
   @Test
   public void applyLineMeasures() throws Exception {
     setupLineMeasure(CoreMetrics.SCM_AUTHORS_BY_LINE, "1=him;2=her");
@@ -154,11 +205,14 @@ public class SourceDataFactoryTest {
 
     sut.applyLineMeasures(inputFile, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getUtLineHits()).isEqualTo(10);
     assertThat(data.getLines(0).getItLineHits()).isEqualTo(11);
     assertThat(data.getLines(0).getScmRevision()).isEqualTo("ABC");
     assertThat(data.getLines(0).getScmAuthor()).isEqualTo("him");
+    assertThat(data.getLines(0).getScmDate()).isEqualTo(DateUtils.parseDateTime("2014-10-11T16:44:02+0100").getTime());
+    assertThat(data.getLines(0).getUtConditions()).isEqualTo(10);
+    assertThat(data.getLines(0).getOverallCoveredConditions()).isEqualTo(10);
 
     assertThat(data.getLines(1).hasUtLineHits()).isFalse();
     assertThat(data.getLines(1).getItLineHits()).isEqualTo(4);
@@ -186,7 +240,7 @@ public class SourceDataFactoryTest {
 
     sut.applyDuplications(inputFile.key(), output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getDuplicationList()).containsExactly(1, 3);
     assertThat(data.getLines(1).getDuplicationList()).containsExactly(3);
     assertThat(data.getLines(2).getDuplicationList()).containsExactly(2);
@@ -202,7 +256,7 @@ public class SourceDataFactoryTest {
 
     sut.applyDuplications(inputFile.key(), output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getDuplicationList()).containsExactly(1);
     assertThat(data.getLines(1).getDuplicationList()).containsExactly(1);
     assertThat(data.getLines(2).getDuplicationList()).containsExactly(1);
@@ -214,7 +268,7 @@ public class SourceDataFactoryTest {
 
     sut.applyHighlighting(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).hasHighlighting()).isFalse();
     assertThat(data.getLines(1).hasHighlighting()).isFalse();
     assertThat(data.getLines(2).hasHighlighting()).isFalse();
@@ -232,7 +286,7 @@ public class SourceDataFactoryTest {
 
     sut.applyHighlighting(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getHighlighting()).isEqualTo("0,4,a");
     assertThat(data.getLines(1).getHighlighting()).isEqualTo("0,1,cd");
     assertThat(data.getLines(2).getHighlighting()).isEqualTo("0,9,c");
@@ -250,7 +304,7 @@ public class SourceDataFactoryTest {
 
     sut.applyHighlighting(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLinesCount()).isEqualTo(3);
   }
 
@@ -266,7 +320,7 @@ public class SourceDataFactoryTest {
 
     sut.applyHighlighting(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getHighlighting()).isEqualTo("0,3,a");
     assertThat(data.getLines(1).getHighlighting()).isEqualTo("0,3,cd");
     assertThat(data.getLines(2).getHighlighting()).isEqualTo("0,2,cd;3,9,c");
@@ -285,7 +339,7 @@ public class SourceDataFactoryTest {
 
     sut.applyHighlighting(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getHighlighting()).isEqualTo("0,3,a");
     assertThat(data.getLines(1).getHighlighting()).isEqualTo("0,2,cd");
     assertThat(data.getLines(2).getHighlighting()).isEqualTo("0,9,c;1,8,k");
@@ -304,7 +358,7 @@ public class SourceDataFactoryTest {
 
     sut.applyHighlighting(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getHighlighting()).isEqualTo("0,3,a");
     assertThat(data.getLines(1).getHighlighting()).isEqualTo("0,3,c;0,2,cd");
     assertThat(data.getLines(2).getHighlighting()).isEqualTo("0,9,c;1,8,k");
@@ -316,7 +370,7 @@ public class SourceDataFactoryTest {
 
     sut.applySymbolReferences(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).hasSymbols()).isFalse();
     assertThat(data.getLines(1).hasSymbols()).isFalse();
     assertThat(data.getLines(2).hasSymbols()).isFalse();
@@ -336,7 +390,7 @@ public class SourceDataFactoryTest {
 
     sut.applySymbolReferences(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getSymbols()).isEqualTo("1,2,1;0,2,2");
     assertThat(data.getLines(1).getSymbols()).isEqualTo("0,1,1;0,2,2");
     assertThat(data.getLines(2).getSymbols()).isEqualTo("4,5,1;0,2,2");
@@ -356,7 +410,7 @@ public class SourceDataFactoryTest {
 
     sut.applySymbolReferences(inputFile, metadata, output);
 
-    FileSourceDb.Data data = output.build();
+    FileSourceDb.Data data = decodeData();
     assertThat(data.getLines(0).getSymbols()).isEqualTo("1,2,1;0,2,2");
     assertThat(data.getLines(1).getSymbols()).isEqualTo("0,1,1;0,2,2");
     assertThat(data.getLines(2).getSymbols()).isEqualTo("4,5,1;0,2,2");
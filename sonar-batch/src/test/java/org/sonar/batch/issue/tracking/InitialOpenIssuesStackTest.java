@@ -26,6 +26,7 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.CoreProperties;
+import org.sonar.api.config.Settings;
 import org.sonar.batch.bootstrap.BootstrapProperties;
 import org.sonar.batch.bootstrap.TempFolderProvider;
 import org.sonar.batch.index.Caches;
@@ -50,7 +51,7 @@ public class InitialOpenIssuesStackTest {
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    return new Caches(new TempFolderProvider().provide(bootstrapSettings));
+    return new Caches(new TempFolderProvider().provide(bootstrapSettings), new Settings());
   }
 
   InitialOpenIssuesStack stack;
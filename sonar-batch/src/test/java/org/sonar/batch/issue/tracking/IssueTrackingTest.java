@@ -42,6 +42,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -317,6 +318,36 @@ public class IssueTrackingTest {
     assertThat(result.matching(newIssue5)).isSameAs(referenceIssue1);
   }
 
+  @Test
+  public void should_track_many_issues_on_closest_lines() throws Exception {
+    int lines = 10000;
+    StringBuilder reference = new StringBuilder();
+    StringBuilder newSource = new StringBuilder();
+    for (int i = 1; i <= lines; i++) {
+      reference.append("a").append(i).append("\n");
+      newSource.append("b").append(i).append("\n");
+    }
+    initLastHashesFromSources(reference.toString(), newSource.toString());
+
+    List<ServerIssue> referenceIssues = newArrayList();
+    List<DefaultIssue> newIssues = newArrayList();
+    for (int i = 1; i <= lines; i++) {
+      referenceIssues.add(newReferenceIssue("old message " + i, i, "squid", "AvoidCycle", null));
+      // content of all lines has changed and issues are moved by 3 lines, except on the last lines
+      int newLine = i <= lines - 3 ? i + 3 : i;
+      newIssues.add(newDefaultIssue("new message " + i, newLine, RuleKey.of("squid", "AvoidCycle"), null).setKey("new" + i));
+    }
+
+    IssueTrackingResult result = tracking.track(sourceHashHolder, referenceIssues, newIssues);
+
+    assertThat(result.matched().size()).isEqualTo(lines);
+    assertThat(result.unmatched().size()).isEqualTo(0);
+    for (DefaultIssue newIssue : newIssues.subList(0, lines - 6)) {
+      // closest line
+      assertThat(result.matching(newIssue).line()).isEqualTo(newIssue.line());
+    }
+  }
+
   @Test
   public void dont_load_checksum_if_no_new_issue() throws Exception {
     sourceHashHolder = mock(SourceHashHolder.class);
@@ -351,16 +382,19 @@ public class IssueTrackingTest {
   }
 
   private void initLastHashes(String reference, String newSource) throws IOException {
+    initLastHashesFromSources(load(reference), load(newSource));
+  }
+
+  private void initLastHashesFromSources(String reference, String data) throws IOException {
     DefaultInputFile inputFile = mock(DefaultInputFile.class);
     File f = temp.newFile();
     when(inputFile.path()).thenReturn(f.toPath());
     when(inputFile.file()).thenReturn(f);
     when(inputFile.charset()).thenReturn(Charsets.UTF_8);
-    String data = load(newSource);
     when(inputFile.lines()).thenReturn(StringUtils.countMatches(data, "\n") + 1);
     FileUtils.write(f, data, Charsets.UTF_8);
     when(inputFile.key()).thenReturn("foo:Action.java");
-    when(lastSnapshots.getLineHashes("foo:Action.java")).thenReturn(computeHexHashes(load(reference)));
+    when(lastSnapshots.getLineHashes("foo:Action.java")).thenReturn(computeHexHashes(reference));
     sourceHashHolder = new SourceHashHolder(inputFile, lastSnapshots);
   }
 
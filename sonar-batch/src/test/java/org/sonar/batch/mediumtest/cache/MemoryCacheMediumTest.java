@@ -0,0 +1,70 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.mediumtest.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.batch.sensor.measure.Measure;
+import org.sonar.batch.index.Caches;
+import org.sonar.batch.mediumtest.BatchMediumTester;
+import org.sonar.batch.mediumtest.TaskResult;
+import org.sonar.xoo.XooPlugin;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MemoryCacheMediumTest {
+
+  public BatchMediumTester tester = BatchMediumTester.builder()
+    .registerPlugin("xoo", new XooPlugin())
+    .addDefaultQProfile("xoo", "Sonar Way")
+    .build();
+
+  @Before
+  public void prepare() {
+    tester.start();
+  }
+
+  @After
+  public void stop() {
+    tester.stop();
+  }
+
+  @Test
+  public void same_results_with_memory_and_persistit_backends() throws Exception {
+    File projectDir = new File(MemoryCacheMediumTest.class.getResource("/mediumtest/xoo/sample").toURI());
+
+    TaskResult persistit = tester
+      .newScanTask(new File(projectDir, "sonar-project.properties"))
+      .property(Caches.PROPERTY_BACKEND, Caches.PERSISTIT_BACKEND)
+      .start();
+    TaskResult memory = tester
+      .newScanTask(new File(projectDir, "sonar-project.properties"))
+      .property(Caches.PROPERTY_BACKEND, Caches.MEMORY_BACKEND)
+      .start();
+
+    assertThat(memory.measures()).hasSize(13);
+    assertThat(memory.measures()).containsOnly(persistit.measures().toArray(new Measure[0]));
+    assertThat(memory.inputFiles()).hasSameSizeAs(persistit.inputFiles());
+    assertThat(memory.issues()).hasSameSizeAs(persistit.issues());
+  }
+}
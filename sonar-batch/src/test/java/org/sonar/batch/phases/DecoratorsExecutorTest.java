@@ -19,11 +19,19 @@
  */
 package org.sonar.batch.phases;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
+import org.sonar.api.batch.ParallelDecorator;
 import org.sonar.api.batch.SonarIndex;
+import org.sonar.api.config.Settings;
+import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.MetricFinder;
+import org.sonar.api.resources.Directory;
 import org.sonar.api.resources.File;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
@@ -35,11 +43,20 @@ import org.sonar.batch.events.EventBus;
 import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class DecoratorsExecutorTest {
 
@@ -67,7 +84,7 @@ public class DecoratorsExecutorTest {
     doThrow(new SonarException()).when(decorator).decorate(any(Resource.class), any(DecoratorContext.class));
 
     DecoratorsExecutor executor = new DecoratorsExecutor(mock(BatchExtensionDictionnary.class), new Project("key"), mock(SonarIndex.class),
-      mock(EventBus.class), mock(CoverageExclusions.class), mock(MeasureCache.class), mock(MetricFinder.class), mock(DuplicationCache.class));
+      mock(EventBus.class), mock(CoverageExclusions.class), mock(MeasureCache.class), mock(MetricFinder.class), mock(DuplicationCache.class), new Settings());
     try {
       executor.executeDecorator(decorator, mock(DefaultDecoratorContext.class), File.create("src/org/foo/Bar.java", null, false));
       fail("Exception has not been thrown");
@@ -77,6 +94,164 @@ public class DecoratorsExecutorTest {
     }
   }
 
+  @Test
+  public void decorate_sequentially_by_default() {
+    assertThat(DecoratorsExecutor.getThreads(new Settings())).isEqualTo(1);
+    verifyChildrenAreDecoratedBeforeParent(new Settings());
+  }
+
+  @Test
+  public void decorate_sibling_resources_concurrently() {
+    Settings settings = new Settings();
+    settings.setProperty(DecoratorsExecutor.THREADS_PROPERTY, 4);
+    assertThat(DecoratorsExecutor.getThreads(settings)).isEqualTo(4);
+    verifyChildrenAreDecoratedBeforeParent(settings);
+  }
+
+  @Test
+  public void decorators_are_executed_under_index_lock_unless_declared_parallel() {
+    Settings settings = new Settings();
+    settings.setProperty(DecoratorsExecutor.THREADS_PROPERTY, 4);
+    Project project = new Project("key");
+    SonarIndex index = mockTree(project);
+
+    LockRecorderDecorator decorator = new LockRecorderDecorator(index);
+    newExecutor(project, index, decorator, settings).execute();
+    assertThat(decorator.holdsLock).containsOnly(true);
+
+    LockRecorderDecorator parallelDecorator = new ParallelLockRecorderDecorator(index);
+    newExecutor(project, index, parallelDecorator, settings).execute();
+    assertThat(parallelDecorator.holdsLock).containsOnly(false);
+
+    LockRecorderDecorator subclassOfParallelDecorator = new ParallelLockRecorderDecorator(index) {
+    };
+    newExecutor(project, index, subclassOfParallelDecorator, settings).execute();
+    assertThat(subclassOfParallelDecorator.holdsLock).containsOnly(true);
+  }
+
+  @Test
+  public void decorators_are_not_executed_under_index_lock_when_sequential() {
+    Project project = new Project("key");
+    SonarIndex index = mockTree(project);
+    LockRecorderDecorator decorator = new LockRecorderDecorator(index);
+
+    newExecutor(project, index, decorator, new Settings()).execute();
+
+    assertThat(decorator.holdsLock).containsOnly(false);
+  }
+
+  @Test
+  public void fail_if_negative_number_of_threads() {
+    Settings settings = new Settings();
+    settings.setProperty(DecoratorsExecutor.THREADS_PROPERTY, -2);
+    try {
+      DecoratorsExecutor.getThreads(settings);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Bad value of sonar.decorators.threads: -2");
+    }
+  }
+
+  @Test
+  public void concurrent_failure_should_include_resource() {
+    Settings settings = new Settings();
+    settings.setProperty(DecoratorsExecutor.THREADS_PROPERTY, 4);
+    Project project = new Project("key");
+    SonarIndex index = mockTree(project);
+    Decorator decorator = mock(Decorator.class);
+    doThrow(new IllegalStateException("BOOM")).when(decorator).decorate(eq(File.create("src/dir3/File7.java")), any(DecoratorContext.class));
+
+    try {
+      newExecutor(project, index, decorator, settings).execute();
+      fail();
+    } catch (SonarException e) {
+      assertThat(e).hasMessageContaining("src/dir3/File7.java");
+      assertThat(e.getCause()).hasMessage("BOOM");
+    }
+  }
+
+  private void verifyChildrenAreDecoratedBeforeParent(Settings settings) {
+    Project project = new Project("key");
+    SonarIndex index = mockTree(project);
+    ChildrenFirstDecorator decorator = new ChildrenFirstDecorator();
+
+    newExecutor(project, index, decorator, settings).execute();
+
+    // project + 10 directories + 100 files
+    assertThat(decorator.decorated).hasSize(111);
+    assertThat(decorator.decorated).contains(project, Directory.create("src/dir0"), File.create("src/dir9/File9.java"));
+  }
+
+  private DecoratorsExecutor newExecutor(Project project, SonarIndex index, Decorator decorator, Settings settings) {
+    BatchExtensionDictionnary dictionnary = mock(BatchExtensionDictionnary.class);
+    when(dictionnary.select(Decorator.class, project, false, null)).thenReturn(Arrays.asList(decorator));
+    when(dictionnary.sort(anyCollection())).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        return invocation.getArguments()[0];
+      }
+    });
+    MeasureCache measureCache = mock(MeasureCache.class);
+    when(measureCache.byResource(any(Resource.class))).thenReturn(Collections.<Measure>emptyList());
+    return new DecoratorsExecutor(dictionnary, project, index, mock(EventBus.class), mock(CoverageExclusions.class), measureCache,
+      mock(MetricFinder.class), mock(DuplicationCache.class), settings);
+  }
+
+  private static SonarIndex mockTree(Project project) {
+    SonarIndex index = mock(SonarIndex.class);
+    List<Resource> dirs = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      Directory dir = Directory.create("src/dir" + i);
+      dirs.add(dir);
+      List<Resource> files = Lists.newArrayList();
+      for (int j = 0; j < 10; j++) {
+        files.add(File.create("src/dir" + i + "/File" + j + ".java"));
+      }
+      when(index.getChildren(dir)).thenReturn(files);
+    }
+    when(index.getChildren(project)).thenReturn(dirs);
+    return index;
+  }
+
+  static class ChildrenFirstDecorator implements Decorator {
+    final Set<Resource> decorated = Sets.newSetFromMap(new ConcurrentHashMap<Resource, Boolean>());
+
+    public void decorate(Resource resource, DecoratorContext context) {
+      for (DecoratorContext child : context.getChildren()) {
+        assertThat(decorated.contains(child.getResource())).isTrue();
+      }
+      decorated.add(resource);
+    }
+
+    public boolean shouldExecuteOnProject(Project project) {
+      return true;
+    }
+  }
+
+  static class LockRecorderDecorator implements Decorator {
+    final Set<Boolean> holdsLock = Sets.newSetFromMap(new ConcurrentHashMap<Boolean, Boolean>());
+    private final SonarIndex index;
+
+    LockRecorderDecorator(SonarIndex index) {
+      this.index = index;
+    }
+
+    public void decorate(Resource resource, DecoratorContext context) {
+      holdsLock.add(Thread.holdsLock(index));
+    }
+
+    public boolean shouldExecuteOnProject(Project project) {
+      return true;
+    }
+  }
+
+  @ParallelDecorator
+  static class ParallelLockRecorderDecorator extends LockRecorderDecorator {
+    ParallelLockRecorderDecorator(SonarIndex index) {
+      super(index);
+    }
+  }
+
   static class Decorator1 implements Decorator {
     public void decorate(Resource resource, DecoratorContext context) {
     }
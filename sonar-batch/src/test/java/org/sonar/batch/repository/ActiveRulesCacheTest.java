@@ -0,0 +1,111 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.repository;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.batch.bootstrap.ServerClient;
+import org.sonar.batch.protocol.input.BatchInput;
+import org.sonar.home.cache.FileCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ActiveRulesCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  FileCache fileCache = mock(FileCache.class);
+  ServerClient serverClient = mock(ServerClient.class);
+  File cacheDir;
+  ActiveRulesCache cache;
+
+  @Before
+  public void prepare() throws Exception {
+    cacheDir = temp.newFolder();
+    when(fileCache.getDir()).thenReturn(cacheDir);
+    when(serverClient.getURL()).thenReturn("http://localhost:9000");
+    cache = new ActiveRulesCache(fileCache, serverClient);
+  }
+
+  @Test
+  public void save_and_load() {
+    Map<String, ActiveRulesCache.Entry> entries = new LinkedHashMap<>();
+    entries.put("java-sonar-way", new ActiveRulesCache.Entry("v1", Arrays.asList(
+      BatchInput.ActiveRule.newBuilder().setRepositoryKey("squid").setRuleKey("S001").setName("Rule 1")
+        .addParam(BatchInput.Property.newBuilder().setKey("max").setValue("10")).build(),
+      BatchInput.ActiveRule.newBuilder().setRepositoryKey("squid").setRuleKey("S002").setName("Rule 2").build()), true));
+    entries.put("js-sonar-way", new ActiveRulesCache.Entry("v2", Collections.<BatchInput.ActiveRule>emptyList(), true));
+    cache.save("foo", entries);
+
+    Map<String, ActiveRulesCache.Entry> loaded = cache.load("foo");
+    assertThat(loaded.keySet()).containsExactly("java-sonar-way", "js-sonar-way");
+    assertThat(loaded.get("java-sonar-way").version()).isEqualTo("v1");
+    assertThat(loaded.get("java-sonar-way").activeRules()).isEqualTo(entries.get("java-sonar-way").activeRules());
+    assertThat(loaded.get("js-sonar-way").version()).isEqualTo("v2");
+    assertThat(loaded.get("js-sonar-way").activeRules()).isEmpty();
+
+    // profiles are shared between projects
+    cache.save("bar", Collections.singletonMap("java-sonar-way", loaded.get("java-sonar-way")));
+    assertThat(cache.load("bar").keySet()).containsExactly("java-sonar-way");
+    assertThat(cache.load("bar").get("java-sonar-way").activeRules()).hasSize(2);
+  }
+
+  @Test
+  public void nothing_cached_for_unknown_project() {
+    assertThat(cache.load("foo")).isEmpty();
+  }
+
+  @Test
+  public void cache_is_specific_to_server() {
+    cache.save("foo", Collections.singletonMap("java-sonar-way",
+      new ActiveRulesCache.Entry("v1", Collections.<BatchInput.ActiveRule>emptyList(), true)));
+
+    when(serverClient.getURL()).thenReturn("http://other:9000");
+    assertThat(cache.load("foo")).isEmpty();
+  }
+
+  @Test
+  public void ignore_truncated_files() throws Exception {
+    cache.save("foo", Collections.singletonMap("java-sonar-way", new ActiveRulesCache.Entry("v1", Arrays.asList(
+      BatchInput.ActiveRule.newBuilder().setRepositoryKey("squid").setRuleKey("S001").setName("Rule 1").build()), true)));
+    for (File file : FileUtils.listFiles(new File(cacheDir, "active_rules"), null, true)) {
+      if ("profiles".equals(file.getParentFile().getName())) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchInput.ActiveRulesVersion.newBuilder().setVersion("v1").setActiveRuleCount(1).build().writeDelimitedTo(output);
+        FileUtils.writeByteArrayToFile(file, output.toByteArray());
+      }
+    }
+
+    assertThat(cache.load("foo")).isEmpty();
+  }
+}
@@ -19,20 +19,44 @@
  */
 package org.sonar.batch.repository;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.io.InputSupplier;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.sonar.api.batch.bootstrap.ProjectDefinition;
 import org.sonar.api.batch.bootstrap.ProjectReactor;
 import org.sonar.batch.bootstrap.DefaultAnalysisMode;
 import org.sonar.batch.bootstrap.ServerClient;
 import org.sonar.batch.bootstrap.TaskProperties;
+import org.sonar.batch.protocol.input.ActiveRule;
+import org.sonar.batch.protocol.input.BatchInput;
+import org.sonar.batch.protocol.input.ProjectRepositories;
+import org.sonar.batch.protocol.input.QProfile;
 import org.sonar.batch.rule.ModuleQProfiles;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class DefaultProjectRepositoriesLoaderTest {
@@ -42,14 +66,16 @@ public class DefaultProjectRepositoriesLoaderTest {
   private DefaultAnalysisMode analysisMode;
   private ProjectReactor reactor;
   private TaskProperties taskProperties;
+  private ActiveRulesCache activeRulesCache;
 
   @Before
-  public void prepare() {
+  public void prepare() throws Exception {
     serverClient = mock(ServerClient.class);
     analysisMode = mock(DefaultAnalysisMode.class);
-    loader = new DefaultProjectRepositoriesLoader(serverClient, analysisMode);
+    activeRulesCache = mock(ActiveRulesCache.class);
+    loader = new DefaultProjectRepositoriesLoader(serverClient, analysisMode, activeRulesCache);
     loader = spy(loader);
-    when(serverClient.request(anyString())).thenReturn("{}");
+    when(serverClient.doRequest(anyString(), anyString(), anyInt())).thenReturn(inputSupplier(endOfStream(new ByteArrayOutputStream())));
     taskProperties = new TaskProperties(Maps.<String, String>newHashMap(), "");
   }
 
@@ -58,18 +84,18 @@ public class DefaultProjectRepositoriesLoaderTest {
     reactor = new ProjectReactor(ProjectDefinition.create().setKey("foo"));
     when(analysisMode.isPreview()).thenReturn(false);
     loader.load(reactor, taskProperties);
-    verify(serverClient).request("/batch/project?key=foo&preview=false");
+    verify(serverClient).doRequest("/batch/project?key=foo&preview=false&format=protobuf", "GET", null);
 
     when(analysisMode.isPreview()).thenReturn(true);
     loader.load(reactor, taskProperties);
-    verify(serverClient).request("/batch/project?key=foo&preview=true");
+    verify(serverClient).doRequest("/batch/project?key=foo&preview=true&format=protobuf", "GET", null);
   }
 
   @Test
   public void passAndEncodeProjectKeyParameter() {
     reactor = new ProjectReactor(ProjectDefinition.create().setKey("foo bàr"));
     loader.load(reactor, taskProperties);
-    verify(serverClient).request("/batch/project?key=foo+b%C3%A0r&preview=false");
+    verify(serverClient).doRequest("/batch/project?key=foo+b%C3%A0r&preview=false&format=protobuf", "GET", null);
   }
 
   @Test
@@ -77,7 +103,146 @@ public class DefaultProjectRepositoriesLoaderTest {
     reactor = new ProjectReactor(ProjectDefinition.create().setKey("foo"));
     taskProperties.properties().put(ModuleQProfiles.SONAR_PROFILE_PROP, "my-profile#2");
     loader.load(reactor, taskProperties);
-    verify(serverClient).request("/batch/project?key=foo&profile=my-profile%232&preview=false");
+    verify(serverClient).doRequest("/batch/project?key=foo&profile=my-profile%232&preview=false&format=protobuf", "GET", null);
+  }
+
+  @Test
+  public void readStreamedProjectRepositories() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BatchInput.ProjectRepositoryItem.newBuilder().setModuleSettings(BatchInput.ModuleSettings.newBuilder().setModuleKey("foo")
+      .addProperty(BatchInput.Property.newBuilder().setKey("prop1").setValue("value1"))).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setModuleSettings(BatchInput.ModuleSettings.newBuilder().setModuleKey("foo")
+      .addProperty(BatchInput.Property.newBuilder().setKey("prop2").setValue("value2"))).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setQprofile(BatchInput.QProfile.newBuilder().setKey("squid-java").setName("Java").setLanguage("java")
+      .setRulesUpdatedAt(1234567L)).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRule(BatchInput.ActiveRule.newBuilder().setRepositoryKey("repo").setRuleKey("rule")
+      .setTemplateRuleKey("templateRule").setName("Rule").setSeverity("MAJOR").setInternalKey("rule1").setLanguage("java")
+      .addParam(BatchInput.Property.newBuilder().setKey("param1").setValue("value1"))
+      .addParam(BatchInput.Property.newBuilder().setKey("param2"))).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRule(BatchInput.ActiveRule.newBuilder().setRepositoryKey("manual").setRuleKey("rule")
+      .setName("Manual rule")).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setFileData(BatchInput.FileData.newBuilder().setModuleKey("foo").setPath("src/Foo.java").setHash("xyz")
+      .setNeedBlame(true)).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setLastAnalysisDate(1234567L).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setModuleSettings(BatchInput.ModuleSettings.newBuilder().setModuleKey("foo")
+      .addProperty(BatchInput.Property.newBuilder().setKey("prop3"))).build().writeDelimitedTo(output);
+    when(serverClient.doRequest(anyString(), anyString(), anyInt())).thenReturn(inputSupplier(endOfStream(output)));
+
+    ProjectRepositories ref = loader.load(new ProjectReactor(ProjectDefinition.create().setKey("foo")), taskProperties);
+
+    assertThat(ref.settings("foo")).containsEntry("prop1", "value1").containsEntry("prop2", "value2").containsEntry("prop3", null);
+    QProfile qProfile = ref.qProfiles().iterator().next();
+    assertThat(qProfile.key()).isEqualTo("squid-java");
+    assertThat(qProfile.name()).isEqualTo("Java");
+    assertThat(qProfile.language()).isEqualTo("java");
+    assertThat(qProfile.rulesUpdatedAt()).isEqualTo(new Date(1234567L));
+    assertThat(ref.activeRules()).hasSize(2);
+    ActiveRule activeRule = ref.activeRules().iterator().next();
+    assertThat(activeRule.repositoryKey()).isEqualTo("repo");
+    assertThat(activeRule.ruleKey()).isEqualTo("rule");
+    assertThat(activeRule.templateRuleKey()).isEqualTo("templateRule");
+    assertThat(activeRule.name()).isEqualTo("Rule");
+    assertThat(activeRule.severity()).isEqualTo("MAJOR");
+    assertThat(activeRule.internalKey()).isEqualTo("rule1");
+    assertThat(activeRule.language()).isEqualTo("java");
+    assertThat(activeRule.params()).containsEntry("param1", "value1").containsEntry("param2", null);
+    ActiveRule manualRule = Iterables.get(ref.activeRules(), 1);
+    assertThat(manualRule.templateRuleKey()).isNull();
+    assertThat(manualRule.severity()).isNull();
+    assertThat(manualRule.language()).isNull();
+    assertThat(ref.fileData("foo", "src/Foo.java").hash()).isEqualTo("xyz");
+    assertThat(ref.fileData("foo", "src/Foo.java").needBlame()).isTrue();
+    assertThat(ref.fileData("foo", "src/Foo.java").scmAuthorsByLine()).isNull();
+    assertThat(ref.lastAnalysisDate()).isEqualTo(new Date(1234567L));
+  }
+
+  @Test
+  public void noLastAnalysisDateOnNewProject() {
+    ProjectRepositories ref = loader.load(new ProjectReactor(ProjectDefinition.create().setKey("foo")), taskProperties);
+    assertThat(ref.lastAnalysisDate()).isNull();
+    assertThat(ref.activeRules()).isEmpty();
+  }
+
+  @Test
+  public void reuseCachedActiveRulesWhenUnchanged() throws Exception {
+    Map<String, ActiveRulesCache.Entry> cached = new LinkedHashMap<>();
+    cached.put("java-sonar-way", new ActiveRulesCache.Entry("v1", Arrays.asList(BatchInput.ActiveRule.newBuilder().setRepositoryKey("squid")
+      .setRuleKey("S001").setName("Cached rule").build()), false));
+    cached.put("js-sonar-way", new ActiveRulesCache.Entry("v2", Collections.<BatchInput.ActiveRule>emptyList(), false));
+    when(activeRulesCache.load("foo")).thenReturn(cached);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRulesVersion(BatchInput.ActiveRulesVersion.newBuilder().setProfileKey("java-sonar-way")
+      .setVersion("v1").setUnchanged(true)).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRulesVersion(BatchInput.ActiveRulesVersion.newBuilder().setProfileKey("js-sonar-way")
+      .setVersion("v3").setActiveRuleCount(1)).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRule(BatchInput.ActiveRule.newBuilder().setRepositoryKey("javascript").setRuleKey("S002")
+      .setName("Downloaded rule")).build().writeDelimitedTo(output);
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRule(BatchInput.ActiveRule.newBuilder().setRepositoryKey("manual").setRuleKey("rule")
+      .setName("Manual rule")).build().writeDelimitedTo(output);
+    when(serverClient.doRequest(anyString(), anyString(), anyInt())).thenReturn(inputSupplier(endOfStream(output)));
+
+    ProjectRepositories ref = loader.load(new ProjectReactor(ProjectDefinition.create().setKey("foo")), taskProperties);
+
+    verify(serverClient).doRequest("/batch/project?key=foo&preview=false&format=protobuf&activeRulesVersions=java-sonar-way%3Dv1%2Cjs-sonar-way%3Dv2",
+      "GET", null);
+    assertThat(ref.activeRules()).extracting("name").containsExactly("Cached rule", "Downloaded rule", "Manual rule");
+
+    ArgumentCaptor<Map> saved = ArgumentCaptor.forClass(Map.class);
+    verify(activeRulesCache).save(eq("foo"), saved.capture());
+    Map<String, ActiveRulesCache.Entry> savedEntries = saved.getValue();
+    assertThat(savedEntries.keySet()).containsExactly("java-sonar-way", "js-sonar-way");
+    assertThat(savedEntries.get("java-sonar-way")).isSameAs(cached.get("java-sonar-way"));
+    assertThat(savedEntries.get("js-sonar-way").version()).isEqualTo("v3");
+    assertThat(savedEntries.get("js-sonar-way").activeRules()).extracting("ruleKey").containsExactly("S002");
+  }
+
+  @Test
+  public void doNotUseActiveRulesCacheWhenDisabled() {
+    taskProperties.properties().put(ActiveRulesCache.DISABLED_PROPERTY, "true");
+    loader.load(new ProjectReactor(ProjectDefinition.create().setKey("foo")), taskProperties);
+
+    verify(serverClient).doRequest("/batch/project?key=foo&preview=false&format=protobuf", "GET", null);
+    verifyZeroInteractions(activeRulesCache);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failWhenUnchangedActiveRulesAreNotCached() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BatchInput.ProjectRepositoryItem.newBuilder().setActiveRulesVersion(BatchInput.ActiveRulesVersion.newBuilder().setProfileKey("java-sonar-way")
+      .setVersion("v1").setUnchanged(true)).build().writeDelimitedTo(output);
+    when(serverClient.doRequest(anyString(), anyString(), anyInt())).thenReturn(inputSupplier(endOfStream(output)));
+
+    loader.load(new ProjectReactor(ProjectDefinition.create().setKey("foo")), taskProperties);
   }
 
+  @Test
+  public void failWhenStreamIsTruncated() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BatchInput.ProjectRepositoryItem.newBuilder().setModuleSettings(BatchInput.ModuleSettings.newBuilder().setModuleKey("foo")
+      .addProperty(BatchInput.Property.newBuilder().setKey("prop1").setValue("value1"))).build().writeDelimitedTo(output);
+    when(serverClient.doRequest(anyString(), anyString(), anyInt())).thenReturn(inputSupplier(output.toByteArray()));
+
+    try {
+      loader.load(new ProjectReactor(ProjectDefinition.create().setKey("foo")), taskProperties);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Project repositories sent by server are truncated");
+    }
+    verify(activeRulesCache, never()).save(anyString(), anyMap());
+  }
+
+  private static byte[] endOfStream(ByteArrayOutputStream output) throws IOException {
+    BatchInput.ProjectRepositoryItem.newBuilder().setEndOfStream(true).build().writeDelimitedTo(output);
+    return output.toByteArray();
+  }
+
+  private static InputSupplier<InputStream> inputSupplier(final byte[] bytes) {
+    return new InputSupplier<InputStream>() {
+      @Override
+      public InputStream getInput() {
+        return new ByteArrayInputStream(bytes);
+      }
+    };
+  }
 }
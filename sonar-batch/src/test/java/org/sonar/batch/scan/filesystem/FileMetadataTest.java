@@ -20,15 +20,21 @@
 package org.sonar.batch.scan.filesystem;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.batch.AnalysisMode;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+
+import javax.annotation.Nullable;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.List;
 
 import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -234,4 +240,41 @@ public class FileMetadataTest {
     assertThat(hash1).isNotEqualTo(hash2);
   }
 
+  @Test
+  public void read_file_larger_than_buffers() throws Exception {
+    StringBuilder content = new StringBuilder();
+    StringBuilder expectedHashed = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      // multi-byte chars and surrogate pairs may be split between buffers
+      String line = "line " + i + " \u00e9\u20ac\uD834\uDD1E";
+      content.append(line).append(i % 2 == 0 ? "\n" : "\r\n");
+      expectedHashed.append(line).append('\n');
+    }
+    File tempFile = temp.newFile();
+    FileUtils.write(tempFile, content, Charsets.UTF_8, true);
+
+    FileMetadata.Metadata metadata = new FileMetadata(mode).read(tempFile, Charsets.UTF_8);
+    assertThat(metadata.lines).isEqualTo(5001);
+    assertThat(metadata.nonBlankLines).isEqualTo(5000);
+    assertThat(metadata.hash).isEqualTo(md5Hex(expectedHashed.toString()));
+    assertThat(metadata.originalLineOffsets).hasSize(5001);
+    assertThat(metadata.lastValidOffset).isEqualTo(content.length());
+  }
+
+  @Test
+  public void compute_line_hashes() throws Exception {
+    File tempFile = temp.newFile();
+    FileUtils.write(tempFile, " foo\n\nb ar\u00e9\r\nbaz \t", Charsets.UTF_8, true);
+    DefaultInputFile inputFile = new DefaultInputFile("foo", tempFile.getName()).setModuleBaseDir(tempFile.getParentFile().toPath()).setCharset(Charsets.UTF_8);
+    final List<String> hashes = Lists.newArrayList();
+
+    FileMetadata.computeLineHashesForIssueTracking(inputFile, new FileMetadata.LineHashConsumer() {
+      @Override
+      public void consume(int lineIdx, @Nullable byte[] hash) {
+        hashes.add(lineIdx + ":" + (hash == null ? "" : Hex.encodeHexString(hash)));
+      }
+    });
+
+    assertThat(hashes).containsExactly("1:" + md5Hex("foo"), "2:", "3:" + md5Hex("bar\u00e9".getBytes(Charsets.UTF_8)), "4:" + md5Hex("baz"));
+  }
 }
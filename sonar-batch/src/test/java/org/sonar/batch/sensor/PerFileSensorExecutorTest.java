@@ -0,0 +1,221 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.sensor;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.DefaultFileSystem;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.sensor.Sensor;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.SensorDescriptor;
+import org.sonar.api.batch.measure.MetricFinder;
+import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
+import org.sonar.api.batch.sensor.internal.SensorStorage;
+import org.sonar.api.batch.sensor.issue.Issue;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.batch.cache.AnalysisCache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PerFileSensorExecutorTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  Settings settings = new Settings();
+  DefaultFileSystem fs;
+  SensorContext context = mock(SensorContext.class);
+  SensorStorage storage = mock(SensorStorage.class);
+  AnalysisCache analysisCache = mock(AnalysisCache.class);
+  MetricFinder metricFinder = mock(MetricFinder.class);
+
+  @Before
+  public void prepare() throws Exception {
+    fs = new DefaultFileSystem(temp.newFolder().toPath());
+    for (int i = 0; i < 50; i++) {
+      fs.add(new DefaultInputFile("foo", "src/Foo" + i + ".java").setLanguage("java").setType(InputFile.Type.MAIN));
+    }
+    fs.add(new DefaultInputFile("foo", "src/Foo.cbl").setLanguage("cobol").setType(InputFile.Type.MAIN));
+    fs.add(new DefaultInputFile("foo", "test/FooTest.java").setLanguage("java").setType(InputFile.Type.TEST));
+    when(context.fileSystem()).thenReturn(fs);
+  }
+
+  @Test
+  public void default_number_of_threads() {
+    assertThat(newExecutor().threads()).isEqualTo(Runtime.getRuntime().availableProcessors());
+
+    settings.setProperty(PerFileSensorExecutor.THREADS_PROPERTY, 3);
+    assertThat(newExecutor().threads()).isEqualTo(3);
+  }
+
+  @Test
+  public void fail_if_negative_number_of_threads() {
+    settings.setProperty(PerFileSensorExecutor.THREADS_PROPERTY, -1);
+    try {
+      newExecutor();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Bad value of sonar.sensor.threads: -1");
+    }
+  }
+
+  @Test
+  public void execute_once_per_file_in_main_thread() {
+    settings.setProperty(PerFileSensorExecutor.THREADS_PROPERTY, 1);
+    verifyExecutionOnMainJavaFiles();
+  }
+
+  @Test
+  public void execute_once_per_file_in_parallel() {
+    settings.setProperty(PerFileSensorExecutor.THREADS_PROPERTY, 4);
+    verifyExecutionOnMainJavaFiles();
+  }
+
+  @Test
+  public void propagate_sensor_failure() {
+    settings.setProperty(PerFileSensorExecutor.THREADS_PROPERTY, 4);
+    Sensor sensor = new Sensor() {
+      @Override
+      public void describe(SensorDescriptor descriptor) {
+      }
+
+      @Override
+      public void execute(SensorContext context) {
+        if (context.fileSystem().hasFiles(context.fileSystem().predicates().hasRelativePath("src/Foo.cbl"))) {
+          throw new IllegalStateException("BOOM");
+        }
+      }
+    };
+    try {
+      newExecutor().execute(sensor, new DefaultSensorDescriptor().parallelPerFile(), context);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("BOOM");
+    }
+  }
+
+  @Test
+  public void replay_results_of_unchanged_files() {
+    settings.setProperty(PerFileSensorExecutor.THREADS_PROPERTY, 4);
+    when(analysisCache.isEnabled()).thenReturn(true);
+    final Map<String, byte[]> entries = new ConcurrentHashMap<>();
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        entries.put(((InputFile) invocation.getArguments()[0]).relativePath(), (byte[]) invocation.getArguments()[2]);
+        return null;
+      }
+    }).when(analysisCache).put(any(InputFile.class), eq(IssueSensor.class.getName()), any(byte[].class));
+    when(analysisCache.get(any(InputFile.class), eq(IssueSensor.class.getName()))).thenAnswer(new Answer<byte[]>() {
+      @Override
+      public byte[] answer(InvocationOnMock invocation) {
+        return entries.get(((InputFile) invocation.getArguments()[0]).relativePath());
+      }
+    });
+    IssueSensor sensor = new IssueSensor();
+    DefaultSensorDescriptor descriptor = new DefaultSensorDescriptor().onlyOnLanguage("java").reusableResultsPerFile();
+
+    newExecutor().execute(sensor, descriptor, context);
+    assertThat(sensor.executions.get()).isEqualTo(51);
+    assertThat(entries).hasSize(51);
+    verify(storage, times(51)).store(any(Issue.class));
+
+    // second analysis replays results
+    newExecutor().execute(sensor, descriptor, context);
+    assertThat(sensor.executions.get()).isEqualTo(51);
+    verify(storage, times(102)).store(any(Issue.class));
+
+    // results are not reused when cache is disabled
+    when(analysisCache.isEnabled()).thenReturn(false);
+    newExecutor().execute(sensor, descriptor, context);
+    assertThat(sensor.executions.get()).isEqualTo(102);
+  }
+
+  private PerFileSensorExecutor newExecutor() {
+    return new PerFileSensorExecutor(settings, storage, analysisCache, metricFinder);
+  }
+
+  private void verifyExecutionOnMainJavaFiles() {
+    FileCollectorSensor sensor = new FileCollectorSensor();
+    DefaultSensorDescriptor descriptor = new DefaultSensorDescriptor().onlyOnLanguage("java").onlyOnFileType(InputFile.Type.MAIN).parallelPerFile();
+
+    newExecutor().execute(sensor, descriptor, context);
+
+    assertThat(sensor.relativePaths).hasSize(50).contains("src/Foo0.java", "src/Foo49.java");
+  }
+
+  private static class IssueSensor implements Sensor {
+    final AtomicInteger executions = new AtomicInteger();
+
+    @Override
+    public void describe(SensorDescriptor descriptor) {
+      descriptor.reusableResultsPerFile();
+    }
+
+    @Override
+    public void execute(SensorContext context) {
+      executions.incrementAndGet();
+      FileSystem fs = context.fileSystem();
+      InputFile file = fs.inputFile(fs.predicates().all());
+      context.newIssue().onFile(file).forRule(RuleKey.of("squid", "S0001")).message("Issue on " + file.relativePath()).save();
+    }
+  }
+
+  private static class FileCollectorSensor implements Sensor {
+    final Set<String> relativePaths = Collections.synchronizedSet(Sets.<String>newHashSet());
+
+    @Override
+    public void describe(SensorDescriptor descriptor) {
+      descriptor.parallelPerFile();
+    }
+
+    @Override
+    public void execute(SensorContext context) {
+      FileSystem fs = context.fileSystem();
+      Iterable<InputFile> files = fs.inputFiles(fs.predicates().all());
+      assertThat(files).hasSize(1);
+      relativePaths.add(Iterables.getOnlyElement(files).relativePath());
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.batch.measure.MetricFinder;
+import org.sonar.api.batch.sensor.dependency.internal.DefaultDependency;
+import org.sonar.api.batch.sensor.highlighting.TypeOfText;
+import org.sonar.api.batch.sensor.highlighting.internal.DefaultHighlighting;
+import org.sonar.api.batch.sensor.internal.SensorStorage;
+import org.sonar.api.batch.sensor.issue.Issue;
+import org.sonar.api.batch.sensor.issue.internal.DefaultIssue;
+import org.sonar.api.batch.sensor.measure.Measure;
+import org.sonar.api.batch.sensor.measure.internal.DefaultMeasure;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.rule.RuleKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RecordingSensorStorageTest {
+
+  SensorStorage storage = mock(SensorStorage.class);
+  MetricFinder metricFinder = mock(MetricFinder.class);
+  DefaultInputFile file = new DefaultInputFile("foo", "src/Foo.java").setLines(10).setLastValidOffset(100);
+  RecordingSensorStorage recordingStorage = new RecordingSensorStorage(storage, file);
+
+  @Before
+  public void prepare() {
+    when(metricFinder.findByKey(CoreMetrics.NCLOC_KEY)).thenReturn(CoreMetrics.NCLOC);
+    when(metricFinder.findByKey(CoreMetrics.COMMENT_LINES_DENSITY_KEY)).thenReturn(CoreMetrics.COMMENT_LINES_DENSITY);
+  }
+
+  @Test
+  public void record_and_replay() {
+    new DefaultMeasure<Integer>(recordingStorage).onFile(file).forMetric(CoreMetrics.NCLOC).withValue(8).setFromCore().save();
+    new DefaultMeasure<Double>(recordingStorage).onFile(file).forMetric(CoreMetrics.COMMENT_LINES_DENSITY).withValue(12.5).save();
+    new DefaultIssue(recordingStorage).onFile(file).forRule(RuleKey.of("squid", "S0001")).atLine(3).message("Fix it").effortToFix(2.0)
+      .overrideSeverity(Issue.Severity.BLOCKER).save();
+    new DefaultIssue(recordingStorage).onFile(file).forRule(RuleKey.of("squid", "S0002")).save();
+    new DefaultHighlighting(recordingStorage).onFile(file).highlight(0, 10, TypeOfText.KEYWORD).highlight(20, 30, TypeOfText.COMMENT).save();
+
+    // data is forwarded to storage
+    verify(storage, times(2)).store(any(Measure.class));
+    verify(storage, times(2)).store(any(Issue.class));
+    verify(storage).store(any(DefaultHighlighting.class));
+
+    byte[] recorded = recordingStorage.recorded();
+    assertThat(recorded).isNotNull();
+
+    SensorStorage replayStorage = mock(SensorStorage.class);
+    assertThat(RecordingSensorStorage.replay(recorded, file, replayStorage, metricFinder)).isTrue();
+
+    ArgumentCaptor<Measure> measures = ArgumentCaptor.forClass(Measure.class);
+    verify(replayStorage, times(2)).store(measures.capture());
+    DefaultMeasure ncloc = (DefaultMeasure) measures.getAllValues().get(0);
+    assertThat(ncloc.inputFile()).isEqualTo(file);
+    assertThat(ncloc.metric()).isEqualTo(CoreMetrics.NCLOC);
+    assertThat(ncloc.value()).isEqualTo(8);
+    assertThat(ncloc.isFromCore()).isTrue();
+    DefaultMeasure density = (DefaultMeasure) measures.getAllValues().get(1);
+    assertThat(density.value()).isEqualTo(12.5);
+    assertThat(density.isFromCore()).isFalse();
+
+    ArgumentCaptor<Issue> issues = ArgumentCaptor.forClass(Issue.class);
+    verify(replayStorage, times(2)).store(issues.capture());
+    Issue issue = issues.getAllValues().get(0);
+    assertThat(issue.inputPath()).isEqualTo(file);
+    assertThat(issue.ruleKey()).isEqualTo(RuleKey.of("squid", "S0001"));
+    assertThat(issue.line()).isEqualTo(3);
+    assertThat(issue.message()).isEqualTo("Fix it");
+    assertThat(issue.effortToFix()).isEqualTo(2.0);
+    assertThat(issue.overridenSeverity()).isEqualTo(Issue.Severity.BLOCKER);
+    issue = issues.getAllValues().get(1);
+    assertThat(issue.ruleKey()).isEqualTo(RuleKey.of("squid", "S0002"));
+    assertThat(issue.line()).isNull();
+    assertThat(issue.message()).isNull();
+    assertThat(issue.effortToFix()).isNull();
+    assertThat(issue.overridenSeverity()).isNull();
+
+    ArgumentCaptor<DefaultHighlighting> highlighting = ArgumentCaptor.forClass(DefaultHighlighting.class);
+    verify(replayStorage).store(highlighting.capture());
+    assertThat(highlighting.getValue().inputFile()).isEqualTo(file);
+    assertThat(highlighting.getValue().getSyntaxHighlightingRuleSet()).extracting("startPosition", "endPosition", "textType")
+      .containsExactly(tuple(0, 10, TypeOfText.KEYWORD), tuple(20, 30, TypeOfText.COMMENT));
+  }
+
+  @Test
+  public void results_on_other_components_can_not_be_replayed() {
+    DefaultInputFile otherFile = new DefaultInputFile("foo", "src/Bar.java");
+    new DefaultMeasure<Integer>(recordingStorage).onFile(otherFile).forMetric(CoreMetrics.NCLOC).withValue(8).save();
+
+    verify(storage).store(any(Measure.class));
+    assertThat(recordingStorage.recorded()).isNull();
+  }
+
+  @Test
+  public void dependencies_can_not_be_replayed() {
+    DefaultDependency dependency = mock(DefaultDependency.class);
+    recordingStorage.store(dependency);
+
+    verify(storage).store(dependency);
+    assertThat(recordingStorage.recorded()).isNull();
+  }
+
+  @Test
+  public void do_not_replay_anything_if_a_metric_is_missing() {
+    new DefaultIssue(recordingStorage).onFile(file).forRule(RuleKey.of("squid", "S0001")).save();
+    new DefaultMeasure<Integer>(recordingStorage).onFile(file).forMetric(CoreMetrics.LINES).withValue(10).save();
+
+    SensorStorage replayStorage = mock(SensorStorage.class);
+    assertThat(RecordingSensorStorage.replay(recordingStorage.recorded(), file, replayStorage, metricFinder)).isFalse();
+    verify(replayStorage, never()).store(any(Issue.class));
+  }
+
+  @Test
+  public void do_not_replay_corrupted_data() {
+    SensorStorage replayStorage = mock(SensorStorage.class);
+    assertThat(RecordingSensorStorage.replay(new byte[] {2, 0, 1}, file, replayStorage, metricFinder)).isFalse();
+  }
+}
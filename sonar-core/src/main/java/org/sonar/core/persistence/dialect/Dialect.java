@@ -87,4 +87,13 @@ public interface Dialect {
    * @since 5.0
    */
   int getScrollSingleRowFetchSize();
+
+  /**
+   * Whether the JDBC driver returns the number of rows affected by each statement of a batch. Some
+   * drivers only return {@link java.sql.Statement#SUCCESS_NO_INFO}, so conditional updates
+   * must not be batched when the update count is needed.
+   *
+   * @since 5.2
+   */
+  boolean supportsBatchUpdateCounts();
 }
@@ -46,6 +46,14 @@ public class Oracle extends AbstractDialect {
     return StringUtils.startsWithIgnoreCase(jdbcConnectionURL, "jdbc:oracle:");
   }
 
+  /**
+   * Oracle drivers prior to 12c return {@link java.sql.Statement#SUCCESS_NO_INFO} for batched statements
+   */
+  @Override
+  public boolean supportsBatchUpdateCounts() {
+    return false;
+  }
+
   public static class Oracle10gWithDecimalDialect extends Oracle10gDialect {
     public Oracle10gWithDecimalDialect() {
       super();
@@ -52,4 +52,9 @@ public class OracleTest {
     assertThat(dialect.getScrollDefaultFetchSize()).isEqualTo(200);
     assertThat(dialect.getScrollSingleRowFetchSize()).isEqualTo(1);
   }
+
+  @Test
+  public void batch_update_counts() {
+    assertThat(dialect.supportsBatchUpdateCounts()).isFalse();
+  }
 }
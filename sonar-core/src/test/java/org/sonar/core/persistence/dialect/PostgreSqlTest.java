@@ -57,4 +57,9 @@ public class PostgreSqlTest {
   public void testFetchSizeForScrolling() throws Exception {
     assertThat(dialect.getScrollDefaultFetchSize()).isEqualTo(200);
   }
+
+  @Test
+  public void batch_update_counts() {
+    assertThat(dialect.supportsBatchUpdateCounts()).isTrue();
+  }
 }
@@ -86,4 +86,22 @@ public interface SensorDescriptor {
    */
   SensorDescriptor disabledInPreview();
 
+  /**
+   * Declare that this {@link Sensor} analyzes each file independently of the others and is thread-safe.
+   * The platform may then call {@link Sensor#execute(SensorContext)} once per file, concurrently, with a
+   * context whose {@link SensorContext#fileSystem()} only contains the file to analyze.
+   * Default is to execute sensor once per module.
+   * @since 5.2
+   */
+  SensorDescriptor parallelPerFile();
+
+  /**
+   * Declare that the issues, measures and highlighting saved by this {@link Sensor} on a file only depend on the content
+   * of this file, on the active rules and on the configuration of the module. Results saved during a previous analysis
+   * may then be replayed instead of executing the sensor again on unchanged files.
+   * Implies {@link #parallelPerFile()}.
+   * @since 5.2
+   */
+  SensorDescriptor reusableResultsPerFile();
+
 }
@@ -35,6 +35,8 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
   private String[] ruleRepositories = new String[0];
   private String[] properties = new String[0];
   private boolean disabledInPreview = false;
+  private boolean parallelPerFile = false;
+  private boolean reusableResultsPerFile = false;
 
   public String name() {
     return name;
@@ -61,6 +63,14 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
     return disabledInPreview;
   }
 
+  public boolean isParallelPerFile() {
+    return parallelPerFile;
+  }
+
+  public boolean isReusableResultsPerFile() {
+    return reusableResultsPerFile;
+  }
+
   @Override
   public DefaultSensorDescriptor name(String name) {
     this.name = name;
@@ -112,4 +122,17 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
     return this;
   }
 
+  @Override
+  public DefaultSensorDescriptor parallelPerFile() {
+    this.parallelPerFile = true;
+    return this;
+  }
+
+  @Override
+  public DefaultSensorDescriptor reusableResultsPerFile() {
+    this.parallelPerFile = true;
+    this.reusableResultsPerFile = true;
+    return this;
+  }
+
 }
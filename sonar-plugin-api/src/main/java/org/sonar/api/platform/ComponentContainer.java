@@ -24,6 +24,7 @@ import org.picocontainer.Characteristics;
 import org.picocontainer.ComponentAdapter;
 import org.picocontainer.DefaultPicoContainer;
 import org.picocontainer.MutablePicoContainer;
+import org.picocontainer.PicoContainer;
 import org.picocontainer.behaviors.OptInCaching;
 import org.picocontainer.lifecycle.ReflectionLifecycleStrategy;
 import org.picocontainer.monitors.NullComponentMonitor;
@@ -63,9 +64,13 @@ public class ComponentContainer implements BatchComponent, ServerComponent {
    * Create child container
    */
   protected ComponentContainer(ComponentContainer parent) {
-    this.parent = parent;
-    this.pico = parent.pico.makeChildContainer();
+    this(parent, parent.pico.makeChildContainer());
     this.parent.child = this;
+  }
+
+  private ComponentContainer(ComponentContainer parent, MutablePicoContainer pico) {
+    this.parent = parent;
+    this.pico = pico;
     this.propertyDefinitions = parent.propertyDefinitions;
     this.componentKeys = new ComponentKeys();
     addSingleton(this);
@@ -129,7 +134,7 @@ public class ComponentContainer implements BatchComponent, ServerComponent {
       }
     } finally {
       removeChild();
-      if (parent != null) {
+      if (parent != null && parent.child == this) {
         parent.removeChild();
       }
     }
@@ -229,9 +234,23 @@ public class ComponentContainer implements BatchComponent, ServerComponent {
     return new ComponentContainer(this);
   }
 
+  /**
+   * Create a child container that is not registered into this container. It is not returned
+   * by {@link #getChild()} and it is not stopped with this container, so several detached children
+   * can be used concurrently, for example by a pool of workers. The caller must stop it.
+   * @since 5.2
+   */
+  public ComponentContainer createDetachedChild() {
+    return new ComponentContainer(this, createPicoContainer(pico));
+  }
+
   static MutablePicoContainer createPicoContainer() {
+    return createPicoContainer(null);
+  }
+
+  private static MutablePicoContainer createPicoContainer(@Nullable PicoContainer parent) {
     ReflectionLifecycleStrategy lifecycleStrategy = new ReflectionLifecycleStrategy(new NullComponentMonitor(), "start", "stop", "close");
-    return new DefaultPicoContainer(new OptInCaching(), lifecycleStrategy, null);
+    return new DefaultPicoContainer(new OptInCaching(), lifecycleStrategy, parent);
   }
 
   public ComponentContainer getParent() {
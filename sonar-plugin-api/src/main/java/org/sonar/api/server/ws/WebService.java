@@ -250,7 +250,7 @@ public interface WebService extends ServerExtension {
   class NewAction {
     private final String key;
     private String deprecatedKey, description, since;
-    private boolean post = false, isInternal = false;
+    private boolean post = false, isInternal = false, responseStreamed = false;
     private RequestHandler handler;
     private Map<String, NewParam> newParams = Maps.newHashMap();
     private URL responseExample = null;
@@ -284,6 +284,17 @@ public interface WebService extends ServerExtension {
       return this;
     }
 
+    /**
+     * Large responses are sent to client while being written, instead of being fully loaded in memory.
+     * Errors raised once the beginning of the response is sent can't be reported to client anymore.
+     *
+     * @since 5.2
+     */
+    public NewAction setResponseStreamed(boolean b) {
+      this.responseStreamed = b;
+      return this;
+    }
+
     public NewAction setHandler(RequestHandler h) {
       this.handler = h;
       return this;
@@ -373,7 +384,7 @@ public interface WebService extends ServerExtension {
   @Immutable
   class Action {
     private final String key, deprecatedKey, path, description, since;
-    private final boolean post, isInternal;
+    private final boolean post, isInternal, responseStreamed;
     private final RequestHandler handler;
     private final Map<String, Param> params;
     private final URL responseExample;
@@ -386,6 +397,7 @@ public interface WebService extends ServerExtension {
       this.since = StringUtils.defaultIfBlank(newAction.since, controller.since);
       this.post = newAction.post;
       this.isInternal = newAction.isInternal;
+      this.responseStreamed = newAction.responseStreamed;
       this.responseExample = newAction.responseExample;
 
       if (newAction.handler == null) {
@@ -433,6 +445,14 @@ public interface WebService extends ServerExtension {
       return isInternal;
     }
 
+    /**
+     * @see org.sonar.api.server.ws.WebService.NewAction#setResponseStreamed(boolean)
+     * @since 5.2
+     */
+    public boolean isResponseStreamed() {
+      return responseStreamed;
+    }
+
     public RequestHandler handler() {
       return handler;
     }
@@ -34,13 +34,26 @@ public class DefaultSensorDescriptorTest {
       .onlyOnLanguage("java")
       .onlyOnFileType(InputFile.Type.MAIN)
       .requireProperty("sonar.foo.reportPath")
-      .createIssuesForRuleRepository("squid-java");
+      .createIssuesForRuleRepository("squid-java")
+      .parallelPerFile();
 
     assertThat(descriptor.name()).isEqualTo("Foo");
     assertThat(descriptor.languages()).containsOnly("java");
     assertThat(descriptor.type()).isEqualTo(InputFile.Type.MAIN);
     assertThat(descriptor.properties()).containsOnly("sonar.foo.reportPath");
     assertThat(descriptor.ruleRepositories()).containsOnly("squid-java");
+    assertThat(descriptor.isParallelPerFile()).isTrue();
+    assertThat(new DefaultSensorDescriptor().isParallelPerFile()).isFalse();
+    assertThat(descriptor.isReusableResultsPerFile()).isFalse();
+  }
+
+  @Test
+  public void reusable_results_imply_parallel_per_file() {
+    DefaultSensorDescriptor descriptor = new DefaultSensorDescriptor();
+    descriptor.reusableResultsPerFile();
+
+    assertThat(descriptor.isReusableResultsPerFile()).isTrue();
+    assertThat(descriptor.isParallelPerFile()).isTrue();
   }
 
 }
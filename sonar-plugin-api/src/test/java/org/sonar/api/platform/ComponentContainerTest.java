@@ -136,6 +136,37 @@ public class ComponentContainerTest {
     assertThat(parent.getChild()).isNull();
   }
 
+  @Test
+  public void detached_children_are_not_registered_into_parent() {
+    ComponentContainer parent = new ComponentContainer();
+    parent.addSingleton(new StartableComponent());
+    parent.startComponents();
+    ComponentContainer registeredChild = parent.createChild();
+    registeredChild.startComponents();
+
+    ComponentContainer detachedChild1 = parent.createDetachedChild();
+    detachedChild1.addSingleton(StartableComponent.class);
+    detachedChild1.startComponents();
+    ComponentContainer detachedChild2 = parent.createDetachedChild();
+    detachedChild2.startComponents();
+
+    assertThat(parent.getChild()).isSameAs(registeredChild);
+    assertThat(detachedChild1.getParent()).isSameAs(parent);
+    assertThat(detachedChild1.getComponentByType(ComponentContainer.class)).isSameAs(detachedChild1);
+    assertThat(detachedChild1.getComponentByType(StartableComponent.class)).isNotSameAs(parent.getComponentByType(StartableComponent.class));
+    assertThat(detachedChild2.getComponentByType(StartableComponent.class)).isSameAs(parent.getComponentByType(StartableComponent.class));
+
+    // stopping a detached child does not stop the parent nor detach its registered child
+    StartableComponent detachedComponent = detachedChild1.getComponentByType(StartableComponent.class);
+    detachedChild1.stopComponents();
+    assertThat(detachedComponent.stopped).isTrue();
+    assertThat(parent.getComponentByType(StartableComponent.class).stopped).isFalse();
+    assertThat(parent.getChild()).isSameAs(registeredChild);
+
+    detachedChild2.stopComponents();
+    parent.stopComponents();
+  }
+
   @Test
   public void shouldForwardStartAndStopToDescendants() {
     ComponentContainer grandParent = new ComponentContainer();
@@ -46,6 +46,7 @@ public class WebServiceTest {
 
       newController.createAction("show")
         .setDescription("Show metric")
+        .setResponseStreamed(true)
         .setHandler(new RequestHandler() {
           @Override
           public void handle(Request request, Response response) {
@@ -112,6 +113,7 @@ public class WebServiceTest {
     assertThat(showAction.since()).isEqualTo("3.2");
     assertThat(showAction.isPost()).isFalse();
     assertThat(showAction.isInternal()).isFalse();
+    assertThat(showAction.isResponseStreamed()).isTrue();
     assertThat(showAction.path()).isEqualTo("api/metric/show");
     WebService.Action createAction = controller.action("create");
     assertThat(createAction).isNotNull();
@@ -121,6 +123,7 @@ public class WebServiceTest {
     assertThat(createAction.since()).isEqualTo("4.1");
     assertThat(createAction.isPost()).isTrue();
     assertThat(createAction.isInternal()).isTrue();
+    assertThat(createAction.isResponseStreamed()).isFalse();
   }
 
   @Test